@@ -0,0 +1,158 @@
+package com.hms_networks.sc.cumulocity;
+
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Logging facade for the connector's hot paths. The extensions library {@link Logger} only checks
+ * the log level after the log message has been built, so messages which include payloads or many
+ * concatenated values are built even when they are discarded. This class records the configured
+ * log level so that callers can check it before building such messages, builds truncated payload
+ * previews, and rate-limits repeated messages (such as per-message publish failures) by key.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 1.5.0
+ */
+public class CConnectorLogger {
+
+  /** Value returned by {@link #acquireRateLimitedLog(String)} when a message is suppressed. */
+  public static final int RATE_LIMITED = -1;
+
+  /** The maximum number of payload characters included in a payload preview. */
+  private static final int PAYLOAD_PREVIEW_MAX_LENGTH = 256;
+
+  /** The time (in milliseconds) during which a rate-limited message key is logged only once. */
+  private static final long RATE_LIMIT_WINDOW_MILLIS = 60000;
+
+  /**
+   * The maximum number of rate-limited message keys tracked. If exceeded, the tracked keys are
+   * cleared. Keys are expected to be constants, so this is only a safeguard.
+   */
+  private static final int RATE_LIMIT_MAX_KEYS = 128;
+
+  /** The configured log level. Defaults to trace until the configured log level is applied. */
+  private static volatile int logLevel = Logger.LOG_LEVEL_TRACE;
+
+  /** Map of rate-limited message keys to their {@link RateLimitState}. */
+  private static final Map rateLimitStates = new HashMap(); // Map<String, RateLimitState>
+
+  /** Private constructor to prevent instantiation of static utility class. */
+  private CConnectorLogger() {}
+
+  /**
+   * Sets the log level of the extensions library {@link Logger} and records it for level checks.
+   *
+   * @param level log level to set
+   * @return true if the log level was set successfully, otherwise false
+   */
+  public static boolean setLogLevel(int level) {
+    boolean logLevelSetSuccess = Logger.SET_LOG_LEVEL(level);
+    if (logLevelSetSuccess) {
+      logLevel = level;
+    }
+    return logLevelSetSuccess;
+  }
+
+  /**
+   * Gets a boolean indicating if messages of the specified log level will be logged. Negative log
+   * levels, which output to log files, are compared by their absolute value.
+   *
+   * @param level log level of the message
+   * @return true if messages of the log level will be logged, otherwise false
+   */
+  public static boolean isLevelEnabled(int level) {
+    return Math.abs(level) <= Math.abs(logLevel);
+  }
+
+  /**
+   * Gets a boolean indicating if debug messages will be logged.
+   *
+   * @return true if debug messages will be logged, otherwise false
+   */
+  public static boolean isDebugEnabled() {
+    return isLevelEnabled(Logger.LOG_LEVEL_DEBUG);
+  }
+
+  /**
+   * Gets a boolean indicating if info messages will be logged.
+   *
+   * @return true if info messages will be logged, otherwise false
+   */
+  public static boolean isInfoEnabled() {
+    return isLevelEnabled(Logger.LOG_LEVEL_INFO);
+  }
+
+  /**
+   * Gets a preview of the specified payload for logging. Payloads longer than {@link
+   * #PAYLOAD_PREVIEW_MAX_LENGTH} are truncated, and the number of omitted characters is appended.
+   *
+   * @param payload payload to preview (may be null)
+   * @return preview of the payload
+   */
+  public static String previewPayload(String payload) {
+    if (payload == null || payload.length() <= PAYLOAD_PREVIEW_MAX_LENGTH) {
+      return payload;
+    }
+    return payload.substring(0, PAYLOAD_PREVIEW_MAX_LENGTH)
+        + "... ("
+        + (payload.length() - PAYLOAD_PREVIEW_MAX_LENGTH)
+        + " more characters)";
+  }
+
+  /**
+   * Checks if a rate-limited message with the specified key may be logged now. A message key is
+   * logged at most once per {@link #RATE_LIMIT_WINDOW_MILLIS}, and messages in between are counted
+   * as suppressed. Callers should only build and log the message if the returned value is not
+   * {@link #RATE_LIMITED}.
+   *
+   * @param messageKey key which identifies the repeated message
+   * @return {@link #RATE_LIMITED} if the message should be suppressed, otherwise the number of
+   *     messages with the key suppressed since it was last logged
+   */
+  public static synchronized int acquireRateLimitedLog(String messageKey) {
+    long nowMillis = System.currentTimeMillis();
+    RateLimitState state = (RateLimitState) rateLimitStates.get(messageKey);
+    if (state == null) {
+      if (rateLimitStates.size() >= RATE_LIMIT_MAX_KEYS) {
+        rateLimitStates.clear();
+      }
+      state = new RateLimitState();
+      rateLimitStates.put(messageKey, state);
+    } else if (nowMillis >= state.lastLoggedMillis
+        && nowMillis - state.lastLoggedMillis < RATE_LIMIT_WINDOW_MILLIS) {
+      state.suppressedCount++;
+      return RATE_LIMITED;
+    }
+
+    int suppressedCount = state.suppressedCount;
+    state.lastLoggedMillis = nowMillis;
+    state.suppressedCount = 0;
+    return suppressedCount;
+  }
+
+  /**
+   * Gets the suffix to append to a rate-limited message to report the number of suppressed
+   * messages.
+   *
+   * @param suppressedCount number of suppressed messages returned by {@link
+   *     #acquireRateLimitedLog(String)}
+   * @return suffix for the message, or an empty string if no messages were suppressed
+   */
+  public static String getSuppressedSuffix(int suppressedCount) {
+    if (suppressedCount <= 0) {
+      return "";
+    }
+    return " [" + suppressedCount + " similar messages suppressed]";
+  }
+
+  /** Rate limiting state of a single message key. */
+  private static class RateLimitState {
+
+    /** Time (in milliseconds since epoch) the message key was last logged. */
+    private long lastLoggedMillis = 0;
+
+    /** Number of messages with the key suppressed since it was last logged. */
+    private int suppressedCount = 0;
+  }
+}
@@ -26,6 +26,7 @@ import com.hms_networks.sc.cumulocity.api.CConnectorWebApiListener;
 import com.hms_networks.sc.cumulocity.config.CConnectorConfigFile;
 import com.hms_networks.sc.cumulocity.data.CConnectorAlarmMgr;
 import com.hms_networks.sc.cumulocity.data.CConnectorDataMgr;
+import com.hms_networks.sc.cumulocity.data.CConnectorRealtimeMgr;
 import com.hms_networks.sc.cumulocity.inventory.InventoryUpdateEvtHandler;
 import com.hms_networks.sc.cumulocity.inventory.InventoryUpdateManager;
 import java.util.Date;
@@ -379,7 +380,7 @@ public class CConnectorMain {
       Logger.LOG_EXCEPTION(e);
       initializeSuccess = false;
     }
-    boolean logLevelSetSuccess = Logger.SET_LOG_LEVEL(connectorLogLevel);
+    boolean logLevelSetSuccess = CConnectorLogger.setLogLevel(connectorLogLevel);
     if (!logLevelSetSuccess) {
       Logger.LOG_CRITICAL(
           "The log level specified in the connector configuration file is invalid! Please "
@@ -462,6 +463,15 @@ public class CConnectorMain {
       initializeSuccess = false;
     }
 
+    // Configure tag group poll schedules and queue prefetching
+    try {
+      CConnectorDataMgr.configureQueuePolling();
+    } catch (Exception e) {
+      Logger.LOG_CRITICAL("Failed to configure the tag group poll schedules and prefetching!");
+      Logger.LOG_EXCEPTION(e);
+      initializeSuccess = false;
+    }
+
     // Configure queue diagnostic tags option
     try {
       Logger.LOG_CRITICAL(
@@ -533,6 +543,7 @@ public class CConnectorMain {
     if (isRunning) {
       try {
         alarmMgr = new CConnectorAlarmMgr();
+        CConnectorAlarmMgr.refreshAlarmRoutingIfDue();
         Logger.LOG_CRITICAL("Created the tag alarm manager.");
       } catch (Exception e) {
         Logger.LOG_CRITICAL("Failed to create the tag alarm manager!");
@@ -552,6 +563,16 @@ public class CConnectorMain {
       }
     }
 
+    // Set up realtime lane - triggered by tag value event listeners
+    if (isRunning) {
+      try {
+        CConnectorRealtimeMgr.setup(connectorConfig.getRealtimeTagNames());
+      } catch (Exception e) {
+        Logger.LOG_CRITICAL("Failed to setup realtime tag event listeners!");
+        Logger.LOG_EXCEPTION(e);
+      }
+    }
+
     // Configure the application watchdog (if shutdown/restart not already requested)
     if (isRunning) {
       RuntimeControl.configureAppWatchdog(APP_WATCHDOG_TIMEOUT_MIN);
@@ -581,6 +602,26 @@ public class CConnectorMain {
       Logger.LOG_DEBUG("Measurements disabled, skipping data processing.");
     }
 
+    // Send held alarm changes which are ready (alarm storm protection), and keep the alarm routing
+    // up to date with the tag configuration
+    try {
+      CConnectorAlarmMgr.sendReadyAlarms();
+      CConnectorAlarmMgr.refreshAlarmRoutingIfDue();
+    } catch (Exception e) {
+      Logger.LOG_CRITICAL("Unable to send held alarm changes to Cumulocity.");
+      Logger.LOG_EXCEPTION(e);
+    }
+
+    // Send queued outbound messages which were deferred by the publish rate limit
+    if (mqttMgr != null) {
+      try {
+        mqttMgr.drainOutboundMessages();
+      } catch (Exception e) {
+        Logger.LOG_CRITICAL("Unable to send queued messages to Cumulocity.");
+        Logger.LOG_EXCEPTION(e);
+      }
+    }
+
     // Update connector control tag value
     if (connectorControlTag != null && isRunning) {
       isRunning = (connectorControlTag.getTagValueAsInt() == CONNECTOR_CONTROL_TAG_RUN_VALUE);
@@ -592,9 +633,15 @@ public class CConnectorMain {
     Logger.LOG_CRITICAL("Shutting down " + CONNECTOR_FRIENDLY_NAME + "...");
     boolean shutDownClean = true;
 
-    // Disconnect from MQTT
+    // Stop reading ahead from the historical log and send the data already read
+    CConnectorDataMgr.shutdownQueuePrefetcher(mqttMgr);
+
+    // Stop handling operations, send queued outbound messages (such as operation responses), then
+    // disconnect from MQTT
     if (mqttMgr != null) {
       try {
+        mqttMgr.shutdownOperationExecutor();
+        mqttMgr.drainOutboundMessages();
         mqttMgr.stop();
       } catch (Exception e) {
         Logger.LOG_CRITICAL("Unable to disconnect from MQTT.");
@@ -627,6 +674,9 @@ public class CConnectorMain {
     // Unregister inventory update tag value event listener
     InventoryUpdateEvtHandler.shutdown();
 
+    // Unregister realtime tag value event listeners
+    CConnectorRealtimeMgr.shutdown();
+
     // Disable app watchdog
     final int watchDogTimeoutDisabled = 0;
     RuntimeControl.configureAppWatchdog(watchDogTimeoutDisabled);
@@ -6,19 +6,23 @@ import com.ewon.ewonitf.ScheduledActionManager;
 import com.ewon.ewonitf.TagControl;
 import com.hms_networks.americas.sc.extensions.fileutils.FileAccessManager;
 import com.hms_networks.americas.sc.extensions.json.JSONException;
+import com.hms_networks.americas.sc.extensions.json.JSONObject;
 import com.hms_networks.americas.sc.extensions.logging.Logger;
 import com.hms_networks.americas.sc.extensions.string.StringUtils;
 import com.hms_networks.americas.sc.extensions.system.application.SCAppManagement;
 import com.hms_networks.americas.sc.extensions.system.http.SCHttpUtility;
-import com.hms_networks.americas.sc.extensions.taginfo.TagInfo;
-import com.hms_networks.americas.sc.extensions.taginfo.TagInfoManager;
-import com.hms_networks.americas.sc.extensions.taginfo.TagType;
 import com.hms_networks.americas.sc.extensions.util.Base64;
 import com.hms_networks.sc.cumulocity.CConnectorMain;
+import com.hms_networks.sc.cumulocity.data.CConnectorDataMgr;
 import com.hms_networks.sc.cumulocity.data.CConnectorTagName;
 import java.io.File;
 import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
 
 /**
  * Helper class for parsing and handling MQTT payloads corresponding to the available subscribe
@@ -122,6 +126,29 @@ public class CConnectorApiMessageReader {
       "Unable to process measurements enable/disable command from Cumulocity because the value was "
           + "not in the expected format (enable/disable).";
 
+  /**
+   * The response string used to indicate a failed operation due to an exception while reading or
+   * sending the current tag values.
+   */
+  public static final String RESPONSE_MEASUREMENT_SNAPSHOT_EXCEPTION =
+      "Unable to read and send the current tag values due to an exception.";
+
+  /**
+   * The response string used to indicate a failed backfill operation due to an invalid time range
+   * or tag group.
+   */
+  public static final String RESPONSE_BACKFILL_FORMAT =
+      "Unable to process backfill operation from Cumulocity because the time range or tag group "
+          + "was not in the expected format.";
+
+  /**
+   * The response string used to indicate a failed backfill operation because the backfill time
+   * range could not be stored.
+   */
+  public static final String RESPONSE_BACKFILL_STORE_ERROR =
+      "Unable to process backfill operation from Cumulocity because the time range could not be "
+          + "stored.";
+
   /**
    * The name of the temporary file used to indicate that the connector is restarting due to a
    * c8y_Restart operation.
@@ -154,9 +181,166 @@ public class CConnectorApiMessageReader {
   /** The Cumulocity operation ID for a command operation. */
   public static final String CUMULOCITY_RUN_COMMAND_OPERATION_ID = "c8y_Command";
 
+  /** The Cumulocity operation ID for a measurement request operation. */
+  public static final String CUMULOCITY_MEASUREMENT_REQUEST_OPERATION_ID =
+      "c8y_MeasurementRequestOperation";
+
   /** The Cumulocity operation ID for a software operation. */
   public static final String CUMULOCITY_SOFTWARE_OPERATION_ID = "c8y_Software";
 
+  /**
+   * The Cumulocity operation ID for a backfill operation. Backfill operations have no static
+   * template, and are received as JSON operations.
+   */
+  public static final String CUMULOCITY_BACKFILL_OPERATION_ID = "c8y_Backfill";
+
+  /** The key of the start time of a backfill operation. */
+  private static final String BACKFILL_KEY_DATE_FROM = "dateFrom";
+
+  /** The key of the end time of a backfill operation. */
+  private static final String BACKFILL_KEY_DATE_TO = "dateTo";
+
+  /** The key of the (optional) tag group of a backfill operation. */
+  private static final String BACKFILL_KEY_TAG_GROUP = "tagGroup";
+
+  /** The format of the UTC times of a backfill operation (fractions and zone are ignored). */
+  private static final String BACKFILL_TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss";
+
+  /** The SmartREST template ID of error response messages. */
+  public static final int TEMPLATE_ID_ERROR_RESPONSE = 41;
+
+  /** The SmartREST template ID of restart operation messages. */
+  public static final int TEMPLATE_ID_RESTART_DEVICE = 510;
+
+  /** The SmartREST template ID of command operation messages. */
+  public static final int TEMPLATE_ID_RUN_COMMAND = 511;
+
+  /** The SmartREST template ID of configuration operation messages. */
+  public static final int TEMPLATE_ID_SET_CONFIGURATION = 513;
+
+  /** The SmartREST template ID of firmware operation messages. */
+  public static final int TEMPLATE_ID_INSTALL_FIRMWARE = 515;
+
+  /** The SmartREST template ID of measurement request operation messages. */
+  public static final int TEMPLATE_ID_MEASUREMENT_REQUEST = 517;
+
+  /** The separator between the tag names of a measurement request. */
+  private static final String MEASUREMENT_REQUEST_TAG_SEPARATOR = " ";
+
+  /** The separator between the commands of a batch of set/setf commands. */
+  private static final String COMMAND_LINE_SEPARATOR = "\n";
+
+  /** Cache of tag handles and types for tags written by set/setf commands. */
+  private static final CConnectorTagWriteCache TAG_WRITE_CACHE = new CConnectorTagWriteCache();
+
+  /** The largest SmartREST template ID which can be registered in the {@link #HANDLER_TABLE}. */
+  private static final int MAX_TEMPLATE_ID = 999;
+
+  /** Table of registered message handlers, indexed by SmartREST template ID. */
+  private static final CConnectorSmartRestHandler[] HANDLER_TABLE =
+      new CConnectorSmartRestHandler[MAX_TEMPLATE_ID + 1];
+
+  static {
+    registerHandler(
+        TEMPLATE_ID_ERROR_RESPONSE,
+        new CConnectorSmartRestHandler() {
+          public void handleMessage(
+              CConnectorMqttMgr mqttMgr,
+              String mqttTopic,
+              CConnectorSmartRestMessage message,
+              String expectedDeviceId) {
+            parseErrorResponse(mqttMgr, mqttTopic, message, expectedDeviceId);
+          }
+        });
+    registerHandler(
+        TEMPLATE_ID_RESTART_DEVICE,
+        new CConnectorSmartRestHandler(CUMULOCITY_RESTART_OPERATION_ID) {
+          public void handleMessage(
+              CConnectorMqttMgr mqttMgr,
+              String mqttTopic,
+              CConnectorSmartRestMessage message,
+              String expectedDeviceId) {
+            restartDevice_510(mqttMgr, mqttTopic, message, expectedDeviceId);
+          }
+        });
+    registerHandler(
+        TEMPLATE_ID_RUN_COMMAND,
+        new CConnectorSmartRestHandler(CUMULOCITY_RUN_COMMAND_OPERATION_ID) {
+          public void handleMessage(
+              CConnectorMqttMgr mqttMgr,
+              String mqttTopic,
+              CConnectorSmartRestMessage message,
+              String expectedDeviceId) {
+            runCommand_511(mqttMgr, mqttTopic, message, expectedDeviceId);
+          }
+        });
+    registerHandler(
+        TEMPLATE_ID_SET_CONFIGURATION,
+        new CConnectorSmartRestHandler(CUMULOCITY_CONFIGURATION_OPERATION_ID) {
+          public void handleMessage(
+              CConnectorMqttMgr mqttMgr,
+              String mqttTopic,
+              CConnectorSmartRestMessage message,
+              String expectedDeviceId) {
+            setConfiguration_513(mqttMgr, mqttTopic, message, expectedDeviceId);
+          }
+        });
+    registerHandler(
+        TEMPLATE_ID_INSTALL_FIRMWARE,
+        new CConnectorSmartRestHandler(CUMULOCITY_FIRMWARE_OPERATION_ID) {
+          public void handleMessage(
+              CConnectorMqttMgr mqttMgr,
+              String mqttTopic,
+              CConnectorSmartRestMessage message,
+              String expectedDeviceId) {
+            installFirmware_515(mqttMgr, mqttTopic, message, expectedDeviceId);
+          }
+        });
+    registerHandler(
+        TEMPLATE_ID_MEASUREMENT_REQUEST,
+        new CConnectorSmartRestHandler(CUMULOCITY_MEASUREMENT_REQUEST_OPERATION_ID) {
+          public void handleMessage(
+              CConnectorMqttMgr mqttMgr,
+              String mqttTopic,
+              CConnectorSmartRestMessage message,
+              String expectedDeviceId) {
+            measurementRequestOperation_517(mqttMgr, mqttTopic, message, expectedDeviceId);
+          }
+        });
+  }
+
+  /**
+   * Registers the specified handler for messages with the specified SmartREST template ID,
+   * replacing any handler previously registered for the template ID.
+   *
+   * @param templateId SmartREST template ID, from 0 to {@link #MAX_TEMPLATE_ID}
+   * @param handler handler for messages with the template ID
+   * @throws IllegalArgumentException if the template ID is out of range
+   */
+  public static void registerHandler(int templateId, CConnectorSmartRestHandler handler) {
+    if (templateId < 0 || templateId > MAX_TEMPLATE_ID) {
+      throw new IllegalArgumentException("Invalid SmartREST template ID: " + templateId);
+    }
+    synchronized (HANDLER_TABLE) {
+      HANDLER_TABLE[templateId] = handler;
+    }
+  }
+
+  /**
+   * Gets the handler registered for the specified SmartREST template ID.
+   *
+   * @param templateId SmartREST template ID
+   * @return registered handler, or null if no handler is registered for the template ID
+   */
+  private static CConnectorSmartRestHandler getHandler(int templateId) {
+    if (templateId < 0 || templateId > MAX_TEMPLATE_ID) {
+      return null;
+    }
+    synchronized (HANDLER_TABLE) {
+      return HANDLER_TABLE[templateId];
+    }
+  }
+
   /**
    * Method to finalize any operations which required a reboot to apply changes or complete, and
    * report their status to Cumulocity.
@@ -262,7 +446,7 @@ public class CConnectorApiMessageReader {
 
   /**
    * Parses and handles the specified MQTT message which was received on the specified {@link
-   * CConnectorMqttMgr}, then returns a String result indicating success or failure reason.
+   * CConnectorMqttMgr}.
    *
    * @param mqttMgr MQTT manager that received the message
    * @param mqttTopic MQTT topic on which the message was received
@@ -271,22 +455,49 @@ public class CConnectorApiMessageReader {
    */
   public static void parseMessage(
       CConnectorMqttMgr mqttMgr, String mqttTopic, String message, String expectedDeviceId) {
-    if (isErrorResponse(message)) {
-      parseErrorResponse(mqttMgr, mqttTopic, message, expectedDeviceId);
-    } else if (isRestartDevice_510(message)) {
-      restartDevice_510(mqttMgr, mqttTopic, message, expectedDeviceId);
-    } else if (isRunCommand_511(message)) {
-      runCommand_511(mqttMgr, mqttTopic, message, expectedDeviceId);
-    } else if (isSetConfiguration_513(message)) {
-      setConfiguration_513(mqttMgr, mqttTopic, message, expectedDeviceId);
-    } else if (isInstallFirmware_515(message)) {
-      installFirmware_515(mqttMgr, mqttTopic, message, expectedDeviceId);
+    dispatchMessage(
+        mqttMgr, mqttTopic, new CConnectorSmartRestMessage().parse(message), expectedDeviceId);
+  }
+
+  /**
+   * Handles the specified tokenized MQTT message which was received on the specified {@link
+   * CConnectorMqttMgr}, using the handler registered for its template ID.
+   *
+   * @param mqttMgr MQTT manager that received the message
+   * @param mqttTopic MQTT topic on which the message was received
+   * @param message tokenized message received on the MQTT manager
+   * @param expectedDeviceId expected device ID of the message
+   */
+  public static void dispatchMessage(
+      CConnectorMqttMgr mqttMgr,
+      String mqttTopic,
+      CConnectorSmartRestMessage message,
+      String expectedDeviceId) {
+    CConnectorSmartRestHandler handler = getHandler(message.getTemplateId());
+    if (handler != null) {
+      handler.handleMessage(mqttMgr, mqttTopic, message, expectedDeviceId);
     } else {
       Logger.LOG_SERIOUS(
-          "An unknown message or operation was received from Cumulocity: " + message);
+          "An unknown message or operation was received from Cumulocity: " + message.getMessage());
     }
   }
 
+  /**
+   * Gets the Cumulocity operation ID (fragment) of the specified operation message, used to report
+   * the status of the operation.
+   *
+   * @param message operation message received from Cumulocity
+   * @return operation ID of the message, or null if the message is not a supported operation
+   */
+  public static String getOperationId(String message) {
+    if (isBackfillOperation(message)) {
+      return CUMULOCITY_BACKFILL_OPERATION_ID;
+    }
+    CConnectorSmartRestHandler handler =
+        getHandler(CConnectorSmartRestMessage.parseTemplateId(message));
+    return handler != null ? handler.getOperationId() : null;
+  }
+
   /**
    * Gets a boolean indicating if the specified message is a valid error response message.
    *
@@ -294,25 +505,28 @@ public class CConnectorApiMessageReader {
    * @return true if the specified message is a valid error response message, false otherwise
    */
   public static boolean isErrorResponse(String message) {
-    return message.startsWith("41,");
+    return CConnectorSmartRestMessage.parseTemplateId(message) == TEMPLATE_ID_ERROR_RESPONSE;
   }
 
   /**
-   * Parses a specified error response message and logs it to the realtime logs.
+   * Parses a specified error response message, logs it to the realtime logs and reports it to the
+   * MQTT manager so that publishing can be adjusted.
    *
    * @param mqttMgr MQTT manager that received the error message
    * @param mqttTopic MQTT topic on which the message was received
-   * @param message error message received on the MQTT manager
+   * @param message tokenized error message received on the MQTT manager
    * @param expectedDeviceId expected device ID of the message
    */
   public static void parseErrorResponse(
-      CConnectorMqttMgr mqttMgr, String mqttTopic, String message, String expectedDeviceId) {
+      CConnectorMqttMgr mqttMgr,
+      String mqttTopic,
+      CConnectorSmartRestMessage message,
+      String expectedDeviceId) {
     // Extract errored template number and reason
     final int erroredTemplateIndex = 1;
     final int erroredTemplateReasonIndex = 2;
-    List parts = StringUtils.split(message, ",");
-    String erroredTemplate = (String) parts.get(erroredTemplateIndex);
-    String erroredTemplateReason = (String) parts.get(erroredTemplateReasonIndex);
+    String erroredTemplate = message.getField(erroredTemplateIndex);
+    String erroredTemplateReason = message.getField(erroredTemplateReasonIndex);
 
     // Log errored template and reason
     Logger.LOG_SERIOUS(
@@ -320,6 +534,9 @@ public class CConnectorApiMessageReader {
             + erroredTemplate
             + "]: "
             + erroredTemplateReason);
+
+    // Classify and count the error, and adjust publishing accordingly
+    mqttMgr.onCumulocityErrorResponse(erroredTemplate, erroredTemplateReason);
   }
 
   /**
@@ -332,16 +549,6 @@ public class CConnectorApiMessageReader {
     return false;
   }
 
-  /**
-   * Gets a boolean indicating if the specified message is a valid 510/restart device message.
-   *
-   * @param message message to be checked
-   * @return true if the specified message is a valid 510/restart device message, false otherwise
-   */
-  public static boolean isRestartDevice_510(String message) {
-    return message.startsWith("510");
-  }
-
   /**
    * Parses a specified 510/restart device message and returns a boolean indicating if the device ID
    * matches.
@@ -352,19 +559,18 @@ public class CConnectorApiMessageReader {
    * @param expectedDeviceId expected ID of the device to be restarted
    */
   public static void restartDevice_510(
-      CConnectorMqttMgr mqttMgr, String mqttTopic, String message, String expectedDeviceId) {
-    // Extract device ID from message
-    final int deviceIdIndex = 1;
-    List parts = StringUtils.split(message, ",");
-    String deviceId = (String) parts.get(deviceIdIndex);
-
+      CConnectorMqttMgr mqttMgr,
+      String mqttTopic,
+      CConnectorSmartRestMessage message,
+      String expectedDeviceId) {
     // Update state to executing
     String operationResponsePayloadExecuting =
         CConnectorApiMessageBuilder.setOperationToExecuting_501(CUMULOCITY_RESTART_OPERATION_ID);
     mqttMgr.sendOperationResponse(mqttTopic, operationResponsePayloadExecuting);
 
     // Check if device ID matches
-    if (deviceId.equals(expectedDeviceId)) {
+    final int deviceIdIndex = 1;
+    if (message.fieldEquals(deviceIdIndex, expectedDeviceId)) {
       // Create temporary file to store in progress reboot operation information
       try {
         FileAccessManager.writeStringToFile(TEMPORARY_RESTART_FILE_PATH, mqttTopic);
@@ -386,16 +592,6 @@ public class CConnectorApiMessageReader {
     }
   }
 
-  /**
-   * Gets a boolean indicating if the specified message is a valid 511/runCommand device message.
-   *
-   * @param message message to be checked
-   * @return true if the specified message is a valid 511/runCommand device message, false otherwise
-   */
-  public static boolean isRunCommand_511(String message) {
-    return message.startsWith("511");
-  }
-
   /**
    * Parses a specified 511/runCommand device message and returns a boolean indicating if the device
    * ID matches.
@@ -406,24 +602,20 @@ public class CConnectorApiMessageReader {
    * @param expectedDeviceId expected ID of the device to run command on
    */
   public static void runCommand_511(
-      CConnectorMqttMgr mqttMgr, String mqttTopic, String message, String expectedDeviceId) {
+      CConnectorMqttMgr mqttMgr,
+      String mqttTopic,
+      CConnectorSmartRestMessage message,
+      String expectedDeviceId) {
     // Update state to executing
     String operationResponsePayloadExecuting =
         CConnectorApiMessageBuilder.setOperationToExecuting_501(
             CUMULOCITY_RUN_COMMAND_OPERATION_ID);
     mqttMgr.sendOperationResponse(mqttTopic, operationResponsePayloadExecuting);
 
-    // Extract message parts
+    // Extract message parts (quotes around the command are removed by the tokenizer)
     final int deviceIdIndex = 1;
     final int commandIndex = 2;
-    List parts = StringUtils.split(message, ",");
-    String deviceId = (String) parts.get(deviceIdIndex);
-    String command = (String) parts.get(commandIndex);
-
-    // Remove quotes around command, if present
-    if (command.startsWith("\"") && command.endsWith("\"")) {
-      command = command.substring(1, command.length() - 1);
-    }
+    String command = message.getField(commandIndex);
 
     List topicParts = StringUtils.split(mqttTopic, "/");
     String childDeviceName;
@@ -437,7 +629,7 @@ public class CConnectorApiMessageReader {
     List commandParts = StringUtils.split(command, " ");
 
     // Execute command
-    boolean deviceIdMatches = deviceId.equals(expectedDeviceId);
+    boolean deviceIdMatches = message.fieldEquals(deviceIdIndex, expectedDeviceId);
     if (deviceIdMatches) {
       Logger.LOG_SERIOUS(
           "Executing command: "
@@ -446,89 +638,23 @@ public class CConnectorApiMessageReader {
               + expectedDeviceId
               + (childDeviceName != null ? " (" + childDeviceName + ")" : ""));
 
-      // Check if set/setf tag command
+      // Check if set/setf tag command, or a batch of set/setf tag commands (one per line)
       if (command.startsWith("set") || command.startsWith("setf")) {
-        String tagName;
-        String tagValue;
-        try {
-          if (command.startsWith("setf")) {
-            tagName =
-                (String) commandParts.get(1)
-                    + CConnectorTagName.SPLIT_TAG_NAME_DELIMITER
-                    + (String) commandParts.get(2);
-            tagValue = (String) commandParts.get(3);
+        if (command.indexOf(COMMAND_LINE_SEPARATOR) >= 0) {
+          runSetCommandBatch(mqttMgr, mqttTopic, command, childDeviceName);
+        } else {
+          String failureReason = runSetCommand(command, childDeviceName);
+          String operationResponsePayload;
+          if (failureReason == null) {
+            operationResponsePayload =
+                CConnectorApiMessageBuilder.setOperationToSuccessful_503(
+                    CUMULOCITY_RUN_COMMAND_OPERATION_ID, new String[] {RESPONSE_SUCCESS});
           } else {
-            tagName = (String) commandParts.get(1);
-            tagValue = (String) commandParts.get(2);
-          }
-
-          // Append child device name if present/applicable
-          if (childDeviceName != null) {
-            tagName = childDeviceName + CConnectorTagName.SPLIT_TAG_NAME_DELIMITER + tagName;
-          }
-        } catch (IndexOutOfBoundsException e) {
-          tagName = null;
-          tagValue = null;
-        }
-
-        // Only continue if tag name and value are not null (command format was parsable)
-        if (tagName != null && tagValue != null) {
-          // Check if tag name is valid
-          TagControl tagControl = null;
-          try {
-            tagControl = new TagControl(tagName);
-          } catch (Exception e) {
-            Logger.LOG_WARN(RESPONSE_UNABLE_SET_COMMAND_NO_TAG_CTRL);
-            Logger.LOG_EXCEPTION(e);
-            String operationResponsePayload =
-                CConnectorApiMessageBuilder.setOperationToFailed_502(
-                    CUMULOCITY_RUN_COMMAND_OPERATION_ID, RESPONSE_UNABLE_SET_COMMAND_NO_TAG_CTRL);
-            mqttMgr.sendOperationResponse(mqttTopic, operationResponsePayload);
-          }
-
-          // Check if tag value is valid
-          try {
-            if (tagControl != null) {
-              int tagId = tagControl.getTagId();
-              TagInfo tagInfoForId = TagInfoManager.getTagInfoFromTagId(tagId);
-              if (tagInfoForId.getType() == TagType.BOOLEAN) {
-                int tagValueInt;
-                if (tagValue.equalsIgnoreCase("true") || tagValue.equalsIgnoreCase("false")) {
-                  tagValueInt = tagValue.equalsIgnoreCase("true") ? 1 : 0;
-                } else {
-                  tagValueInt = Integer.parseInt(tagValue);
-                }
-                tagControl.setTagValueAsInt(tagValueInt);
-              } else if (tagInfoForId.getType() == TagType.STRING) {
-                tagControl.setTagValueAsString(tagValue);
-              } else if (tagInfoForId.getType() == TagType.DWORD) {
-                long tagValueLong = Long.valueOf(tagValue).longValue();
-                tagControl.setTagValueAsLong(tagValueLong);
-              } else if (tagInfoForId.getType() == TagType.FLOAT) {
-                double tagValueDouble = Double.valueOf(tagValue).doubleValue();
-                tagControl.setTagValueAsDouble(tagValueDouble);
-              } else {
-                int tagValueInt = Integer.parseInt(tagValue);
-                tagControl.setTagValueAsInt(tagValueInt);
-              }
-              String operationResponsePayload =
-                  CConnectorApiMessageBuilder.setOperationToSuccessful_503(
-                      CUMULOCITY_RUN_COMMAND_OPERATION_ID, new String[] {RESPONSE_SUCCESS});
-              mqttMgr.sendOperationResponse(mqttTopic, operationResponsePayload);
-            }
-          } catch (Exception e) {
-            Logger.LOG_WARN(RESPONSE_UNABLE_SET_COMMAND_EXCEPTION);
-            Logger.LOG_EXCEPTION(e);
-            String operationResponsePayload =
+            Logger.LOG_WARN(failureReason);
+            operationResponsePayload =
                 CConnectorApiMessageBuilder.setOperationToFailed_502(
-                    CUMULOCITY_RUN_COMMAND_OPERATION_ID, RESPONSE_UNABLE_SET_COMMAND_EXCEPTION);
-            mqttMgr.sendOperationResponse(mqttTopic, operationResponsePayload);
+                    CUMULOCITY_RUN_COMMAND_OPERATION_ID, failureReason);
           }
-        } else {
-          Logger.LOG_WARN(RESPONSE_UNABLE_SET_COMMAND_FORMAT);
-          String operationResponsePayload =
-              CConnectorApiMessageBuilder.setOperationToFailed_502(
-                  CUMULOCITY_RUN_COMMAND_OPERATION_ID, RESPONSE_UNABLE_SET_COMMAND_FORMAT);
           mqttMgr.sendOperationResponse(mqttTopic, operationResponsePayload);
         }
       } else if (command.startsWith("measurements")) {
@@ -585,15 +711,119 @@ public class CConnectorApiMessageReader {
   }
 
   /**
-   * Gets a boolean indicating if the specified message is a valid 513/setConfiguration device
-   * message.
+   * Runs the specified batch of set/setf commands, one command per line, and reports a single
+   * combined result to Cumulocity. Each command is run even if a previous command failed, and
+   * blank lines are ignored.
    *
-   * @param message message to be checked
-   * @return true if the specified message is a valid 513/setConfiguration device message, false
-   *     otherwise
+   * @param mqttMgr MQTT manager that received the command
+   * @param mqttTopic MQTT topic where the command was received
+   * @param command batch of set/setf commands
+   * @param childDeviceName name of the child device the command is for, or null
+   */
+  private static void runSetCommandBatch(
+      CConnectorMqttMgr mqttMgr, String mqttTopic, String command, String childDeviceName) {
+    List commandLines = StringUtils.split(command, COMMAND_LINE_SEPARATOR);
+    int commandCount = 0;
+    int failedCount = 0;
+    StringBuffer failedLineNumbers = new StringBuffer();
+    String firstFailureReason = null;
+    for (int i = 0; i < commandLines.size(); i++) {
+      String commandLine = ((String) commandLines.get(i)).trim();
+      if (commandLine.length() == 0) {
+        continue;
+      }
+
+      commandCount++;
+      String failureReason;
+      if (commandLine.startsWith("set")) {
+        failureReason = runSetCommand(commandLine, childDeviceName);
+      } else {
+        failureReason = RESPONSE_COMMAND_UNKNOWN_NOT_SUPPORTED;
+      }
+
+      if (failureReason != null) {
+        failedCount++;
+        if (firstFailureReason == null) {
+          firstFailureReason = failureReason;
+        } else {
+          failedLineNumbers.append(", ");
+        }
+        failedLineNumbers.append(i + 1);
+      }
+    }
+
+    String operationResponsePayload;
+    if (failedCount == 0) {
+      operationResponsePayload =
+          CConnectorApiMessageBuilder.setOperationToSuccessful_503(
+              CUMULOCITY_RUN_COMMAND_OPERATION_ID,
+              new String[] {RESPONSE_SUCCESS + " Set " + commandCount + " tag value(s)."});
+    } else {
+      String failureReason =
+          "Unable to set "
+              + failedCount
+              + " of "
+              + commandCount
+              + " tag value(s) (line "
+              + failedLineNumbers
+              + "). "
+              + firstFailureReason;
+      Logger.LOG_WARN(failureReason);
+      operationResponsePayload =
+          CConnectorApiMessageBuilder.setOperationToFailed_502(
+              CUMULOCITY_RUN_COMMAND_OPERATION_ID, failureReason);
+    }
+    mqttMgr.sendOperationResponse(mqttTopic, operationResponsePayload);
+  }
+
+  /**
+   * Runs the specified set/setf command, which writes a value to a tag.
+   *
+   * @param command set/setf command, in the format <code>set [tag] [value]</code> or <code>
+   *     setf [folder] [tag] [value]</code>
+   * @param childDeviceName name of the child device the command is for, or null
+   * @return null if the tag value was set, otherwise the reason the command failed
+   */
+  private static String runSetCommand(String command, String childDeviceName) {
+    List commandParts = StringUtils.split(command, " ");
+    String tagName;
+    String tagValue;
+    try {
+      if (command.startsWith("setf")) {
+        tagName =
+            (String) commandParts.get(1)
+                + CConnectorTagName.SPLIT_TAG_NAME_DELIMITER
+                + (String) commandParts.get(2);
+        tagValue = (String) commandParts.get(3);
+      } else {
+        tagName = (String) commandParts.get(1);
+        tagValue = (String) commandParts.get(2);
+      }
+
+      // Append child device name if present/applicable
+      if (childDeviceName != null) {
+        tagName = childDeviceName + CConnectorTagName.SPLIT_TAG_NAME_DELIMITER + tagName;
+      }
+    } catch (IndexOutOfBoundsException e) {
+      return RESPONSE_UNABLE_SET_COMMAND_FORMAT;
+    }
+
+    int writeResult = TAG_WRITE_CACHE.writeTagValue(tagName, tagValue);
+    if (writeResult == CConnectorTagWriteCache.WRITE_RESULT_NO_TAG_CTRL) {
+      return RESPONSE_UNABLE_SET_COMMAND_NO_TAG_CTRL;
+    } else if (writeResult == CConnectorTagWriteCache.WRITE_RESULT_EXCEPTION) {
+      return RESPONSE_UNABLE_SET_COMMAND_EXCEPTION;
+    }
+    return null;
+  }
+
+  /**
+   * Discards the cached tag handles and types used by set/setf commands, so that they are rebuilt
+   * from the tag configuration. This is called each time the tag list is refreshed (see {@link
+   * com.hms_networks.sc.cumulocity.data.CConnectorAlarmRoutingIndex#rebuild(long)}).
    */
-  public static boolean isSetConfiguration_513(String message) {
-    return message.startsWith("513");
+  public static void invalidateTagWriteCache() {
+    TAG_WRITE_CACHE.invalidate();
   }
 
   /**
@@ -606,7 +836,10 @@ public class CConnectorApiMessageReader {
    * @param expectedDeviceId expected ID of the device to be configured
    */
   public static void setConfiguration_513(
-      CConnectorMqttMgr mqttMgr, String mqttTopic, String message, String expectedDeviceId) {
+      CConnectorMqttMgr mqttMgr,
+      String mqttTopic,
+      CConnectorSmartRestMessage message,
+      String expectedDeviceId) {
     // Update state to executing
     String operationResponsePayloadExecuting =
         CConnectorApiMessageBuilder.setOperationToExecuting_501(
@@ -616,12 +849,10 @@ public class CConnectorApiMessageReader {
     // Extract device ID and escaped config file string from message
     final int deviceIdIndex = 1;
     final int escapedConfigFileStringIndex = 2;
-    List parts = StringUtils.split(message, ",");
-    String deviceId = (String) parts.get(deviceIdIndex);
-    String escapedConfigFileString = (String) parts.get(escapedConfigFileStringIndex);
+    String escapedConfigFileString = message.getRawField(escapedConfigFileStringIndex);
 
     // Parse configuration file string
-    boolean deviceIdMatches = deviceId.equals(expectedDeviceId);
+    boolean deviceIdMatches = message.fieldEquals(deviceIdIndex, expectedDeviceId);
     if (deviceIdMatches) {
       try {
         CConnectorMain.getConnectorConfig().parseConfigFileEscapedString(escapedConfigFileString);
@@ -652,18 +883,6 @@ public class CConnectorApiMessageReader {
     }
   }
 
-  /**
-   * Gets a boolean indicating if the specified message is a valid 515/installFirmware device
-   * message.
-   *
-   * @param message message to be checked
-   * @return true if the specified message is a valid 515/installFirmware device message, false
-   *     otherwise
-   */
-  public static boolean isInstallFirmware_515(String message) {
-    return message.startsWith("515");
-  }
-
   /**
    * Parses a specified 515/installFirmware device message and returns a boolean indicating if the
    * device ID matches.
@@ -674,7 +893,10 @@ public class CConnectorApiMessageReader {
    * @param expectedDeviceId expected ID of the device to be updated
    */
   public static void installFirmware_515(
-      CConnectorMqttMgr mqttMgr, String mqttTopic, String message, String expectedDeviceId) {
+      CConnectorMqttMgr mqttMgr,
+      String mqttTopic,
+      CConnectorSmartRestMessage message,
+      String expectedDeviceId) {
     // Update state to executing
     String operationResponsePayloadExecuting =
         CConnectorApiMessageBuilder.setOperationToExecuting_501(CUMULOCITY_FIRMWARE_OPERATION_ID);
@@ -685,14 +907,12 @@ public class CConnectorApiMessageReader {
     final int firmwareNameIndex = 2;
     final int firmwareVersionIndex = 3;
     final int firmwareUrlIndex = 4;
-    List parts = StringUtils.split(message, ",");
-    String deviceId = (String) parts.get(deviceIdIndex);
-    String firmwareName = (String) parts.get(firmwareNameIndex);
-    String firmwareVersion = (String) parts.get(firmwareVersionIndex);
-    String firmwareUrl = (String) parts.get(firmwareUrlIndex);
+    String firmwareName = message.getField(firmwareNameIndex);
+    String firmwareVersion = message.getField(firmwareVersionIndex);
+    String firmwareUrl = message.getField(firmwareUrlIndex);
 
     // Perform firmware update if device ID matches
-    boolean deviceIdMatches = deviceId.equals(expectedDeviceId);
+    boolean deviceIdMatches = message.fieldEquals(deviceIdIndex, expectedDeviceId);
     if (deviceIdMatches) {
       // Create temporary file to store in progress firmware reboot operation information
       try {
@@ -763,17 +983,155 @@ public class CConnectorApiMessageReader {
   }
 
   /**
-   * Not yet implemented (Unavailable).
+   * Parses a specified 517/measurementRequestOperation device message, then reads the current
+   * values of the requested tags and sends them to Cumulocity without waiting for the next poll of
+   * the historical data queue. The request name may list the names of the tags to send, separated
+   * by spaces. If the request name is blank, all eligible tags are sent.
    *
-   * @param mqttMgr Not yet implemented (Unavailable)
-   * @param mqttTopic Not yet implemented (Unavailable)
-   * @param message Not yet implemented (Unavailable)
-   * @param expectedDeviceId Not yet implemented (Unavailable)
-   * @return Not yet implemented (Unavailable)
+   * @param mqttMgr MQTT manager that received the message
+   * @param mqttTopic MQTT topic where the message was received
+   * @param message 517/measurementRequestOperation device message to parse
+   * @param expectedDeviceId expected ID of the device to send measurements for
    */
-  public static boolean measurementRequestOperation_517(
-      CConnectorMqttMgr mqttMgr, String mqttTopic, String message, String expectedDeviceId) {
-    return false;
+  public static void measurementRequestOperation_517(
+      CConnectorMqttMgr mqttMgr,
+      String mqttTopic,
+      CConnectorSmartRestMessage message,
+      String expectedDeviceId) {
+    // Update state to executing
+    String operationResponsePayloadExecuting =
+        CConnectorApiMessageBuilder.setOperationToExecuting_501(
+            CUMULOCITY_MEASUREMENT_REQUEST_OPERATION_ID);
+    mqttMgr.sendOperationResponse(mqttTopic, operationResponsePayloadExecuting);
+
+    // Extract requested tag names, if present
+    final int deviceIdIndex = 1;
+    final int requestNameIndex = 2;
+    Set requestedTagNames = null; // Set<String>
+    if (message.getFieldCount() > requestNameIndex) {
+      List requestNameParts =
+          StringUtils.split(
+              message.getField(requestNameIndex).trim(), MEASUREMENT_REQUEST_TAG_SEPARATOR);
+      for (int i = 0; i < requestNameParts.size(); i++) {
+        String requestedTagName = ((String) requestNameParts.get(i)).trim();
+        if (requestedTagName.length() > 0) {
+          if (requestedTagNames == null) {
+            requestedTagNames = new HashSet();
+          }
+          requestedTagNames.add(requestedTagName);
+        }
+      }
+    }
+
+    String operationResponsePayload;
+    if (message.fieldEquals(deviceIdIndex, expectedDeviceId)) {
+      try {
+        int sentTagCount = CConnectorDataMgr.sendLiveSnapshot(mqttMgr, requestedTagNames);
+        Logger.LOG_INFO("Sent the current values of " + sentTagCount + " tag(s) on request.");
+        operationResponsePayload =
+            CConnectorApiMessageBuilder.setOperationToSuccessful_503(
+                CUMULOCITY_MEASUREMENT_REQUEST_OPERATION_ID,
+                new String[] {RESPONSE_SUCCESS + " Sent " + sentTagCount + " tag value(s)."});
+      } catch (Exception e) {
+        Logger.LOG_SERIOUS(RESPONSE_MEASUREMENT_SNAPSHOT_EXCEPTION);
+        Logger.LOG_EXCEPTION(e);
+        operationResponsePayload =
+            CConnectorApiMessageBuilder.setOperationToFailed_502(
+                CUMULOCITY_MEASUREMENT_REQUEST_OPERATION_ID,
+                RESPONSE_MEASUREMENT_SNAPSHOT_EXCEPTION);
+      }
+    } else {
+      operationResponsePayload =
+          CConnectorApiMessageBuilder.setOperationToFailed_502(
+              CUMULOCITY_MEASUREMENT_REQUEST_OPERATION_ID, RESPONSE_DEVICE_ID_MISMATCH);
+    }
+    mqttMgr.sendOperationResponse(mqttTopic, operationResponsePayload);
+  }
+
+  /**
+   * Gets a boolean indicating if the specified message is a JSON backfill operation.
+   *
+   * @param message message to be checked
+   * @return true if the message is a JSON backfill operation, otherwise false
+   */
+  public static boolean isBackfillOperation(String message) {
+    return message.startsWith("{")
+        && message.indexOf("\"" + CUMULOCITY_BACKFILL_OPERATION_ID + "\"") >= 0;
+  }
+
+  /**
+   * Parses a specified JSON backfill operation, then requests the time range of the operation to
+   * be read again from the historical log and sent to Cumulocity (see {@link
+   * CConnectorDataMgr#requestBackfill(String, long, long)}). The operation is successful once the
+   * time range is accepted and stored, so that it is kept if the connector restarts, and the data
+   * is then sent in the background.
+   *
+   * <p>The operation fragment holds the start and end time of the range, as UTC ISO 8601 times or
+   * milliseconds since epoch, and optionally the tag group to backfill. For example: <code>
+   * "c8y_Backfill":{"dateFrom":"2026-10-17T08:00:00Z","dateTo":"2026-10-17T09:30:00Z",
+   * "tagGroup":"A"}</code>.
+   *
+   * @param mqttMgr MQTT manager that received the message
+   * @param mqttTopic MQTT topic where the message was received
+   * @param message JSON backfill operation message to parse
+   */
+  public static void backfillOperation(
+      CConnectorMqttMgr mqttMgr, String mqttTopic, String message) {
+    // Update state to executing
+    String operationResponsePayloadExecuting =
+        CConnectorApiMessageBuilder.setOperationToExecuting_501(CUMULOCITY_BACKFILL_OPERATION_ID);
+    mqttMgr.sendOperationResponse(mqttTopic, operationResponsePayloadExecuting);
+
+    String operationResponsePayload;
+    try {
+      JSONObject backfill =
+          new JSONObject(message).getJSONObject(CUMULOCITY_BACKFILL_OPERATION_ID);
+      long startMillis = parseBackfillTime(backfill.getString(BACKFILL_KEY_DATE_FROM));
+      long endMillis = parseBackfillTime(backfill.getString(BACKFILL_KEY_DATE_TO));
+      String tagGroupName =
+          backfill.has(BACKFILL_KEY_TAG_GROUP) ? backfill.getString(BACKFILL_KEY_TAG_GROUP) : null;
+      int rangeCount = CConnectorDataMgr.requestBackfill(tagGroupName, startMillis, endMillis);
+      operationResponsePayload =
+          CConnectorApiMessageBuilder.setOperationToSuccessful_503(
+              CUMULOCITY_BACKFILL_OPERATION_ID,
+              new String[] {RESPONSE_SUCCESS + " Backfilling " + rangeCount + " time range(s)."});
+    } catch (IllegalStateException e) {
+      Logger.LOG_WARN(RESPONSE_BACKFILL_STORE_ERROR);
+      Logger.LOG_EXCEPTION(e);
+      operationResponsePayload =
+          CConnectorApiMessageBuilder.setOperationToFailed_502(
+              CUMULOCITY_BACKFILL_OPERATION_ID, RESPONSE_BACKFILL_STORE_ERROR);
+    } catch (Exception e) {
+      Logger.LOG_WARN(RESPONSE_BACKFILL_FORMAT);
+      Logger.LOG_EXCEPTION(e);
+      operationResponsePayload =
+          CConnectorApiMessageBuilder.setOperationToFailed_502(
+              CUMULOCITY_BACKFILL_OPERATION_ID, RESPONSE_BACKFILL_FORMAT);
+    }
+    mqttMgr.sendOperationResponse(mqttTopic, operationResponsePayload);
+  }
+
+  /**
+   * Parses the specified time of a backfill operation, which is either in milliseconds since epoch,
+   * or a UTC ISO 8601 time.
+   *
+   * @param time time of a backfill operation
+   * @return time in milliseconds since epoch
+   * @throws ParseException if the time is not in a supported format
+   */
+  private static long parseBackfillTime(String time) throws ParseException {
+    String trimmedTime = time.trim();
+    boolean isEpochMillis = trimmedTime.length() > 0;
+    for (int i = 0; i < trimmedTime.length() && isEpochMillis; i++) {
+      isEpochMillis = Character.isDigit(trimmedTime.charAt(i));
+    }
+    if (isEpochMillis) {
+      return Long.parseLong(trimmedTime);
+    }
+
+    SimpleDateFormat backfillTimeFormat = new SimpleDateFormat(BACKFILL_TIME_FORMAT);
+    backfillTimeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    return backfillTimeFormat.parse(trimmedTime).getTime();
   }
 
   /**
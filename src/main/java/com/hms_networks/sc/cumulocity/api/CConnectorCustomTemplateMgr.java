@@ -0,0 +1,352 @@
+package com.hms_networks.sc.cumulocity.api;
+
+import com.hms_networks.americas.sc.extensions.fileutils.FileAccessManager;
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+import com.hms_networks.americas.sc.extensions.string.StringUtils;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Manager for the connector's device-specific Cumulocity custom (SmartREST 2.0) measurement
+ * templates. Each unique combination of measurement fragment, series and unit is assigned a short
+ * template message ID, with the fragment, series and unit fixed in the template. Measurements which
+ * use a registered template are published with only the template message ID, time and value,
+ * instead of the full static measurement template (200).
+ *
+ * <p>Each device registers a single template collection, named {@link
+ * #TEMPLATE_COLLECTION_NAME_PREFIX} followed by the device ID, so that changes to the tag set do
+ * not add template collections to the tenant. Cumulocity template collections cannot be modified
+ * after they are created, so the collection holds the templates which were created before it was
+ * first registered, and measurements of templates created later are sent using the static
+ * measurement template. The registered templates are stored in {@link #TEMPLATES_FILE_PATH}, and
+ * the collection is published again in place on each connect, which recreates it if it has been
+ * deleted.
+ *
+ * <p>Template message IDs are derived from the template contents, so a template message ID refers
+ * to the same fragment, series and unit across restarts and devices. If the message IDs of two
+ * templates collide, the later template is not used.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 1.5.0
+ */
+public class CConnectorCustomTemplateMgr {
+
+  /** Prefix of the template collection name, which is followed by the device ID. */
+  private static final String TEMPLATE_COLLECTION_NAME_PREFIX = "ewonFlexyC8y_";
+
+  /** Message ID of the SmartREST 2.0 template creation request. */
+  private static final String TEMPLATE_CREATION_MESSAGE_ID = "10";
+
+  /** Separator used between the fragment, series and unit when building template map keys. */
+  private static final String TEMPLATE_KEY_SEPARATOR = "\n";
+
+  /** Separator between the fields of a template creation request line. */
+  private static final String TEMPLATE_FIELD_SEPARATOR = ",";
+
+  /** Separator between the template creation request lines of a template collection. */
+  private static final String TEMPLATE_LINE_SEPARATOR = "\n";
+
+  /** Template message IDs are derived from the template contents, and are less than this limit. */
+  private static final long TEMPLATE_MESSAGE_ID_LIMIT = 1000000000L;
+
+  /** Message ID of templates which are not used, because their message ID collides. */
+  private static final String UNUSED_TEMPLATE_MESSAGE_ID = "";
+
+  /** The path of the file which stores the registered template collection. */
+  private static final String TEMPLATES_FILE_PATH = "/usr/CumulocityCustomTemplates.txt";
+
+  /** Map of template keys (fragment, series and unit) to template message IDs. */
+  private final Map templateMessageIds = new HashMap(); // Map<String, String>
+
+  /** Map of template message IDs to template creation request lines. */
+  private final Map templateDefinitions = new HashMap(); // Map<String, String>
+
+  /** List of template creation request lines of the template collection, in creation order. */
+  private final List collectionDefinitions = new ArrayList(); // List<String>
+
+  /** Boolean flag indicating if the templates file has been loaded. */
+  private boolean templatesFileLoaded = false;
+
+  /** Boolean flag indicating if the template collection has been registered. */
+  private boolean collectionRegistered = false;
+
+  /** Name of the registered template collection, or null if not registered since connecting. */
+  private String registeredCollectionName = null;
+
+  /**
+   * Gets the custom template measurement payload line for the specified measurement. If a template
+   * does not exist for the measurement's fragment, series and unit, one is created and will be
+   * included in the template collection when it is registered. If the template is not in the
+   * template collection, or the template collection has not been registered since the connector
+   * started, null is returned, and the measurement should be sent using the static measurement
+   * template (200).
+   *
+   * @param fragment The fragment of the measurement (unquoted).
+   * @param series The series of the measurement.
+   * @param value The value of the measurement.
+   * @param unit The unit of the measurement (may be null).
+   * @param time The time of the measurement.
+   * @return The payload line for the measurement, or null if the template is not registered.
+   */
+  public synchronized String getMeasurementLine(
+      String fragment, String series, String value, String unit, String time) {
+    loadRegisteredTemplates();
+    String unitUnquoted = removeWrappingQuotes(unit);
+    String templateKey =
+        fragment
+            + TEMPLATE_KEY_SEPARATOR
+            + series
+            + TEMPLATE_KEY_SEPARATOR
+            + (unitUnquoted != null ? unitUnquoted : "");
+    String messageId = (String) templateMessageIds.get(templateKey);
+
+    // Create template if not existing
+    if (messageId == null) {
+      messageId = createTemplate(templateKey, fragment, series, unitUnquoted);
+      templateMessageIds.put(templateKey, messageId);
+    }
+
+    // Check if template has been registered since the connector started
+    if (registeredCollectionName == null || !templateDefinitions.containsKey(messageId)) {
+      return null;
+    }
+
+    return messageId + "," + time + "," + value;
+  }
+
+  /**
+   * Creates the template for the specified fragment, series and unit, and adds it to the template
+   * collection if the template collection has not been registered yet.
+   *
+   * @param templateKey template key (fragment, series and unit)
+   * @param fragment fragment of the measurement (unquoted)
+   * @param series series of the measurement
+   * @param unit unit of the measurement (unquoted, may be null)
+   * @return template message ID, or {@link #UNUSED_TEMPLATE_MESSAGE_ID} if it collides with the
+   *     message ID of another template
+   */
+  private String createTemplate(String templateKey, String fragment, String series, String unit) {
+    String messageId = getMessageIdForKey(templateKey);
+    String definition = buildMeasurementTemplateDefinition(messageId, fragment, series, unit);
+    String existingDefinition = (String) templateDefinitions.get(messageId);
+    if (existingDefinition != null && !existingDefinition.equals(definition)) {
+      Logger.LOG_WARN(
+          "The custom template message ID of "
+              + fragment
+              + "."
+              + series
+              + " collides with another template. Using the static measurement template.");
+      return UNUSED_TEMPLATE_MESSAGE_ID;
+    }
+
+    if (existingDefinition == null) {
+      if (collectionRegistered) {
+        Logger.LOG_INFO(
+            "Sending "
+                + fragment
+                + "."
+                + series
+                + " with the static measurement template, as the registered custom template "
+                + "collection cannot be extended.");
+      } else {
+        templateDefinitions.put(messageId, definition);
+        collectionDefinitions.add(definition);
+      }
+    }
+    return messageId;
+  }
+
+  /**
+   * Gets a boolean indicating if templates have been created and the template collection has not
+   * been registered yet.
+   *
+   * @return true if there are unregistered templates, otherwise false
+   */
+  public synchronized boolean hasUnregisteredTemplates() {
+    loadRegisteredTemplates();
+    return !collectionRegistered && !collectionDefinitions.isEmpty();
+  }
+
+  /**
+   * Loads the template collection which was registered before the connector restarted from the
+   * templates file, if it exists and has not been loaded yet.
+   */
+  private void loadRegisteredTemplates() {
+    if (templatesFileLoaded) {
+      return;
+    }
+    templatesFileLoaded = true;
+    if (!new File(TEMPLATES_FILE_PATH).exists()) {
+      return;
+    }
+
+    String templatesFileContent;
+    try {
+      templatesFileContent = FileAccessManager.readFileToString(TEMPLATES_FILE_PATH);
+    } catch (Exception e) {
+      Logger.LOG_WARN("Unable to read the registered custom templates " + TEMPLATES_FILE_PATH);
+      Logger.LOG_EXCEPTION(e);
+      return;
+    }
+
+    List definitionLines =
+        StringUtils.split(templatesFileContent, TEMPLATE_LINE_SEPARATOR); // List<String>
+    for (int i = 0; i < definitionLines.size(); i++) {
+      String definition = ((String) definitionLines.get(i)).trim();
+      List definitionFields =
+          StringUtils.split(definition, TEMPLATE_FIELD_SEPARATOR); // List<String>
+      if (definitionFields.size() > 1
+          && definitionFields.get(0).equals(TEMPLATE_CREATION_MESSAGE_ID)) {
+        templateDefinitions.put(definitionFields.get(1), definition);
+        collectionDefinitions.add(definition);
+      }
+    }
+    collectionRegistered = !collectionDefinitions.isEmpty();
+    if (collectionRegistered) {
+      Logger.LOG_INFO("Loaded " + collectionDefinitions.size() + " registered custom templates.");
+    }
+  }
+
+  /**
+   * Registers the template collection containing the created templates with Cumulocity using the
+   * specified MQTT manager. The template collection is published again in place if it was already
+   * registered, and it is stored in the templates file when it is first registered. If no
+   * templates have been created, no template collection is registered.
+   *
+   * @param mqttMgr MQTT manager to register the template collection with
+   * @throws Exception if unable to publish the template collection
+   */
+  public synchronized void registerTemplates(CConnectorMqttMgr mqttMgr) throws Exception {
+    loadRegisteredTemplates();
+    if (collectionDefinitions.isEmpty()) {
+      return;
+    }
+
+    // Build template collection payload
+    StringBuffer collectionPayload = new StringBuffer();
+    for (int i = 0; i < collectionDefinitions.size(); i++) {
+      if (i > 0) {
+        collectionPayload.append(TEMPLATE_LINE_SEPARATOR);
+      }
+      collectionPayload.append((String) collectionDefinitions.get(i));
+    }
+    String collectionPayloadString = collectionPayload.toString();
+    String collectionName = TEMPLATE_COLLECTION_NAME_PREFIX + mqttMgr.getMqttId();
+
+    mqttMgr.publishCustomTemplateCollection(collectionName, collectionPayloadString);
+    registeredCollectionName = collectionName;
+    if (!collectionRegistered) {
+      collectionRegistered = true;
+      try {
+        FileAccessManager.writeStringToFile(TEMPLATES_FILE_PATH, collectionPayloadString);
+      } catch (Exception e) {
+        Logger.LOG_SERIOUS("Unable to store the registered custom templates.");
+        Logger.LOG_EXCEPTION(e);
+      }
+    }
+  }
+
+  /**
+   * Gets the name of the registered template collection, or null if the template collection has
+   * not been registered since the connector started.
+   *
+   * @return name of the registered template collection, or null
+   */
+  public synchronized String getRegisteredCollectionName() {
+    return registeredCollectionName;
+  }
+
+  /**
+   * Builds the template creation request line for a measurement template with the specified
+   * message ID, fragment, series and unit. The measurement time and value are provided in each
+   * message, in that order.
+   *
+   * @param messageId template message ID
+   * @param fragment fragment of the measurement (unquoted)
+   * @param series series of the measurement
+   * @param unit unit of the measurement (unquoted, may be null)
+   * @return template creation request line
+   */
+  private static String buildMeasurementTemplateDefinition(
+      String messageId, String fragment, String series, String unit) {
+    String seriesPath = fragment + "." + series;
+    String definition =
+        TEMPLATE_CREATION_MESSAGE_ID
+            + ","
+            + messageId
+            + ",POST,MEASUREMENT,,"
+            + quoteCsvField(fragment)
+            + ",,"
+            + quoteCsvField(seriesPath + ".value")
+            + ",NUMBER,";
+    if (unit != null && unit.length() > 0) {
+      definition += "," + quoteCsvField(seriesPath + ".unit") + ",," + quoteCsvField(unit);
+    }
+    return definition;
+  }
+
+  /**
+   * Gets the template message ID for the template with the specified key. The message ID is derived
+   * from a digest of the key, so the same template always has the same message ID.
+   *
+   * @param templateKey template key (fragment, series and unit)
+   * @return template message ID
+   */
+  private static String getMessageIdForKey(String templateKey) {
+    long digest = CConnectorPublishDigestCache.computeDigest(templateKey);
+    return Long.toString((digest >>> 1) % TEMPLATE_MESSAGE_ID_LIMIT);
+  }
+
+  /**
+   * Quotes the specified CSV field, if required. Quote characters in the field are escaped by
+   * doubling them.
+   *
+   * @param field field to quote
+   * @return quoted field, or the unmodified field if quoting is not required
+   */
+  private static String quoteCsvField(String field) {
+    if (field.indexOf(',') < 0
+        && field.indexOf('"') < 0
+        && field.indexOf(' ') < 0
+        && field.indexOf('\t') < 0) {
+      return field;
+    }
+
+    StringBuffer quotedField = new StringBuffer("\"");
+    for (int i = 0; i < field.length(); i++) {
+      char c = field.charAt(i);
+      if (c == '"') {
+        quotedField.append('"');
+      }
+      quotedField.append(c);
+    }
+    quotedField.append('"');
+    return quotedField.toString();
+  }
+
+  /**
+   * Removes wrapping quotes from the specified string, if present.
+   *
+   * @param value string to remove wrapping quotes from (may be null)
+   * @return string without wrapping quotes, or null if the specified string is null
+   */
+  private static String removeWrappingQuotes(String value) {
+    if (value == null) {
+      return null;
+    }
+
+    final char quoteChar = '"';
+    final int firstCharIndex = 0;
+    final int secondCharIndex = 1;
+    final int lastCharIndex = value.length() - 1;
+    if (lastCharIndex > firstCharIndex
+        && value.charAt(firstCharIndex) == quoteChar
+        && value.charAt(lastCharIndex) == quoteChar) {
+      return value.substring(secondCharIndex, lastCharIndex);
+    }
+    return value;
+  }
+}
@@ -0,0 +1,198 @@
+package com.hms_networks.sc.cumulocity.api;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Monitor for error responses received from Cumulocity on the <code>s/e</code> topic. Each error
+ * response is classified by its reason text, and counted by class and by errored template. The
+ * number of error responses in the last {@link #WINDOW_MILLIS} is tracked using a sliding window of
+ * fixed-length buckets, so that the publish path can react to a sustained error rate.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 1.5.0
+ */
+public class CConnectorErrorResponseMonitor {
+
+  /** Error class of error responses indicating that Cumulocity is throttling or overloaded. */
+  public static final int ERROR_CLASS_THROTTLED = 0;
+
+  /** Error class of error responses indicating that a message payload was rejected. */
+  public static final int ERROR_CLASS_REJECTED = 1;
+
+  /** Error class of error responses which could not be classified. */
+  public static final int ERROR_CLASS_OTHER = 2;
+
+  /** The names of the error classes, indexed by error class, used for metrics. */
+  private static final String[] ERROR_CLASS_NAMES = {"throttled", "rejected", "other"};
+
+  /** Lower case reason text fragments which identify a throttling or overload error response. */
+  private static final String[] THROTTLED_REASON_FRAGMENTS = {
+    "too many", "rate limit", "throttl", "limit exceeded", "429", "503", "unavailable", "timeout",
+    "timed out", "busy"
+  };
+
+  /** Lower case reason text fragments which identify a rejected payload error response. */
+  private static final String[] REJECTED_REASON_FRAGMENTS = {
+    "invalid", "wrong", "malformed", "parse", "not found", "no template", "unknown", "400", "422"
+  };
+
+  /** The length (in milliseconds) of the sliding error rate window. */
+  private static final long WINDOW_MILLIS = 60000;
+
+  /** The number of buckets in the sliding error rate window. */
+  private static final int WINDOW_BUCKET_COUNT = 12;
+
+  /** The length (in milliseconds) of each bucket in the sliding error rate window. */
+  private static final long WINDOW_BUCKET_MILLIS = WINDOW_MILLIS / WINDOW_BUCKET_COUNT;
+
+  /** Number of error responses received for each error class, indexed by error class. */
+  private final long[] errorClassCounts = new long[ERROR_CLASS_NAMES.length];
+
+  /** Map of errored template to the number of error responses received for it. */
+  private final Map templateErrorCounts = new HashMap(); // Map<String, long[1]>
+
+  /** Number of error responses in each bucket of the sliding window. */
+  private final int[] windowBucketCounts = new int[WINDOW_BUCKET_COUNT];
+
+  /** Bucket number (time divided by bucket length) of each bucket of the sliding window. */
+  private final long[] windowBucketNumbers = new long[WINDOW_BUCKET_COUNT];
+
+  /**
+   * Classifies and records the specified error response.
+   *
+   * @param erroredTemplate the template reported in the error response
+   * @param reason the reason text reported in the error response
+   * @return the error class of the error response
+   */
+  public synchronized int recordErrorResponse(String erroredTemplate, String reason) {
+    int errorClass = classify(reason);
+    errorClassCounts[errorClass]++;
+
+    long[] templateErrorCount = (long[]) templateErrorCounts.get(erroredTemplate);
+    if (templateErrorCount == null) {
+      templateErrorCount = new long[1];
+      templateErrorCounts.put(erroredTemplate, templateErrorCount);
+    }
+    templateErrorCount[0]++;
+
+    long bucketNumber = System.currentTimeMillis() / WINDOW_BUCKET_MILLIS;
+    int bucketIndex = (int) (bucketNumber % WINDOW_BUCKET_COUNT);
+    if (windowBucketNumbers[bucketIndex] != bucketNumber) {
+      windowBucketNumbers[bucketIndex] = bucketNumber;
+      windowBucketCounts[bucketIndex] = 0;
+    }
+    windowBucketCounts[bucketIndex]++;
+
+    return errorClass;
+  }
+
+  /**
+   * Gets the number of error responses received within the sliding window.
+   *
+   * @return number of error responses in the last {@link #WINDOW_MILLIS}
+   */
+  public synchronized int getWindowErrorCount() {
+    long currentBucketNumber = System.currentTimeMillis() / WINDOW_BUCKET_MILLIS;
+    int windowErrorCount = 0;
+    for (int i = 0; i < WINDOW_BUCKET_COUNT; i++) {
+      long bucketAge = currentBucketNumber - windowBucketNumbers[i];
+      if (bucketAge >= 0 && bucketAge < WINDOW_BUCKET_COUNT) {
+        windowErrorCount += windowBucketCounts[i];
+      }
+    }
+    return windowErrorCount;
+  }
+
+  /**
+   * Appends the error response metrics as JSON object members (without enclosing braces) to the
+   * specified buffer.
+   *
+   * @param metricsJson buffer to append the metrics to
+   */
+  public synchronized void appendMetricsJson(StringBuffer metricsJson) {
+    metricsJson.append("\"errorsLastMinute\":").append(getWindowErrorCount());
+    metricsJson.append(",\"errorsByClass\":{");
+    for (int i = 0; i < ERROR_CLASS_NAMES.length; i++) {
+      if (i > 0) {
+        metricsJson.append(',');
+      }
+      metricsJson.append('"').append(ERROR_CLASS_NAMES[i]).append("\":");
+      metricsJson.append(errorClassCounts[i]);
+    }
+    metricsJson.append("},\"errorsByTemplate\":{");
+    Iterator templateIterator = templateErrorCounts.entrySet().iterator();
+    boolean first = true;
+    while (templateIterator.hasNext()) {
+      Map.Entry templateEntry = (Map.Entry) templateIterator.next();
+      if (!first) {
+        metricsJson.append(',');
+      }
+      first = false;
+      metricsJson.append('"').append(escapeJson((String) templateEntry.getKey())).append("\":");
+      metricsJson.append(((long[]) templateEntry.getValue())[0]);
+    }
+    metricsJson.append('}');
+  }
+
+  /**
+   * Gets the name of the specified error class.
+   *
+   * @param errorClass error class
+   * @return name of the error class
+   */
+  public static String getErrorClassName(int errorClass) {
+    return ERROR_CLASS_NAMES[errorClass];
+  }
+
+  /**
+   * Classifies an error response by its reason text.
+   *
+   * @param reason the reason text reported in the error response
+   * @return the error class of the error response
+   */
+  private static int classify(String reason) {
+    String lowerCaseReason = reason.toLowerCase();
+    if (containsAny(lowerCaseReason, THROTTLED_REASON_FRAGMENTS)) {
+      return ERROR_CLASS_THROTTLED;
+    } else if (containsAny(lowerCaseReason, REJECTED_REASON_FRAGMENTS)) {
+      return ERROR_CLASS_REJECTED;
+    }
+    return ERROR_CLASS_OTHER;
+  }
+
+  /**
+   * Gets a boolean indicating if the specified text contains any of the specified fragments.
+   *
+   * @param text text to search
+   * @param fragments fragments to search for
+   * @return true if the text contains any of the fragments, otherwise false
+   */
+  private static boolean containsAny(String text, String[] fragments) {
+    for (int i = 0; i < fragments.length; i++) {
+      if (text.indexOf(fragments[i]) >= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Escapes quote and backslash characters in the specified string for use in a JSON string.
+   *
+   * @param value string to escape
+   * @return escaped string
+   */
+  private static String escapeJson(String value) {
+    StringBuffer escaped = new StringBuffer();
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        escaped.append('\\');
+      }
+      escaped.append(c);
+    }
+    return escaped.toString();
+  }
+}
@@ -8,17 +8,21 @@ import com.hms_networks.americas.sc.extensions.logging.Logger;
 import com.hms_networks.americas.sc.extensions.mqtt.ConstrainedMqttManager;
 import com.hms_networks.americas.sc.extensions.mqtt.MqttStatusCode;
 import com.hms_networks.americas.sc.extensions.string.StringUtils;
+import com.hms_networks.sc.cumulocity.CConnectorLogger;
 import com.hms_networks.sc.cumulocity.CConnectorMain;
 import com.hms_networks.sc.cumulocity.data.CConnectorAlarmMgr;
 import com.hms_networks.sc.cumulocity.data.CConnectorChildUpdate;
+import com.hms_networks.sc.cumulocity.data.CConnectorDataMgr;
 import com.hms_networks.sc.cumulocity.data.CConnectorDataProcessingMode;
 import com.hms_networks.sc.cumulocity.data.CConnectorMessageType;
+import com.hms_networks.sc.cumulocity.data.CConnectorOutboundLane;
+import com.hms_networks.sc.cumulocity.data.CConnectorQueueSpan;
+import com.hms_networks.sc.cumulocity.data.CConnectorRealtimeMgr;
 import com.hms_networks.sc.cumulocity.data.CConnectorRetryMessage;
 import com.hms_networks.sc.cumulocity.inventory.InventoryUpdateManager;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Stack;
 
 /**
  * The MQTT management class for the Cumulocity Connector.
@@ -33,7 +37,9 @@ public class CConnectorMqttMgr extends ConstrainedMqttManager {
     CConnectorApiMessageReader.CUMULOCITY_FIRMWARE_OPERATION_ID,
     CConnectorApiMessageReader.CUMULOCITY_CONFIGURATION_OPERATION_ID,
     CConnectorApiMessageReader.CUMULOCITY_RUN_COMMAND_OPERATION_ID,
-    CConnectorApiMessageReader.CUMULOCITY_RESTART_OPERATION_ID
+    CConnectorApiMessageReader.CUMULOCITY_RESTART_OPERATION_ID,
+    CConnectorApiMessageReader.CUMULOCITY_MEASUREMENT_REQUEST_OPERATION_ID,
+    CConnectorApiMessageReader.CUMULOCITY_BACKFILL_OPERATION_ID
   };
 
   /** The URL for downloading releases of the Ewon Flexy Cumulocity Connector. */
@@ -70,6 +76,18 @@ public class CConnectorMqttMgr extends ConstrainedMqttManager {
   /** The MQTT topic for receiving messages from Cumulocity via MQTT. */
   private static final String CUMULOCITY_MQTT_TOPIC_SDS = "s/ds";
 
+  /**
+   * The MQTT topic for receiving JSON operations from Cumulocity via MQTT. This is used for
+   * operations which have no static template, such as backfill operations.
+   */
+  private static final String CUMULOCITY_MQTT_TOPIC_OPERATION_JSON = "devicecontrol/notifications";
+
+  /** The Cumulocity MQTT topic for custom (SmartREST 2.0) template creation requests. */
+  private static final String CUMULOCITY_MQTT_TOPIC_SUT = "s/ut";
+
+  /** The Cumulocity MQTT upstream topic suffix for custom (SmartREST 2.0) template requests. */
+  private static final String CUMULOCITY_MQTT_UPSTREAM_CUSTOM = "uc";
+
   /** The MQTT topic for publishing agent information messages to Cumulocity via MQTT. */
   private static final String CUMULOCITY_MQTT_TOPIC_AGENT_INFO_PREFIX =
       "inventory/managedObjects/update/";
@@ -96,16 +114,67 @@ public class CConnectorMqttMgr extends ConstrainedMqttManager {
   private static final boolean MQTT_WAIT_FOR_WAN_IP = true;
 
   /**
-   * The maximum number of times to retry sending a message to Cumulocity before giving up and
-   * discarding the message (with warning).
+   * The number of error responses from Cumulocity within one minute which causes the measurement
+   * lane to be paused.
    */
-  private static final int PENDING_RETRY_MESSAGE_MAX_RETRY_COUNT = 16;
+  private static final int ERROR_RESPONSE_PAUSE_THRESHOLD = 30;
+
+  /** The time (in milliseconds) the measurement lane is paused for after many error responses. */
+  private static final long ERROR_RESPONSE_PAUSE_MILLIS = 30000;
 
   /** List of child devices which have been registered to Cumulocity. */
   private final List registeredChildDevices = new ArrayList();
 
-  /** Stack of {@link CConnectorRetryMessage}s which have been queued for retry. */
-  private final Stack pendingRetryMessages = new Stack();
+  /** Scheduler for prioritized outbound messages, such as measurements, alarms and operations. */
+  private final CConnectorOutboundScheduler outboundScheduler = new CConnectorOutboundScheduler();
+
+  /** Executor which handles operations received from Cumulocity on a background worker thread. */
+  private final CConnectorOperationExecutor operationExecutor =
+      new CConnectorOperationExecutor(this);
+
+  /** Key of the agent information item in the {@link #publishDigestCache}. */
+  private static final String PUBLISH_ITEM_AGENT = "agent";
+
+  /** Key of the supported operations (114) item in the {@link #publishDigestCache}. */
+  private static final String PUBLISH_ITEM_SUPPORTED_OPERATIONS = "114";
+
+  /** Key of the hardware information (110) item in the {@link #publishDigestCache}. */
+  private static final String PUBLISH_ITEM_HARDWARE = "110";
+
+  /** Key of the firmware information (115) item in the {@link #publishDigestCache}. */
+  private static final String PUBLISH_ITEM_FIRMWARE = "115";
+
+  /** Key of the configuration (113) item in the {@link #publishDigestCache}. */
+  private static final String PUBLISH_ITEM_CONFIGURATION = "113";
+
+  /** Key of the parent device inventory object item in the {@link #publishDigestCache}. */
+  private static final String PUBLISH_ITEM_PARENT_INVENTORY = "parentInventory";
+
+  /** Key of the custom template collection item in the {@link #publishDigestCache}. */
+  private static final String PUBLISH_ITEM_CUSTOM_TEMPLATES = "customTemplates";
+
+  /** Key of the historical log gap report item in the {@link #publishDigestCache}. */
+  private static final String PUBLISH_ITEM_GAP_REPORT = "gapReport";
+
+  /** Name of the device inventory fragment which holds the historical log gap report. */
+  private static final String GAP_REPORT_FRAGMENT = "historicalLogGaps";
+
+  /**
+   * Cache of digests of the information payloads which are published on each MQTT connection. Used
+   * to skip publishing payloads which have not changed since they were last published
+   * successfully.
+   */
+  private final CConnectorPublishDigestCache publishDigestCache;
+
+  /** Token bucket rate limiter applied to all messages published to Cumulocity. */
+  private final CConnectorPublishRateLimiter publishRateLimiter;
+
+  /** Monitor for error responses received from Cumulocity. */
+  private final CConnectorErrorResponseMonitor errorResponseMonitor =
+      new CConnectorErrorResponseMonitor();
+
+  /** Manager for the connector's custom (SmartREST 2.0) measurement templates. */
+  private final CConnectorCustomTemplateMgr customTemplateMgr = new CConnectorCustomTemplateMgr();
 
   /**
    * Integer used to track the last known value of the MQTT status code. This value is updated when
@@ -156,6 +225,19 @@ public class CConnectorMqttMgr extends ConstrainedMqttManager {
         MQTT_LOOP_WAIT_MILLIS,
         MQTT_WAIT_FOR_WAN_IP);
 
+    // Create cache for skipping unchanged information payloads on reconnect
+    final long millisPerMinute = 60000;
+    publishDigestCache =
+        new CConnectorPublishDigestCache(
+            CConnectorMain.getConnectorConfig().getPublishRefreshIntervalMins()
+                * millisPerMinute);
+
+    // Create rate limiter for publishing to Cumulocity
+    publishRateLimiter =
+        new CConnectorPublishRateLimiter(
+            CConnectorMain.getConnectorConfig().getCumulocityPublishRateMessagesPerSec(),
+            CConnectorMain.getConnectorConfig().getCumulocityPublishRateBytesPerSec());
+
     // Configure subscriptions
     if (CConnectorMain.getConnectorConfig().getCumulocitySubscribeToErrors()) {
       Logger.LOG_INFO("Subscribing to Cumulocity error topic.");
@@ -163,6 +245,7 @@ public class CConnectorMqttMgr extends ConstrainedMqttManager {
     }
     addSubscription(CUMULOCITY_MQTT_TOPIC_SDS);
     addSubscription(CUMULOCITY_MQTT_TOPIC_SDS + "/*");
+    addSubscription(CUMULOCITY_MQTT_TOPIC_OPERATION_JSON);
 
     // Add alarm listener to default event handler
     DefaultEventHandler.setDefaultTagAlarmListener(new CConnectorAlarmMgr());
@@ -184,10 +267,20 @@ public class CConnectorMqttMgr extends ConstrainedMqttManager {
    * @param mqttMessage received MQTT message
    */
   public void onMessage(MqttMessage mqttMessage) {
-    // Pass message to API message reader/parser
     String mqttMessagePayload = new String(mqttMessage.getPayload());
-    CConnectorApiMessageReader.parseMessage(
-        this, mqttMessage.getTopic(), mqttMessagePayload, getMqttId());
+    if (mqttMessage.getTopic().equals(CUMULOCITY_MQTT_TOPIC_OPERATION_JSON)) {
+      // Only operations without a static template are handled as JSON, others are received on s/ds
+      if (CConnectorApiMessageReader.isBackfillOperation(mqttMessagePayload)) {
+        operationExecutor.submit(mqttMessage.getTopic(), mqttMessagePayload, getMqttId());
+      }
+    } else if (CConnectorApiMessageReader.isErrorResponse(mqttMessagePayload)) {
+      // Error responses are cheap to handle and adjust publishing, so handle them immediately
+      CConnectorApiMessageReader.parseMessage(
+          this, mqttMessage.getTopic(), mqttMessagePayload, getMqttId());
+    } else {
+      // Pass operations to the operation worker, so the MQTT thread is never blocked
+      operationExecutor.submit(mqttMessage.getTopic(), mqttMessagePayload, getMqttId());
+    }
   }
 
   /**
@@ -199,48 +292,13 @@ public class CConnectorMqttMgr extends ConstrainedMqttManager {
     // Update last known MQTT status value
     lastKnownMqttStatusCode = currentMqttStatus;
 
-    // Retry pending payloads if connected to MQTT
+    // Send queued outbound messages if connected to MQTT
     if (currentMqttStatus == MqttStatusCode.CONNECTED) {
-      if (!pendingRetryMessages.empty()) {
-        // Get the first pending retry message
-        CConnectorRetryMessage retryPayload = (CConnectorRetryMessage) pendingRetryMessages.peek();
-
-        // Retry the payload and pop from stack if successful
-        try {
-          retryPayload.incrementRetryCount();
-          String childDevice = (String) retryPayload.getChildDevice();
-          String payloadString = (String) retryPayload.getMessagePayload();
-          sendMessageWithChildDeviceRouting(
-              payloadString, childDevice, retryPayload.getMessageType());
-          pendingRetryMessages.pop();
-          Logger.LOG_DEBUG(
-              "Successfully sent payload to Cumulocity after "
-                  + retryPayload.getRetryCount()
-                  + " retries: "
-                  + payloadString);
-          Logger.LOG_DEBUG("Pending retry payloads remaining: " + pendingRetryMessages.size());
-        } catch (Exception e) {
-          Logger.LOG_CRITICAL(
-              "Unable to send message to MQTT broker. [Retry: "
-                  + retryPayload.getRetryCount()
-                  + "]");
-          Logger.LOG_EXCEPTION(e);
-
-          // If the retry count has been exceeded, discard the message
-          if (retryPayload.getRetryCount() >= PENDING_RETRY_MESSAGE_MAX_RETRY_COUNT) {
-            Logger.LOG_CRITICAL(
-                "The maximum number of retries has been exceeded for the following message: "
-                    + retryPayload.getMessagePayload()
-                    + "\n"
-                    + "The message has been discarded.");
-            pendingRetryMessages.pop();
-          }
-        }
-      }
-    } else {
+      outboundScheduler.drain(this);
+    } else if (CConnectorLogger.isDebugEnabled()) {
       Logger.LOG_DEBUG(
           "The MQTT client is not connected. There are currently "
-              + pendingRetryMessages.size()
+              + outboundScheduler.getQueuedMessageCount()
               + " pending messages to send upon reconnect.");
     }
   }
@@ -264,11 +322,8 @@ public class CConnectorMqttMgr extends ConstrainedMqttManager {
 
     // Request pending operations (500)
     try {
-      mqttPublish(
-          CUMULOCITY_MQTT_TOPIC_SUS,
-          CConnectorApiMessageBuilder.getPendingOperations_500(),
-          MQTT_QOS_LEVEL,
-          MQTT_RETAIN);
+      rateLimitedPublish(
+          CUMULOCITY_MQTT_TOPIC_SUS, CConnectorApiMessageBuilder.getPendingOperations_500());
     } catch (Exception e) {
       Logger.LOG_CRITICAL("Unable to request pending operations (Template 500) on MQTT connect!");
       Logger.LOG_EXCEPTION(e);
@@ -280,9 +335,15 @@ public class CConnectorMqttMgr extends ConstrainedMqttManager {
     // Send configuration to Cumulocity
     sendConfigurationFileToCumulocity();
 
+    // Register custom templates with Cumulocity (if enabled and not already registered)
+    registerCustomTemplates();
+
     // Check and send Cumulocity inventory object update for parent
     final boolean updateOnlyParentFile = true;
     InventoryUpdateManager.loadInventoryUpdatePayloads(updateOnlyParentFile);
+
+    // Send messages queued while disconnected, such as operation responses finalized above
+    outboundScheduler.drain(this);
   }
 
   /** Sends basic information about the connector and hardware to Cumulocity. */
@@ -294,7 +355,8 @@ public class CConnectorMqttMgr extends ConstrainedMqttManager {
         "\"" + CConnectorMqttMgr.class.getPackage().getImplementationVersion() + "\"";
     String connectorDownloadUrl = "\"" + CONNECTOR_DOWNLOAD_URL + "\"";
 
-    Logger.LOG_INFO("Sending connector and hardware information to Cumulocity.");
+    Logger.LOG_INFO(
+        "Sending changed connector and hardware information to Cumulocity (if any).");
 
     // Send agent information
     try {
@@ -302,8 +364,9 @@ public class CConnectorMqttMgr extends ConstrainedMqttManager {
           CConnectorApiMessageBuilder.buildC8YAgentPayload(
               connectorName, connectorVersion, connectorDownloadUrl);
       String agentInfoTopic = CUMULOCITY_MQTT_TOPIC_AGENT_INFO_PREFIX + getMqttId();
-      mqttPublish(agentInfoTopic, agentInfoPayload, MQTT_QOS_LEVEL, MQTT_RETAIN);
-      Logger.LOG_DEBUG("Sent agent information to Cumulocity successfully.");
+      if (publishIfChanged(PUBLISH_ITEM_AGENT, agentInfoTopic, agentInfoPayload)) {
+        Logger.LOG_DEBUG("Sent agent information to Cumulocity successfully.");
+      }
     } catch (Exception e) {
       Logger.LOG_CRITICAL("Unable to send agent information to Cumulocity!");
       Logger.LOG_EXCEPTION(e);
@@ -311,12 +374,12 @@ public class CConnectorMqttMgr extends ConstrainedMqttManager {
 
     // Send supported operation information
     try {
-      mqttPublish(
+      if (publishIfChanged(
+          PUBLISH_ITEM_SUPPORTED_OPERATIONS,
           CUMULOCITY_MQTT_TOPIC_SUS,
-          CConnectorApiMessageBuilder.setSupportedOperations_114(CONNECTOR_SUPPORTED_OPERATIONS),
-          MQTT_QOS_LEVEL,
-          MQTT_RETAIN);
-      Logger.LOG_DEBUG("Sent supported operation information to Cumulocity successfully.");
+          CConnectorApiMessageBuilder.setSupportedOperations_114(CONNECTOR_SUPPORTED_OPERATIONS))) {
+        Logger.LOG_DEBUG("Sent supported operation information to Cumulocity successfully.");
+      }
     } catch (Exception e) {
       Logger.LOG_CRITICAL("Unable to send supported operation information to Cumulocity!");
       Logger.LOG_EXCEPTION(e);
@@ -328,12 +391,12 @@ public class CConnectorMqttMgr extends ConstrainedMqttManager {
       String serialNumber = "\"" + sysControlBlockInf.getItem("MbSerNum") + "\"";
       String modelNumber = "\"" + sysControlBlockInf.getItem("MbPartNum") + "\"";
       String revision = "\"" + sysControlBlockInf.getItem("MbExtInfo") + "\"";
-      mqttPublish(
+      if (publishIfChanged(
+          PUBLISH_ITEM_HARDWARE,
           CUMULOCITY_MQTT_TOPIC_SUS,
-          CConnectorApiMessageBuilder.configureHardware_110(serialNumber, modelNumber, revision),
-          MQTT_QOS_LEVEL,
-          MQTT_RETAIN);
-      Logger.LOG_DEBUG("Sent hardware information to Cumulocity successfully.");
+          CConnectorApiMessageBuilder.configureHardware_110(serialNumber, modelNumber, revision))) {
+        Logger.LOG_DEBUG("Sent hardware information to Cumulocity successfully.");
+      }
     } catch (Exception e) {
       Logger.LOG_CRITICAL("Unable to send hardware information to Cumulocity!");
       Logger.LOG_EXCEPTION(e);
@@ -349,22 +412,68 @@ public class CConnectorMqttMgr extends ConstrainedMqttManager {
       String firmwareName = "er" + firmwareDownloadUrlVersion + "p" + firmwareDownloadPCode + "_ma";
       String firmwareDownloadUrl =
           "\"" + EWON_FIRMWARE_DOWNLOAD_WEBPAGE_URL + firmwareName + ".edf" + "\"";
-      mqttPublish(
+      if (publishIfChanged(
+          PUBLISH_ITEM_FIRMWARE,
           CUMULOCITY_MQTT_TOPIC_SUS,
           CConnectorApiMessageBuilder.setFirmware_115(
-              firmwareName, firmwareVersion, firmwareDownloadUrl),
-          MQTT_QOS_LEVEL,
-          MQTT_RETAIN);
-      Logger.LOG_DEBUG("Sent firmware information to Cumulocity successfully.");
+              firmwareName, firmwareVersion, firmwareDownloadUrl))) {
+        Logger.LOG_DEBUG("Sent firmware information to Cumulocity successfully.");
+      }
     } catch (Exception e) {
       Logger.LOG_CRITICAL("Unable to send firmware information to Cumulocity!");
       Logger.LOG_EXCEPTION(e);
     }
   }
 
+  /**
+   * Registers the connector's custom (SmartREST 2.0) measurement template collection with
+   * Cumulocity, if custom templates are enabled and templates have been created.
+   */
+  public void registerCustomTemplates() {
+    if (CConnectorMain.getConnectorConfig().getCumulocityCustomTemplatesEnabled()) {
+      try {
+        customTemplateMgr.registerTemplates(this);
+      } catch (Exception e) {
+        Logger.LOG_CRITICAL("Unable to register custom templates with Cumulocity!");
+        Logger.LOG_EXCEPTION(e);
+      }
+    }
+  }
+
+  /**
+   * Publishes the specified custom (SmartREST 2.0) template collection to Cumulocity, unless the
+   * same template collection was already published successfully and the publish refresh interval
+   * has not elapsed.
+   *
+   * @param collectionName name of the template collection
+   * @param collectionPayload template creation request lines of the template collection
+   * @throws EWException for Ewon exceptions publishing MQTT messages
+   * @throws UnsupportedEncodingException for string encoding exceptions
+   */
+  public void publishCustomTemplateCollection(String collectionName, String collectionPayload)
+      throws EWException, UnsupportedEncodingException {
+    if (publishIfChanged(
+        PUBLISH_ITEM_CUSTOM_TEMPLATES,
+        CUMULOCITY_MQTT_TOPIC_SUT + "/" + collectionName,
+        collectionPayload)) {
+      Logger.LOG_INFO("Registered custom template collection " + collectionName + ".");
+    }
+  }
+
+  /**
+   * Gets the manager for the connector's custom (SmartREST 2.0) measurement templates.
+   *
+   * @return custom template manager
+   */
+  public CConnectorCustomTemplateMgr getCustomTemplateMgr() {
+    return customTemplateMgr;
+  }
+
   /**
    * Sends the specified operation response to Cumulocity on the correct topic based on the original
-   * request topic.
+   * request topic. The operation response is queued in the {@link CConnectorOutboundLane#OPERATION}
+   * lane, so it is sent ahead of queued alarms and measurements. Responses to JSON operations are
+   * sent for the device itself.
    *
    * @param originalMessageTopic the topic where the original request was received
    * @param operationResponsePayload the operation response payload to send
@@ -372,16 +481,20 @@ public class CConnectorMqttMgr extends ConstrainedMqttManager {
   public void sendOperationResponse(String originalMessageTopic, String operationResponsePayload) {
     // Build topic name to publish operation response to (switch downstream to upstream)
     String operationResponseTopic =
-        StringUtils.replace(
-            originalMessageTopic, CUMULOCITY_MQTT_TOPIC_SDS, CUMULOCITY_MQTT_TOPIC_SUS);
-
-    // Send operation response to Cumulocity
-    try {
-      mqttPublish(operationResponseTopic, operationResponsePayload, MQTT_QOS_LEVEL, MQTT_RETAIN);
-    } catch (Exception e) {
-      Logger.LOG_CRITICAL("Unable to send a response for a received message or operation!");
-      Logger.LOG_EXCEPTION(e);
-    }
+        originalMessageTopic.equals(CUMULOCITY_MQTT_TOPIC_OPERATION_JSON)
+            ? CUMULOCITY_MQTT_TOPIC_SUS
+            : StringUtils.replace(
+                originalMessageTopic, CUMULOCITY_MQTT_TOPIC_SDS, CUMULOCITY_MQTT_TOPIC_SUS);
+
+    // Queue operation response and send queued messages
+    outboundScheduler.enqueue(
+        new CConnectorRetryMessage(
+            operationResponsePayload,
+            operationResponseTopic,
+            null,
+            CConnectorMessageType.OTHER),
+        CConnectorOutboundLane.OPERATION);
+    drainOutboundMessages();
   }
 
   /** Sends the current connector configuration to Cumulocity. */
@@ -393,7 +506,9 @@ public class CConnectorMqttMgr extends ConstrainedMqttManager {
           CConnectorApiMessageBuilder.setConfiguration_113(
               CConnectorMain.getConnectorConfig()
                   .getConfigFileEscapedString(maskPasswordsInConfig));
-      mqttPublish(CUMULOCITY_MQTT_TOPIC_SUS, s, MQTT_QOS_LEVEL, MQTT_RETAIN);
+      if (publishIfChanged(PUBLISH_ITEM_CONFIGURATION, CUMULOCITY_MQTT_TOPIC_SUS, s)) {
+        Logger.LOG_DEBUG("Sent configuration to Cumulocity successfully.");
+      }
     } catch (Exception e) {
       Logger.LOG_CRITICAL("Unable to send the current configuration to Cumulocity!");
       Logger.LOG_EXCEPTION(e);
@@ -401,23 +516,260 @@ public class CConnectorMqttMgr extends ConstrainedMqttManager {
   }
 
   /**
-   * Adds the specified message and child device (if not null) to the stack of pending messages to
-   * be retried later. The most recent message is retried each time the MQTT loop executes while
-   * connected, up to a maximum of {@link #PENDING_RETRY_MESSAGE_MAX_RETRY_COUNT} times. If the
-   * maximum retry count is reached, the message is discarded.
+   * Sends the specified historical log gap report to Cumulocity as a fragment of the device
+   * inventory object, unless the same report was already sent and the publish refresh interval has
+   * not elapsed.
+   *
+   * @param gapReportJson gap report JSON object string
+   * @throws EWException for Ewon exceptions publishing MQTT messages
+   * @throws UnsupportedEncodingException for string encoding exceptions
+   */
+  public void sendGapReportToCumulocity(String gapReportJson)
+      throws EWException, UnsupportedEncodingException {
+    String gapReportPayload = "{\"" + GAP_REPORT_FRAGMENT + "\":" + gapReportJson + "}";
+    if (publishIfChanged(
+        PUBLISH_ITEM_GAP_REPORT,
+        CUMULOCITY_MQTT_TOPIC_AGENT_INFO_PREFIX + getMqttId(),
+        gapReportPayload)) {
+      Logger.LOG_DEBUG("Sent the historical log gap report to Cumulocity successfully.");
+    }
+  }
+
+  /**
+   * Publishes the specified information payload to the specified topic, unless the same payload was
+   * already published successfully for the specified item and the publish refresh interval has not
+   * elapsed. The payload is recorded in the {@link #publishDigestCache} after it is published
+   * successfully.
    *
-   * <p>If the retry is successful, the message is removed from the stack and the next message will
-   * be retried on the next MQTT loop execution.
+   * @param itemKey key which uniquely identifies the published item
+   * @param topic topic to publish the payload to
+   * @param payload payload to publish
+   * @return true if the payload was published, false if it was skipped because it is unchanged
+   * @throws EWException for Ewon exceptions publishing MQTT messages
+   * @throws UnsupportedEncodingException for string encoding exceptions
+   */
+  private boolean publishIfChanged(String itemKey, String topic, String payload)
+      throws EWException, UnsupportedEncodingException {
+    if (!publishDigestCache.isPublishRequired(itemKey, payload)) {
+      Logger.LOG_DEBUG("Skipped publishing unchanged item [" + itemKey + "] to Cumulocity.");
+      return false;
+    }
+
+    rateLimitedPublish(topic, payload);
+    publishDigestCache.markPublished(itemKey, payload);
+    return true;
+  }
+
+  /**
+   * Queues the specified message and child device (if not null) in the specified outbound lane,
+   * then sends queued messages if connected. Queued messages are sent in priority order, with
+   * operation responses and alarms sent ahead of measurements. If a queued message fails to send,
+   * it is retried on the next send of queued messages (including each time the MQTT loop executes
+   * while connected), and it is discarded after the maximum number of retries.
+   *
+   * @param messagePayload the message payload to send
+   * @param childDevice the child device to route the message to (if not null)
+   * @param messageType the value indicating the type of the message
+   * @param lane the outbound lane to queue the message in
+   */
+  public void queueMessage(
+      String messagePayload,
+      String childDevice,
+      CConnectorMessageType messageType,
+      CConnectorOutboundLane lane) {
+    queueMessage(messagePayload, childDevice, messageType, lane, null);
+  }
+
+  /**
+   * Queues the specified message, built from the specified historical log span, in the specified
+   * outbound lane, then sends queued messages if connected. The message is counted as pending by
+   * the span until it is published or discarded, so that the historical log checkpoint does not
+   * move past the span before all of its messages have been published.
    *
    * @param messagePayload the message payload to send
    * @param childDevice the child device to route the message to (if not null)
    * @param messageType the value indicating the type of the message
+   * @param lane the outbound lane to queue the message in
+   * @param span the historical log span the message was built from (if not null)
+   */
+  public void queueMessage(
+      String messagePayload,
+      String childDevice,
+      CConnectorMessageType messageType,
+      CConnectorOutboundLane lane,
+      CConnectorQueueSpan span) {
+    queueMessage(new CConnectorRetryMessage(messagePayload, childDevice, messageType, span), lane);
+  }
+
+  /**
+   * Queues the specified message in the specified outbound lane, then sends queued messages if
+   * connected. The {@link CConnectorRetryMessage#onPublished()} or {@link
+   * CConnectorRetryMessage#onDiscarded()} method of the message is called once it is published or
+   * discarded.
+   *
+   * @param message the message to send
+   * @param lane the outbound lane to queue the message in
+   */
+  public void queueMessage(CConnectorRetryMessage message, CConnectorOutboundLane lane) {
+    outboundScheduler.enqueue(message, lane);
+    drainOutboundMessages();
+  }
+
+  /**
+   * Shuts down the worker thread which handles operations received from Cumulocity. The operation
+   * being handled, if any, is given a short time to finish and queue its status updates.
+   */
+  public void shutdownOperationExecutor() {
+    operationExecutor.shutdown();
+  }
+
+  /**
+   * Sends queued outbound messages, if the MQTT client is connected. If another thread is already
+   * sending queued messages, this method returns immediately and the messages are sent by that
+   * thread.
+   */
+  public void drainOutboundMessages() {
+    if (lastKnownMqttStatusCode == MqttStatusCode.CONNECTED) {
+      outboundScheduler.drain(this);
+    }
+  }
+
+  /**
+   * Gets a boolean indicating if the specified outbound lane is full. The historical data queue
+   * should not be polled while the {@link CConnectorOutboundLane#MEASUREMENT} lane is full.
+   *
+   * @param lane the outbound lane to check
+   * @return true if the lane is full, otherwise false
+   */
+  public boolean isOutboundLaneFull(CConnectorOutboundLane lane) {
+    return outboundScheduler.isLaneFull(lane);
+  }
+
+  /**
+   * Publishes the specified payload to the specified topic, after waiting for the {@link
+   * #publishRateLimiter} to allow it.
+   *
+   * @param topic the topic to publish the payload to
+   * @param payload the payload to publish
+   * @throws EWException if an Ewon exception occurs, check the Ewon event log for more details
+   * @throws UnsupportedEncodingException if the character encoding is not supported
+   */
+  private void rateLimitedPublish(String topic, String payload)
+      throws EWException, UnsupportedEncodingException {
+    publishRateLimiter.acquire(payload.length());
+    mqttPublish(topic, payload, MQTT_QOS_LEVEL, MQTT_RETAIN);
+  }
+
+  /**
+   * Gets the time (in milliseconds) until a message with the specified payload size may be
+   * published without exceeding the publish rate limit.
+   *
+   * @param payloadBytes the size of the message payload
+   * @return the time (in milliseconds) to wait, or zero if the message may be published now
+   */
+  long getPublishWaitMillis(int payloadBytes) {
+    return publishRateLimiter.getWaitMillis(payloadBytes);
+  }
+
+  /**
+   * Records the specified error response from Cumulocity and adjusts publishing accordingly. Error
+   * responses indicating throttling or overload reduce the publish rate, which is restored
+   * gradually while no further such error responses are received. If the number of error responses
+   * of any class within the last minute reaches {@link #ERROR_RESPONSE_PAUSE_THRESHOLD}, the
+   * measurement and backfill lanes are paused for {@link #ERROR_RESPONSE_PAUSE_MILLIS}, so that
+   * operation responses and alarms continue to be sent.
+   *
+   * @param erroredTemplate the template reported in the error response
+   * @param reason the reason text reported in the error response
    */
-  public void addMessageToRetryPending(
-      String messagePayload, String childDevice, CConnectorMessageType messageType) {
-    CConnectorRetryMessage cConnectorRetryMessage =
-        new CConnectorRetryMessage(messagePayload, childDevice, messageType);
-    pendingRetryMessages.push(cConnectorRetryMessage);
+  public void onCumulocityErrorResponse(String erroredTemplate, String reason) {
+    int errorClass = errorResponseMonitor.recordErrorResponse(erroredTemplate, reason);
+    if (errorClass == CConnectorErrorResponseMonitor.ERROR_CLASS_THROTTLED) {
+      publishRateLimiter.backOff();
+    }
+
+    if (errorResponseMonitor.getWindowErrorCount() >= ERROR_RESPONSE_PAUSE_THRESHOLD
+        && !outboundScheduler.isLanePaused(CConnectorOutboundLane.MEASUREMENT)) {
+      outboundScheduler.pauseLane(CConnectorOutboundLane.MEASUREMENT, ERROR_RESPONSE_PAUSE_MILLIS);
+      outboundScheduler.pauseLane(CConnectorOutboundLane.BACKFILL, ERROR_RESPONSE_PAUSE_MILLIS);
+      Logger.LOG_WARN(
+          "Received "
+              + errorResponseMonitor.getWindowErrorCount()
+              + " error responses from Cumulocity in the last minute. Pausing measurements for "
+              + ERROR_RESPONSE_PAUSE_MILLIS
+              + " ms.");
+    }
+  }
+
+  /**
+   * Gets the publish metrics of the connector as a JSON object string. The metrics include the
+   * publish rate limit, the queued outbound messages, the prefetched and split historical log
+   * spans, the historical log gaps and backfill ranges, the open rollup windows and late rollup
+   * data points, the error responses received from Cumulocity, the number of suppressed alarm
+   * changes and the values sent by the realtime lane.
+   *
+   * @return publish metrics JSON object string
+   */
+  public String getPublishMetricsJson() {
+    StringBuffer metricsJson = new StringBuffer("{");
+    metricsJson.append("\"publishRatePercent\":");
+    metricsJson.append(Math.round(publishRateLimiter.getRateFactor() * 100));
+    metricsJson.append(",\"queuedMessages\":");
+    metricsJson.append(outboundScheduler.getQueuedMessageCount());
+    metricsJson.append(",\"queuedBytes\":{");
+    for (int i = 0; i < CConnectorOutboundLane.LANE_COUNT; i++) {
+      CConnectorOutboundLane lane = CConnectorOutboundLane.fromValue(i);
+      if (i > 0) {
+        metricsJson.append(',');
+      }
+      metricsJson.append('"').append(lane.getName()).append("\":");
+      metricsJson.append(outboundScheduler.getQueuedBytes(lane));
+    }
+    metricsJson.append("},\"queuedOperations\":");
+    metricsJson.append(operationExecutor.getQueuedOperationCount());
+    metricsJson.append(",\"prefetchedSpans\":");
+    metricsJson.append(CConnectorDataMgr.getPrefetchedSpanCount());
+    metricsJson.append(",\"spanSplits\":");
+    metricsJson.append(CConnectorDataMgr.getSpanSplitCount());
+    metricsJson.append(",\"deliveryGaps\":");
+    metricsJson.append(CConnectorDataMgr.getGapCount());
+    metricsJson.append(",\"backfillRanges\":");
+    metricsJson.append(CConnectorDataMgr.getBackfillRangeCount());
+    metricsJson.append(",\"rollupOpenWindows\":");
+    metricsJson.append(CConnectorDataMgr.getRollupOpenWindowCount());
+    metricsJson.append(",\"rollupLateDatapoints\":");
+    metricsJson.append(CConnectorDataMgr.getRollupLateDatapointCount());
+    metricsJson.append(",\"measurementsPaused\":");
+    metricsJson.append(outboundScheduler.isLanePaused(CConnectorOutboundLane.MEASUREMENT));
+    metricsJson.append(',');
+    errorResponseMonitor.appendMetricsJson(metricsJson);
+    metricsJson.append(",\"suppressedAlarmChanges\":");
+    metricsJson.append(CConnectorAlarmMgr.getSuppressedAlarmChangeCount());
+    metricsJson.append(",\"realtimeValues\":");
+    metricsJson.append(CConnectorRealtimeMgr.getSentValueCount());
+    metricsJson.append(",\"realtimeDuplicates\":");
+    metricsJson.append(CConnectorRealtimeMgr.getDuplicateValueCount());
+    metricsJson.append('}');
+    return metricsJson.toString();
+  }
+
+  /**
+   * Publishes the specified queued message. Messages with a topic are published to that topic, and
+   * other messages are published using {@link #sendMessageWithChildDeviceRouting(String, String,
+   * CConnectorMessageType)}. This method is called by the {@link CConnectorOutboundScheduler}.
+   *
+   * @param message the queued message to publish
+   * @throws EWException if an Ewon exception occurs, check the Ewon event log for more details
+   * @throws UnsupportedEncodingException if the character encoding is not supported
+   */
+  void publishQueuedMessage(CConnectorRetryMessage message)
+      throws EWException, UnsupportedEncodingException {
+    if (message.getMessageTopic() != null) {
+      rateLimitedPublish(message.getMessageTopic(), message.getMessagePayload());
+    } else {
+      sendMessageWithChildDeviceRouting(
+          message.getMessagePayload(), message.getChildDevice(), message.getMessageType());
+    }
   }
 
   /**
@@ -440,8 +792,7 @@ public class CConnectorMqttMgr extends ConstrainedMqttManager {
       // Register child device
       String childDeviceRegistrationPayload =
           CConnectorApiMessageBuilder.childDeviceCreation_101(childDeviceCumulocityId, childDevice);
-      mqttPublish(
-          CUMULOCITY_MQTT_TOPIC_SUS, childDeviceRegistrationPayload, MQTT_QOS_LEVEL, MQTT_RETAIN);
+      rateLimitedPublish(CUMULOCITY_MQTT_TOPIC_SUS, childDeviceRegistrationPayload);
       Logger.LOG_INFO("Registered child device " + childDevice + " with Cumulocity.");
 
       // Update the child object, if specified tags exist
@@ -469,15 +820,34 @@ public class CConnectorMqttMgr extends ConstrainedMqttManager {
       throws EWException, UnsupportedEncodingException {
 
     String childDeviceCumulocityId = getMqttId() + "_" + childDeviceName;
-    mqttPublish(
+    rateLimitedPublish(
         CUMULOCITY_MQTT_TOPIC_AGENT_INFO_PREFIX + childDeviceCumulocityId,
-        childDeviceObjectUpdatePayload,
-        MQTT_QOS_LEVEL,
-        MQTT_RETAIN);
+        childDeviceObjectUpdatePayload);
 
     Logger.LOG_INFO("Updated child device " + childDeviceName + " inventory object.");
   }
 
+  /**
+   * Send Inventory object update message for the parent device, unless the same payload was
+   * already sent successfully and the publish refresh interval has not elapsed. This is used when
+   * the parent device inventory object is updated on MQTT connect.
+   *
+   * @param parentDeviceObjectUpdatePayload the payload to send to Cumulocity for inventory object
+   *     update
+   * @throws EWException for Ewon exceptions publishing MQTT messages
+   * @throws UnsupportedEncodingException for string encoding exceptions
+   */
+  public void updateParentDeviceInventoryObjectIfChanged(String parentDeviceObjectUpdatePayload)
+      throws EWException, UnsupportedEncodingException {
+    if (publishDigestCache.isPublishRequired(
+        PUBLISH_ITEM_PARENT_INVENTORY, parentDeviceObjectUpdatePayload)) {
+      updateParentDeviceInventoryObject(parentDeviceObjectUpdatePayload);
+    } else {
+      Logger.LOG_DEBUG(
+          "Skipped unchanged " + getMqttId() + " metadata update to Cumulocity on connect.");
+    }
+  }
+
   /**
    * Send Inventory object update message for the parent device.
    *
@@ -489,11 +859,10 @@ public class CConnectorMqttMgr extends ConstrainedMqttManager {
   public void updateParentDeviceInventoryObject(String parentDeviceObjectUpdatePayload)
       throws EWException, UnsupportedEncodingException {
 
-    mqttPublish(
-        CUMULOCITY_MQTT_TOPIC_AGENT_INFO_PREFIX + getMqttId(),
-        parentDeviceObjectUpdatePayload,
-        MQTT_QOS_LEVEL,
-        MQTT_RETAIN);
+    rateLimitedPublish(
+        CUMULOCITY_MQTT_TOPIC_AGENT_INFO_PREFIX + getMqttId(), parentDeviceObjectUpdatePayload);
+    publishDigestCache.markPublished(
+        PUBLISH_ITEM_PARENT_INVENTORY, parentDeviceObjectUpdatePayload);
 
     Logger.LOG_INFO("Updated " + getMqttId() + " metadata with Cumulocity.");
   }
@@ -531,6 +900,20 @@ public class CConnectorMqttMgr extends ConstrainedMqttManager {
           dataProcessingMode.getValue() + "/" + CUMULOCITY_MQTT_UPSTREAM;
       messageTopic =
           childDevice == null ? messageTopicBase : messageTopicBase + "/" + childDeviceCumulocityId;
+    } else if (messageType == CConnectorMessageType.CUSTOM_TEMPLATE_DATA) {
+      String collectionName = customTemplateMgr.getRegisteredCollectionName();
+      if (collectionName == null) {
+        throw new IllegalStateException(
+            "Unable to send custom template data before custom templates are registered.");
+      }
+      final String messageTopicBase =
+          dataProcessingMode.getValue()
+              + "/"
+              + CUMULOCITY_MQTT_UPSTREAM_CUSTOM
+              + "/"
+              + collectionName;
+      messageTopic =
+          childDevice == null ? messageTopicBase : messageTopicBase + "/" + childDeviceCumulocityId;
     } else if (messageType == CConnectorMessageType.JSON_DATA) {
       messageTopic =
           dataProcessingMode == CConnectorDataProcessingMode.PERSISTENT
@@ -544,9 +927,14 @@ public class CConnectorMqttMgr extends ConstrainedMqttManager {
     }
 
     // Send message to Cumulocity
-    mqttPublish(messageTopic, messagePayload, MQTT_QOS_LEVEL, MQTT_RETAIN);
-    Logger.LOG_DEBUG(
-        "Sent message to Cumulocity on topic [" + messageTopic + "]: " + messagePayload);
+    rateLimitedPublish(messageTopic, messagePayload);
+    if (CConnectorLogger.isDebugEnabled()) {
+      Logger.LOG_DEBUG(
+          "Sent message to Cumulocity on topic ["
+              + messageTopic
+              + "]: "
+              + CConnectorLogger.previewPayload(messagePayload));
+    }
   }
 
   /**
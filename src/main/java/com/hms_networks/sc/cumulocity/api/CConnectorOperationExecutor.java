@@ -0,0 +1,242 @@
+package com.hms_networks.sc.cumulocity.api;
+
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+import com.hms_networks.sc.cumulocity.CConnectorLogger;
+import java.util.LinkedList;
+
+/**
+ * Executor for operations received from Cumulocity. Operations are handled by a single long-lived
+ * worker thread, so long running operations, such as firmware downloads, do not block the MQTT
+ * callback thread. Operations are handled in the order they are received, and operation status
+ * updates (executing, successful and failed) are sent by the worker thread.
+ *
+ * <p>The number of queued operations is limited to {@link #MAX_QUEUED_OPERATIONS}. Operations
+ * received while the queue is full are rejected and reported to Cumulocity as failed.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 1.5.0
+ */
+public class CConnectorOperationExecutor {
+
+  /** The maximum number of operations waiting to be handled by the worker thread. */
+  private static final int MAX_QUEUED_OPERATIONS = 16;
+
+  /** Name of the operation worker thread. */
+  private static final String OPERATION_WORKER_THREAD_NAME = "CumulocityOperationWorker";
+
+  /** The time (in milliseconds) to wait for the worker thread to stop when shutting down. */
+  private static final long SHUTDOWN_WAIT_MILLIS = 1000;
+
+  /** Index of the MQTT topic in a queued operation. */
+  private static final int OPERATION_TOPIC_INDEX = 0;
+
+  /** Index of the message payload in a queued operation. */
+  private static final int OPERATION_MESSAGE_INDEX = 1;
+
+  /** Index of the expected device ID in a queued operation. */
+  private static final int OPERATION_DEVICE_ID_INDEX = 2;
+
+  /** Key for rate limiting log messages about rejected operations. */
+  private static final String LOG_KEY_OPERATION_REJECTED = "operationRejected";
+
+  /** The response string used to indicate a rejected operation due to a full operation queue. */
+  private static final String RESPONSE_OPERATION_QUEUE_FULL =
+      "Too many operations are waiting to be handled by the device. Retry the operation later.";
+
+  /** The response string used to indicate a failed operation due to an unexpected exception. */
+  private static final String RESPONSE_OPERATION_EXCEPTION =
+      "An unexpected exception occurred while handling the operation.";
+
+  /** The MQTT manager which received the operations and sends the operation status updates. */
+  private final CConnectorMqttMgr mqttMgr;
+
+  /** Reusable tokenizer for operation messages, only used by the worker thread. */
+  private final CConnectorSmartRestMessage workerMessage = new CConnectorSmartRestMessage();
+
+  /** Queue of operations waiting to be handled, oldest first. */
+  private final LinkedList operationQueue = new LinkedList(); // List<String[3]>
+
+  /** Single long-lived worker thread for handling operations. */
+  private Thread workerThread = null;
+
+  /** Boolean flag indicating if the worker thread should keep running. */
+  private boolean workerRunning = false;
+
+  /** Boolean flag indicating if the executor has been shut down and accepts no new operations. */
+  private boolean shutDown = false;
+
+  /**
+   * Constructor for a new {@link CConnectorOperationExecutor} for operations received by the
+   * specified MQTT manager. The worker thread is started when the first operation is submitted.
+   *
+   * @param mqttMgr MQTT manager which receives the operations
+   */
+  public CConnectorOperationExecutor(CConnectorMqttMgr mqttMgr) {
+    this.mqttMgr = mqttMgr;
+  }
+
+  /**
+   * Submits the specified operation message to be handled by the worker thread. The caller is never
+   * blocked. If the operation queue is full, the operation is rejected and reported to Cumulocity
+   * as failed.
+   *
+   * @param mqttTopic MQTT topic on which the message was received
+   * @param message operation message received from Cumulocity
+   * @param expectedDeviceId expected device ID of the message
+   * @return true if the operation was queued, false if it was rejected
+   */
+  public boolean submit(String mqttTopic, String message, String expectedDeviceId) {
+    synchronized (operationQueue) {
+      if (shutDown) {
+        Logger.LOG_WARN("Ignored a Cumulocity operation received while shutting down.");
+        return false;
+      }
+      if (operationQueue.size() < MAX_QUEUED_OPERATIONS) {
+        operationQueue.addLast(new String[] {mqttTopic, message, expectedDeviceId});
+        if (workerThread == null || !workerThread.isAlive()) {
+          startWorker();
+        }
+        operationQueue.notifyAll();
+        return true;
+      }
+    }
+
+    rejectOperation(mqttTopic, message);
+    return false;
+  }
+
+  /**
+   * Gets the number of operations waiting to be handled by the worker thread.
+   *
+   * @return number of queued operations
+   */
+  public int getQueuedOperationCount() {
+    synchronized (operationQueue) {
+      return operationQueue.size();
+    }
+  }
+
+  /**
+   * Shuts down the worker thread, if running. Operations received after shutdown are ignored, and
+   * queued operations which have not been started are discarded. Both remain pending in
+   * Cumulocity. The operation being handled, if any, is given up to {@link #SHUTDOWN_WAIT_MILLIS}
+   * to finish.
+   */
+  public void shutdown() {
+    Thread stoppingThread;
+    synchronized (operationQueue) {
+      shutDown = true;
+      workerRunning = false;
+      if (!operationQueue.isEmpty()) {
+        Logger.LOG_WARN(
+            "Discarding "
+                + operationQueue.size()
+                + " queued Cumulocity operation(s). They will be received again on reconnect.");
+        operationQueue.clear();
+      }
+      operationQueue.notifyAll();
+      stoppingThread = workerThread;
+      workerThread = null;
+    }
+
+    if (stoppingThread != null && stoppingThread.isAlive()) {
+      try {
+        stoppingThread.join(SHUTDOWN_WAIT_MILLIS);
+      } catch (InterruptedException e) {
+        Logger.LOG_CRITICAL(
+            "Exception waiting for the operation worker thread to stop: " + e.getMessage());
+        Logger.LOG_EXCEPTION(e);
+      }
+    }
+  }
+
+  /** Starts the worker thread. This method must be called while holding the queue lock. */
+  private void startWorker() {
+    workerRunning = true;
+    workerThread =
+        new Thread(
+            new Runnable() {
+              public void run() {
+                runWorker();
+              }
+            },
+            OPERATION_WORKER_THREAD_NAME);
+    workerThread.start();
+  }
+
+  /**
+   * Main loop of the operation worker thread. Waits for a queued operation, then handles it. JSON
+   * backfill operations are handled directly, and other operations are dispatched by template ID.
+   * Exceptions from an operation are reported to Cumulocity as a failed operation, and do not stop
+   * the worker thread.
+   */
+  private void runWorker() {
+    try {
+      while (true) {
+        String[] operation;
+        synchronized (operationQueue) {
+          while (workerRunning && operationQueue.isEmpty()) {
+            operationQueue.wait();
+          }
+          if (!workerRunning) {
+            break;
+          }
+          operation = (String[]) operationQueue.removeFirst();
+        }
+
+        String mqttTopic = operation[OPERATION_TOPIC_INDEX];
+        String message = operation[OPERATION_MESSAGE_INDEX];
+        try {
+          if (CConnectorApiMessageReader.isBackfillOperation(message)) {
+            CConnectorApiMessageReader.backfillOperation(mqttMgr, mqttTopic, message);
+          } else {
+            CConnectorApiMessageReader.dispatchMessage(
+                mqttMgr,
+                mqttTopic,
+                workerMessage.parse(message),
+                operation[OPERATION_DEVICE_ID_INDEX]);
+          }
+        } catch (Exception e) {
+          Logger.LOG_CRITICAL("An exception occurred while handling a Cumulocity operation.");
+          Logger.LOG_EXCEPTION(e);
+          sendOperationFailed(mqttTopic, message, RESPONSE_OPERATION_EXCEPTION);
+        }
+      }
+    } catch (InterruptedException e) {
+      Logger.LOG_DEBUG("Operation worker thread was interrupted and will stop.");
+    }
+  }
+
+  /**
+   * Rejects the specified operation because the operation queue is full.
+   *
+   * @param mqttTopic MQTT topic on which the message was received
+   * @param message operation message received from Cumulocity
+   */
+  private void rejectOperation(String mqttTopic, String message) {
+    int suppressedCount = CConnectorLogger.acquireRateLimitedLog(LOG_KEY_OPERATION_REJECTED);
+    if (suppressedCount != CConnectorLogger.RATE_LIMITED) {
+      Logger.LOG_SERIOUS(
+          "Rejected a Cumulocity operation because "
+              + MAX_QUEUED_OPERATIONS
+              + " operations are already queued."
+              + CConnectorLogger.getSuppressedSuffix(suppressedCount));
+    }
+    sendOperationFailed(mqttTopic, message, RESPONSE_OPERATION_QUEUE_FULL);
+  }
+
+  /**
+   * Reports the specified operation to Cumulocity as failed, if its operation ID is known.
+   *
+   * @param mqttTopic MQTT topic on which the message was received
+   * @param message operation message received from Cumulocity
+   * @param reason reason the operation failed
+   */
+  private void sendOperationFailed(String mqttTopic, String message, String reason) {
+    String operationId = CConnectorApiMessageReader.getOperationId(message);
+    if (operationId != null) {
+      mqttMgr.sendOperationResponse(
+          mqttTopic, CConnectorApiMessageBuilder.setOperationToFailed_502(operationId, reason));
+    }
+  }
+}
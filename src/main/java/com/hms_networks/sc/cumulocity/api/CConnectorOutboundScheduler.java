@@ -0,0 +1,348 @@
+package com.hms_networks.sc.cumulocity.api;
+
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+import com.hms_networks.sc.cumulocity.CConnectorLogger;
+import com.hms_networks.sc.cumulocity.data.CConnectorOutboundLane;
+import com.hms_networks.sc.cumulocity.data.CConnectorRetryMessage;
+import java.util.LinkedList;
+
+/**
+ * Prioritized scheduler for outbound messages to Cumulocity. Each {@link CConnectorOutboundLane}
+ * has its own first-in-first-out queue, and the lanes are drained using deficit round robin: in
+ * each round, a lane may send queued messages up to its byte budget (quantum), and unused budget is
+ * carried over while the lane has queued messages. Lanes are visited in priority order, so an
+ * operation response or alarm waits for at most one measurement lane quantum before it is sent,
+ * regardless of the number of queued measurements.
+ *
+ * <p>Only one thread drains the lanes at a time. Messages queued while another thread is draining
+ * are sent by that thread. If a message fails to send, it remains at the head of its lane and
+ * draining stops until the next drain request. A message is discarded after failing to send
+ * {@link #MAX_SEND_FAILURE_COUNT} times. Draining also stops when the publish rate limit requires a
+ * wait longer than {@link #MAX_RATE_LIMIT_WAIT_MILLIS}.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 1.5.0
+ */
+public class CConnectorOutboundScheduler {
+
+  /** The maximum number of times a message may fail to send before it is discarded. */
+  private static final int MAX_SEND_FAILURE_COUNT = 16;
+
+  /**
+   * The maximum time (in milliseconds) the draining thread waits for the publish rate limit before
+   * a message. If a longer wait is required, draining stops and the message is sent by a later
+   * drain request.
+   */
+  private static final long MAX_RATE_LIMIT_WAIT_MILLIS = 250;
+
+  /** The rate-limited log message key for failures sending queued messages. */
+  private static final String LOG_KEY_SEND_FAILURE = "outboundSendFailure";
+
+  /** The rate-limited log message key for messages discarded because their lane is full. */
+  private static final String LOG_KEY_LANE_FULL = "outboundLaneFull";
+
+  /** Queues of {@link CConnectorRetryMessage}s, indexed by lane value. */
+  private final LinkedList[] laneQueues = new LinkedList[CConnectorOutboundLane.LANE_COUNT];
+
+  /** Number of bytes queued in each lane, indexed by lane value. */
+  private final int[] laneQueuedBytes = new int[CConnectorOutboundLane.LANE_COUNT];
+
+  /** Time (in milliseconds since epoch) until which each lane is paused, indexed by lane value. */
+  private final long[] laneResumeMillis = new long[CConnectorOutboundLane.LANE_COUNT];
+
+  /** Unused byte budget (deficit) of each lane, indexed by lane value. */
+  private final int[] laneDeficitBytes = new int[CConnectorOutboundLane.LANE_COUNT];
+
+  /** The value of the lane currently being drained. */
+  private int currentLaneValue = 0;
+
+  /** Boolean indicating if the current lane has received its quantum for the current round. */
+  private boolean currentLaneTurnStarted = false;
+
+  /** The message being sent by the draining thread, or null if none. */
+  private CConnectorRetryMessage inFlightMessage = null;
+
+  /** Boolean indicating if a thread is currently draining the lanes. */
+  private boolean draining = false;
+
+  /** Constructor for a new {@link CConnectorOutboundScheduler} with empty lanes. */
+  public CConnectorOutboundScheduler() {
+    for (int i = 0; i < laneQueues.length; i++) {
+      laneQueues[i] = new LinkedList();
+    }
+  }
+
+  /**
+   * Adds the specified message to the end of the specified lane. If the lane is full and discards
+   * its oldest messages when full, the oldest messages are discarded until the message fits.
+   *
+   * @param message message to queue
+   * @param lane lane to queue the message in
+   */
+  public synchronized void enqueue(CConnectorRetryMessage message, CConnectorOutboundLane lane) {
+    final int laneValue = lane.getValue();
+    LinkedList laneQueue = laneQueues[laneValue];
+    int discardedCount = 0;
+    while (lane.isDiscardOldestWhenFull()
+        && !laneQueue.isEmpty()
+        && laneQueuedBytes[laneValue] + message.getMessageSize() > lane.getMaxQueuedBytes()) {
+      // Don't discard the message which is being sent by the draining thread
+      int discardIndex = laneQueue.getFirst() == inFlightMessage ? 1 : 0;
+      if (discardIndex >= laneQueue.size()) {
+        break;
+      }
+      CConnectorRetryMessage discarded = (CConnectorRetryMessage) laneQueue.remove(discardIndex);
+      laneQueuedBytes[laneValue] -= discarded.getMessageSize();
+      discarded.onDiscarded();
+      discardedCount++;
+    }
+    if (discardedCount > 0) {
+      int suppressedCount = CConnectorLogger.acquireRateLimitedLog(LOG_KEY_LANE_FULL);
+      if (suppressedCount != CConnectorLogger.RATE_LIMITED) {
+        Logger.LOG_SERIOUS(
+            "The "
+                + lane.getName()
+                + " outbound lane is full. Discarded "
+                + discardedCount
+                + " oldest queued message(s)."
+                + CConnectorLogger.getSuppressedSuffix(suppressedCount));
+      }
+    }
+
+    laneQueue.addLast(message);
+    laneQueuedBytes[laneValue] += message.getMessageSize();
+  }
+
+  /**
+   * Sends queued messages in priority order using the specified MQTT manager until all lanes are
+   * empty or a message fails to send. If another thread is already draining the lanes, this method
+   * returns immediately.
+   *
+   * @param mqttMgr MQTT manager to send messages with
+   */
+  public void drain(CConnectorMqttMgr mqttMgr) {
+    synchronized (this) {
+      if (draining) {
+        return;
+      }
+      draining = true;
+    }
+
+    boolean drainingReleased = false;
+    try {
+      while (true) {
+        CConnectorRetryMessage message = selectNextMessage();
+        if (message == null) {
+          // Draining was released when the lanes were found empty
+          drainingReleased = true;
+          break;
+        }
+
+        // Stop draining if the publish rate limit requires a long wait
+        if (mqttMgr.getPublishWaitMillis(message.getMessageSize()) > MAX_RATE_LIMIT_WAIT_MILLIS) {
+          releaseSelectedMessage();
+          break;
+        }
+
+        boolean sent = false;
+        try {
+          mqttMgr.publishQueuedMessage(message);
+          sent = true;
+        } catch (Exception e) {
+          message.incrementRetryCount();
+          int suppressedCount = CConnectorLogger.acquireRateLimitedLog(LOG_KEY_SEND_FAILURE);
+          if (suppressedCount != CConnectorLogger.RATE_LIMITED) {
+            Logger.LOG_CRITICAL(
+                "Unable to send message to MQTT broker. [Retry: "
+                    + message.getRetryCount()
+                    + "]"
+                    + CConnectorLogger.getSuppressedSuffix(suppressedCount));
+            Logger.LOG_EXCEPTION(e);
+          }
+        }
+
+        boolean continueDraining = completeSelectedMessage(message, sent);
+        if (sent) {
+          message.onPublished();
+        } else if (message.getRetryCount() >= MAX_SEND_FAILURE_COUNT) {
+          message.onDiscarded();
+        }
+        if (!continueDraining) {
+          break;
+        }
+      }
+    } finally {
+      if (!drainingReleased) {
+        synchronized (this) {
+          draining = false;
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets a boolean indicating if the specified lane is full. Lanes which do not discard their
+   * oldest messages when full may exceed their maximum number of queued bytes.
+   *
+   * @param lane lane to check
+   * @return true if the lane is full, otherwise false
+   */
+  public synchronized boolean isLaneFull(CConnectorOutboundLane lane) {
+    return laneQueuedBytes[lane.getValue()] >= lane.getMaxQueuedBytes();
+  }
+
+  /**
+   * Pauses sending of the specified lane for the specified time. Messages may still be queued in a
+   * paused lane, and other lanes continue to be sent.
+   *
+   * @param lane lane to pause
+   * @param pauseMillis time (in milliseconds) to pause the lane for
+   */
+  public synchronized void pauseLane(CConnectorOutboundLane lane, long pauseMillis) {
+    laneResumeMillis[lane.getValue()] = System.currentTimeMillis() + pauseMillis;
+  }
+
+  /**
+   * Gets a boolean indicating if the specified lane is currently paused.
+   *
+   * @param lane lane to check
+   * @return true if the lane is paused, otherwise false
+   */
+  public synchronized boolean isLanePaused(CConnectorOutboundLane lane) {
+    return isLanePaused(lane.getValue(), System.currentTimeMillis());
+  }
+
+  /**
+   * Gets the number of messages queued in all lanes.
+   *
+   * @return number of queued messages
+   */
+  public synchronized int getQueuedMessageCount() {
+    int queuedMessageCount = 0;
+    for (int i = 0; i < laneQueues.length; i++) {
+      queuedMessageCount += laneQueues[i].size();
+    }
+    return queuedMessageCount;
+  }
+
+  /**
+   * Gets the number of bytes queued in the specified lane.
+   *
+   * @param lane lane to get the number of queued bytes of
+   * @return number of queued bytes
+   */
+  public synchronized int getQueuedBytes(CConnectorOutboundLane lane) {
+    return laneQueuedBytes[lane.getValue()];
+  }
+
+  /**
+   * Selects the next message to send using deficit round robin. The selected message remains at the
+   * head of its lane until {@link #completeSelectedMessage(CConnectorRetryMessage, boolean)} is
+   * called. Paused lanes are skipped. If all unpaused lanes are empty, draining is released in the
+   * same synchronized block, so that a message queued concurrently is never left waiting for the
+   * next drain request.
+   *
+   * @return next message to send, or null if all unpaused lanes are empty
+   */
+  private synchronized CConnectorRetryMessage selectNextMessage() {
+    long nowMillis = System.currentTimeMillis();
+    while (hasSendableMessages(nowMillis)) {
+      LinkedList laneQueue = laneQueues[currentLaneValue];
+      if (laneQueue.isEmpty()) {
+        laneDeficitBytes[currentLaneValue] = 0;
+        advanceLane();
+        continue;
+      } else if (isLanePaused(currentLaneValue, nowMillis)) {
+        advanceLane();
+        continue;
+      }
+
+      if (!currentLaneTurnStarted) {
+        laneDeficitBytes[currentLaneValue] +=
+            CConnectorOutboundLane.fromValue(currentLaneValue).getQuantumBytes();
+        currentLaneTurnStarted = true;
+      }
+
+      CConnectorRetryMessage head = (CConnectorRetryMessage) laneQueue.getFirst();
+      if (head.getMessageSize() <= laneDeficitBytes[currentLaneValue]) {
+        inFlightMessage = head;
+        return head;
+      }
+      advanceLane();
+    }
+
+    // All unpaused lanes empty, start the next drain from the highest priority lane
+    currentLaneValue = 0;
+    currentLaneTurnStarted = false;
+    draining = false;
+    return null;
+  }
+
+  /**
+   * Completes sending of the specified message, which was selected by {@link
+   * #selectNextMessage()}. If the message was sent, or has failed to send too many times, it is
+   * removed from its lane.
+   *
+   * @param message message which was selected
+   * @param sent true if the message was sent, false if it failed to send
+   * @return true if draining should continue, otherwise false
+   */
+  private synchronized boolean completeSelectedMessage(
+      CConnectorRetryMessage message, boolean sent) {
+    inFlightMessage = null;
+    boolean discard = !sent && message.getRetryCount() >= MAX_SEND_FAILURE_COUNT;
+    if (sent || discard) {
+      laneQueues[currentLaneValue].removeFirst();
+      laneQueuedBytes[currentLaneValue] -= message.getMessageSize();
+      laneDeficitBytes[currentLaneValue] -= message.getMessageSize();
+    }
+    if (discard) {
+      Logger.LOG_CRITICAL(
+          "The maximum number of retries has been exceeded for the following message: "
+              + CConnectorLogger.previewPayload(message.getMessagePayload())
+              + "\n"
+              + "The message has been discarded.");
+    }
+    return sent;
+  }
+
+  /**
+   * Releases the message selected by {@link #selectNextMessage()} without sending it. The message
+   * remains at the head of its lane.
+   */
+  private synchronized void releaseSelectedMessage() {
+    inFlightMessage = null;
+  }
+
+  /**
+   * Gets a boolean indicating if any unpaused lane has queued messages.
+   *
+   * @param nowMillis current time (in milliseconds since epoch)
+   * @return true if any unpaused lane has queued messages, otherwise false
+   */
+  private boolean hasSendableMessages(long nowMillis) {
+    for (int i = 0; i < laneQueues.length; i++) {
+      if (!laneQueues[i].isEmpty() && !isLanePaused(i, nowMillis)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Gets a boolean indicating if the lane with the specified value is paused.
+   *
+   * @param laneValue value of the lane
+   * @param nowMillis current time (in milliseconds since epoch)
+   * @return true if the lane is paused, otherwise false
+   */
+  private boolean isLanePaused(int laneValue, long nowMillis) {
+    return nowMillis < laneResumeMillis[laneValue];
+  }
+
+  /** Advances draining to the next lane, which has not yet received its quantum for the round. */
+  private void advanceLane() {
+    currentLaneValue = (currentLaneValue + 1) % laneQueues.length;
+    currentLaneTurnStarted = false;
+  }
+}
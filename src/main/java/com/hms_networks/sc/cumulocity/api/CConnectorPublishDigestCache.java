@@ -0,0 +1,134 @@
+package com.hms_networks.sc.cumulocity.api;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cache of digests for payloads which are published to Cumulocity on each MQTT connection, such as
+ * the agent, hardware, firmware, configuration and supported operations information. A digest of
+ * each payload is recorded after it is published successfully, and the payload is only published
+ * again when its content changes or when the configured refresh interval has elapsed.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 1.5.0
+ */
+public class CConnectorPublishDigestCache {
+
+  /** Offset basis for the 64-bit FNV-1a hash used to compute payload digests. */
+  private static final long FNV_64_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+  /** Prime for the 64-bit FNV-1a hash used to compute payload digests. */
+  private static final long FNV_64_PRIME = 0x100000001b3L;
+
+  /** Mask for the low byte of a character when computing payload digests. */
+  private static final int BYTE_MASK = 0xFF;
+
+  /** Number of bits in a byte, used to split characters when computing payload digests. */
+  private static final int BITS_PER_BYTE = 8;
+
+  /**
+   * Map of item keys to the {@link Entry} describing the last successfully published payload for
+   * the item.
+   */
+  private final Map entries = new HashMap(); // Map<String, Entry>
+
+  /**
+   * Interval (in milliseconds) after which an item is published again even if unchanged. A value
+   * of zero or less disables skipping of unchanged items.
+   */
+  private final long refreshIntervalMillis;
+
+  /**
+   * Constructor for a new {@link CConnectorPublishDigestCache} with the specified refresh interval.
+   *
+   * @param refreshIntervalMillis interval (in milliseconds) after which an item is published again
+   *     even if unchanged. A value of zero or less disables skipping of unchanged items.
+   */
+  public CConnectorPublishDigestCache(long refreshIntervalMillis) {
+    this.refreshIntervalMillis = refreshIntervalMillis;
+  }
+
+  /**
+   * Gets a boolean indicating if the specified payload needs to be published for the specified
+   * item. A payload needs to be published if the item has not been published successfully, if the
+   * payload differs from the last successfully published payload, or if the refresh interval has
+   * elapsed since the last successful publish.
+   *
+   * @param itemKey key which uniquely identifies the published item
+   * @param payload payload to be published for the item
+   * @return true if the payload needs to be published, otherwise false
+   */
+  public synchronized boolean isPublishRequired(String itemKey, String payload) {
+    if (refreshIntervalMillis <= 0) {
+      return true;
+    }
+
+    Entry entry = (Entry) entries.get(itemKey);
+    if (entry == null) {
+      return true;
+    }
+
+    boolean refreshDue =
+        System.currentTimeMillis() - entry.publishTimeMillis >= refreshIntervalMillis;
+    boolean payloadChanged =
+        entry.payloadLength != payload.length() || entry.payloadDigest != computeDigest(payload);
+    return refreshDue || payloadChanged;
+  }
+
+  /**
+   * Records that the specified payload was published successfully for the specified item.
+   *
+   * @param itemKey key which uniquely identifies the published item
+   * @param payload payload which was published for the item
+   */
+  public synchronized void markPublished(String itemKey, String payload) {
+    entries.put(
+        itemKey, new Entry(computeDigest(payload), payload.length(), System.currentTimeMillis()));
+  }
+
+  /**
+   * Computes a 64-bit FNV-1a digest of the specified payload. Each character is hashed as two
+   * bytes, so that non-ASCII content is represented in full.
+   *
+   * @param payload payload to compute the digest of
+   * @return 64-bit digest of the payload
+   */
+  static long computeDigest(String payload) {
+    long digest = FNV_64_OFFSET_BASIS;
+    for (int i = 0; i < payload.length(); i++) {
+      char c = payload.charAt(i);
+      digest ^= (c >>> BITS_PER_BYTE) & BYTE_MASK;
+      digest *= FNV_64_PRIME;
+      digest ^= c & BYTE_MASK;
+      digest *= FNV_64_PRIME;
+    }
+    return digest;
+  }
+
+  /** Record of the last successfully published payload for an item. */
+  private static class Entry {
+
+    /** Digest of the last successfully published payload. */
+    private final long payloadDigest;
+
+    /** Length of the last successfully published payload. */
+    private final int payloadLength;
+
+    /** Time (in milliseconds since epoch) of the last successful publish. */
+    private final long publishTimeMillis;
+
+    /**
+     * Constructor for a new {@link Entry} with the specified payload digest, payload length and
+     * publish time.
+     *
+     * @param payloadDigest digest of the published payload
+     * @param payloadLength length of the published payload
+     * @param publishTimeMillis time (in milliseconds since epoch) of the publish
+     */
+    private Entry(long payloadDigest, int payloadLength, long publishTimeMillis) {
+      this.payloadDigest = payloadDigest;
+      this.payloadLength = payloadLength;
+      this.publishTimeMillis = publishTimeMillis;
+    }
+  }
+}
@@ -0,0 +1,228 @@
+package com.hms_networks.sc.cumulocity.api;
+
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+
+/**
+ * Token bucket rate limiter for MQTT messages published to Cumulocity. Separate buckets limit the
+ * number of messages and the number of payload bytes published per second, each allowing a burst
+ * of up to {@link #BURST_SECONDS} seconds of its rate. Payloads larger than the byte bucket are
+ * published once the bucket is full, and the excess is repaid before the next publish.
+ *
+ * <p>The rate adapts to Cumulocity error responses: each backoff halves the allowed rate (down to
+ * {@link #MIN_RATE_FACTOR} of the configured rate), and the rate is restored in steps of {@link
+ * #RECOVERY_STEP} for each {@link #RECOVERY_INTERVAL_MILLIS} without a backoff.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 1.5.0
+ */
+public class CConnectorPublishRateLimiter {
+
+  /** The number of seconds of the configured rate which may be published in a burst. */
+  private static final double BURST_SECONDS = 2.0;
+
+  /** The minimum fraction of the configured rate that backoff can reduce the rate to. */
+  private static final double MIN_RATE_FACTOR = 0.1;
+
+  /** The multiplier applied to the rate fraction on each backoff. */
+  private static final double BACKOFF_MULTIPLIER = 0.5;
+
+  /** The minimum time (in milliseconds) between backoffs, so one burst of errors backs off once. */
+  private static final long BACKOFF_HOLD_MILLIS = 1000;
+
+  /** The fraction of the configured rate restored after each recovery interval. */
+  private static final double RECOVERY_STEP = 0.1;
+
+  /** The time (in milliseconds) without a backoff before each rate recovery step. */
+  private static final long RECOVERY_INTERVAL_MILLIS = 5000;
+
+  /** The number of milliseconds per second, used to convert rates. */
+  private static final double MILLIS_PER_SECOND = 1000.0;
+
+  /** The configured maximum number of messages per second, or zero or less if unlimited. */
+  private final double messagesPerSec;
+
+  /** The configured maximum number of payload bytes per second, or zero or less if unlimited. */
+  private final double bytesPerSec;
+
+  /** The number of message tokens available. */
+  private double messageTokens;
+
+  /** The number of byte tokens available. May be negative after publishing a large payload. */
+  private double byteTokens;
+
+  /** The fraction of the configured rate currently allowed, reduced by backoff. */
+  private double rateFactor = 1.0;
+
+  /** The time (in milliseconds since epoch) the token buckets were last refilled. */
+  private long lastRefillMillis;
+
+  /** The time (in milliseconds since epoch) of the last backoff or rate recovery step. */
+  private long lastRateChangeMillis = 0;
+
+  /** The time (in milliseconds since epoch) of the last backoff. */
+  private long lastBackoffMillis = 0;
+
+  /**
+   * Constructor for a new {@link CConnectorPublishRateLimiter} with the specified rates. The token
+   * buckets start full.
+   *
+   * @param messagesPerSec maximum number of messages per second, or zero or less for no limit
+   * @param bytesPerSec maximum number of payload bytes per second, or zero or less for no limit
+   */
+  public CConnectorPublishRateLimiter(long messagesPerSec, long bytesPerSec) {
+    this.messagesPerSec = messagesPerSec;
+    this.bytesPerSec = bytesPerSec;
+    this.messageTokens = getMessageCapacity();
+    this.byteTokens = getByteCapacity();
+    this.lastRefillMillis = System.currentTimeMillis();
+  }
+
+  /**
+   * Waits until a message with the specified payload size may be published, then consumes the
+   * tokens for it. If the thread is interrupted while waiting, the tokens are consumed without
+   * waiting and the interrupt status of the thread is restored, so that the thread can stop.
+   *
+   * @param payloadBytes size of the message payload
+   */
+  public void acquire(int payloadBytes) {
+    long waitMillis;
+    while ((waitMillis = tryConsume(payloadBytes)) > 0) {
+      try {
+        Thread.sleep(waitMillis);
+      } catch (InterruptedException e) {
+        Logger.LOG_WARN("Interrupted while waiting for the publish rate limit.");
+        forceConsume(payloadBytes);
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Gets the time (in milliseconds) until a message with the specified payload size may be
+   * published, without consuming any tokens.
+   *
+   * @param payloadBytes size of the message payload
+   * @return time (in milliseconds) until the message may be published, or zero if it may be
+   *     published now
+   */
+  public synchronized long getWaitMillis(int payloadBytes) {
+    refill(System.currentTimeMillis());
+    long waitMillis = 0;
+    if (messagesPerSec > 0 && messageTokens < 1) {
+      waitMillis = getTokenWaitMillis(1 - messageTokens, messagesPerSec);
+    }
+    double requiredByteTokens = Math.min(payloadBytes, getByteCapacity());
+    if (bytesPerSec > 0 && byteTokens < requiredByteTokens) {
+      waitMillis =
+          Math.max(waitMillis, getTokenWaitMillis(requiredByteTokens - byteTokens, bytesPerSec));
+    }
+    return waitMillis;
+  }
+
+  /**
+   * Reduces the allowed publish rate in response to a Cumulocity error response. Backoffs within
+   * {@link #BACKOFF_HOLD_MILLIS} of the previous backoff are ignored.
+   */
+  public synchronized void backOff() {
+    long nowMillis = System.currentTimeMillis();
+    refill(nowMillis);
+    if (nowMillis - lastBackoffMillis < BACKOFF_HOLD_MILLIS && nowMillis >= lastBackoffMillis) {
+      return;
+    }
+    rateFactor = Math.max(MIN_RATE_FACTOR, rateFactor * BACKOFF_MULTIPLIER);
+    lastBackoffMillis = nowMillis;
+    lastRateChangeMillis = nowMillis;
+    Logger.LOG_WARN(
+        "Reduced the publish rate to Cumulocity to "
+            + Math.round(rateFactor * 100)
+            + "% of the configured rate.");
+  }
+
+  /**
+   * Gets the fraction of the configured rate currently allowed.
+   *
+   * @return fraction of the configured rate, from {@link #MIN_RATE_FACTOR} to 1
+   */
+  public synchronized double getRateFactor() {
+    return rateFactor;
+  }
+
+  /**
+   * Consumes the tokens for a message with the specified payload size if it may be published now.
+   *
+   * @param payloadBytes size of the message payload
+   * @return zero if the tokens were consumed, otherwise the time (in milliseconds) to wait
+   */
+  private synchronized long tryConsume(int payloadBytes) {
+    long waitMillis = getWaitMillis(payloadBytes);
+    if (waitMillis == 0) {
+      forceConsume(payloadBytes);
+    }
+    return waitMillis;
+  }
+
+  /**
+   * Consumes the tokens for a message with the specified payload size, even if not available.
+   *
+   * @param payloadBytes size of the message payload
+   */
+  private synchronized void forceConsume(int payloadBytes) {
+    messageTokens -= 1;
+    byteTokens -= payloadBytes;
+  }
+
+  /**
+   * Refills the token buckets for the time elapsed since the last refill, and restores the allowed
+   * rate if the recovery interval has elapsed since the last rate change.
+   *
+   * @param nowMillis current time (in milliseconds since epoch)
+   */
+  private void refill(long nowMillis) {
+    long elapsedMillis = nowMillis - lastRefillMillis;
+    if (elapsedMillis > 0) {
+      double elapsedSecs = elapsedMillis / MILLIS_PER_SECOND;
+      messageTokens =
+          Math.min(getMessageCapacity(), messageTokens + messagesPerSec * rateFactor * elapsedSecs);
+      byteTokens = Math.min(getByteCapacity(), byteTokens + bytesPerSec * rateFactor * elapsedSecs);
+    }
+    lastRefillMillis = nowMillis;
+
+    if (rateFactor < 1.0
+        && (nowMillis - lastRateChangeMillis >= RECOVERY_INTERVAL_MILLIS
+            || nowMillis < lastRateChangeMillis)) {
+      rateFactor = Math.min(1.0, rateFactor + RECOVERY_STEP);
+      lastRateChangeMillis = nowMillis;
+    }
+  }
+
+  /**
+   * Gets the time (in milliseconds) to accumulate the specified number of tokens at the specified
+   * configured rate and the currently allowed rate fraction.
+   *
+   * @param tokens number of tokens to accumulate
+   * @param ratePerSec configured rate (tokens per second)
+   * @return time (in milliseconds) to accumulate the tokens, at least one
+   */
+  private long getTokenWaitMillis(double tokens, double ratePerSec) {
+    return Math.max(1, (long) Math.ceil(tokens * MILLIS_PER_SECOND / (ratePerSec * rateFactor)));
+  }
+
+  /**
+   * Gets the capacity of the message token bucket.
+   *
+   * @return capacity of the message token bucket
+   */
+  private double getMessageCapacity() {
+    return Math.max(1, messagesPerSec * BURST_SECONDS);
+  }
+
+  /**
+   * Gets the capacity of the byte token bucket.
+   *
+   * @return capacity of the byte token bucket
+   */
+  private double getByteCapacity() {
+    return Math.max(1, bytesPerSec * BURST_SECONDS);
+  }
+}
@@ -0,0 +1,56 @@
+package com.hms_networks.sc.cumulocity.api;
+
+/**
+ * Base class for handlers of SmartREST messages received from Cumulocity. Handlers are registered
+ * by template ID with {@link CConnectorApiMessageReader#registerHandler(int,
+ * CConnectorSmartRestHandler)}, and messages are dispatched to them after being tokenized once.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 1.5.0
+ */
+public abstract class CConnectorSmartRestHandler {
+
+  /** The Cumulocity operation ID (fragment) handled by the handler, or null if not an operation. */
+  private final String operationId;
+
+  /**
+   * Constructor for a new {@link CConnectorSmartRestHandler} for messages which are not operations,
+   * such as error responses.
+   */
+  protected CConnectorSmartRestHandler() {
+    this(null);
+  }
+
+  /**
+   * Constructor for a new {@link CConnectorSmartRestHandler} for the specified Cumulocity
+   * operation.
+   *
+   * @param operationId Cumulocity operation ID (fragment) used to report the operation status
+   */
+  protected CConnectorSmartRestHandler(String operationId) {
+    this.operationId = operationId;
+  }
+
+  /**
+   * Gets the Cumulocity operation ID (fragment) handled by the handler.
+   *
+   * @return operation ID, or null if the handler does not handle an operation
+   */
+  public String getOperationId() {
+    return operationId;
+  }
+
+  /**
+   * Handles the specified tokenized message.
+   *
+   * @param mqttMgr MQTT manager that received the message
+   * @param mqttTopic MQTT topic on which the message was received
+   * @param message tokenized message
+   * @param expectedDeviceId expected device ID of the message
+   */
+  public abstract void handleMessage(
+      CConnectorMqttMgr mqttMgr,
+      String mqttTopic,
+      CConnectorSmartRestMessage message,
+      String expectedDeviceId);
+}
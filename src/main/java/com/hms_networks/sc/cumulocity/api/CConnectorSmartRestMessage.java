@@ -0,0 +1,295 @@
+package com.hms_networks.sc.cumulocity.api;
+
+/**
+ * Tokenizer for SmartREST messages received from Cumulocity. A SmartREST message is a line of
+ * comma separated fields, where the first field is the template ID. Fields which contain commas or
+ * quotes are enclosed in double quotes, and quotes (or backslashes) within a quoted field are
+ * escaped with a backslash, or quotes are escaped by doubling them. Other backslashes are kept.
+ *
+ * <p>The message is scanned once, and the start and end of each field are recorded in reusable
+ * arrays. Field strings are only created when requested, and a single instance can be reused to
+ * parse any number of messages.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 1.5.0
+ */
+public class CConnectorSmartRestMessage {
+
+  /** Template ID returned for messages without a valid numeric template ID. */
+  public static final int INVALID_TEMPLATE_ID = -1;
+
+  /** The character which separates the fields of a SmartREST message. */
+  private static final char FIELD_SEPARATOR = ',';
+
+  /** The character which encloses a quoted field of a SmartREST message. */
+  private static final char QUOTE = '"';
+
+  /** The character which escapes the next character within a quoted field. */
+  private static final char ESCAPE = '\\';
+
+  /** The initial capacity of the field offset arrays. */
+  private static final int INITIAL_FIELD_CAPACITY = 8;
+
+  /** The message being tokenized. */
+  private String message = "";
+
+  /** The number of fields in the message. */
+  private int fieldCount = 0;
+
+  /** Index of the first character of each field, including the opening quote of quoted fields. */
+  private int[] fieldStarts = new int[INITIAL_FIELD_CAPACITY];
+
+  /** Index after the last character of each field, including the closing quote of quoted fields. */
+  private int[] fieldEnds = new int[INITIAL_FIELD_CAPACITY];
+
+  /** Boolean flags indicating if each field is quoted. */
+  private boolean[] fieldQuoted = new boolean[INITIAL_FIELD_CAPACITY];
+
+  /** Boolean flags indicating if each quoted field contains escaped characters. */
+  private boolean[] fieldEscaped = new boolean[INITIAL_FIELD_CAPACITY];
+
+  /** The template ID of the message, or {@link #INVALID_TEMPLATE_ID}. */
+  private int templateId = INVALID_TEMPLATE_ID;
+
+  /**
+   * Tokenizes the specified message, replacing the previously tokenized message.
+   *
+   * @param message SmartREST message to tokenize
+   * @return this instance, for chaining
+   */
+  public CConnectorSmartRestMessage parse(String message) {
+    this.message = message;
+    fieldCount = 0;
+
+    int length = message.length();
+    int index = 0;
+    while (true) {
+      ensureFieldCapacity(fieldCount + 1);
+      fieldStarts[fieldCount] = index;
+      fieldQuoted[fieldCount] = index < length && message.charAt(index) == QUOTE;
+      fieldEscaped[fieldCount] = false;
+
+      if (fieldQuoted[fieldCount]) {
+        // Scan to the closing quote, skipping escaped and doubled quotes
+        index++;
+        while (index < length) {
+          char c = message.charAt(index);
+          if (c == ESCAPE && index + 1 < length && isEscapable(message.charAt(index + 1))) {
+            fieldEscaped[fieldCount] = true;
+            index += 2;
+          } else if (c == QUOTE && index + 1 < length && message.charAt(index + 1) == QUOTE) {
+            fieldEscaped[fieldCount] = true;
+            index += 2;
+          } else if (c == QUOTE) {
+            index++;
+            break;
+          } else {
+            index++;
+          }
+        }
+      }
+
+      // Scan to the field separator (any characters after a closing quote are kept in the field)
+      while (index < length && message.charAt(index) != FIELD_SEPARATOR) {
+        index++;
+      }
+      fieldEnds[fieldCount] = index;
+      fieldCount++;
+
+      if (index >= length) {
+        break;
+      }
+      index++;
+    }
+
+    templateId = parseTemplateId(message);
+    return this;
+  }
+
+  /**
+   * Gets the template ID of the tokenized message.
+   *
+   * @return template ID, or {@link #INVALID_TEMPLATE_ID} if the first field is not numeric
+   */
+  public int getTemplateId() {
+    return templateId;
+  }
+
+  /**
+   * Gets the number of fields in the tokenized message, including the template ID.
+   *
+   * @return number of fields
+   */
+  public int getFieldCount() {
+    return fieldCount;
+  }
+
+  /**
+   * Gets the tokenized message.
+   *
+   * @return the tokenized message
+   */
+  public String getMessage() {
+    return message;
+  }
+
+  /**
+   * Gets the value of the specified field. Enclosing quotes are removed, and escaped characters
+   * are unescaped.
+   *
+   * @param fieldIndex index of the field, where the template ID is field 0
+   * @return value of the field
+   * @throws IndexOutOfBoundsException if the message does not have the specified field
+   */
+  public String getField(int fieldIndex) {
+    checkFieldIndex(fieldIndex);
+    if (!fieldQuoted[fieldIndex]) {
+      return message.substring(fieldStarts[fieldIndex], fieldEnds[fieldIndex]);
+    }
+
+    int valueStart = fieldStarts[fieldIndex] + 1;
+    int valueEnd = getQuotedValueEnd(fieldIndex);
+    if (!fieldEscaped[fieldIndex]) {
+      return message.substring(valueStart, valueEnd);
+    }
+
+    StringBuffer value = new StringBuffer(valueEnd - valueStart);
+    for (int i = valueStart; i < valueEnd; i++) {
+      char c = message.charAt(i);
+      if (i + 1 < valueEnd) {
+        char next = message.charAt(i + 1);
+        if ((c == ESCAPE && isEscapable(next)) || (c == QUOTE && next == QUOTE)) {
+          i++;
+          c = next;
+        }
+      }
+      value.append(c);
+    }
+    return value.toString();
+  }
+
+  /**
+   * Gets the raw text of the specified field, including any enclosing quotes and escape
+   * characters.
+   *
+   * @param fieldIndex index of the field, where the template ID is field 0
+   * @return raw text of the field
+   * @throws IndexOutOfBoundsException if the message does not have the specified field
+   */
+  public String getRawField(int fieldIndex) {
+    checkFieldIndex(fieldIndex);
+    return message.substring(fieldStarts[fieldIndex], fieldEnds[fieldIndex]);
+  }
+
+  /**
+   * Gets a boolean indicating if the value of the specified field equals the specified string,
+   * without creating a string for the field.
+   *
+   * @param fieldIndex index of the field, where the template ID is field 0
+   * @param value string to compare the field value with
+   * @return true if the field value equals the string, otherwise false
+   * @throws IndexOutOfBoundsException if the message does not have the specified field
+   */
+  public boolean fieldEquals(int fieldIndex, String value) {
+    checkFieldIndex(fieldIndex);
+    if (fieldEscaped[fieldIndex]) {
+      return getField(fieldIndex).equals(value);
+    }
+
+    int valueStart = fieldStarts[fieldIndex];
+    int valueEnd = fieldEnds[fieldIndex];
+    if (fieldQuoted[fieldIndex]) {
+      valueStart++;
+      valueEnd = getQuotedValueEnd(fieldIndex);
+    }
+    return valueEnd - valueStart == value.length()
+        && message.regionMatches(valueStart, value, 0, value.length());
+  }
+
+  /**
+   * Parses the template ID (first field) of the specified message, without tokenizing the rest of
+   * the message.
+   *
+   * @param message SmartREST message
+   * @return template ID, or {@link #INVALID_TEMPLATE_ID} if the first field is not numeric
+   */
+  public static int parseTemplateId(String message) {
+    // Template IDs are at most a few digits, limit the length to prevent overflow
+    final int maxTemplateIdDigits = 6;
+    int parsedTemplateId = 0;
+    int index = 0;
+    int length = message.length();
+    while (index < length && message.charAt(index) != FIELD_SEPARATOR) {
+      char c = message.charAt(index);
+      if (c < '0' || c > '9' || index >= maxTemplateIdDigits) {
+        return INVALID_TEMPLATE_ID;
+      }
+      parsedTemplateId = parsedTemplateId * 10 + (c - '0');
+      index++;
+    }
+    return index > 0 ? parsedTemplateId : INVALID_TEMPLATE_ID;
+  }
+
+  /**
+   * Gets a boolean indicating if the specified character may be escaped within a quoted field.
+   *
+   * @param c character following an escape character or quote
+   * @return true if the character is a quote or escape character, otherwise false
+   */
+  private static boolean isEscapable(char c) {
+    return c == QUOTE || c == ESCAPE;
+  }
+
+  /**
+   * Gets the index after the last character of the value of the specified quoted field, excluding
+   * the closing quote. Quoted fields which are missing their closing quote end at the end of the
+   * field.
+   *
+   * @param fieldIndex index of a quoted field
+   * @return index after the last character of the field value
+   */
+  private int getQuotedValueEnd(int fieldIndex) {
+    int closingQuoteIndex = message.lastIndexOf(QUOTE, fieldEnds[fieldIndex] - 1);
+    if (closingQuoteIndex > fieldStarts[fieldIndex]) {
+      return closingQuoteIndex;
+    }
+    return fieldEnds[fieldIndex];
+  }
+
+  /**
+   * Checks that the tokenized message has the specified field.
+   *
+   * @param fieldIndex index of the field
+   * @throws IndexOutOfBoundsException if the message does not have the specified field
+   */
+  private void checkFieldIndex(int fieldIndex) {
+    if (fieldIndex < 0 || fieldIndex >= fieldCount) {
+      throw new IndexOutOfBoundsException(
+          "SmartREST message field " + fieldIndex + " does not exist: " + message);
+    }
+  }
+
+  /**
+   * Grows the field offset arrays, if needed, to hold the specified number of fields.
+   *
+   * @param capacity number of fields
+   */
+  private void ensureFieldCapacity(int capacity) {
+    if (capacity <= fieldStarts.length) {
+      return;
+    }
+    int newCapacity = Math.max(capacity, fieldStarts.length * 2);
+    int[] newFieldStarts = new int[newCapacity];
+    int[] newFieldEnds = new int[newCapacity];
+    boolean[] newFieldQuoted = new boolean[newCapacity];
+    boolean[] newFieldEscaped = new boolean[newCapacity];
+    System.arraycopy(fieldStarts, 0, newFieldStarts, 0, fieldCount);
+    System.arraycopy(fieldEnds, 0, newFieldEnds, 0, fieldCount);
+    System.arraycopy(fieldQuoted, 0, newFieldQuoted, 0, fieldCount);
+    System.arraycopy(fieldEscaped, 0, newFieldEscaped, 0, fieldCount);
+    fieldStarts = newFieldStarts;
+    fieldEnds = newFieldEnds;
+    fieldQuoted = newFieldQuoted;
+    fieldEscaped = newFieldEscaped;
+  }
+}
@@ -0,0 +1,219 @@
+package com.hms_networks.sc.cumulocity.api;
+
+import com.ewon.ewonitf.TagControl;
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+import com.hms_networks.americas.sc.extensions.taginfo.TagInfoManager;
+import com.hms_networks.americas.sc.extensions.taginfo.TagType;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Bounded cache of {@link TagControl} handles and tag types for tags written by commands from
+ * Cumulocity, so that repeated writes to the same tag do not create a new {@link TagControl} and
+ * look up the tag information each time.
+ *
+ * <p>The Ewon does not signal tag configuration changes, so the cache is cleared with {@link
+ * #invalidate()} each time the tag list is refreshed, and cached entries are only reused for up to
+ * {@link #ENTRY_MAX_AGE_MILLIS}. An entry is also discarded, and the write retried once with a new
+ * handle, if writing with a cached handle fails. When the cache holds {@link #MAX_ENTRIES} entries,
+ * the oldest entry is discarded.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 1.5.0
+ */
+public class CConnectorTagWriteCache {
+
+  /** Result of a tag write which completed successfully. */
+  public static final int WRITE_RESULT_SUCCESS = 0;
+
+  /** Result of a tag write which failed because a {@link TagControl} could not be created. */
+  public static final int WRITE_RESULT_NO_TAG_CTRL = 1;
+
+  /** Result of a tag write which failed because the value could not be set. */
+  public static final int WRITE_RESULT_EXCEPTION = 2;
+
+  /** The maximum number of cached tags. */
+  private static final int MAX_ENTRIES = 128;
+
+  /** The maximum age (in milliseconds) of a cached entry before it is rebuilt. */
+  private static final long ENTRY_MAX_AGE_MILLIS = 60000;
+
+  /** Map of tag name to the cached {@link Entry} for the tag. */
+  private final Map entries = new HashMap(); // Map<String, Entry>
+
+  /** Names of the cached tags, oldest first, used to discard the oldest entry when full. */
+  private final LinkedList entryOrder = new LinkedList(); // List<String>
+
+  /**
+   * Writes the specified value to the specified tag. The value is converted according to the type
+   * of the tag: boolean tags accept <code>true</code>, <code>false</code> or an integer, and other
+   * tags accept a value of their type.
+   *
+   * @param tagName name of the tag to write
+   * @param tagValue value to write, as a string
+   * @return {@link #WRITE_RESULT_SUCCESS}, {@link #WRITE_RESULT_NO_TAG_CTRL} or {@link
+   *     #WRITE_RESULT_EXCEPTION}
+   */
+  public int writeTagValue(String tagName, String tagValue) {
+    boolean cached = true;
+    Entry entry = getCachedEntry(tagName);
+    if (entry == null) {
+      cached = false;
+      entry = createEntry(tagName);
+      if (entry == null) {
+        return WRITE_RESULT_NO_TAG_CTRL;
+      }
+    }
+
+    try {
+      writeTagValue(entry, tagValue);
+      return WRITE_RESULT_SUCCESS;
+    } catch (NumberFormatException e) {
+      // The value is invalid for the tag type, a new handle would not help
+      Logger.LOG_EXCEPTION(e);
+      return WRITE_RESULT_EXCEPTION;
+    } catch (Exception e) {
+      if (!cached) {
+        Logger.LOG_EXCEPTION(e);
+        return WRITE_RESULT_EXCEPTION;
+      }
+    }
+
+    // The cached handle may be stale after a tag configuration change, retry with a new handle
+    remove(tagName);
+    entry = createEntry(tagName);
+    if (entry == null) {
+      return WRITE_RESULT_NO_TAG_CTRL;
+    }
+    try {
+      writeTagValue(entry, tagValue);
+      return WRITE_RESULT_SUCCESS;
+    } catch (Exception e) {
+      Logger.LOG_EXCEPTION(e);
+      return WRITE_RESULT_EXCEPTION;
+    }
+  }
+
+  /** Discards all cached entries, so that they are rebuilt from the tag configuration. */
+  public synchronized void invalidate() {
+    entries.clear();
+    entryOrder.clear();
+  }
+
+  /**
+   * Gets the cached entry for the specified tag, if present and not expired.
+   *
+   * @param tagName name of the tag
+   * @return cached entry, or null if not cached or expired
+   */
+  private synchronized Entry getCachedEntry(String tagName) {
+    Entry entry = (Entry) entries.get(tagName);
+    if (entry != null) {
+      long entryAgeMillis = System.currentTimeMillis() - entry.createdTimeMillis;
+      if (entryAgeMillis >= ENTRY_MAX_AGE_MILLIS || entryAgeMillis < 0) {
+        remove(tagName);
+        entry = null;
+      }
+    }
+    return entry;
+  }
+
+  /**
+   * Creates a new entry for the specified tag and adds it to the cache, discarding the oldest entry
+   * if the cache is full.
+   *
+   * @param tagName name of the tag
+   * @return new entry, or null if a {@link TagControl} could not be created for the tag
+   */
+  private Entry createEntry(String tagName) {
+    Entry entry;
+    try {
+      TagControl tagControl = new TagControl(tagName);
+      TagType tagType = TagInfoManager.getTagInfoFromTagId(tagControl.getTagId()).getType();
+      entry = new Entry(tagControl, tagType, System.currentTimeMillis());
+    } catch (Exception e) {
+      Logger.LOG_EXCEPTION(e);
+      return null;
+    }
+
+    synchronized (this) {
+      if (entries.put(tagName, entry) == null) {
+        entryOrder.addLast(tagName);
+        if (entryOrder.size() > MAX_ENTRIES) {
+          entries.remove(entryOrder.removeFirst());
+        }
+      }
+    }
+    return entry;
+  }
+
+  /**
+   * Removes the entry for the specified tag from the cache.
+   *
+   * @param tagName name of the tag
+   */
+  private synchronized void remove(String tagName) {
+    if (entries.remove(tagName) != null) {
+      entryOrder.remove(tagName);
+    }
+  }
+
+  /**
+   * Writes the specified value to the tag of the specified entry, converting the value according
+   * to the type of the tag.
+   *
+   * @param entry entry of the tag to write
+   * @param tagValue value to write, as a string
+   * @throws Exception if the value cannot be converted or set
+   */
+  private static void writeTagValue(Entry entry, String tagValue) throws Exception {
+    TagControl tagControl = entry.tagControl;
+    if (entry.tagType == TagType.BOOLEAN) {
+      int tagValueInt;
+      if (tagValue.equalsIgnoreCase("true") || tagValue.equalsIgnoreCase("false")) {
+        tagValueInt = tagValue.equalsIgnoreCase("true") ? 1 : 0;
+      } else {
+        tagValueInt = Integer.parseInt(tagValue);
+      }
+      tagControl.setTagValueAsInt(tagValueInt);
+    } else if (entry.tagType == TagType.STRING) {
+      tagControl.setTagValueAsString(tagValue);
+    } else if (entry.tagType == TagType.DWORD) {
+      long tagValueLong = Long.valueOf(tagValue).longValue();
+      tagControl.setTagValueAsLong(tagValueLong);
+    } else if (entry.tagType == TagType.FLOAT) {
+      double tagValueDouble = Double.valueOf(tagValue).doubleValue();
+      tagControl.setTagValueAsDouble(tagValueDouble);
+    } else {
+      int tagValueInt = Integer.parseInt(tagValue);
+      tagControl.setTagValueAsInt(tagValueInt);
+    }
+  }
+
+  /** Cached {@link TagControl} handle and type of a tag. */
+  private static class Entry {
+
+    /** Handle used to write the tag. */
+    private final TagControl tagControl;
+
+    /** Type of the tag. */
+    private final TagType tagType;
+
+    /** Time (in milliseconds since epoch) the entry was created. */
+    private final long createdTimeMillis;
+
+    /**
+     * Constructor for a new {@link Entry} with the specified handle, type and creation time.
+     *
+     * @param tagControl handle used to write the tag
+     * @param tagType type of the tag
+     * @param createdTimeMillis time (in milliseconds since epoch) the entry was created
+     */
+    private Entry(TagControl tagControl, TagType tagType, long createdTimeMillis) {
+      this.tagControl = tagControl;
+      this.tagType = tagType;
+      this.createdTimeMillis = createdTimeMillis;
+    }
+  }
+}
@@ -25,9 +25,14 @@ public class CConnectorWebApiListener extends ApplicationControlApiListener {
   private static final String REGISTERED_CUSTOM_FORM_OVERWRITE_BOOTSTRAP_AUTH =
       "overwriteBootstrapAuth";
 
+  /** The name of the custom form to register for getting the connector's publish metrics. */
+  private static final String REGISTERED_CUSTOM_FORM_GET_METRICS = "getMetrics";
+
   /** The list of custom forms to register for the web API. */
   private static final String[] REGISTERED_CUSTOM_FORMS = {
-    REGISTERED_CUSTOM_FORM_SET_BOOTSTRAP_AUTH, REGISTERED_CUSTOM_FORM_OVERWRITE_BOOTSTRAP_AUTH,
+    REGISTERED_CUSTOM_FORM_SET_BOOTSTRAP_AUTH,
+    REGISTERED_CUSTOM_FORM_OVERWRITE_BOOTSTRAP_AUTH,
+    REGISTERED_CUSTOM_FORM_GET_METRICS,
   };
 
   /** The key for the host specified in a web API Bootstrap configuration request. */
@@ -132,6 +137,8 @@ public class CConnectorWebApiListener extends ApplicationControlApiListener {
       response = onSetBootstrapAuth();
     } else if (form.equals(REGISTERED_CUSTOM_FORM_OVERWRITE_BOOTSTRAP_AUTH)) {
       response = onOverwriteBootstrapAuth();
+    } else if (form.equals(REGISTERED_CUSTOM_FORM_GET_METRICS)) {
+      response = onGetMetrics();
     }
     return response;
   }
@@ -264,4 +271,20 @@ public class CConnectorWebApiListener extends ApplicationControlApiListener {
 
     return response;
   }
+
+  /**
+   * The handler for requests sent to the {@link #REGISTERED_CUSTOM_FORM_GET_METRICS} custom form.
+   *
+   * @return the response to the API request with the connector's publish metrics
+   */
+  private String onGetMetrics() {
+    String response;
+    CConnectorMqttMgr mqttMgr = CConnectorMain.getMqttMgr();
+    if (mqttMgr == null) {
+      response = "{\"status\":\"error\",\"error\":\"The MQTT manager is not running.\"}";
+    } else {
+      response = "{\"status\":\"ok\",\"response\":" + mqttMgr.getPublishMetricsJson() + "}";
+    }
+    return response;
+  }
 }
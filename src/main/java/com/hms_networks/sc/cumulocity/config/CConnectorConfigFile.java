@@ -8,6 +8,7 @@ import com.hms_networks.americas.sc.extensions.logging.Logger;
 import com.hms_networks.americas.sc.extensions.string.StringUtils;
 import com.hms_networks.sc.cumulocity.data.CConnectorAggregationMethod;
 import com.hms_networks.sc.cumulocity.data.CConnectorDataProcessingMode;
+import com.hms_networks.sc.cumulocity.data.CConnectorQuantileSketch;
 import java.util.List;
 
 /**
@@ -109,6 +110,74 @@ public class CConnectorConfigFile extends ConfigFile {
   public static final String CONFIG_FILE_ENABLE_QUEUE_DIAGNOSTIC_TAGS_KEY =
       "QueueEnableDiagnosticTags";
 
+  /** Key for accessing the 'InventoryUpdateMinIntervalMillis' object in the configuration file. */
+  private static final String CONFIG_FILE_INVENTORY_UPDATE_MIN_INTERVAL_MILLIS_KEY =
+      "InventoryUpdateMinIntervalMillis";
+
+  /** Key for accessing the 'InventoryUpdatePassBudgetMillis' object in the configuration file. */
+  private static final String CONFIG_FILE_INVENTORY_UPDATE_PASS_BUDGET_MILLIS_KEY =
+      "InventoryUpdatePassBudgetMillis";
+
+  /** Key for accessing the 'PublishRefreshIntervalMins' object in the configuration file. */
+  private static final String CONFIG_FILE_PUBLISH_REFRESH_INTERVAL_MINS_KEY =
+      "PublishRefreshIntervalMins";
+
+  /** Key for accessing the 'CustomTemplatesEnabled' object in the configuration file. */
+  private static final String CONFIG_FILE_CUSTOM_TEMPLATES_ENABLED_KEY = "CustomTemplatesEnabled";
+
+  /** Key for accessing the 'AlarmDebounceMillis' object in the configuration file. */
+  private static final String CONFIG_FILE_ALARM_DEBOUNCE_MILLIS_KEY = "AlarmDebounceMillis";
+
+  /** Key for accessing the 'AlarmCoalesceWindowMillis' object in the configuration file. */
+  private static final String CONFIG_FILE_ALARM_COALESCE_WINDOW_MILLIS_KEY =
+      "AlarmCoalesceWindowMillis";
+
+  /** Key for accessing the 'AlarmMinReRaiseIntervalMillis' object in the configuration file. */
+  private static final String CONFIG_FILE_ALARM_MIN_RE_RAISE_INTERVAL_MILLIS_KEY =
+      "AlarmMinReRaiseIntervalMillis";
+
+  /** Key for accessing the 'PublishRateMessagesPerSec' object in the configuration file. */
+  private static final String CONFIG_FILE_PUBLISH_RATE_MESSAGES_PER_SEC_KEY =
+      "PublishRateMessagesPerSec";
+
+  /** Key for accessing the 'PublishRateBytesPerSec' object in the configuration file. */
+  private static final String CONFIG_FILE_PUBLISH_RATE_BYTES_PER_SEC_KEY = "PublishRateBytesPerSec";
+
+  /** Key for accessing the 'RealtimeTagNames' object in the configuration file. */
+  private static final String CONFIG_FILE_REALTIME_TAG_NAMES_KEY = "RealtimeTagNames";
+
+  /**
+   * Prefix of the keys for accessing the per-tag group queue poll settings in the configuration
+   * file, such as 'QueueGroupAPollIntervalMillis'. The prefix is followed by the tag group letter.
+   */
+  private static final String CONFIG_FILE_QUEUE_GROUP_KEY_PREFIX = "QueueGroup";
+
+  /** Suffix of the keys for accessing the 'QueueGroup?PollIntervalMillis' objects. */
+  private static final String CONFIG_FILE_QUEUE_GROUP_POLL_INTERVAL_MILLIS_KEY_SUFFIX =
+      "PollIntervalMillis";
+
+  /** Suffix of the keys for accessing the 'QueueGroup?PollSizeMins' objects. */
+  private static final String CONFIG_FILE_QUEUE_GROUP_POLL_SIZE_MINS_KEY_SUFFIX = "PollSizeMins";
+
+  /** Key for accessing the 'QueueDataPrefetchEnabled' object in the configuration file. */
+  private static final String CONFIG_FILE_QUEUE_DATA_PREFETCH_ENABLED_KEY =
+      "QueueDataPrefetchEnabled";
+
+  /** Key for accessing the 'QueueDataProcessChunkSize' object in the configuration file. */
+  private static final String CONFIG_FILE_QUEUE_DATA_PROCESS_CHUNK_SIZE_KEY =
+      "QueueDataProcessChunkSize";
+
+  /** Key for accessing the 'QueueDataReadMaxBytes' object in the configuration file. */
+  private static final String CONFIG_FILE_QUEUE_DATA_READ_MAX_BYTES_KEY = "QueueDataReadMaxBytes";
+
+  /** Key for accessing the 'QueueDataRollupPeriodsSecs' object in the configuration file. */
+  private static final String CONFIG_FILE_QUEUE_DATA_ROLLUP_PERIODS_SECS_KEY =
+      "QueueDataRollupPeriodsSecs";
+
+  /** Key for accessing the 'QueueDataAggregationQuantiles' object in the configuration file. */
+  private static final String CONFIG_FILE_QUEUE_DATA_AGGREGATION_QUANTILES_KEY =
+      "QueueDataAggregationQuantiles";
+
   /**
    * The default size (in mins) of each data queue poll. Changing this will modify the amount of
    * data checked during each poll interval.
@@ -173,6 +242,66 @@ public class CConnectorConfigFile extends ConfigFile {
   /** The default value for the queue diagnostic tags enabled setting. */
   public static final boolean ENABLE_QUEUE_DIAGNOSTIC_TAGS_DEFAULT = false;
 
+  /** The default minimum time (in milliseconds) between the start of inventory update passes. */
+  private static final long INVENTORY_UPDATE_MIN_INTERVAL_MILLIS_DEFAULT = 5000;
+
+  /**
+   * The default maximum time (in milliseconds) which a single inventory update pass may spend
+   * publishing files before the remaining files are deferred to a follow-up pass.
+   */
+  private static final long INVENTORY_UPDATE_PASS_BUDGET_MILLIS_DEFAULT = 30000;
+
+  /**
+   * The default interval (in minutes) after which unchanged device information is published to
+   * Cumulocity again on connect.
+   */
+  private static final long PUBLISH_REFRESH_INTERVAL_MINS_DEFAULT = 1440;
+
+  /** The default value for the Cumulocity custom (SmartREST 2.0) templates enabled setting. */
+  private static final boolean CUSTOM_TEMPLATES_ENABLED_DEFAULT = false;
+
+  /** The default time (in milliseconds) a tag must be stable before its alarm change is sent. */
+  private static final long ALARM_DEBOUNCE_MILLIS_DEFAULT = 1000;
+
+  /** The default maximum time (in milliseconds) an alarm change may be held before it is sent. */
+  private static final long ALARM_COALESCE_WINDOW_MILLIS_DEFAULT = 10000;
+
+  /** The default minimum time (in milliseconds) between raising the same tag alarm again. */
+  private static final long ALARM_MIN_RE_RAISE_INTERVAL_MILLIS_DEFAULT = 30000;
+
+  /** The default maximum number of MQTT messages published to Cumulocity per second (no limit). */
+  private static final long PUBLISH_RATE_MESSAGES_PER_SEC_DEFAULT = 0;
+
+  /** The default maximum number of payload bytes published to Cumulocity per second (no limit). */
+  private static final long PUBLISH_RATE_BYTES_PER_SEC_DEFAULT = 0;
+
+  /** The default names of the realtime tags (none). */
+  private static final String REALTIME_TAG_NAMES_DEFAULT = "";
+
+  /**
+   * The per-tag group queue poll setting value which indicates that the tag group uses the shared
+   * queue poll setting.
+   */
+  public static final long QUEUE_GROUP_POLL_SETTING_SHARED = -1;
+
+  /** The default value for the queue data prefetch enabled setting. */
+  private static final boolean QUEUE_DATA_PREFETCH_ENABLED_DEFAULT = false;
+
+  /**
+   * The queue data process chunk size value which indicates that each span is processed at once,
+   * without splitting it into chunks.
+   */
+  public static final long QUEUE_DATA_PROCESS_CHUNK_SIZE_DISABLED = 0;
+
+  /** The default number of data points processed and sent in each chunk of a span. */
+  private static final long QUEUE_DATA_PROCESS_CHUNK_SIZE_DEFAULT = 500;
+
+  /** The default memory budget (in bytes) of a single read of the historical log. */
+  private static final long QUEUE_DATA_READ_MAX_BYTES_DEFAULT = 4000000;
+
+  /** The default rollup periods (in seconds) of the historical log data (blank if disabled). */
+  private static final String QUEUE_DATA_ROLLUP_PERIODS_SECS_DEFAULT = "";
+
   /** Text string used to indicate a field which is automatically populated by the connector. */
   private static final String CONFIG_FILE_AUTOMATICALLY_FILLED_TEXT = "<automatically filled>";
 
@@ -1089,6 +1218,339 @@ public class CConnectorConfigFile extends ConfigFile {
     return queueDataAggregationMethod;
   }
 
+  /**
+   * Get the minimum interval (in milliseconds) between inventory update passes from the
+   * configuration.
+   *
+   * @return inventory update minimum interval (in milliseconds)
+   */
+  public long getInventoryUpdateMinIntervalMillis() {
+    return getLongOrDefault(
+        CONFIG_FILE_CONNECTOR_KEY,
+        CONFIG_FILE_INVENTORY_UPDATE_MIN_INTERVAL_MILLIS_KEY,
+        INVENTORY_UPDATE_MIN_INTERVAL_MILLIS_DEFAULT);
+  }
+
+  /**
+   * Get the maximum time (in milliseconds) which a single inventory update pass may run from the
+   * configuration.
+   *
+   * @return inventory update pass time budget (in milliseconds)
+   */
+  public long getInventoryUpdatePassBudgetMillis() {
+    return getLongOrDefault(
+        CONFIG_FILE_CONNECTOR_KEY,
+        CONFIG_FILE_INVENTORY_UPDATE_PASS_BUDGET_MILLIS_KEY,
+        INVENTORY_UPDATE_PASS_BUDGET_MILLIS_DEFAULT);
+  }
+
+  /**
+   * Get the interval (in minutes) after which unchanged device information is published to
+   * Cumulocity again on connect from the configuration.
+   *
+   * @return publish refresh interval (in minutes)
+   */
+  public long getPublishRefreshIntervalMins() {
+    return getLongOrDefault(
+        CONFIG_FILE_CONNECTOR_KEY,
+        CONFIG_FILE_PUBLISH_REFRESH_INTERVAL_MINS_KEY,
+        PUBLISH_REFRESH_INTERVAL_MINS_DEFAULT);
+  }
+
+  /**
+   * Get the time (in milliseconds) which a tag's alarm status must be stable before the change is
+   * sent to Cumulocity from the configuration.
+   *
+   * @return alarm debounce time (in milliseconds)
+   */
+  public long getAlarmDebounceMillis() {
+    return getLongOrDefault(
+        CONFIG_FILE_CONNECTOR_KEY,
+        CONFIG_FILE_ALARM_DEBOUNCE_MILLIS_KEY,
+        ALARM_DEBOUNCE_MILLIS_DEFAULT);
+  }
+
+  /**
+   * Get the maximum time (in milliseconds) which a tag's alarm status change may be held before it
+   * is sent to Cumulocity from the configuration.
+   *
+   * @return alarm coalescing window (in milliseconds)
+   */
+  public long getAlarmCoalesceWindowMillis() {
+    return getLongOrDefault(
+        CONFIG_FILE_CONNECTOR_KEY,
+        CONFIG_FILE_ALARM_COALESCE_WINDOW_MILLIS_KEY,
+        ALARM_COALESCE_WINDOW_MILLIS_DEFAULT);
+  }
+
+  /**
+   * Get the minimum time (in milliseconds) between raising the same tag alarm in Cumulocity again
+   * from the configuration.
+   *
+   * @return alarm minimum re-raise interval (in milliseconds)
+   */
+  public long getAlarmMinReRaiseIntervalMillis() {
+    return getLongOrDefault(
+        CONFIG_FILE_CONNECTOR_KEY,
+        CONFIG_FILE_ALARM_MIN_RE_RAISE_INTERVAL_MILLIS_KEY,
+        ALARM_MIN_RE_RAISE_INTERVAL_MILLIS_DEFAULT);
+  }
+
+  /**
+   * Gets the Cumulocity custom (SmartREST 2.0) templates enabled setting. When enabled,
+   * measurements are published using device-specific templates instead of the static measurement
+   * template.
+   *
+   * @return Cumulocity custom templates enabled setting
+   */
+  public boolean getCumulocityCustomTemplatesEnabled() {
+    return getBooleanOrDefault(
+        CONFIG_FILE_CUMULOCITY_KEY,
+        CONFIG_FILE_CUSTOM_TEMPLATES_ENABLED_KEY,
+        CUSTOM_TEMPLATES_ENABLED_DEFAULT);
+  }
+
+  /**
+   * Gets the maximum number of MQTT messages published to Cumulocity per second. A value of zero or
+   * less disables the message rate limit.
+   *
+   * @return maximum number of messages published per second
+   */
+  public long getCumulocityPublishRateMessagesPerSec() {
+    return getLongOrDefault(
+        CONFIG_FILE_CUMULOCITY_KEY,
+        CONFIG_FILE_PUBLISH_RATE_MESSAGES_PER_SEC_KEY,
+        PUBLISH_RATE_MESSAGES_PER_SEC_DEFAULT);
+  }
+
+  /**
+   * Gets the maximum number of payload bytes published to Cumulocity per second. A value of zero or
+   * less disables the byte rate limit.
+   *
+   * @return maximum number of payload bytes published per second
+   */
+  public long getCumulocityPublishRateBytesPerSec() {
+    return getLongOrDefault(
+        CONFIG_FILE_CUMULOCITY_KEY,
+        CONFIG_FILE_PUBLISH_RATE_BYTES_PER_SEC_KEY,
+        PUBLISH_RATE_BYTES_PER_SEC_DEFAULT);
+  }
+
+  /**
+   * Get the names of the tags whose value changes are sent to Cumulocity as soon as they occur
+   * (realtime tags) from the configuration. The tag names are separated by spaces.
+   *
+   * @return realtime tag names, separated by spaces (blank if none)
+   */
+  public String getRealtimeTagNames() {
+    return getStringOrDefault(
+        CONFIG_FILE_CONNECTOR_KEY, CONFIG_FILE_REALTIME_TAG_NAMES_KEY, REALTIME_TAG_NAMES_DEFAULT);
+  }
+
+  /**
+   * Get the poll interval (in milliseconds) of the specified tag group from the configuration. The
+   * value {@link #QUEUE_GROUP_POLL_SETTING_SHARED} indicates that the tag group does not have its
+   * own poll schedule.
+   *
+   * @param tagGroupName name of the tag group ('A', 'B', 'C' or 'D')
+   * @return tag group poll interval (in milliseconds), or {@link #QUEUE_GROUP_POLL_SETTING_SHARED}
+   */
+  public long getQueueGroupPollIntervalMillis(String tagGroupName) {
+    return getLongOrDefault(
+        CONFIG_FILE_CONNECTOR_KEY,
+        CONFIG_FILE_QUEUE_GROUP_KEY_PREFIX
+            + tagGroupName
+            + CONFIG_FILE_QUEUE_GROUP_POLL_INTERVAL_MILLIS_KEY_SUFFIX,
+        QUEUE_GROUP_POLL_SETTING_SHARED);
+  }
+
+  /**
+   * Get the poll size (in minutes) of the specified tag group from the configuration. The value
+   * {@link #QUEUE_GROUP_POLL_SETTING_SHARED} indicates that the tag group uses the shared queue
+   * data poll size.
+   *
+   * @param tagGroupName name of the tag group ('A', 'B', 'C' or 'D')
+   * @return tag group poll size (in minutes), or {@link #QUEUE_GROUP_POLL_SETTING_SHARED}
+   */
+  public long getQueueGroupPollSizeMins(String tagGroupName) {
+    return getLongOrDefault(
+        CONFIG_FILE_CONNECTOR_KEY,
+        CONFIG_FILE_QUEUE_GROUP_KEY_PREFIX
+            + tagGroupName
+            + CONFIG_FILE_QUEUE_GROUP_POLL_SIZE_MINS_KEY_SUFFIX,
+        QUEUE_GROUP_POLL_SETTING_SHARED);
+  }
+
+  /**
+   * Get the queue data prefetch enabled setting from the configuration. When enabled, the next span
+   * of the historical log is read on a separate thread while the current span is sent.
+   *
+   * @return queue data prefetch enabled setting
+   */
+  public boolean getQueueDataPrefetchEnabled() {
+    return getBooleanOrDefault(
+        CONFIG_FILE_CONNECTOR_KEY,
+        CONFIG_FILE_QUEUE_DATA_PREFETCH_ENABLED_KEY,
+        QUEUE_DATA_PREFETCH_ENABLED_DEFAULT);
+  }
+
+  /**
+   * Get the number of data points processed and sent in each chunk of a span read from the
+   * historical log. The value {@link #QUEUE_DATA_PROCESS_CHUNK_SIZE_DISABLED} indicates that each
+   * span is processed at once.
+   *
+   * @return queue data process chunk size (in data points)
+   */
+  public long getQueueDataProcessChunkSize() {
+    return getLongOrDefault(
+        CONFIG_FILE_CONNECTOR_KEY,
+        CONFIG_FILE_QUEUE_DATA_PROCESS_CHUNK_SIZE_KEY,
+        QUEUE_DATA_PROCESS_CHUNK_SIZE_DEFAULT);
+  }
+
+  /**
+   * Get the memory budget (in bytes) of a single read of the historical log from the configuration.
+   * Spans which exceed the budget are split into smaller spans.
+   *
+   * @return queue data read memory budget (in bytes)
+   */
+  public long getQueueDataReadMaxBytes() {
+    return getLongOrDefault(
+        CONFIG_FILE_CONNECTOR_KEY,
+        CONFIG_FILE_QUEUE_DATA_READ_MAX_BYTES_KEY,
+        QUEUE_DATA_READ_MAX_BYTES_DEFAULT);
+  }
+
+  /**
+   * Get the rollup periods (in seconds) of the historical log data from the configuration. When
+   * configured, the data of all tag groups is rolled up over each period in a single pass, instead
+   * of being aggregated over the queue data aggregation period. The periods are separated by
+   * spaces.
+   *
+   * @return queue data rollup periods (in seconds), separated by spaces (blank if disabled)
+   */
+  public String getQueueDataRollupPeriodsSecs() {
+    return getStringOrDefault(
+        CONFIG_FILE_CONNECTOR_KEY,
+        CONFIG_FILE_QUEUE_DATA_ROLLUP_PERIODS_SECS_KEY,
+        QUEUE_DATA_ROLLUP_PERIODS_SECS_DEFAULT);
+  }
+
+  /**
+   * Get the quantiles (0 to 1) sent by the quantiles aggregation method from the configuration. The
+   * quantiles are separated by spaces.
+   *
+   * @return queue data aggregation quantiles, separated by spaces
+   */
+  public String getQueueDataAggregationQuantiles() {
+    return getStringOrDefault(
+        CONFIG_FILE_CONNECTOR_KEY,
+        CONFIG_FILE_QUEUE_DATA_AGGREGATION_QUANTILES_KEY,
+        CConnectorQuantileSketch.QUANTILES_DEFAULT);
+  }
+
+  /**
+   * Gets the long value of the specified key in the specified object of the configuration file. If
+   * the key is not present, or cannot be read, the specified default value is returned. Optional
+   * tuning parameters use this method so that they do not need to be present in existing
+   * configuration files.
+   *
+   * @param objectKey key of the object containing the value ('Connector' or 'Cumulocity')
+   * @param key key of the value in the object
+   * @param defaultValue value to return if the key is not present or cannot be read
+   * @return configured value, or the default value
+   */
+  private long getLongOrDefault(String objectKey, String key, long defaultValue) {
+    long value = defaultValue;
+    try {
+      if (configurationObject.getJSONObject(objectKey).has(key)) {
+        value = configurationObject.getJSONObject(objectKey).getLong(key);
+      } else {
+        logOptionalKeyNotFound(objectKey, key, String.valueOf(defaultValue));
+      }
+    } catch (JSONException e) {
+      logOptionalKeyNotReadable(key, String.valueOf(defaultValue), e);
+    }
+    return value;
+  }
+
+  /**
+   * Gets the boolean value of the specified key in the specified object of the configuration file.
+   * If the key is not present, or cannot be read, the specified default value is returned.
+   *
+   * @param objectKey key of the object containing the value ('Connector' or 'Cumulocity')
+   * @param key key of the value in the object
+   * @param defaultValue value to return if the key is not present or cannot be read
+   * @return configured value, or the default value
+   */
+  private boolean getBooleanOrDefault(String objectKey, String key, boolean defaultValue) {
+    boolean value = defaultValue;
+    try {
+      if (configurationObject.getJSONObject(objectKey).has(key)) {
+        value = configurationObject.getJSONObject(objectKey).getBoolean(key);
+      } else {
+        logOptionalKeyNotFound(objectKey, key, String.valueOf(defaultValue));
+      }
+    } catch (JSONException e) {
+      logOptionalKeyNotReadable(key, String.valueOf(defaultValue), e);
+    }
+    return value;
+  }
+
+  /**
+   * Gets the string value of the specified key in the specified object of the configuration file.
+   * If the key is not present, or cannot be read, the specified default value is returned.
+   *
+   * @param objectKey key of the object containing the value ('Connector' or 'Cumulocity')
+   * @param key key of the value in the object
+   * @param defaultValue value to return if the key is not present or cannot be read
+   * @return configured value, or the default value
+   */
+  private String getStringOrDefault(String objectKey, String key, String defaultValue) {
+    String value = defaultValue;
+    try {
+      if (configurationObject.getJSONObject(objectKey).has(key)) {
+        value = configurationObject.getJSONObject(objectKey).getString(key);
+      } else {
+        logOptionalKeyNotFound(objectKey, key, "\"" + defaultValue + "\"");
+      }
+    } catch (JSONException e) {
+      logOptionalKeyNotReadable(key, "\"" + defaultValue + "\"", e);
+    }
+    return value;
+  }
+
+  /**
+   * Logs (once) that the specified optional key was not found in the configuration file.
+   *
+   * @param objectKey key of the object which was expected to contain the key
+   * @param key key which was not found
+   * @param defaultValue string representation of the default value which is used instead
+   */
+  private void logOptionalKeyNotFound(String objectKey, String key, String defaultValue) {
+    final String logKey = objectKey + "/" + key;
+    final String logMessage =
+        key + " not found in configuration file. Using default: " + defaultValue;
+    Logger.LOG_DEBUG_ONCE(logKey, logMessage);
+  }
+
+  /**
+   * Logs that the specified optional key could not be read from the configuration file.
+   *
+   * @param key key which could not be read
+   * @param defaultValue string representation of the default value which is used instead
+   * @param e exception which occurred while reading the key
+   */
+  private void logOptionalKeyNotReadable(String key, String defaultValue, JSONException e) {
+    Logger.LOG_WARN(
+        "The "
+            + key
+            + " setting could not be read from the configuration file. Using default value of "
+            + defaultValue
+            + ".",
+        e);
+  }
+
   /**
    * Saves the configuration to the file system and catches any exceptions generated while saving.
    */
@@ -5,7 +5,7 @@ package com.hms_networks.sc.cumulocity.data;
  * methods supported by the Flexy Cumulocity connector.
  *
  * @since 1.4.0
- * @version 1.0.0
+ * @version 1.1.0
  * @author HMS Networks, MU Americas Solution Center
  */
 public class CConnectorAggregationMethod {
@@ -50,6 +50,30 @@ public class CConnectorAggregationMethod {
    */
   private static final int ENUM_VAL_AVERAGE_RECORDED_DATA = 4;
 
+  /**
+   * Integer value representing the "statistics" aggregation method.
+   *
+   * @see #STATISTICS
+   * @since 1.5.0
+   */
+  private static final int ENUM_VAL_STATISTICS = 5;
+
+  /**
+   * Integer value representing the "quantiles" aggregation method.
+   *
+   * @see #QUANTILES
+   * @since 1.5.0
+   */
+  private static final int ENUM_VAL_QUANTILES = 6;
+
+  /**
+   * Integer value representing the "time-weighted average" aggregation method.
+   *
+   * @see #TIME_WEIGHTED_AVERAGE
+   * @since 1.5.0
+   */
+  private static final int ENUM_VAL_TIME_WEIGHTED_AVERAGE = 7;
+
   /**
    * Constant representing the "last recorded data" aggregation method.
    *
@@ -90,6 +114,35 @@ public class CConnectorAggregationMethod {
   public static final CConnectorAggregationMethod AVERAGE_RECORDED_DATA =
       new CConnectorAggregationMethod(ENUM_VAL_AVERAGE_RECORDED_DATA);
 
+  /**
+   * Constant representing the "statistics" aggregation method. The minimum, maximum, average,
+   * count and standard deviation of each series are sent together, as sibling series.
+   *
+   * @since 1.5.0
+   */
+  public static final CConnectorAggregationMethod STATISTICS =
+      new CConnectorAggregationMethod(ENUM_VAL_STATISTICS);
+
+  /**
+   * Constant representing the "quantiles" aggregation method. The configured quantiles of each
+   * series (for example, the median and the 95th percentile) are estimated with a {@link
+   * CConnectorQuantileSketch}, and sent together with their error bound, as sibling series.
+   *
+   * @since 1.5.0
+   */
+  public static final CConnectorAggregationMethod QUANTILES =
+      new CConnectorAggregationMethod(ENUM_VAL_QUANTILES);
+
+  /**
+   * Constant representing the "time-weighted average" aggregation method. Each value is weighted by
+   * the time it was held, until the next value was logged, so that tags which are logged more often
+   * while they change (for example, with a deadband) are not biased toward those changes.
+   *
+   * @since 1.5.0
+   */
+  public static final CConnectorAggregationMethod TIME_WEIGHTED_AVERAGE =
+      new CConnectorAggregationMethod(ENUM_VAL_TIME_WEIGHTED_AVERAGE);
+
   /**
    * The integer value of the aggregation method. This is used to store the aggregation method
    * internally, and to represent the aggregation method in the configuration file.
@@ -146,6 +199,15 @@ public class CConnectorAggregationMethod {
       case ENUM_VAL_AVERAGE_RECORDED_DATA:
         aggregationMethod = AVERAGE_RECORDED_DATA;
         break;
+      case ENUM_VAL_STATISTICS:
+        aggregationMethod = STATISTICS;
+        break;
+      case ENUM_VAL_QUANTILES:
+        aggregationMethod = QUANTILES;
+        break;
+      case ENUM_VAL_TIME_WEIGHTED_AVERAGE:
+        aggregationMethod = TIME_WEIGHTED_AVERAGE;
+        break;
       default:
         throw new IllegalArgumentException("Invalid aggregation method value.");
     }
@@ -0,0 +1,633 @@
+package com.hms_networks.sc.cumulocity.data;
+
+import com.hms_networks.americas.sc.extensions.json.JSONException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class for aggregating the values of many series within a single rollup window or aggregation
+ * period. Each series is a row of the table, indexed by the dense tag index of a {@link
+ * CConnectorTagTable}, and the running state of every row is stored in parallel primitive arrays.
+ * Each value is added as it is read from the historical log, without keeping the value or its
+ * timestamp, so that the memory used by a table only grows with the number of series, and not with
+ * the number of values.
+ *
+ * <p>Boolean values are counted as 1 (true) or 0 (false), and aggregated using the same rules as
+ * {@link CConnectorJsonDataPayload}: the minimum is false if any value is false, the maximum is
+ * true if any value is true, and the average is true if there are at least as many true values as
+ * false values. The {@link CConnectorAggregationMethod#STATISTICS} of boolean values are calculated
+ * on the counted values, so that the average is the fraction of true values. Aggregated values
+ * keep the type of the newest value of the series (for example, the minimum of an integer series
+ * is an {@link Integer}), except for averages and statistics, which are {@link Double}s.
+ *
+ * <p>The mean and standard deviation are updated with each value using Welford's method, which
+ * avoids the loss of precision of a running sum of squares. The standard deviation is the
+ * population standard deviation of the values in the window.
+ *
+ * <p>For the {@link CConnectorAggregationMethod#QUANTILES} aggregation method, the values of each
+ * series are also counted in a {@link CConnectorQuantileSketch}, which has a bounded size.
+ *
+ * <p>The {@link CConnectorAggregationMethod#TIME_WEIGHTED_AVERAGE} holds each value until the next
+ * value, and the newest value until the end of the window. The values are integrated over time as
+ * they are added, which expects them in time order (as read from the historical log). A value older
+ * than the newest value is used by the other aggregation methods, but not by the time-weighted
+ * average. The value held at the start of the window can be carried over from the previous window
+ * with {@link #carryOver(CConnectorAggregationTable)}.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 1.5.0
+ */
+public class CConnectorAggregationTable {
+
+  /**
+   * The series name suffixes of the {@link CConnectorAggregationMethod#STATISTICS}, in the order of
+   * the statistic indexes of {@link #getStatistic(int, int)}.
+   */
+  public static final String[] STATISTIC_SERIES_SUFFIXES = {
+    "_min", "_max", "_avg", "_count", "_stddev"
+  };
+
+  /** The statistic index of the minimum value. */
+  public static final int STATISTIC_MIN = 0;
+
+  /** The statistic index of the maximum value. */
+  public static final int STATISTIC_MAX = 1;
+
+  /** The statistic index of the average value. */
+  public static final int STATISTIC_AVG = 2;
+
+  /** The statistic index of the number of values. */
+  public static final int STATISTIC_COUNT = 3;
+
+  /** The statistic index of the standard deviation of the values. */
+  public static final int STATISTIC_STDDEV = 4;
+
+  /** The number of rows the table is allocated for when it is created. */
+  private static final int INITIAL_ROW_COUNT = 16;
+
+  /** The value type of rows with {@link Double} (or other non-integer {@link Number}) values. */
+  private static final byte VALUE_TYPE_DOUBLE = 0;
+
+  /** The value type of rows with {@link Float} values. */
+  private static final byte VALUE_TYPE_FLOAT = 1;
+
+  /** The value type of rows with {@link Integer} (or {@link Short} or {@link Byte}) values. */
+  private static final byte VALUE_TYPE_INTEGER = 2;
+
+  /** The value type of rows with {@link Long} values. */
+  private static final byte VALUE_TYPE_LONG = 3;
+
+  /** The value type of rows with {@link Boolean} values. */
+  private static final byte VALUE_TYPE_BOOLEAN = 4;
+
+  /** The lowest time-weighted average of a boolean series which is aggregated as true. */
+  private static final double BOOLEAN_TRUE_MIN_AVERAGE = 0.5;
+
+  /** The aggregation method applied by {@link #addPayloads}. */
+  private final CConnectorAggregationMethod aggregationMethod;
+
+  /** The quantiles (0 to 1) sent for the {@link CConnectorAggregationMethod#QUANTILES} method. */
+  private final double[] quantiles;
+
+  /** The number of rows which may hold values (one more than the highest row added to). */
+  private int rowLimit = 0;
+
+  /** The number of values added to each row. */
+  private int[] counts = new int[INITIAL_ROW_COUNT];
+
+  /** The number of true values added to each row, if the row is boolean. */
+  private int[] trueCounts = new int[INITIAL_ROW_COUNT];
+
+  /** The value type of the newest value added to each row. */
+  private byte[] valueTypes = new byte[INITIAL_ROW_COUNT];
+
+  /** The mean of the values added to each row. */
+  private double[] means = new double[INITIAL_ROW_COUNT];
+
+  /** The sum of the squared differences from the mean of the values added to each row. */
+  private double[] squaredDifferenceSums = new double[INITIAL_ROW_COUNT];
+
+  /** The lowest value added to each row. */
+  private double[] minNumbers = new double[INITIAL_ROW_COUNT];
+
+  /** The highest value added to each row. */
+  private double[] maxNumbers = new double[INITIAL_ROW_COUNT];
+
+  /** The oldest value added to each row. */
+  private double[] firstNumbers = new double[INITIAL_ROW_COUNT];
+
+  /** The time (in milliseconds since epoch) of the oldest value added to each row. */
+  private long[] firstMillis = new long[INITIAL_ROW_COUNT];
+
+  /** The newest value added to each row. */
+  private double[] lastNumbers = new double[INITIAL_ROW_COUNT];
+
+  /** The time (in milliseconds since epoch) of the newest value added to each row. */
+  private long[] lastMillis = new long[INITIAL_ROW_COUNT];
+
+  /** The time (in milliseconds since epoch) the time-weighted sum of each row starts at. */
+  private long[] timeWeightedStartMillis = new long[INITIAL_ROW_COUNT];
+
+  /** The sum of each value multiplied by the time (in milliseconds) it was held, for each row. */
+  private double[] timeWeightedSums = new double[INITIAL_ROW_COUNT];
+
+  /** Boolean flags indicating if a value was carried over from the previous window to each row. */
+  private boolean[] carriedOver = new boolean[INITIAL_ROW_COUNT];
+
+  /** The value carried over from the previous window to each row. */
+  private double[] carriedNumbers = new double[INITIAL_ROW_COUNT];
+
+  /** The quantile sketch of each row, or null if quantiles are not used. */
+  private CConnectorQuantileSketch[] quantileSketches;
+
+  /**
+   * Constructor for a new, empty {@link CConnectorAggregationTable} with the specified aggregation
+   * method.
+   *
+   * @param aggregationMethod aggregation method applied by {@link #addPayloads}
+   * @param quantiles quantiles (0 to 1) sent for the {@link CConnectorAggregationMethod#QUANTILES}
+   *     aggregation method (may be null for other aggregation methods)
+   */
+  public CConnectorAggregationTable(
+      CConnectorAggregationMethod aggregationMethod, double[] quantiles) {
+    this.aggregationMethod = aggregationMethod;
+    this.quantiles = quantiles;
+    quantileSketches =
+        aggregationMethod == CConnectorAggregationMethod.QUANTILES
+            ? new CConnectorQuantileSketch[INITIAL_ROW_COUNT]
+            : null;
+  }
+
+  /**
+   * Adds the specified value to the specified row.
+   *
+   * @param row row of the series (the tag index)
+   * @param value value to add (a {@link Number} or {@link Boolean})
+   * @param timeMillis time (in milliseconds since epoch) the value was logged
+   * @throws IllegalArgumentException if the value is not a number or boolean
+   */
+  public void add(int row, Object value, long timeMillis) throws IllegalArgumentException {
+    double number;
+    byte valueType;
+    if (value instanceof Boolean) {
+      valueType = VALUE_TYPE_BOOLEAN;
+      number = ((Boolean) value).booleanValue() ? 1 : 0;
+    } else if (value instanceof Number) {
+      valueType = getValueType((Number) value);
+      number = ((Number) value).doubleValue();
+    } else {
+      throw new IllegalArgumentException("Value must be a number or boolean.");
+    }
+
+    if (row >= counts.length) {
+      growRows(Math.max(row + 1, counts.length * 2));
+    }
+    if (row >= rowLimit) {
+      rowLimit = row + 1;
+    }
+    int count = counts[row];
+    if (count == 0) {
+      startRow(row, number, timeMillis);
+    }
+
+    valueTypes[row] = valueType;
+    if (number > 0 && valueType == VALUE_TYPE_BOOLEAN) {
+      trueCounts[row]++;
+    }
+    if (number < minNumbers[row]) {
+      minNumbers[row] = number;
+    }
+    if (number > maxNumbers[row]) {
+      maxNumbers[row] = number;
+    }
+    if (timeMillis < firstMillis[row]) {
+      firstMillis[row] = timeMillis;
+      firstNumbers[row] = number;
+    }
+    if (timeMillis >= lastMillis[row]) {
+      // The newest value was held until this value
+      timeWeightedSums[row] += lastNumbers[row] * (timeMillis - lastMillis[row]);
+      lastMillis[row] = timeMillis;
+      lastNumbers[row] = number;
+    }
+    count++;
+    counts[row] = count;
+    double difference = number - means[row];
+    means[row] += difference / count;
+    squaredDifferenceSums[row] += difference * (number - means[row]);
+    if (quantileSketches != null) {
+      quantileSketches[row].add(number);
+    }
+  }
+
+  /**
+   * Resets the running state of the specified row for its first value.
+   *
+   * @param row row of the series
+   * @param number first value of the row
+   * @param timeMillis time (in milliseconds since epoch) the first value was logged
+   */
+  private void startRow(int row, double number, long timeMillis) {
+    trueCounts[row] = 0;
+    means[row] = 0;
+    squaredDifferenceSums[row] = 0;
+    minNumbers[row] = number;
+    maxNumbers[row] = number;
+    firstNumbers[row] = number;
+    firstMillis[row] = timeMillis;
+    lastNumbers[row] = number;
+    lastMillis[row] = timeMillis;
+    timeWeightedStartMillis[row] = timeMillis;
+    timeWeightedSums[row] = 0;
+    carriedOver[row] = false;
+    carriedNumbers[row] = 0;
+    if (quantileSketches != null) {
+      quantileSketches[row] = new CConnectorQuantileSketch();
+    }
+  }
+
+  /**
+   * Gets the value type of the specified number.
+   *
+   * @param number number to get the value type of
+   * @return value type of the number
+   */
+  private static byte getValueType(Number number) {
+    byte valueType;
+    if (number instanceof Integer || number instanceof Short || number instanceof Byte) {
+      valueType = VALUE_TYPE_INTEGER;
+    } else if (number instanceof Long) {
+      valueType = VALUE_TYPE_LONG;
+    } else if (number instanceof Float) {
+      valueType = VALUE_TYPE_FLOAT;
+    } else {
+      valueType = VALUE_TYPE_DOUBLE;
+    }
+    return valueType;
+  }
+
+  /**
+   * Gets the specified number as a value of the value type of the specified row.
+   *
+   * @param row row of the series
+   * @param number number to convert
+   * @return value of the value type of the row
+   */
+  private Object getTypedValue(int row, double number) {
+    Object value;
+    switch (valueTypes[row]) {
+      case VALUE_TYPE_BOOLEAN:
+        value = Boolean.valueOf(number > 0);
+        break;
+      case VALUE_TYPE_INTEGER:
+        value = new Integer((int) number);
+        break;
+      case VALUE_TYPE_LONG:
+        value = new Long((long) number);
+        break;
+      case VALUE_TYPE_FLOAT:
+        value = new Float((float) number);
+        break;
+      default:
+        value = new Double(number);
+        break;
+    }
+    return value;
+  }
+
+  /**
+   * Grows the arrays of the table to hold the specified number of rows.
+   *
+   * @param rowCount number of rows to hold
+   */
+  private void growRows(int rowCount) {
+    int oldRowCount = counts.length;
+    counts = (int[]) copyRows(counts, new int[rowCount], oldRowCount);
+    trueCounts = (int[]) copyRows(trueCounts, new int[rowCount], oldRowCount);
+    valueTypes = (byte[]) copyRows(valueTypes, new byte[rowCount], oldRowCount);
+    means = (double[]) copyRows(means, new double[rowCount], oldRowCount);
+    squaredDifferenceSums =
+        (double[]) copyRows(squaredDifferenceSums, new double[rowCount], oldRowCount);
+    minNumbers = (double[]) copyRows(minNumbers, new double[rowCount], oldRowCount);
+    maxNumbers = (double[]) copyRows(maxNumbers, new double[rowCount], oldRowCount);
+    firstNumbers = (double[]) copyRows(firstNumbers, new double[rowCount], oldRowCount);
+    firstMillis = (long[]) copyRows(firstMillis, new long[rowCount], oldRowCount);
+    lastNumbers = (double[]) copyRows(lastNumbers, new double[rowCount], oldRowCount);
+    lastMillis = (long[]) copyRows(lastMillis, new long[rowCount], oldRowCount);
+    timeWeightedStartMillis =
+        (long[]) copyRows(timeWeightedStartMillis, new long[rowCount], oldRowCount);
+    timeWeightedSums = (double[]) copyRows(timeWeightedSums, new double[rowCount], oldRowCount);
+    carriedOver = (boolean[]) copyRows(carriedOver, new boolean[rowCount], oldRowCount);
+    carriedNumbers = (double[]) copyRows(carriedNumbers, new double[rowCount], oldRowCount);
+    if (quantileSketches != null) {
+      quantileSketches =
+          (CConnectorQuantileSketch[])
+              copyRows(quantileSketches, new CConnectorQuantileSketch[rowCount], oldRowCount);
+    }
+  }
+
+  /**
+   * Copies the rows of the specified array to the specified larger array.
+   *
+   * @param rows array to copy the rows from
+   * @param grownRows array to copy the rows to
+   * @param rowCount number of rows to copy
+   * @return the array the rows were copied to
+   */
+  private static Object copyRows(Object rows, Object grownRows, int rowCount) {
+    System.arraycopy(rows, 0, grownRows, 0, rowCount);
+    return grownRows;
+  }
+
+  /**
+   * Removes the values of all rows, so that the table can be reused without allocating its arrays
+   * again.
+   */
+  public void clear() {
+    Arrays.fill(counts, 0, rowLimit, 0);
+    rowLimit = 0;
+  }
+
+  /**
+   * Carries over the newest value of each series of the table to the next window. The value carried
+   * over to each series of this table is taken from the specified carried values, and the newest
+   * value of each series of this table is then stored in them, for the next window.
+   *
+   * @param carriedValues table which holds the values carried over to the next window of each
+   *     series, and no values of its own
+   */
+  public void carryOver(CConnectorAggregationTable carriedValues) {
+    if (carriedValues.counts.length < rowLimit) {
+      carriedValues.growRows(rowLimit);
+    }
+    for (int row = 0; row < rowLimit; row++) {
+      if (counts[row] > 0) {
+        carriedOver[row] = carriedValues.carriedOver[row];
+        carriedNumbers[row] = carriedValues.carriedNumbers[row];
+        carriedValues.carriedOver[row] = true;
+        carriedValues.carriedNumbers[row] = lastNumbers[row];
+      }
+    }
+  }
+
+  /**
+   * Gets the number of rows which may hold values. Rows from 0 to one less than this may hold
+   * values, and {@link #getCount(int)} is 0 for the rows which do not.
+   *
+   * @return number of rows which may hold values
+   */
+  public int getRowLimit() {
+    return rowLimit;
+  }
+
+  /**
+   * Gets the number of values added to the specified row.
+   *
+   * @param row row of the series
+   * @return number of values
+   */
+  public int getCount(int row) {
+    return row < rowLimit ? counts[row] : 0;
+  }
+
+  /**
+   * Gets the time (in milliseconds since epoch) of the newest value added to the specified row.
+   *
+   * @param row row of the series
+   * @return time of the newest value
+   */
+  public long getLastMillis(int row) {
+    return lastMillis[row];
+  }
+
+  /**
+   * Gets the aggregated value of the specified row using the specified aggregation method. The
+   * time-weighted average is taken from the first to the newest value of the row.
+   *
+   * @param row row of the series
+   * @param aggregationMethod aggregation method to apply
+   * @return aggregated value, or null if no value was added to the row
+   */
+  public Object getValue(int row, CConnectorAggregationMethod aggregationMethod) {
+    Object value;
+    if (getCount(row) == 0) {
+      value = null;
+    } else if (aggregationMethod == CConnectorAggregationMethod.FIRST_RECORDED_DATA) {
+      value = getTypedValue(row, firstNumbers[row]);
+    } else if (aggregationMethod == CConnectorAggregationMethod.MIN_RECORDED_DATA) {
+      value = getTypedValue(row, minNumbers[row]);
+    } else if (aggregationMethod == CConnectorAggregationMethod.MAX_RECORDED_DATA) {
+      value = getTypedValue(row, maxNumbers[row]);
+    } else if (aggregationMethod == CConnectorAggregationMethod.AVERAGE_RECORDED_DATA) {
+      value =
+          valueTypes[row] == VALUE_TYPE_BOOLEAN
+              ? (Object) Boolean.valueOf(trueCounts[row] >= counts[row] - trueCounts[row])
+              : new Double(means[row]);
+    } else if (aggregationMethod == CConnectorAggregationMethod.TIME_WEIGHTED_AVERAGE) {
+      value = getTimeWeightedAverage(row, timeWeightedStartMillis[row], lastMillis[row]);
+    } else {
+      value = getTypedValue(row, lastNumbers[row]);
+    }
+    return value;
+  }
+
+  /**
+   * Gets the specified statistic of the values added to the specified row. Boolean values are
+   * counted as 1 (true) or 0 (false).
+   *
+   * @param row row of the series
+   * @param statisticIndex index of the statistic (for example, {@link #STATISTIC_MIN})
+   * @return value of the statistic ({@link Integer} for the count, otherwise {@link Double}), or
+   *     null if no value was added to the row
+   * @throws IllegalArgumentException if the statistic index is not valid
+   */
+  public Object getStatistic(int row, int statisticIndex) throws IllegalArgumentException {
+    Object statistic;
+    if (getCount(row) == 0) {
+      statistic = null;
+    } else if (statisticIndex == STATISTIC_MIN) {
+      statistic = new Double(minNumbers[row]);
+    } else if (statisticIndex == STATISTIC_MAX) {
+      statistic = new Double(maxNumbers[row]);
+    } else if (statisticIndex == STATISTIC_AVG) {
+      statistic = new Double(means[row]);
+    } else if (statisticIndex == STATISTIC_COUNT) {
+      statistic = new Integer(counts[row]);
+    } else if (statisticIndex == STATISTIC_STDDEV) {
+      statistic = new Double(Math.sqrt(squaredDifferenceSums[row] / counts[row]));
+    } else {
+      throw new IllegalArgumentException("Invalid statistic index: " + statisticIndex);
+    }
+    return statistic;
+  }
+
+  /**
+   * Gets the unit of the specified statistic. The count has no unit, and the other statistics have
+   * the unit of the series.
+   *
+   * @param statisticIndex index of the statistic (for example, {@link #STATISTIC_MIN})
+   * @param unit unit of the series
+   * @return unit of the statistic
+   */
+  public static String getStatisticUnit(int statisticIndex, String unit) {
+    return statisticIndex == STATISTIC_COUNT ? "" : unit;
+  }
+
+  /**
+   * Gets the time-weighted average of the values added to the specified row, over the specified
+   * window time. Each value is weighted by the time until the next value, and the newest value is
+   * held until the end of the window. The time before the first value is only included if a value
+   * was carried over from the previous window. Boolean values are counted as 1 (true) or 0 (false),
+   * and the average is true if the values were true for at least half of the time.
+   *
+   * @param row row of the series
+   * @param windowStartMillis start time (in milliseconds since epoch) of the window
+   * @param windowEndMillis end time (in milliseconds since epoch) of the window
+   * @return time-weighted average ({@link Double}, or {@link Boolean} for boolean series), or null
+   *     if no value was added to the row
+   */
+  public Object getTimeWeightedAverage(int row, long windowStartMillis, long windowEndMillis) {
+    if (getCount(row) == 0) {
+      return null;
+    }
+
+    // Add the time the carried over value was held, and the time the newest value was held
+    double sum = timeWeightedSums[row];
+    long startMillis = timeWeightedStartMillis[row];
+    if (carriedOver[row] && windowStartMillis < startMillis) {
+      sum += carriedNumbers[row] * (startMillis - windowStartMillis);
+      startMillis = windowStartMillis;
+    }
+    long endMillis = lastMillis[row];
+    if (windowEndMillis > endMillis) {
+      sum += lastNumbers[row] * (windowEndMillis - endMillis);
+      endMillis = windowEndMillis;
+    }
+
+    double average = endMillis > startMillis ? sum / (endMillis - startMillis) : lastNumbers[row];
+    return valueTypes[row] == VALUE_TYPE_BOOLEAN
+        ? (Object) Boolean.valueOf(average >= BOOLEAN_TRUE_MIN_AVERAGE)
+        : new Double(average);
+  }
+
+  /**
+   * Gets the estimated value of the specified quantile of the values added to the specified row.
+   * The estimate is limited to the lowest and highest value, so that the quantiles 0 and 1 are
+   * exact.
+   *
+   * @param row row of the series
+   * @param quantile quantile to estimate (0 to 1)
+   * @return estimated value of the quantile ({@link Double}), or null if no value was added to the
+   *     row
+   * @throws IllegalStateException if the table does not use the {@link
+   *     CConnectorAggregationMethod#QUANTILES} aggregation method
+   */
+  public Object getQuantile(int row, double quantile) throws IllegalStateException {
+    if (quantileSketches == null) {
+      throw new IllegalStateException("Quantiles are not enabled for the aggregation table.");
+    }
+    if (getCount(row) == 0) {
+      return null;
+    }
+    double estimate = quantileSketches[row].getQuantile(quantile);
+    return new Double(Math.max(minNumbers[row], Math.min(maxNumbers[row], estimate)));
+  }
+
+  /**
+   * Gets the relative error bound (in percent) of the estimated quantiles of the specified row. The
+   * bound is raised to {@link CConnectorQuantileSketch#COLLAPSED_ERROR_BOUND_PERCENT} if the values
+   * of the row span too wide a range for the bound to hold.
+   *
+   * @param row row of the series
+   * @return relative error bound ({@link Double}) of the quantiles of the row
+   * @throws IllegalStateException if the table does not use the {@link
+   *     CConnectorAggregationMethod#QUANTILES} aggregation method
+   */
+  public Object getQuantileErrorBound(int row) throws IllegalStateException {
+    if (quantileSketches == null) {
+      throw new IllegalStateException("Quantiles are not enabled for the aggregation table.");
+    }
+    return new Double(quantileSketches[row].getErrorBoundPercent());
+  }
+
+  /**
+   * Adds the payloads (one per child device) of the aggregated values of the table to the specified
+   * list, using the aggregation method of the table. The names of each series are resolved through
+   * the specified tag table.
+   *
+   * @param payloads list to add the payloads to (List&lt;CConnectorJsonDataPayload&gt;)
+   * @param time time stamp of the payloads
+   * @param tagTable tag table the rows of the table are indexed by
+   * @param seriesSuffix suffix appended to the name of each series (may be empty)
+   * @param windowStartMillis start time (in milliseconds since epoch) of the window
+   * @param windowEndMillis end time (in milliseconds since epoch) of the window
+   * @throws JSONException if unable to build a payload
+   */
+  public void addPayloads(
+      List payloads,
+      Date time,
+      CConnectorTagTable tagTable,
+      String seriesSuffix,
+      long windowStartMillis,
+      long windowEndMillis)
+      throws JSONException {
+    Map childDevicePayloads = new HashMap(); // Map<String, CConnectorJsonDataPayload>
+    for (int row = 0; row < rowLimit; row++) {
+      if (counts[row] == 0) {
+        continue;
+      }
+
+      String childDevice = tagTable.getChildDevice(row);
+      CConnectorJsonDataPayload payload =
+          (CConnectorJsonDataPayload) childDevicePayloads.get(childDevice);
+      if (payload == null) {
+        // Values are already aggregated (one per series), so the payload only passes them on
+        payload = new CConnectorJsonDataPayload(time, childDevice);
+        childDevicePayloads.put(childDevice, payload);
+        payloads.add(payload);
+      }
+
+      String fragment = tagTable.getFragment(row);
+      String series = tagTable.getSeries(row) + seriesSuffix;
+      String unit = tagTable.getUnit(row);
+      Date lastTime = new Date(lastMillis[row]);
+      if (aggregationMethod == CConnectorAggregationMethod.STATISTICS) {
+        for (int i = 0; i < STATISTIC_SERIES_SUFFIXES.length; i++) {
+          payload.addFragment(
+              fragment,
+              series + STATISTIC_SERIES_SUFFIXES[i],
+              getStatistic(row, i),
+              getStatisticUnit(i, unit),
+              lastTime);
+        }
+      } else if (aggregationMethod == CConnectorAggregationMethod.QUANTILES) {
+        for (int i = 0; i < quantiles.length; i++) {
+          payload.addFragment(
+              fragment,
+              series + CConnectorQuantileSketch.getQuantileSeriesSuffix(quantiles[i]),
+              getQuantile(row, quantiles[i]),
+              unit,
+              lastTime);
+        }
+        payload.addFragment(
+            fragment,
+            series + CConnectorQuantileSketch.ERROR_BOUND_SERIES_SUFFIX,
+            getQuantileErrorBound(row),
+            CConnectorQuantileSketch.ERROR_BOUND_UNIT,
+            lastTime);
+      } else if (aggregationMethod == CConnectorAggregationMethod.TIME_WEIGHTED_AVERAGE) {
+        payload.addFragment(
+            fragment,
+            series,
+            getTimeWeightedAverage(row, windowStartMillis, windowEndMillis),
+            unit,
+            lastTime);
+      } else {
+        payload.addFragment(fragment, series, getValue(row, aggregationMethod), unit, lastTime);
+      }
+    }
+  }
+}
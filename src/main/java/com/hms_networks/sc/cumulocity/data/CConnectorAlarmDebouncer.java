@@ -0,0 +1,263 @@
+package com.hms_networks.sc.cumulocity.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-tag alarm state machine used to protect Cumulocity from alarm storms caused by flapping
+ * tags. Alarm transitions for a tag are held until the tag has been stable for the debounce time,
+ * or until the coalescing window since the first held transition has elapsed. Only the final held
+ * transition is sent, and the replaced transitions are counted as suppressed. A tag's alarm is not
+ * raised again more often than the minimum re-raise interval, and a transition which does not
+ * change the state last sent to Cumulocity within that interval is suppressed. The final state of
+ * each tag is always sent.
+ *
+ * <p>This class is not thread safe. Callers must synchronize on the instance.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 1.5.0
+ */
+public class CConnectorAlarmDebouncer {
+
+  /** Alarm state value indicating the state sent to Cumulocity is not known. */
+  private static final int ALARM_STATE_UNKNOWN = 0;
+
+  /** Alarm state value indicating an active (raised) alarm was sent to Cumulocity. */
+  private static final int ALARM_STATE_ACTIVE = 1;
+
+  /** Alarm state value indicating a cleared alarm was sent to Cumulocity. */
+  private static final int ALARM_STATE_CLEARED = 2;
+
+  /** Map of tag ID to the {@link TagAlarmState} of the tag. */
+  private final Map tagAlarmStates = new HashMap(); // Map<Integer, TagAlarmState>
+
+  /** Total number of alarm transitions suppressed since the connector started. */
+  private long totalSuppressedTransitions = 0;
+
+  /**
+   * Holds the specified alarm transition for the specified tag. If a transition is already held for
+   * the tag, it is replaced and counted as suppressed.
+   *
+   * @param tagId ID of the tag
+   * @param tagName name of the tag, used for logging
+   * @param active true if the transition leaves the alarm active, false if it clears the alarm
+   * @param alarmMessage message to send to Cumulocity for the transition
+   * @param childDevice child device to route the message to (may be null)
+   * @param nowMillis current time (in milliseconds since epoch)
+   */
+  public void submit(
+      int tagId,
+      String tagName,
+      boolean active,
+      String alarmMessage,
+      String childDevice,
+      long nowMillis) {
+    Integer tagIdKey = new Integer(tagId);
+    TagAlarmState state = (TagAlarmState) tagAlarmStates.get(tagIdKey);
+    if (state == null) {
+      state = new TagAlarmState();
+      tagAlarmStates.put(tagIdKey, state);
+    }
+
+    if (state.pendingMessage != null) {
+      state.suppressedCount++;
+      totalSuppressedTransitions++;
+    } else {
+      state.firstPendingMillis = nowMillis;
+    }
+    state.tagName = tagName;
+    state.pendingActive = active;
+    state.pendingMessage = alarmMessage;
+    state.pendingChildDevice = childDevice;
+    state.lastTransitionMillis = nowMillis;
+  }
+
+  /**
+   * Collects the held alarm transitions which are ready to be sent to Cumulocity, and updates the
+   * state last sent to Cumulocity for each collected transition. Held transitions which do not
+   * change the state last sent to Cumulocity within the minimum re-raise interval are dropped and
+   * counted as suppressed.
+   *
+   * @param nowMillis current time (in milliseconds since epoch)
+   * @param debounceMillis time (in milliseconds) a tag must be stable before its transition is sent
+   * @param coalesceWindowMillis maximum time (in milliseconds) a transition may be held
+   * @param minReRaiseIntervalMillis minimum time (in milliseconds) between raising a tag's alarm
+   * @return list of {@link ReadyAlarm}s to send, in no particular order across tags
+   */
+  public List collectReady(
+      long nowMillis,
+      long debounceMillis,
+      long coalesceWindowMillis,
+      long minReRaiseIntervalMillis) {
+    List readyAlarms = new ArrayList(); // List<ReadyAlarm>
+    Iterator stateIterator = tagAlarmStates.values().iterator(); // Iterator<TagAlarmState>
+    while (stateIterator.hasNext()) {
+      TagAlarmState state = (TagAlarmState) stateIterator.next();
+      if (state.pendingMessage == null) {
+        continue;
+      }
+
+      // Check if the tag is stable, or the transition has been held for the coalescing window
+      boolean isStable = nowMillis - state.lastTransitionMillis >= debounceMillis;
+      boolean isWindowElapsed = nowMillis - state.firstPendingMillis >= coalesceWindowMillis;
+      if (!isStable && !isWindowElapsed) {
+        continue;
+      }
+
+      boolean isReRaiseAllowed =
+          state.sentState == ALARM_STATE_UNKNOWN
+              || nowMillis - state.lastRaiseSentMillis >= minReRaiseIntervalMillis;
+      int pendingState = state.pendingActive ? ALARM_STATE_ACTIVE : ALARM_STATE_CLEARED;
+      if (pendingState == ALARM_STATE_CLEARED && state.sentState == ALARM_STATE_CLEARED) {
+        // Alarm is already cleared in Cumulocity
+        dropPending(state);
+        continue;
+      } else if (pendingState == ALARM_STATE_ACTIVE && !isReRaiseAllowed) {
+        if (state.sentState == ALARM_STATE_ACTIVE) {
+          // Alarm is already active in Cumulocity and was raised recently
+          dropPending(state);
+        }
+        // Otherwise hold the raise until the minimum re-raise interval has elapsed
+        continue;
+      }
+
+      readyAlarms.add(
+          new ReadyAlarm(
+              state.tagName,
+              state.pendingMessage,
+              state.pendingChildDevice,
+              state.suppressedCount));
+      state.sentState = pendingState;
+      if (pendingState == ALARM_STATE_ACTIVE) {
+        state.lastRaiseSentMillis = nowMillis;
+      }
+      state.pendingMessage = null;
+      state.pendingChildDevice = null;
+      state.suppressedCount = 0;
+    }
+    return readyAlarms;
+  }
+
+  /**
+   * Gets the total number of alarm transitions suppressed since the connector started.
+   *
+   * @return total number of suppressed alarm transitions
+   */
+  public long getTotalSuppressedTransitions() {
+    return totalSuppressedTransitions;
+  }
+
+  /**
+   * Drops the held transition of the specified tag alarm state and counts it as suppressed.
+   *
+   * @param state tag alarm state to drop the held transition of
+   */
+  private void dropPending(TagAlarmState state) {
+    state.pendingMessage = null;
+    state.pendingChildDevice = null;
+    state.suppressedCount++;
+    totalSuppressedTransitions++;
+  }
+
+  /** Alarm state of a single tag. */
+  private static class TagAlarmState {
+
+    /** Name of the tag, used for logging. */
+    private String tagName;
+
+    /** Alarm state last sent to Cumulocity for the tag. */
+    private int sentState = ALARM_STATE_UNKNOWN;
+
+    /** Time (in milliseconds since epoch) the tag's alarm was last raised in Cumulocity. */
+    private long lastRaiseSentMillis = 0;
+
+    /** Message of the held transition, or null if no transition is held. */
+    private String pendingMessage = null;
+
+    /** Child device of the held transition (may be null). */
+    private String pendingChildDevice = null;
+
+    /** Boolean indicating if the held transition leaves the alarm active. */
+    private boolean pendingActive = false;
+
+    /** Time (in milliseconds since epoch) of the first transition held since the last send. */
+    private long firstPendingMillis = 0;
+
+    /** Time (in milliseconds since epoch) of the most recent transition. */
+    private long lastTransitionMillis = 0;
+
+    /** Number of transitions suppressed since the last send. */
+    private int suppressedCount = 0;
+  }
+
+  /** Alarm transition which is ready to be sent to Cumulocity. */
+  public static class ReadyAlarm {
+
+    /** Name of the tag, used for logging. */
+    private final String tagName;
+
+    /** Message to send to Cumulocity. */
+    private final String alarmMessage;
+
+    /** Child device to route the message to (may be null). */
+    private final String childDevice;
+
+    /** Number of transitions suppressed for the tag since the previous send. */
+    private final int suppressedCount;
+
+    /**
+     * Constructor for a new {@link ReadyAlarm}.
+     *
+     * @param tagName name of the tag, used for logging
+     * @param alarmMessage message to send to Cumulocity
+     * @param childDevice child device to route the message to (may be null)
+     * @param suppressedCount number of transitions suppressed for the tag since the previous send
+     */
+    private ReadyAlarm(
+        String tagName, String alarmMessage, String childDevice, int suppressedCount) {
+      this.tagName = tagName;
+      this.alarmMessage = alarmMessage;
+      this.childDevice = childDevice;
+      this.suppressedCount = suppressedCount;
+    }
+
+    /**
+     * Gets the name of the tag.
+     *
+     * @return name of the tag
+     */
+    public String getTagName() {
+      return tagName;
+    }
+
+    /**
+     * Gets the message to send to Cumulocity.
+     *
+     * @return message to send to Cumulocity
+     */
+    public String getAlarmMessage() {
+      return alarmMessage;
+    }
+
+    /**
+     * Gets the child device to route the message to.
+     *
+     * @return child device to route the message to (may be null)
+     */
+    public String getChildDevice() {
+      return childDevice;
+    }
+
+    /**
+     * Gets the number of transitions suppressed for the tag since the previous send.
+     *
+     * @return number of suppressed transitions
+     */
+    public int getSuppressedCount() {
+      return suppressedCount;
+    }
+  }
+}
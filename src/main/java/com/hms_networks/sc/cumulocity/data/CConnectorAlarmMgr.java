@@ -2,13 +2,12 @@ package com.hms_networks.sc.cumulocity.data;
 
 import com.hms_networks.americas.sc.extensions.alarms.AlarmMonitor;
 import com.hms_networks.americas.sc.extensions.logging.Logger;
-import com.hms_networks.americas.sc.extensions.string.StringUtils;
-import com.hms_networks.americas.sc.extensions.taginfo.TagInfo;
-import com.hms_networks.americas.sc.extensions.taginfo.TagInfoManager;
 import com.hms_networks.americas.sc.extensions.taginfo.TagType;
+import com.hms_networks.sc.cumulocity.CConnectorLogger;
 import com.hms_networks.sc.cumulocity.CConnectorMain;
-import com.hms_networks.sc.cumulocity.api.CConnectorApiMessageBuilder;
 import com.hms_networks.sc.cumulocity.api.CConnectorMqttMgr;
+import com.hms_networks.sc.cumulocity.config.CConnectorConfigFile;
+import java.util.List;
 
 /**
  * Class for managing alarms on Ewon tags with alarm monitoring enabled.
@@ -19,28 +18,17 @@ import com.hms_networks.sc.cumulocity.api.CConnectorMqttMgr;
 public class CConnectorAlarmMgr extends AlarmMonitor {
 
   /**
-   * The alarm hint prefix used to identify alarms which should be identified as critical to
-   * Cumulocity.
+   * The index of precomputed alarm routing information for each alarmed tag. This is shared by all
+   * alarm manager instances.
    */
-  private static final String CRITICAL_ALARM_HINT_PREFIX = "Critical:";
+  private static final CConnectorAlarmRoutingIndex ALARM_ROUTING_INDEX =
+      new CConnectorAlarmRoutingIndex();
 
   /**
-   * The alarm hint prefix used to identify alarms which should be identified as major to
-   * Cumulocity.
+   * The alarm state machine used to debounce, coalesce and rate limit alarm changes for each tag.
+   * This is shared by all alarm manager instances, and all access must be synchronized on it.
    */
-  private static final String MAJOR_ALARM_HINT_PREFIX = "Major:";
-
-  /**
-   * The alarm hint prefix used to identify alarms which should be identified as minor to
-   * Cumulocity.
-   */
-  private static final String MINOR_ALARM_HINT_PREFIX = "Minor:";
-
-  /**
-   * The alarm hint prefix used to identify alarms which should be identified as warning to
-   * Cumulocity.
-   */
-  private static final String WARNING_ALARM_HINT_PREFIX = "Warning:";
+  private static final CConnectorAlarmDebouncer ALARM_DEBOUNCER = new CConnectorAlarmDebouncer();
 
   /**
    * Method for handling alarm status changes on Ewon tags with alarm monitoring enabled.
@@ -63,97 +51,130 @@ public class CConnectorAlarmMgr extends AlarmMonitor {
       String alarmStatus,
       String alarmUtcTimestamp,
       String alarmLocalTimestamp) {
-    // Get alarm hint for alarmed tag ID (without quotes)
-    TagInfo tagInfoFromTagId = TagInfoManager.getTagInfoFromTagId(alarmedTagId);
-    String unmodifiedAlarmHint =
-        tagInfoFromTagId.getAlarmHint().substring(1, tagInfoFromTagId.getAlarmHint().length() - 1);
+    // Get precomputed alarm routing information for alarmed tag ID
+    CConnectorAlarmRoute alarmRoute = ALARM_ROUTING_INDEX.getRoute(alarmedTagId, alarmedTagName);
+
+    // Only build the alarm log message if it will be logged
+    if (CConnectorLogger.isLevelEnabled(Logger.LOG_LEVEL_CRITICAL)) {
+      Logger.LOG_CRITICAL(
+          "ALARM FOR TAG: "
+              + alarmedTagName
+              + " (ID: "
+              + alarmedTagId
+              + ", TYPE: "
+              + alarmedTagType
+              + ", VALUE: "
+              + alarmedTagValue
+              + ", ALARM TYPE: "
+              + alarmType
+              + ", ALARM STATUS: "
+              + alarmStatus
+              + ", ALARM UTC TIMESTAMP: "
+              + alarmUtcTimestamp
+              + ", ALARM LOCAL TIMESTAMP: "
+              + alarmLocalTimestamp
+              + ", ALARM HINT: "
+              + alarmRoute.getAlarmHint()
+              + ")");
+    }
 
-    Logger.LOG_CRITICAL(
-        "ALARM FOR TAG: "
-            + alarmedTagName
-            + " (ID: "
-            + alarmedTagId
-            + ", TYPE: "
-            + alarmedTagType
-            + ", VALUE: "
-            + alarmedTagValue
-            + ", ALARM TYPE: "
-            + alarmType
-            + ", ALARM STATUS: "
-            + alarmStatus
-            + ", ALARM UTC TIMESTAMP: "
-            + alarmUtcTimestamp
-            + ", ALARM LOCAL TIMESTAMP: "
-            + alarmLocalTimestamp
-            + ", ALARM HINT: "
-            + unmodifiedAlarmHint
-            + ")");
+    // Build alarm message (clear alarm if ended, otherwise raise with severity from alarm hint)
+    boolean isAlarmActive = !(alarmStatus.equals("END") || alarmStatus.equals("NONE"));
+    String alarmMessage = alarmRoute.buildAlarmMessage(isAlarmActive, alarmUtcTimestamp);
+    String childDevice = alarmRoute.getChildDevice();
 
-    // Get and split tag name of data point
-    CConnectorTagName alarmedTagNameObject = new CConnectorTagName(alarmedTagName);
+    // Hold the alarm change for debouncing, then send any alarm changes which are ready
+    synchronized (ALARM_DEBOUNCER) {
+      ALARM_DEBOUNCER.submit(
+          alarmedTagId,
+          alarmedTagName,
+          isAlarmActive,
+          alarmMessage,
+          childDevice,
+          System.currentTimeMillis());
+    }
+    sendReadyAlarms();
+  }
 
-    // Get data point information
-    String childDevice = alarmedTagNameObject.getChildDevice();
-    String fragment = StringUtils.replace(alarmedTagNameObject.getFragment(), " ", "_");
-    String series = StringUtils.replace(alarmedTagNameObject.getSeries(), " ", "_");
-    String cumulocityAlarmType = fragment + "_" + series;
+  /**
+   * Refreshes the tag list and rebuilds the precomputed alarm routing information of all tags, if
+   * it has not been built yet or its rebuild interval has elapsed. This method is called when the
+   * connector starts and cyclically from the connector main loop.
+   */
+  public static void refreshAlarmRoutingIfDue() {
+    long nowMillis = System.currentTimeMillis();
+    if (ALARM_ROUTING_INDEX.isRebuildDue(nowMillis)) {
+      ALARM_ROUTING_INDEX.rebuild(nowMillis);
+    }
+  }
 
-    // Pick alarm type (critical, major, etc.) from alarm hint (default to major if no type in hint)
-    String alarmMessage;
-    if (alarmStatus.equals("END") || alarmStatus.equals("NONE")) {
-      alarmMessage = CConnectorApiMessageBuilder.clearExistingAlarm_306(cumulocityAlarmType);
-    } else if (unmodifiedAlarmHint.startsWith(CRITICAL_ALARM_HINT_PREFIX)) {
-      String alarmHintWithoutPrefix =
-          unmodifiedAlarmHint.substring(CRITICAL_ALARM_HINT_PREFIX.length());
-      alarmMessage =
-          CConnectorApiMessageBuilder.createCriticalAlarm_301(
-              cumulocityAlarmType, alarmHintWithoutPrefix, alarmUtcTimestamp);
-    } else if (unmodifiedAlarmHint.startsWith(MAJOR_ALARM_HINT_PREFIX)) {
-      String alarmHintWithoutPrefix =
-          unmodifiedAlarmHint.substring(MAJOR_ALARM_HINT_PREFIX.length());
-      alarmMessage =
-          CConnectorApiMessageBuilder.createMajorAlarm_302(
-              cumulocityAlarmType, alarmHintWithoutPrefix, alarmUtcTimestamp);
-    } else if (unmodifiedAlarmHint.startsWith(MINOR_ALARM_HINT_PREFIX)) {
-      String alarmHintWithoutPrefix =
-          unmodifiedAlarmHint.substring(MINOR_ALARM_HINT_PREFIX.length());
-      alarmMessage =
-          CConnectorApiMessageBuilder.createMinorAlarm_303(
-              cumulocityAlarmType, alarmHintWithoutPrefix, alarmUtcTimestamp);
-    } else if (unmodifiedAlarmHint.startsWith(WARNING_ALARM_HINT_PREFIX)) {
-      String alarmHintWithoutPrefix =
-          unmodifiedAlarmHint.substring(WARNING_ALARM_HINT_PREFIX.length());
-      alarmMessage =
-          CConnectorApiMessageBuilder.createWarningAlarm_304(
-              cumulocityAlarmType, alarmHintWithoutPrefix, alarmUtcTimestamp);
-    } else {
-      alarmMessage =
-          CConnectorApiMessageBuilder.createMajorAlarm_302(
-              cumulocityAlarmType, unmodifiedAlarmHint, alarmUtcTimestamp);
+  /**
+   * Sends the held alarm changes which are ready to be sent to Cumulocity. This method is called
+   * on each alarm change and cyclically from the connector main loop, so that held alarm changes
+   * are sent once the alarmed tag is stable.
+   */
+  public static void sendReadyAlarms() {
+    CConnectorConfigFile connectorConfig = CConnectorMain.getConnectorConfig();
+
+    // Collect the ready alarm changes under the lock, but queue them after releasing it, as
+    // queueing a message may drain the outbound lanes and block alarm callbacks until it is done
+    List readyAlarms; // List<ReadyAlarm>
+    synchronized (ALARM_DEBOUNCER) {
+      readyAlarms =
+          ALARM_DEBOUNCER.collectReady(
+              System.currentTimeMillis(),
+              connectorConfig.getAlarmDebounceMillis(),
+              connectorConfig.getAlarmCoalesceWindowMillis(),
+              connectorConfig.getAlarmMinReRaiseIntervalMillis());
+    }
+
+    for (int i = 0; i < readyAlarms.size(); i++) {
+      CConnectorAlarmDebouncer.ReadyAlarm readyAlarm =
+          (CConnectorAlarmDebouncer.ReadyAlarm) readyAlarms.get(i);
+      if (readyAlarm.getSuppressedCount() > 0) {
+        Logger.LOG_INFO(
+            "Suppressed "
+                + readyAlarm.getSuppressedCount()
+                + " alarm change(s) for tag "
+                + readyAlarm.getTagName()
+                + " before sending its latest alarm state to Cumulocity.");
+      }
+      sendAlarmMessage(
+          readyAlarm.getTagName(), readyAlarm.getAlarmMessage(), readyAlarm.getChildDevice());
+    }
+  }
+
+  /**
+   * Gets the total number of alarm changes which were suppressed by alarm storm protection since
+   * the connector started.
+   *
+   * @return total number of suppressed alarm changes
+   */
+  public static long getSuppressedAlarmChangeCount() {
+    synchronized (ALARM_DEBOUNCER) {
+      return ALARM_DEBOUNCER.getTotalSuppressedTransitions();
     }
+  }
 
+  /**
+   * Queues the specified alarm message in the {@link CConnectorOutboundLane#ALARM} lane, so that it
+   * is sent to Cumulocity ahead of queued measurements.
+   *
+   * @param alarmedTagName The name of the tag which triggered the alarm status change.
+   * @param alarmMessage The alarm message to send.
+   * @param childDevice The child device to route the message to (may be null).
+   */
+  private static void sendAlarmMessage(
+      String alarmedTagName, String alarmMessage, String childDevice) {
     // Get mqtt manager from main class
     CConnectorMqttMgr mqttMgr = CConnectorMain.getMqttMgr();
     if (mqttMgr != null) {
-      try {
-        mqttMgr.sendMessageWithChildDeviceRouting(
-            alarmMessage, childDevice, CConnectorMessageType.OTHER);
-      } catch (Exception e) {
-        Logger.LOG_SERIOUS(
-            "An alarm was unable to be sent to Cumulocity because of an exception: ["
-                + alarmedTagName
-                + ": "
-                + alarmedTagValue
-                + "]");
-        Logger.LOG_EXCEPTION(e);
-        mqttMgr.addMessageToRetryPending(alarmMessage, childDevice, CConnectorMessageType.OTHER);
-      }
+      mqttMgr.queueMessage(
+          alarmMessage, childDevice, CConnectorMessageType.OTHER, CConnectorOutboundLane.ALARM);
     } else {
       Logger.LOG_SERIOUS(
           "An alarm was unable to be sent to Cumulocity because the MQTT manager was not found: ["
               + alarmedTagName
-              + ": "
-              + alarmedTagValue
               + "]");
     }
   }
@@ -0,0 +1,205 @@
+package com.hms_networks.sc.cumulocity.data;
+
+import com.hms_networks.americas.sc.extensions.string.StringUtils;
+import com.hms_networks.sc.cumulocity.api.CConnectorApiMessageBuilder;
+
+/**
+ * Precomputed Cumulocity alarm routing information for a single Ewon tag. The alarm severity,
+ * Cumulocity alarm type, child device and alarm text are derived once from the tag name and alarm
+ * hint, so that alarm messages can be built without repeating the string processing for each alarm
+ * status change.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 1.5.0
+ */
+public class CConnectorAlarmRoute {
+
+  /**
+   * The alarm hint prefix used to identify alarms which should be identified as critical to
+   * Cumulocity.
+   */
+  private static final String CRITICAL_ALARM_HINT_PREFIX = "Critical:";
+
+  /**
+   * The alarm hint prefix used to identify alarms which should be identified as major to
+   * Cumulocity.
+   */
+  private static final String MAJOR_ALARM_HINT_PREFIX = "Major:";
+
+  /**
+   * The alarm hint prefix used to identify alarms which should be identified as minor to
+   * Cumulocity.
+   */
+  private static final String MINOR_ALARM_HINT_PREFIX = "Minor:";
+
+  /**
+   * The alarm hint prefix used to identify alarms which should be identified as warning to
+   * Cumulocity.
+   */
+  private static final String WARNING_ALARM_HINT_PREFIX = "Warning:";
+
+  /** The quote character which wraps the alarm hint of a tag. */
+  private static final String ALARM_HINT_QUOTE = "\"";
+
+  /** Severity value for critical alarms (Template 301). */
+  private static final int SEVERITY_CRITICAL = 301;
+
+  /** Severity value for major alarms (Template 302). */
+  private static final int SEVERITY_MAJOR = 302;
+
+  /** Severity value for minor alarms (Template 303). */
+  private static final int SEVERITY_MINOR = 303;
+
+  /** Severity value for warning alarms (Template 304). */
+  private static final int SEVERITY_WARNING = 304;
+
+  /** The name of the tag. */
+  private final String tagName;
+
+  /** The alarm hint of the tag (without quotes), used for logging. */
+  private final String alarmHint;
+
+  /** The child device of the tag, or null if the tag belongs to the parent device. */
+  private final String childDevice;
+
+  /** The Cumulocity alarm type of the tag. */
+  private final String cumulocityAlarmType;
+
+  /** The severity of the tag alarm, as the static template number used to raise it. */
+  private final int severity;
+
+  /** The alarm text of the tag (alarm hint without severity prefix). */
+  private final String alarmText;
+
+  /**
+   * Constructor for a new {@link CConnectorAlarmRoute} for the specified tag name and alarm hint.
+   *
+   * @param tagName The name of the tag.
+   * @param quotedAlarmHint The alarm hint of the tag, wrapped in quotes. A hint which is not
+   *     wrapped in quotes is used as is, and a null hint is used as an empty hint.
+   */
+  public CConnectorAlarmRoute(String tagName, String quotedAlarmHint) {
+    this.tagName = tagName;
+
+    // Get alarm hint (without quotes)
+    alarmHint = unquoteAlarmHint(quotedAlarmHint);
+
+    // Get child device and alarm type from tag name
+    CConnectorTagName tagNameObject = new CConnectorTagName(tagName);
+    childDevice = tagNameObject.getChildDevice();
+    String fragment = StringUtils.replace(tagNameObject.getFragment(), " ", "_");
+    String series = StringUtils.replace(tagNameObject.getSeries(), " ", "_");
+    cumulocityAlarmType = fragment + "_" + series;
+
+    // Pick alarm severity from alarm hint (default to major if no severity in hint)
+    if (alarmHint.startsWith(CRITICAL_ALARM_HINT_PREFIX)) {
+      severity = SEVERITY_CRITICAL;
+      alarmText = alarmHint.substring(CRITICAL_ALARM_HINT_PREFIX.length());
+    } else if (alarmHint.startsWith(MAJOR_ALARM_HINT_PREFIX)) {
+      severity = SEVERITY_MAJOR;
+      alarmText = alarmHint.substring(MAJOR_ALARM_HINT_PREFIX.length());
+    } else if (alarmHint.startsWith(MINOR_ALARM_HINT_PREFIX)) {
+      severity = SEVERITY_MINOR;
+      alarmText = alarmHint.substring(MINOR_ALARM_HINT_PREFIX.length());
+    } else if (alarmHint.startsWith(WARNING_ALARM_HINT_PREFIX)) {
+      severity = SEVERITY_WARNING;
+      alarmText = alarmHint.substring(WARNING_ALARM_HINT_PREFIX.length());
+    } else {
+      severity = SEVERITY_MAJOR;
+      alarmText = alarmHint;
+    }
+  }
+
+  /**
+   * Gets a boolean indicating if the specified alarm hint is wrapped in quotes and not empty, which
+   * indicates that an alarm has been configured for the tag.
+   *
+   * @param quotedAlarmHint The alarm hint of the tag, wrapped in quotes.
+   * @return true if the alarm hint is well-formed and not empty, otherwise false
+   */
+  public static boolean isAlarmHintConfigured(String quotedAlarmHint) {
+    return quotedAlarmHint != null
+        && quotedAlarmHint.length() > 2
+        && quotedAlarmHint.startsWith(ALARM_HINT_QUOTE)
+        && quotedAlarmHint.endsWith(ALARM_HINT_QUOTE);
+  }
+
+  /**
+   * Removes the quotes which wrap the specified alarm hint.
+   *
+   * @param quotedAlarmHint The alarm hint of the tag, wrapped in quotes.
+   * @return The alarm hint without quotes, the alarm hint as is if it is not wrapped in quotes, or
+   *     an empty string if the alarm hint is null.
+   */
+  private static String unquoteAlarmHint(String quotedAlarmHint) {
+    String unquotedAlarmHint;
+    if (quotedAlarmHint == null) {
+      unquotedAlarmHint = "";
+    } else if (quotedAlarmHint.length() >= 2
+        && quotedAlarmHint.startsWith(ALARM_HINT_QUOTE)
+        && quotedAlarmHint.endsWith(ALARM_HINT_QUOTE)) {
+      unquotedAlarmHint = quotedAlarmHint.substring(1, quotedAlarmHint.length() - 1);
+    } else {
+      unquotedAlarmHint = quotedAlarmHint;
+    }
+    return unquotedAlarmHint;
+  }
+
+  /**
+   * Builds the Cumulocity message for an alarm status change of the tag.
+   *
+   * @param isAlarmActive true if the alarm is active, false if the alarm has ended
+   * @param alarmUtcTimestamp The UTC timestamp of the alarm.
+   * @return The Cumulocity message for the alarm status change.
+   */
+  public String buildAlarmMessage(boolean isAlarmActive, String alarmUtcTimestamp) {
+    String alarmMessage;
+    if (!isAlarmActive) {
+      alarmMessage = CConnectorApiMessageBuilder.clearExistingAlarm_306(cumulocityAlarmType);
+    } else if (severity == SEVERITY_CRITICAL) {
+      alarmMessage =
+          CConnectorApiMessageBuilder.createCriticalAlarm_301(
+              cumulocityAlarmType, alarmText, alarmUtcTimestamp);
+    } else if (severity == SEVERITY_MINOR) {
+      alarmMessage =
+          CConnectorApiMessageBuilder.createMinorAlarm_303(
+              cumulocityAlarmType, alarmText, alarmUtcTimestamp);
+    } else if (severity == SEVERITY_WARNING) {
+      alarmMessage =
+          CConnectorApiMessageBuilder.createWarningAlarm_304(
+              cumulocityAlarmType, alarmText, alarmUtcTimestamp);
+    } else {
+      alarmMessage =
+          CConnectorApiMessageBuilder.createMajorAlarm_302(
+              cumulocityAlarmType, alarmText, alarmUtcTimestamp);
+    }
+    return alarmMessage;
+  }
+
+  /**
+   * Gets the name of the tag.
+   *
+   * @return The name of the tag.
+   */
+  public String getTagName() {
+    return tagName;
+  }
+
+  /**
+   * Gets the alarm hint of the tag (without quotes).
+   *
+   * @return The alarm hint of the tag.
+   */
+  public String getAlarmHint() {
+    return alarmHint;
+  }
+
+  /**
+   * Gets the child device of the tag.
+   *
+   * @return The child device of the tag, or null if the tag belongs to the parent device.
+   */
+  public String getChildDevice() {
+    return childDevice;
+  }
+}
@@ -0,0 +1,109 @@
+package com.hms_networks.sc.cumulocity.data;
+
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+import com.hms_networks.americas.sc.extensions.taginfo.TagInfo;
+import com.hms_networks.americas.sc.extensions.taginfo.TagInfoManager;
+import com.hms_networks.sc.cumulocity.api.CConnectorApiMessageReader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index of precomputed {@link CConnectorAlarmRoute}s keyed by tag ID. The index is built from the
+ * tag configuration of the tags with an alarm hint when {@link #rebuild(long)} is called, which
+ * refreshes the tag list first, so that alarms are routed with a constant-time lookup. The index is
+ * rebuilt every {@link #REBUILD_INTERVAL_MILLIS} to pick up tag and alarm hint changes. If an alarm
+ * occurs for a tag which is not in the index (for example, a tag without an alarm hint, or a tag
+ * which was added or renamed since the index was built), the route of that tag is built when it is
+ * looked up.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 1.5.0
+ */
+public class CConnectorAlarmRoutingIndex {
+
+  /** The interval (in milliseconds) at which the tag list is refreshed and the index rebuilt. */
+  private static final long REBUILD_INTERVAL_MILLIS = 600000;
+
+  /** Map of tag ID to the {@link CConnectorAlarmRoute} of the tag. */
+  private Map routes = new HashMap(); // Map<Integer, CConnectorAlarmRoute>
+
+  /** The time (in milliseconds since epoch) the index was last rebuilt, or -1 if never built. */
+  private long lastRebuildMillis = -1;
+
+  /**
+   * Refreshes the tag list, then rebuilds the alarm routes of the tags with an alarm hint from the
+   * tag configuration. The cached tag handles of the tag write commands are discarded along with
+   * the tag list, so that renamed or deleted tags are not written with an outdated handle. The
+   * routes are built without holding the index lock, so that alarms are still routed with the
+   * previous routes until the rebuild is complete. A tag whose route cannot be built is logged and
+   * skipped. The rebuild time is updated before the rebuild starts, so that a failed rebuild is not
+   * retried until the next rebuild interval.
+   *
+   * @param nowMillis current time (in milliseconds since epoch)
+   */
+  public void rebuild(long nowMillis) {
+    synchronized (this) {
+      lastRebuildMillis = nowMillis;
+    }
+
+    try {
+      TagInfoManager.refreshTagList();
+    } catch (Exception e) {
+      Logger.LOG_SERIOUS("Unable to refresh the tag list. Alarm routes may be outdated.");
+      Logger.LOG_EXCEPTION(e);
+    }
+    CConnectorApiMessageReader.invalidateTagWriteCache();
+
+    Map rebuiltRoutes = new HashMap(); // Map<Integer, CConnectorAlarmRoute>
+    int highestTagId = TagInfoManager.getHighestTagIdSeen();
+    for (int tagId = TagInfoManager.getLowestTagIdSeen(); tagId <= highestTagId; tagId++) {
+      try {
+        TagInfo tagInfo = TagInfoManager.getTagInfoFromTagId(tagId);
+        if (tagInfo != null && CConnectorAlarmRoute.isAlarmHintConfigured(tagInfo.getAlarmHint())) {
+          CConnectorAlarmRoute route =
+              new CConnectorAlarmRoute(tagInfo.getName(), tagInfo.getAlarmHint());
+          rebuiltRoutes.put(new Integer(tagId), route);
+        }
+      } catch (Exception e) {
+        Logger.LOG_WARN("Unable to build the alarm route of tag ID " + tagId + ".");
+        Logger.LOG_EXCEPTION(e);
+      }
+    }
+
+    synchronized (this) {
+      routes = rebuiltRoutes;
+    }
+  }
+
+  /**
+   * Gets a boolean indicating if the index has not been built yet, or was last rebuilt at least
+   * {@link #REBUILD_INTERVAL_MILLIS} ago.
+   *
+   * @param nowMillis current time (in milliseconds since epoch)
+   * @return true if the index should be rebuilt
+   */
+  public synchronized boolean isRebuildDue(long nowMillis) {
+    return lastRebuildMillis < 0
+        || nowMillis - lastRebuildMillis >= REBUILD_INTERVAL_MILLIS
+        || nowMillis < lastRebuildMillis;
+  }
+
+  /**
+   * Gets the alarm route for the specified tag, building it from the tag configuration if the tag
+   * was added or renamed since the index was built.
+   *
+   * @param tagId The ID of the alarmed tag.
+   * @param tagName The name of the alarmed tag.
+   * @return The alarm route for the tag.
+   */
+  public synchronized CConnectorAlarmRoute getRoute(int tagId, String tagName) {
+    Integer tagIdKey = new Integer(tagId);
+    CConnectorAlarmRoute route = (CConnectorAlarmRoute) routes.get(tagIdKey);
+    if (route == null || !route.getTagName().equals(tagName)) {
+      TagInfo tagInfo = TagInfoManager.getTagInfoFromTagId(tagId);
+      route = new CConnectorAlarmRoute(tagName, tagInfo != null ? tagInfo.getAlarmHint() : null);
+      routes.put(tagIdKey, route);
+    }
+    return route;
+  }
+}
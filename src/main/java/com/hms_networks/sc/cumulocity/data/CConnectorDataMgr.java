@@ -1,5 +1,6 @@
 package com.hms_networks.sc.cumulocity.data;
 
+import com.ewon.ewonitf.TagControl;
 import com.hms_networks.americas.sc.extensions.datapoint.DataPoint;
 import com.hms_networks.americas.sc.extensions.datapoint.DataPointString;
 import com.hms_networks.americas.sc.extensions.datapoint.DataType;
@@ -7,9 +8,14 @@ import com.hms_networks.americas.sc.extensions.historicaldata.HistoricalDataQueu
 import com.hms_networks.americas.sc.extensions.logging.Logger;
 import com.hms_networks.americas.sc.extensions.mqtt.MqttStatusCode;
 import com.hms_networks.americas.sc.extensions.system.time.SCTimeSpan;
+import com.hms_networks.americas.sc.extensions.system.time.SCTimeUnit;
 import com.hms_networks.americas.sc.extensions.system.time.SCTimeUtils;
+import com.hms_networks.americas.sc.extensions.taginfo.TagInfo;
+import com.hms_networks.americas.sc.extensions.taginfo.TagInfoManager;
+import com.hms_networks.americas.sc.extensions.taginfo.TagType;
 import com.hms_networks.sc.cumulocity.CConnectorMain;
 import com.hms_networks.sc.cumulocity.api.CConnectorApiMessageBuilder;
+import com.hms_networks.sc.cumulocity.api.CConnectorCustomTemplateMgr;
 import com.hms_networks.sc.cumulocity.api.CConnectorMqttMgr;
 import com.hms_networks.sc.cumulocity.config.CConnectorConfigFile;
 import java.io.IOException;
@@ -45,29 +51,304 @@ public class CConnectorDataMgr {
    * Integer counter variable for tracking the number of consecutive failures of polling the
    * historical data queue.
    */
-  private static int queuePollFailCount = 0;
+  private static volatile int queuePollFailCount = 0;
 
   /** Boolean flag indicating if the application is running out of memory */
   private static boolean isMemoryCurrentlyLow;
 
   /** Long value used to track the last time the application checked for historical data update. */
-  private static long lastUpdateTimestampMillis = 0;
+  private static volatile long lastUpdateTimestampMillis = 0;
+
+  /** The checkpoint of the historical log, which only moves past data which has been published. */
+  private static final CConnectorQueueCheckpoint QUEUE_CHECKPOINT =
+      new CConnectorQueueCheckpoint();
+
+  /** The poll schedules of the tag groups, used if at least one tag group has its own schedule. */
+  private static final CConnectorTagGroupPoller TAG_GROUP_POLLER =
+      new CConnectorTagGroupPoller(QUEUE_CHECKPOINT);
+
+  /** The reader thread which reads spans ahead from the historical log, when enabled. */
+  private static final CConnectorQueuePrefetcher QUEUE_PREFETCHER =
+      new CConnectorQueuePrefetcher();
+
+  /** The number of milliseconds in a minute. */
+  private static final long MILLIS_PER_MINUTE = 60000;
+
+  /** The configured size (in minutes) of each span read by the historical data queue. */
+  private static long configuredQueueSpanMins = 1;
+
+  /**
+   * The current size (in minutes) of each span read by the historical data queue. This is smaller
+   * than {@link #configuredQueueSpanMins} while spans exceed the read memory budget.
+   */
+  private static long queueSpanMins = 1;
+
+  /** The memory budget (in bytes) of a single read of the historical log. */
+  private static long queueReadMaxBytes = 0;
+
+  /**
+   * The total number of historical data queue spans which were split because they exceeded the read
+   * memory budget.
+   */
+  private static volatile long queueSpanSplitCount = 0;
+
+  /**
+   * The end time (in milliseconds since epoch) of the last span read by the historical data queue,
+   * or {@link CConnectorQueueCheckpoint#NO_CHECKPOINT} if not known.
+   */
+  private static long queueSpanEndMillis = CConnectorQueueCheckpoint.NO_CHECKPOINT;
+
+  /**
+   * The time (in milliseconds) by which a span of the historical data queue must start after the
+   * end of the previous span, before the skipped time range is recorded as a gap.
+   */
+  private static final long QUEUE_SKIP_GAP_MIN_MILLIS = 60000;
+
+  /** The gap change count of the last gap report sent to Cumulocity, or -1 if none was sent. */
+  private static int sentGapChangeCount = -1;
+
+  /**
+   * The table of the tags which have been aggregated or rolled up, which indexes the rows of their
+   * aggregation tables.
+   */
+  private static final CConnectorTagTable TAG_TABLE = new CConnectorTagTable();
+
+  /**
+   * The span whose data points were only partly sent because its outbound lane was full, or null if
+   * none. The rest of the span is sent once the lane has room, before any other span is sent.
+   */
+  private static CConnectorQueueSpan heldSpan = null;
+
+  /** The rollup engine of the historical log data, or null if rollups are disabled. */
+  private static volatile CConnectorRollupEngine rollupEngine = null;
 
   /**
-   * Checks for historical data in the queue and sends any data points to Cumulocity.
+   * The rollup engine of the time range of the historical log which is being read again (backfill,
+   * or data older than the most recently closed window), or null if none. Consecutive spans of the
+   * time range share the engine, so that windows longer than a span are rolled up from all of their
+   * data.
+   */
+  private static CConnectorRollupEngine readAgainRollupEngine = null;
+
+  /** The end time (in milliseconds since epoch) of the data of {@link #readAgainRollupEngine}. */
+  private static long readAgainRollupEndMillis = 0;
+
+  /**
+   * Checks for historical data in the queue and sends any data points to Cumulocity. If tag group
+   * poll schedules are enabled, the tag group which is due to be read is read instead of all tag
+   * groups. If queue prefetching is enabled, the spans which were read ahead by the {@link
+   * CConnectorQueuePrefetcher} reader thread are sent instead of reading the queue. The historical
+   * log checkpoint is moved past the spans which have been published, and the gap report is sent
+   * to Cumulocity if the recorded gaps have changed.
    *
    * @param mqttMgr the MQTT manager to send data points on
    */
   public static void checkForHistoricalDataAndSend(CConnectorMqttMgr mqttMgr) {
-    // Grab latest data and send via MQTT
-    long currentReadTimestampMillis;
+    QUEUE_CHECKPOINT.advance();
+    sendGapReportIfChanged(mqttMgr);
+
+    if (QUEUE_PREFETCHER.isEnabled()) {
+      QUEUE_PREFETCHER.start();
+      sendPrefetchedSpans(mqttMgr);
+      return;
+    }
+
+    // Send the rest of the held span before reading the next span
+    if (!sendHeldSpan(mqttMgr)) {
+      return;
+    }
 
     // Store current timestamp
-    currentReadTimestampMillis = System.currentTimeMillis();
+    long currentReadTimestampMillis = System.currentTimeMillis();
 
-    // Update available memory variable
-    long availableMemoryBytes = Runtime.getRuntime().freeMemory();
+    // Read the next span (if due, or at once while catching up) and send it
+    try {
+      long pollTimestampMillis = isQueueCatchingUp() ? 0 : lastUpdateTimestampMillis;
+      CConnectorQueueSpan span =
+          readNextSpanIfDue(mqttMgr, currentReadTimestampMillis, pollTimestampMillis);
+      if (span != null) {
+        sendSpan(mqttMgr, span);
+      }
+    } catch (Exception e) {
+      onQueuePollFailed(e);
+    }
+  }
+
+  /**
+   * Logs and counts a failure to read the historical log. After {@link
+   * #QUEUE_DATA_POLL_FAILURE_RESET_THRESHOLD} consecutive failures, a new time tracker is started.
+   *
+   * @param e exception which occurred while reading the historical log
+   */
+  static void onQueuePollFailed(Exception e) {
+    Logger.LOG_CRITICAL(
+        "An error occurred while reading "
+            + "data from the historical log. (#"
+            + ++queuePollFailCount
+            + ")");
+    Logger.LOG_EXCEPTION(e);
+  }
 
+  /**
+   * Gets a boolean indicating if the historical data queue is behind by more than one poll size,
+   * so that the next span can be read without waiting for the poll interval. Tag groups with their
+   * own poll schedule are caught up by the {@link CConnectorTagGroupPoller}.
+   *
+   * @return true if the historical data queue is catching up, otherwise false
+   */
+  static boolean isQueueCatchingUp() {
+    if (TAG_GROUP_POLLER.isEnabled()) {
+      return false;
+    }
+    try {
+      long queuePollSizeMillis = queueSpanMins * MILLIS_PER_MINUTE;
+      return HistoricalDataQueueManager.getQueueTimeBehindMillis() > queuePollSizeMillis;
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  /**
+   * Configures the poll schedule of each tag group, the queue prefetching and the read memory
+   * budget from the connector configuration. If no tag group has its own poll schedule, all tag
+   * groups are read at once by the historical data queue.
+   *
+   * <p>If the historical data queue has read past the checkpoint (data which was read but not
+   * published before the connector stopped), the time range between the checkpoint and the queue
+   * time tracker is read again. The recorded gaps, and the backfill ranges which were not delivered
+   * before the connector stopped, are loaded from their files.
+   *
+   * @throws Exception if unable to read the queue data poll settings
+   */
+  public static void configureQueuePolling() throws Exception {
+    configuredQueueSpanMins = CConnectorMain.getConnectorConfig().getQueueDataPollSizeMinutes();
+    queueSpanMins = configuredQueueSpanMins;
+    queueReadMaxBytes = CConnectorMain.getConnectorConfig().getQueueDataReadMaxBytes();
+    TAG_GROUP_POLLER.configure(CConnectorMain.getConnectorConfig());
+    if (TAG_GROUP_POLLER.isEnabled()
+        && CConnectorMain.getConnectorConfig().getQueueDataAggregationPeriodSecs()
+            != CConnectorConfigFile.QUEUE_DATA_AGGREGATION_PERIOD_SECS_DISABLED) {
+      Logger.LOG_WARN(
+          "Queue data aggregation is not applied to tag groups with their own poll schedule.");
+    }
+    configureRollups();
+    QUEUE_PREFETCHER.setEnabled(CConnectorMain.getConnectorConfig().getQueueDataPrefetchEnabled());
+    QUEUE_CHECKPOINT.loadGaps();
+    QUEUE_CHECKPOINT.loadBackfillRanges();
+
+    // Read again the data which was read by the historical data queue, but not published
+    if (!TAG_GROUP_POLLER.isEnabled() && HistoricalDataQueueManager.doesTimeTrackerExist()) {
+      queueSpanEndMillis =
+          System.currentTimeMillis() - HistoricalDataQueueManager.getQueueTimeBehindMillis();
+      long checkpointMillis =
+          QUEUE_CHECKPOINT.getCheckpointMillis(CConnectorQueueCheckpoint.STREAM_ALL_TAG_GROUPS);
+      if (checkpointMillis != CConnectorQueueCheckpoint.NO_CHECKPOINT
+          && checkpointMillis < queueSpanEndMillis) {
+        QUEUE_CHECKPOINT.addResumeRange(
+            CConnectorQueueCheckpoint.STREAM_ALL_TAG_GROUPS, checkpointMillis, queueSpanEndMillis);
+      }
+    }
+  }
+
+  /**
+   * Configures the rollups of the historical log data from the connector configuration. Rollups are
+   * not applied to tag groups with their own poll schedule, and are applied instead of queue data
+   * aggregation when both are configured. Rollup periods which cannot be parsed disable rollups.
+   */
+  private static void configureRollups() {
+    rollupEngine = null;
+    readAgainRollupEngine = null;
+    long[] rollupPeriodsSecs;
+    try {
+      rollupPeriodsSecs =
+          CConnectorRollupEngine.parsePeriodsSecs(
+              CConnectorMain.getConnectorConfig().getQueueDataRollupPeriodsSecs());
+    } catch (IllegalArgumentException e) {
+      rollupPeriodsSecs = new long[0];
+      Logger.LOG_SERIOUS("Queue data rollups are disabled. " + e.getMessage());
+    }
+    if (rollupPeriodsSecs.length == 0) {
+      return;
+    }
+
+    if (TAG_GROUP_POLLER.isEnabled()) {
+      Logger.LOG_WARN(
+          "Queue data rollups are not applied to tag groups with their own poll schedule.");
+      return;
+    }
+    if (CConnectorMain.getConnectorConfig().getQueueDataAggregationPeriodSecs()
+        != CConnectorConfigFile.QUEUE_DATA_AGGREGATION_PERIOD_SECS_DISABLED) {
+      Logger.LOG_WARN(
+          "The queue data aggregation period is not used, because queue data rollups are enabled.");
+    }
+    rollupEngine =
+        new CConnectorRollupEngine(
+            rollupPeriodsSecs,
+            CConnectorMain.getConnectorConfig().getQueueDataAggregationMethod(),
+            CConnectorQuantileSketch.getConfiguredQuantiles(),
+            TAG_TABLE);
+  }
+
+  /**
+   * Stops the queue prefetching reader thread (if running), then sends the spans which were already
+   * read from the historical log, and moves the checkpoint past the spans which have been
+   * published. Spans which have not been published are read again after a restart.
+   *
+   * @param mqttMgr the MQTT manager to send data points on (may be null)
+   */
+  public static void shutdownQueuePrefetcher(CConnectorMqttMgr mqttMgr) {
+    QUEUE_PREFETCHER.shutdown();
+    if (mqttMgr != null) {
+      sendPrefetchedSpans(mqttMgr);
+    }
+    if (QUEUE_PREFETCHER.getReadySpanCount() > 0) {
+      Logger.LOG_WARN(
+          "Unable to send "
+              + QUEUE_PREFETCHER.getReadySpanCount()
+              + " span(s) which were read ahead from the historical log. They will be read again"
+              + " after a restart.");
+    }
+    QUEUE_CHECKPOINT.advance();
+  }
+
+  /**
+   * Gets the number of spans which were read ahead from the historical log and are waiting to be
+   * sent.
+   *
+   * @return number of prefetched spans
+   */
+  public static int getPrefetchedSpanCount() {
+    return QUEUE_PREFETCHER.getReadySpanCount();
+  }
+
+  /**
+   * Gets the total number of spans of the historical log which were split because they exceeded
+   * the read memory budget.
+   *
+   * @return number of split spans
+   */
+  public static long getSpanSplitCount() {
+    return queueSpanSplitCount + TAG_GROUP_POLLER.getSplitCount();
+  }
+
+  /**
+   * Reads the next span from the historical log, if a poll is due and the device is ready to send
+   * the data points (enough memory, MQTT connected and the outbound lane not full). Resume ranges
+   * are read before the next span, and backfill ranges are only read when no span is due. This
+   * method is called by the main thread, or by the {@link CConnectorQueuePrefetcher} reader thread
+   * when prefetching is enabled, but never by both.
+   *
+   * @param mqttMgr the MQTT manager the data points will be sent on
+   * @param currentReadTimestampMillis current time (in milliseconds since epoch)
+   * @param lastPollTimestampMillis time (in milliseconds since epoch) of the last poll of all tag
+   *     groups, used when tag group poll schedules are disabled
+   * @return span read from the historical log, or null if no poll was due or allowed, or the span
+   *     was split before it could be read
+   * @throws Exception if unable to read the historical log
+   */
+  static CConnectorQueueSpan readNextSpanIfDue(
+      CConnectorMqttMgr mqttMgr, long currentReadTimestampMillis, long lastPollTimestampMillis)
+      throws Exception {
     // Get queue data poll interval (millis) from config
     long queueDataPollIntervalMillis = QUEUE_DATA_POLL_INTERVAL_MILLIS_DEFAULT;
     try {
@@ -81,116 +362,593 @@ public class CConnectorDataMgr {
       Logger.LOG_EXCEPTION(e);
     }
 
-    // Refresh data if within time window
-    if ((currentReadTimestampMillis - lastUpdateTimestampMillis) >= queueDataPollIntervalMillis) {
-      // Check if memory is within permissible range to poll data queue
-      if (availableMemoryBytes < QUEUE_DATA_POLL_MIN_MEMORY_BYTES) {
-        // Show low memory warning
-        Logger.LOG_WARN("Low memory on device, " + (availableMemoryBytes / 1000) + " MB left!");
+    // Check if a poll is due (all tag groups, or the next due tag group)
+    int dueTagGroupIndex = CConnectorTagGroupPoller.NO_TAG_GROUP_DUE;
+    boolean isPollDue;
+    if (TAG_GROUP_POLLER.isEnabled()) {
+      dueTagGroupIndex = TAG_GROUP_POLLER.getNextDueTagGroup(currentReadTimestampMillis);
+      isPollDue = dueTagGroupIndex != CConnectorTagGroupPoller.NO_TAG_GROUP_DUE;
+    } else {
+      isPollDue =
+          (currentReadTimestampMillis - lastPollTimestampMillis) >= queueDataPollIntervalMillis;
+    }
+
+    // Resume ranges are read first, without waiting for the poll interval, and backfill ranges
+    // are only read when no other data is due to be read
+    boolean isResumeDue = QUEUE_CHECKPOINT.peekResumeRange() != null;
+    boolean isBackfillDue =
+        !isPollDue
+            && !isResumeDue
+            && QUEUE_CHECKPOINT.peekBackfillRange() != null
+            && !isQueueCatchingUp();
+    if (!isPollDue && !isResumeDue && !isBackfillDue) {
+      return null;
+    }
+    if (!isQueuePollAllowed(
+        mqttMgr,
+        isBackfillDue ? CConnectorOutboundLane.BACKFILL : CConnectorOutboundLane.MEASUREMENT)) {
+      return null;
+    }
+    if (isResumeDue) {
+      return readResumeRange(currentReadTimestampMillis);
+    }
+    if (isBackfillDue) {
+      return readBackfillRange(currentReadTimestampMillis);
+    }
+    if (dueTagGroupIndex != CConnectorTagGroupPoller.NO_TAG_GROUP_DUE) {
+      return readTagGroup(dueTagGroupIndex, currentReadTimestampMillis);
+    }
+    return readAllGroups(currentReadTimestampMillis);
+  }
+
+  /**
+   * Gets a boolean indicating if the device is ready to poll the historical data queue: there is
+   * enough memory, the MQTT manager is connected and the outbound lane the data points will be sent
+   * in is not full.
+   *
+   * @param mqttMgr the MQTT manager the data points will be sent on
+   * @param lane the outbound lane the data points will be sent in
+   * @return true if the historical data queue may be polled, otherwise false
+   */
+  private static boolean isQueuePollAllowed(
+      CConnectorMqttMgr mqttMgr, CConnectorOutboundLane lane) {
+    // Update available memory variable
+    long availableMemoryBytes = Runtime.getRuntime().freeMemory();
 
-        // If low memory flag not set, set it and request garbage collection
-        if (!isMemoryCurrentlyLow) {
-          // Set low memory flag
-          isMemoryCurrentlyLow = true;
+    // Check if memory is within permissible range to poll data queue
+    boolean isQueuePollAllowed = false;
+    if (availableMemoryBytes < QUEUE_DATA_POLL_MIN_MEMORY_BYTES) {
+      // Show low memory warning
+      Logger.LOG_WARN("Low memory on device, " + (availableMemoryBytes / 1000) + " MB left!");
 
-          // Tell the JVM that it should garbage collect soon
-          System.gc();
-        }
-      } else if (mqttMgr == null) {
+      // If low memory flag not set, set it and request garbage collection
+      if (!isMemoryCurrentlyLow) {
+        // Set low memory flag
+        isMemoryCurrentlyLow = true;
+
+        // Tell the JVM that it should garbage collect soon
+        System.gc();
+      }
+    } else if (mqttMgr == null) {
+      Logger.LOG_WARN(
+          "The MQTT manager is not available to send historical data. Skipping data poll!");
+    } else if (mqttMgr.getLastKnownMqttStatusCode() != MqttStatusCode.CONNECTED) {
+      Logger.LOG_WARN(
+          "The MQTT manager is not connected or has an unknown status. Skipping data poll!");
+    } else if (mqttMgr.isOutboundLaneFull(lane)) {
+      Logger.LOG_WARN(
+          "The outbound "
+              + lane.getName()
+              + " lane is full while queued messages are sent. Skipping data poll!");
+    } else {
+      // There is enough memory to run, reset memory state variable.
+      if (isMemoryCurrentlyLow) {
+        isMemoryCurrentlyLow = false;
+      }
+      isQueuePollAllowed = true;
+    }
+    return isQueuePollAllowed;
+  }
+
+  /**
+   * Reads the next span of all tag groups from the historical data queue. If the device runs out of
+   * memory reading the span, or the span exceeds the read memory budget, the size of the following
+   * spans is halved (see {@link #splitQueueSpan(String)}).
+   *
+   * @param currentReadTimestampMillis timestamp of the current historical data queue read (in
+   *     millis)
+   * @return span read from the historical data queue, or null if the span was split before it
+   *     could be read
+   * @throws Exception if unable to read the historical data queue
+   */
+  private static CConnectorQueueSpan readAllGroups(long currentReadTimestampMillis)
+      throws Exception {
+    // Read data points from queue
+    final boolean startNewTimeTracker;
+    if (HistoricalDataQueueManager.doesTimeTrackerExist()
+        && queuePollFailCount < QUEUE_DATA_POLL_FAILURE_RESET_THRESHOLD) {
+      startNewTimeTracker = false;
+    } else {
+      if (queuePollFailCount >= QUEUE_DATA_POLL_FAILURE_RESET_THRESHOLD) {
         Logger.LOG_WARN(
-            "The MQTT manager is not available to send historical data. Skipping data poll!");
-      } else if (mqttMgr.getLastKnownMqttStatusCode() != MqttStatusCode.CONNECTED) {
+            "The maximum number of failures to read the historical "
+                + "data queue has been reached ("
+                + QUEUE_DATA_POLL_FAILURE_RESET_THRESHOLD
+                + "). Forcing a new queue time tracker!");
+      }
+      startNewTimeTracker = true;
+    }
+
+    // Check aggregation configuration
+    Map datapointsReadFromQueueMap = null; // Map<Date, List<DataPoint>>
+    ArrayList datapointsReadFromQueue = null; // ArrayList<DataPoint>
+    try {
+      if (rollupEngine == null
+          && CConnectorMain.getConnectorConfig().getQueueDataAggregationPeriodSecs()
+              != CConnectorConfigFile.QUEUE_DATA_AGGREGATION_PERIOD_SECS_DISABLED) {
+        SCTimeSpan aggregationPeriodTimeSpan =
+            SCTimeSpan.ofSeconds(
+                CConnectorMain.getConnectorConfig().getQueueDataAggregationPeriodSecs());
+        datapointsReadFromQueueMap =
+            HistoricalDataQueueManager.getFifoNextSpanDataAllGroups(
+                startNewTimeTracker, aggregationPeriodTimeSpan);
+
+        Logger.LOG_DEBUG(
+            "Read "
+                + datapointsReadFromQueueMap.size()
+                + " periods of aggregated data points from "
+                + "the historical log.");
+      } else {
+        datapointsReadFromQueue =
+            HistoricalDataQueueManager.getFifoNextSpanDataAllGroups(startNewTimeTracker);
+
+        Logger.LOG_DEBUG(
+            "Read " + datapointsReadFromQueue.size() + " data points from the historical log.");
+      }
+    } catch (OutOfMemoryError e) {
+      // Release the partially read span, then read smaller spans (not counted as a failure)
+      datapointsReadFromQueueMap = null;
+      datapointsReadFromQueue = null;
+      System.gc();
+      if (splitQueueSpan("the device ran out of memory reading it")) {
+        return null;
+      }
+      throw new Exception("Out of memory reading a one minute span of the historical log.");
+    }
+
+    // Reset failure counter
+    queuePollFailCount = 0;
+
+    // Check if queue is behind, and get the end of the span from the queue time tracker
+    long spanEndMillis = currentReadTimestampMillis;
+    try {
+      long queueBehindMillis = HistoricalDataQueueManager.getQueueTimeBehindMillis();
+      spanEndMillis = System.currentTimeMillis() - queueBehindMillis;
+      if (queueBehindMillis >= QUEUE_DATA_POLL_BEHIND_MILLIS_WARN) {
         Logger.LOG_WARN(
-            "The MQTT manager is not connected or has an unknown status. Skipping data poll!");
+            "The historical data queue is running behind by "
+                + SCTimeUtils.getDayHourMinSecsForMillis(
+                    (int) queueBehindMillis, "days", "hours", "minutes", "seconds"));
+      }
+
+    } catch (IOException e) {
+      Logger.LOG_SERIOUS("Unable to detect if historical data queue is running behind.");
+      Logger.LOG_EXCEPTION(e);
+    }
+
+    // Get the start of the span, and read again the time range skipped by a new time tracker
+    long spanStartMillis = spanEndMillis - (queueSpanMins * MILLIS_PER_MINUTE);
+    if (queueSpanEndMillis != CConnectorQueueCheckpoint.NO_CHECKPOINT) {
+      if (startNewTimeTracker) {
+        QUEUE_CHECKPOINT.addResumeRange(
+            CConnectorQueueCheckpoint.STREAM_ALL_TAG_GROUPS, queueSpanEndMillis, spanStartMillis);
+      } else if (spanStartMillis - queueSpanEndMillis >= QUEUE_SKIP_GAP_MIN_MILLIS) {
+        // The queue skipped ahead, because it was behind by more than the maximum behind time
+        QUEUE_CHECKPOINT.addGap(
+            CConnectorQueueCheckpoint.STREAM_ALL_TAG_GROUPS, queueSpanEndMillis, spanStartMillis);
       } else {
-        // There is enough memory to run, reset memory state variable.
-        if (isMemoryCurrentlyLow) {
-          isMemoryCurrentlyLow = false;
-        }
+        spanStartMillis = queueSpanEndMillis;
+      }
+    }
+    queueSpanEndMillis = spanEndMillis;
 
-        // Retrieve data from queue (if required)
-        try {
-          // Read data points from queue
-          final boolean startNewTimeTracker;
-          if (HistoricalDataQueueManager.doesTimeTrackerExist()
-              && queuePollFailCount < QUEUE_DATA_POLL_FAILURE_RESET_THRESHOLD) {
-            startNewTimeTracker = false;
-          } else {
-            if (queuePollFailCount >= QUEUE_DATA_POLL_FAILURE_RESET_THRESHOLD) {
-              Logger.LOG_WARN(
-                  "The maximum number of failures to read the historical "
-                      + "data queue has been reached ("
-                      + QUEUE_DATA_POLL_FAILURE_RESET_THRESHOLD
-                      + "). Forcing a new queue time tracker!");
-            }
-            startNewTimeTracker = true;
-          }
+    CConnectorQueueSpan span;
+    if (datapointsReadFromQueueMap != null) {
+      span =
+          new CConnectorQueueSpan(
+              datapointsReadFromQueueMap,
+              currentReadTimestampMillis,
+              CConnectorQueueCheckpoint.STREAM_ALL_TAG_GROUPS,
+              spanStartMillis,
+              spanEndMillis);
+    } else {
+      span =
+          new CConnectorQueueSpan(
+              datapointsReadFromQueue,
+              currentReadTimestampMillis,
+              CConnectorQueueCheckpoint.STREAM_ALL_TAG_GROUPS,
+              spanStartMillis,
+              spanEndMillis);
+    }
+    QUEUE_CHECKPOINT.track(span);
 
-          // Check aggregation configuration
-          ArrayList datapointsReadFromQueue = null;
-          Map datapointsReadFromQueueMap = null;
-          if (CConnectorMain.getConnectorConfig().getQueueDataAggregationPeriodSecs()
-              != CConnectorConfigFile.QUEUE_DATA_AGGREGATION_PERIOD_SECS_DISABLED) {
-            SCTimeSpan aggregationPeriodTimeSpan =
-                SCTimeSpan.ofSeconds(
-                    CConnectorMain.getConnectorConfig().getQueueDataAggregationPeriodSecs());
-            datapointsReadFromQueueMap =
-                HistoricalDataQueueManager.getFifoNextSpanDataAllGroups(
-                    startNewTimeTracker, aggregationPeriodTimeSpan);
-
-            Logger.LOG_DEBUG(
-                "Read "
-                    + datapointsReadFromQueueMap.size()
-                    + " periods of aggregated data points from "
-                    + "the historical log.");
-          } else {
-            datapointsReadFromQueue =
-                HistoricalDataQueueManager.getFifoNextSpanDataAllGroups(startNewTimeTracker);
+    // Read smaller spans while spans exceed the read memory budget, or restore the span size
+    if (span.getEstimatedBytes() > queueReadMaxBytes) {
+      splitQueueSpan("it exceeds the read memory budget of " + queueReadMaxBytes + " bytes");
+    } else if (span.getEstimatedBytes() < queueReadMaxBytes / 4
+        && queueSpanMins < configuredQueueSpanMins) {
+      queueSpanMins = Math.min(configuredQueueSpanMins, queueSpanMins * 2);
+      HistoricalDataQueueManager.setQueueFifoTimeSpanMins(queueSpanMins);
+      Logger.LOG_INFO(
+          "Increased the historical data queue span to " + queueSpanMins + " minute(s).");
+    }
+    return span;
+  }
 
-            Logger.LOG_DEBUG(
-                "Read " + datapointsReadFromQueue.size() + " data points from the historical log.");
-          }
+  /**
+   * Halves the size of the following spans read by the historical data queue, down to one minute,
+   * because the last span was too large. The rest of the historical log is then read in smaller
+   * spans, without waiting for the poll interval, as the queue is behind by more than one span (see
+   * {@link #isQueueCatchingUp()}). This applies whether or not queue prefetching is enabled.
+   *
+   * @param reason reason the span is split, for the log message
+   * @return true if the span size was halved, or false if it is already one minute
+   * @throws Exception if unable to set the span size of the historical data queue
+   */
+  private static boolean splitQueueSpan(String reason) throws Exception {
+    if (queueSpanMins <= 1) {
+      return false;
+    }
+    queueSpanMins = queueSpanMins / 2;
+    HistoricalDataQueueManager.setQueueFifoTimeSpanMins(queueSpanMins);
+    queueSpanSplitCount++;
+    Logger.LOG_WARN(
+        "Splitting the historical data queue span because "
+            + reason
+            + ". Reading "
+            + queueSpanMins
+            + " minute(s) at a time.");
+    return true;
+  }
 
-          // Reset failure counter
-          queuePollFailCount = 0;
-
-          // Check if queue is behind
-          try {
-            long queueBehindMillis = HistoricalDataQueueManager.getQueueTimeBehindMillis();
-            if (queueBehindMillis >= QUEUE_DATA_POLL_BEHIND_MILLIS_WARN) {
-              Logger.LOG_WARN(
-                  "The historical data queue is running behind by "
-                      + SCTimeUtils.getDayHourMinSecsForMillis(
-                          (int) queueBehindMillis, "days", "hours", "minutes", "seconds"));
-            }
-
-          } catch (IOException e) {
-            Logger.LOG_SERIOUS("Unable to detect if historical data queue is running behind.");
-            Logger.LOG_EXCEPTION(e);
-          }
+  /**
+   * Reads the next span of the specified tag group from the historical log.
+   *
+   * @param tagGroupIndex index of the tag group to read
+   * @param currentReadTimestampMillis timestamp of the current historical log read (in millis)
+   * @return span read from the historical log
+   * @throws Exception if unable to read the historical log
+   */
+  private static CConnectorQueueSpan readTagGroup(
+      int tagGroupIndex, long currentReadTimestampMillis) throws Exception {
+    boolean startNewTimeTracker = queuePollFailCount >= QUEUE_DATA_POLL_FAILURE_RESET_THRESHOLD;
+    if (startNewTimeTracker) {
+      Logger.LOG_WARN(
+          "The maximum number of failures to read the historical "
+              + "data queue has been reached ("
+              + QUEUE_DATA_POLL_FAILURE_RESET_THRESHOLD
+              + "). Forcing a new time tracker for tag group "
+              + CConnectorTagGroupPoller.getTagGroupName(tagGroupIndex)
+              + "!");
+    }
 
-          // Process data points and send
-          if (datapointsReadFromQueueMap != null) {
-            processDataPointsAndSend(
-                mqttMgr, datapointsReadFromQueueMap, currentReadTimestampMillis);
-          } else {
-            processDataPointsAndSend(mqttMgr, datapointsReadFromQueue, currentReadTimestampMillis);
-          }
-        } catch (Exception e) {
-          Logger.LOG_CRITICAL(
-              "An error occurred while reading "
-                  + "data from the historical log. (#"
-                  + ++queuePollFailCount
-                  + ")");
-          Logger.LOG_EXCEPTION(e);
+    CConnectorQueueSpan span =
+        TAG_GROUP_POLLER.readNextSpan(
+            tagGroupIndex, currentReadTimestampMillis, startNewTimeTracker);
+    QUEUE_CHECKPOINT.track(span);
+    Logger.LOG_DEBUG(
+        "Read "
+            + span.getDatapointCount()
+            + " data points of tag group "
+            + CConnectorTagGroupPoller.getTagGroupName(tagGroupIndex)
+            + " from the historical log.");
+
+    // Reset failure counter
+    queuePollFailCount = 0;
+
+    // Check if tag group is behind
+    long tagGroupBehindMillis =
+        TAG_GROUP_POLLER.getTimeBehindMillis(tagGroupIndex, currentReadTimestampMillis);
+    if (tagGroupBehindMillis >= QUEUE_DATA_POLL_BEHIND_MILLIS_WARN) {
+      Logger.LOG_WARN(
+          "Tag group "
+              + CConnectorTagGroupPoller.getTagGroupName(tagGroupIndex)
+              + " of the historical log is running behind by "
+              + SCTimeUtils.getDayHourMinSecsForMillis(
+                  (int) tagGroupBehindMillis, "days", "hours", "minutes", "seconds"));
+    }
+    return span;
+  }
+
+  /**
+   * Reads the next part of the oldest resume range of the {@link CConnectorQueueCheckpoint} from
+   * the historical log. Each part is at most one span long, and is split further if it exceeds the
+   * read memory budget. A resume range which cannot be read is dropped and logged, so that it does
+   * not block the checkpoint.
+   *
+   * @param currentReadTimestampMillis timestamp of the current historical log read (in millis)
+   * @return span read from the resume range, or null if it could not be read
+   */
+  private static CConnectorQueueSpan readResumeRange(long currentReadTimestampMillis) {
+    CConnectorQueueCheckpoint.Range range = QUEUE_CHECKPOINT.peekResumeRange();
+    long partEndMillis =
+        Math.min(range.endMillis, range.startMillis + (queueSpanMins * MILLIS_PER_MINUTE));
+    CConnectorQueueSpan span;
+    try {
+      span =
+          TAG_GROUP_POLLER.readRange(
+              range.stream, range.startMillis, partEndMillis, currentReadTimestampMillis);
+    } catch (Exception e) {
+      QUEUE_CHECKPOINT.dropResumeRange(range, e);
+      return null;
+    }
+    QUEUE_CHECKPOINT.onResumeRangeRead(range, span);
+    Logger.LOG_DEBUG(
+        "Read " + span.getDatapointCount() + " data points again from the historical log.");
+    return span;
+  }
+
+  /**
+   * Reads the next part of the oldest backfill range of the {@link CConnectorQueueCheckpoint} from
+   * the historical log. Each part is at most one span long, and is split further if it exceeds the
+   * read memory budget. The span is sent in the {@link CConnectorOutboundLane#BACKFILL} lane.
+   *
+   * @param currentReadTimestampMillis timestamp of the current historical log read (in millis)
+   * @return span read from the backfill range, or null if it could not be read
+   */
+  private static CConnectorQueueSpan readBackfillRange(long currentReadTimestampMillis) {
+    CConnectorQueueCheckpoint.Range range = QUEUE_CHECKPOINT.peekBackfillRange();
+    long partEndMillis =
+        Math.min(range.endMillis, range.startMillis + (queueSpanMins * MILLIS_PER_MINUTE));
+    CConnectorQueueSpan span;
+    try {
+      span =
+          TAG_GROUP_POLLER.readRange(
+              range.stream, range.startMillis, partEndMillis, currentReadTimestampMillis);
+    } catch (Exception e) {
+      QUEUE_CHECKPOINT.dropBackfillRange(range, e);
+      return null;
+    }
+    QUEUE_CHECKPOINT.onBackfillRangeRead(range, span);
+    Logger.LOG_DEBUG(
+        "Read " + span.getDatapointCount() + " data points to backfill from the historical log.");
+    return span;
+  }
+
+  /**
+   * Requests the specified time range of the historical log to be read again and sent to
+   * Cumulocity (backfill), to repair gaps in the data. The range is read in spans of the queue
+   * data poll size, once no other data is due to be read, and sent in the {@link
+   * CConnectorOutboundLane#BACKFILL} lane. The end of the range is limited to the current time.
+   * The backfill ranges are stored before this method returns, so that they are kept when the
+   * connector restarts before they have been delivered.
+   *
+   * @param tagGroupName name of the tag group to backfill ('A' to 'D'), or null to backfill all tag
+   *     groups
+   * @param startMillis start time (in milliseconds since epoch) of the range
+   * @param endMillis end time (in milliseconds since epoch) of the range
+   * @return number of backfill ranges added (one per tag group with its own poll schedule)
+   * @throws IllegalArgumentException if the tag group name or the time range is not valid
+   * @throws IllegalStateException if unable to store the backfill ranges
+   */
+  public static int requestBackfill(String tagGroupName, long startMillis, long endMillis) {
+    endMillis = Math.min(endMillis, System.currentTimeMillis());
+    if (startMillis < 0 || endMillis <= startMillis) {
+      throw new IllegalArgumentException("The backfill time range is empty or not valid.");
+    }
+
+    // Backfill the requested tag group, or each tag group stream
+    int rangeCount = 0;
+    if (tagGroupName != null && tagGroupName.trim().length() > 0) {
+      for (int i = 0; i < CConnectorTagGroupPoller.TAG_GROUP_COUNT && rangeCount == 0; i++) {
+        if (CConnectorTagGroupPoller.getTagGroupName(i).equalsIgnoreCase(tagGroupName.trim())) {
+          QUEUE_CHECKPOINT.addBackfillRange(i, startMillis, endMillis);
+          rangeCount = 1;
         }
       }
+      if (rangeCount == 0) {
+        throw new IllegalArgumentException("Unknown tag group: " + tagGroupName);
+      }
+    } else if (TAG_GROUP_POLLER.isEnabled()) {
+      for (int i = 0; i < CConnectorTagGroupPoller.TAG_GROUP_COUNT; i++) {
+        QUEUE_CHECKPOINT.addBackfillRange(i, startMillis, endMillis);
+      }
+      rangeCount = CConnectorTagGroupPoller.TAG_GROUP_COUNT;
+    } else {
+      QUEUE_CHECKPOINT.addBackfillRange(
+          CConnectorQueueCheckpoint.STREAM_ALL_TAG_GROUPS, startMillis, endMillis);
+      rangeCount = 1;
+    }
+
+    if (!QUEUE_CHECKPOINT.storeBackfillRanges()) {
+      throw new IllegalStateException("Unable to store the backfill time ranges.");
+    }
+    return rangeCount;
+  }
+
+  /**
+   * Gets the number of recorded gaps of the historical log, which have not been delivered.
+   *
+   * @return number of gaps
+   */
+  public static int getGapCount() {
+    return QUEUE_CHECKPOINT.getGapCount();
+  }
+
+  /**
+   * Gets the number of requested backfill ranges which have not been read yet.
+   *
+   * @return number of backfill ranges
+   */
+  public static int getBackfillRangeCount() {
+    return QUEUE_CHECKPOINT.getBackfillRangeCount();
+  }
+
+  /**
+   * Gets the number of rollup windows which are open (not yet sent), across all rollup periods.
+   *
+   * @return number of open rollup windows, or 0 if rollups are disabled
+   */
+  public static int getRollupOpenWindowCount() {
+    CConnectorRollupEngine currentRollupEngine = rollupEngine;
+    return currentRollupEngine != null ? currentRollupEngine.getOpenWindowCount() : 0;
+  }
+
+  /**
+   * Gets the number of data points which were not rolled up, because their rollup window had
+   * already been sent.
+   *
+   * @return number of late data points, or 0 if rollups are disabled
+   */
+  public static long getRollupLateDatapointCount() {
+    CConnectorRollupEngine currentRollupEngine = rollupEngine;
+    return currentRollupEngine != null ? currentRollupEngine.getLateDatapointCount() : 0;
+  }
+
+  /**
+   * Sends the gap report of the historical log to Cumulocity, if the recorded gaps have changed
+   * since the last report was sent and the MQTT manager is connected. The first report is sent
+   * after startup, with the gaps recorded before the restart (see {@link
+   * CConnectorQueueCheckpoint#loadGaps()}), so that it matches the gaps which are still recorded.
+   *
+   * @param mqttMgr the MQTT manager to send the gap report on
+   */
+  private static void sendGapReportIfChanged(CConnectorMqttMgr mqttMgr) {
+    int gapChangeCount = QUEUE_CHECKPOINT.getGapChangeCount();
+    if (gapChangeCount == sentGapChangeCount
+        || mqttMgr == null
+        || mqttMgr.getLastKnownMqttStatusCode() != MqttStatusCode.CONNECTED) {
+      return;
+    }
+    try {
+      mqttMgr.sendGapReportToCumulocity(QUEUE_CHECKPOINT.getGapReportJson());
+      sentGapChangeCount = gapChangeCount;
+    } catch (Exception e) {
+      Logger.LOG_SERIOUS("Unable to send the historical log gap report to Cumulocity.");
+      Logger.LOG_EXCEPTION(e);
+    }
+  }
+
+  /**
+   * Sends the spans which were read ahead by the {@link CConnectorQueuePrefetcher} reader thread,
+   * until none are left or the outbound measurement lane is full.
+   *
+   * @param mqttMgr the MQTT manager to send data points on
+   */
+  private static void sendPrefetchedSpans(CConnectorMqttMgr mqttMgr) {
+    while (sendHeldSpan(mqttMgr)
+        && !mqttMgr.isOutboundLaneFull(CConnectorOutboundLane.MEASUREMENT)) {
+      CConnectorQueueSpan span = QUEUE_PREFETCHER.takeReadySpan();
+      if (span == null) {
+        break;
+      }
+      try {
+        sendSpan(mqttMgr, span);
+      } catch (Exception e) {
+        Logger.LOG_CRITICAL("An error occurred while sending data read from the historical log.");
+        Logger.LOG_EXCEPTION(e);
+      }
     }
   }
 
+  /**
+   * Sends the rest of the held span (if any), if its outbound lane has room.
+   *
+   * @param mqttMgr the MQTT manager to send data points on
+   * @return true if no span is held, or the rest of the held span has been queued, otherwise false
+   */
+  private static boolean sendHeldSpan(CConnectorMqttMgr mqttMgr) {
+    if (heldSpan == null) {
+      return true;
+    } else if (mqttMgr == null || mqttMgr.isOutboundLaneFull(heldSpan.getLane())) {
+      return false;
+    }
+
+    CConnectorQueueSpan span = heldSpan;
+    heldSpan = null;
+    try {
+      sendSpan(mqttMgr, span);
+    } catch (Exception e) {
+      Logger.LOG_CRITICAL("An error occurred while sending data read from the historical log.");
+      Logger.LOG_EXCEPTION(e);
+    }
+    return heldSpan == null;
+  }
+
+  /**
+   * Sends the data points of the specified span to Cumulocity, then seals the span so that the
+   * checkpoint can move past it once all of its messages have been published. If the span cannot
+   * be fully sent, it is read again. If the outbound lane of the span fills up between two chunks
+   * of its data points, the span is held (see {@link #heldSpan}) and the rest of it is sent on a
+   * later cycle, once the lane has room.
+   *
+   * @param mqttMgr the MQTT manager to send data points on
+   * @param span span read from the historical log
+   * @throws Exception if unable to get the ISO 8601 formatted time stamp for a data point
+   */
+  private static void sendSpan(CConnectorMqttMgr mqttMgr, CConnectorQueueSpan span)
+      throws Exception {
+    boolean sent = false;
+    boolean held = false;
+    try {
+      if (span.isAggregated()) {
+        processDataPointsAndSend(
+            mqttMgr, span.getAggregatedDatapoints(), span.getReadTimestampMillis(), span);
+      } else if (rollupEngine != null) {
+        processRollupsAndSend(mqttMgr, span);
+      } else {
+        held = !processSpanDataPointsAndSend(mqttMgr, span);
+      }
+      sent = true;
+    } finally {
+      if (held) {
+        heldSpan = span;
+      } else {
+        span.seal(sent);
+      }
+    }
+  }
+
+  /**
+   * Processes the non-aggregated data points of the specified span, from its next data point to
+   * send, and sends them to the MQTT broker in chunks. Processing stops between two chunks if the
+   * outbound lane of the span is full, so that the payloads of the whole span are not queued at
+   * the same time.
+   *
+   * @param mqttMgr MQTT manager to send data points on
+   * @param span historical log span to send the data points of
+   * @return true if all data points of the span have been sent, or false if the span must be held
+   * @throws Exception if unable to get the ISO 8601 formatted time stamp for a data point
+   */
+  private static boolean processSpanDataPointsAndSend(
+      CConnectorMqttMgr mqttMgr, CConnectorQueueSpan span) throws Exception {
+    List datapoints = span.getDatapoints(); // List<DataPoint>
+    int nextDatapointIndex =
+        processDataPointChunksAndSend(
+            mqttMgr,
+            datapoints,
+            span.getNextDatapointIndex(),
+            span.getReadTimestampMillis(),
+            span,
+            true);
+    span.setNextDatapointIndex(nextDatapointIndex);
+    if (nextDatapointIndex < datapoints.size()) {
+      Logger.LOG_DEBUG(
+          "The outbound "
+              + span.getLane().getName()
+              + " lane is full. Holding "
+              + (datapoints.size() - nextDatapointIndex)
+              + " data points of the span until queued messages are sent.");
+      return false;
+    }
+    return true;
+  }
+
   /**
    * Processes the aggregated data points read from the queue and sends them to the MQTT broker.
-   * (Parameterized map type: {@code Map<Date, List<DataPoint>>})
+   * (Parameterized map type: {@code Map<Date, List<DataPoint>>}) The payloads of each aggregation
+   * period are sent once the period is processed, and the period is then released from the map, so
+   * that the payloads of all periods are not held in memory at the same time.
    *
    * @param mqttMgr MQTT manager to send data points on
    * @param datapointsReadFromQueueMap map of aggregated data points read from the historical data
@@ -202,16 +960,48 @@ public class CConnectorDataMgr {
   public static void processDataPointsAndSend(
       CConnectorMqttMgr mqttMgr, Map datapointsReadFromQueueMap, long currentReadTimestampMillis)
       throws Exception {
+    processDataPointsAndSend(mqttMgr, datapointsReadFromQueueMap, currentReadTimestampMillis, null);
+  }
+
+  /**
+   * Processes the aggregated data points of the specified historical log span and sends them to
+   * the MQTT broker. (Parameterized map type: {@code Map<Date, List<DataPoint>>}) Each message is
+   * counted as pending by the span until it is published.
+   *
+   * @param mqttMgr MQTT manager to send data points on
+   * @param datapointsReadFromQueueMap map of aggregated data points read from the historical data
+   *     queue
+   * @param currentReadTimestampMillis timestamp of the current historical data queue read (in
+   *     millis)
+   * @param span historical log span the data points were read from (may be null)
+   * @throws Exception if unable to get the ISO 8601 formatted time stamp for a data point
+   */
+  private static void processDataPointsAndSend(
+      CConnectorMqttMgr mqttMgr,
+      Map datapointsReadFromQueueMap,
+      long currentReadTimestampMillis,
+      CConnectorQueueSpan span)
+      throws Exception {
 
     // Send data via MQTT
     if (!datapointsReadFromQueueMap.isEmpty()) {
 
-      // Map of child device name to list of CConnectorJsonDataPayload(s)
-      Map childDeviceMessageListMap = new HashMap(); // Map<String, List<CConnectorJsonDataPayload>>
-
       // List of string data points
       List stringDataPointsList = new ArrayList(); // List<DataPoint>
 
+      // Create aggregation table, reused for each aggregation period
+      CConnectorAggregationMethod aggregationMethod =
+          CConnectorMain.getConnectorConfig().getQueueDataAggregationMethod();
+      CConnectorAggregationTable aggregationTable =
+          new CConnectorAggregationTable(
+              aggregationMethod,
+              aggregationMethod == CConnectorAggregationMethod.QUANTILES
+                  ? CConnectorQuantileSketch.getConfiguredQuantiles()
+                  : null);
+      long aggregationPeriodMillis =
+          SCTimeUnit.SECONDS.toMillis(
+              CConnectorMain.getConnectorConfig().getQueueDataAggregationPeriodSecs());
+
       // Iterate over each aggregation period timestamp in the map
       Iterator datapointsReadFromQueueMapIterator =
           datapointsReadFromQueueMap
@@ -223,119 +1013,129 @@ public class CConnectorDataMgr {
                 datapointsReadFromQueueMapIterator.next(); // Map.Entry<Date, List<DataPoint>>
         Date timestamp = (Date) datapointsReadFromQueueMapEntry.getKey();
         List datapoints = (List) datapointsReadFromQueueMapEntry.getValue();
+        datapointsReadFromQueueMapIterator.remove();
 
-        // Create map of child device name to CConnectorJsonDataPayload
-        Map childDeviceMessageMap = new HashMap(); // Map<String, CConnectorJsonDataPayload>
-
-        // Iterate over each data point in the list
+        // Add each data point to the row of its tag in the aggregation table
+        aggregationTable.clear();
         Iterator datapointsIterator = datapoints.iterator(); // Iterator<DataPoint>
         while (datapointsIterator.hasNext()) {
           DataPoint datapoint = (DataPoint) datapointsIterator.next();
-
-          // Get and split tag name of data point
-          CConnectorTagName datapointTagName = new CConnectorTagName(datapoint.getTagName());
-
-          // Get data point information
-          Object value = datapoint.getValueObject();
-          String unit = datapoint.getTagUnit();
-          String childDevice = datapointTagName.getChildDevice();
-          String fragment = datapointTagName.getFragment();
-          String series = datapointTagName.getSeries();
-          Date originalTimestamp = datapoint.getTimeStampAsDate();
-
-          // Remove wrapping quotes if present
-          final char quoteChar = '"';
-          final int firstCharIndex = 0;
-          final int secondCharIndex = 1;
-          final int lastCharIndex = unit.length() - 1;
-          if (lastCharIndex > firstCharIndex
-              && unit.charAt(firstCharIndex) == quoteChar
-              && unit.charAt(lastCharIndex) == quoteChar) {
-            unit = unit.substring(secondCharIndex, lastCharIndex);
-          }
-
-          // Check if child device is present in child device message map
-          if (childDeviceMessageMap.containsKey(childDevice)) {
-            // Child device is present, get existing payload
-            CConnectorJsonDataPayload payload =
-                (CConnectorJsonDataPayload) childDeviceMessageMap.get(childDevice);
-
-            // Add data point to payload
-            if (datapoint instanceof DataPointString) {
-              stringDataPointsList.add(datapoint);
-            } else {
-              payload.addFragment(fragment, series, value, unit, originalTimestamp);
-            }
+          if (datapoint instanceof DataPointString) {
+            stringDataPointsList.add(datapoint);
           } else {
-            // Child device is not present, create new payload
-            CConnectorJsonDataPayload payload =
-                new CConnectorJsonDataPayload(timestamp, childDevice);
-
-            // Add data point to payload
-            if (datapoint instanceof DataPointString) {
-              stringDataPointsList.add(datapoint);
-            } else {
-              payload.addFragment(fragment, series, value, unit, originalTimestamp);
-            }
-
-            // Add payload to child device message map
-            childDeviceMessageMap.put(childDevice, payload);
+            aggregationTable.add(
+                TAG_TABLE.getIndex(datapoint.getTagName(), datapoint.getTagUnit()),
+                datapoint.getValueObject(),
+                datapoint.getTimeStampAsDate().getTime());
           }
 
           // Update last update time stamp
           lastUpdateTimestampMillis = currentReadTimestampMillis;
         }
 
-        // Add child device message map to child device message list map
-        Iterator childDeviceMessageMapIterator = childDeviceMessageMap.entrySet().iterator();
-        while (childDeviceMessageMapIterator.hasNext()) {
-          Map.Entry childDeviceMessageMapEntry = (Map.Entry) childDeviceMessageMapIterator.next();
-          String childDevice = (String) childDeviceMessageMapEntry.getKey();
-          CConnectorJsonDataPayload payload =
-              (CConnectorJsonDataPayload) childDeviceMessageMapEntry.getValue();
-          if (childDeviceMessageListMap.containsKey(childDevice)) {
-            List payloadList = (List) childDeviceMessageListMap.get(childDevice);
-            payloadList.add(payload);
-          } else {
-            List payloadList = new ArrayList();
-            payloadList.add(payload);
-            childDeviceMessageListMap.put(childDevice, payloadList);
-          }
+        // Send CConnectorJsonDataPayload(s) of the aggregation period to MQTT broker
+        List payloads = new ArrayList(); // List<CConnectorJsonDataPayload>
+        long aggregationPeriodStartMillis = timestamp.getTime() - (aggregationPeriodMillis / 2);
+        aggregationTable.addPayloads(
+            payloads,
+            timestamp,
+            TAG_TABLE,
+            "",
+            aggregationPeriodStartMillis,
+            aggregationPeriodStartMillis + aggregationPeriodMillis);
+        for (int i = 0; i < payloads.size(); i++) {
+          CConnectorJsonDataPayload payload = (CConnectorJsonDataPayload) payloads.get(i);
+          mqttMgr.queueMessage(
+              payload.getJsonString(),
+              payload.getChildDevice(),
+              CConnectorMessageType.JSON_DATA,
+              getSpanLane(span),
+              span);
         }
       }
 
-      // Send CConnectorJsonDataPayload(s) to MQTT broker
-      Iterator childDeviceMessageListMapIterator = childDeviceMessageListMap.entrySet().iterator();
-      while (childDeviceMessageListMapIterator.hasNext()) {
-        Map.Entry childDeviceMessageListMapEntry =
-            (Map.Entry) childDeviceMessageListMapIterator.next();
-        String childDevice = (String) childDeviceMessageListMapEntry.getKey();
-        List payloadList = (List) childDeviceMessageListMapEntry.getValue();
-        Iterator payloadListIterator = payloadList.iterator();
-        while (payloadListIterator.hasNext()) {
-          CConnectorJsonDataPayload payload =
-              (CConnectorJsonDataPayload) payloadListIterator.next();
-          String payloadString = payload.getJsonString();
-          try {
-            mqttMgr.sendMessageWithChildDeviceRouting(
-                payloadString, childDevice, CConnectorMessageType.JSON_DATA);
-          } catch (Exception e) {
-            Logger.LOG_CRITICAL("Unable to send payload to MQTT broker.");
-            Logger.LOG_EXCEPTION(e);
-            mqttMgr.addMessageToRetryPending(
-                payloadString, childDevice, CConnectorMessageType.JSON_DATA);
-          }
-        }
+      // Send String data points to MQTT broker (standard/non-aggregated)
+      processDataPointsAndSend(mqttMgr, stringDataPointsList, currentReadTimestampMillis, span);
+    }
+  }
+
+  /**
+   * Rolls up the data points of the specified historical log span over each rollup period, and
+   * sends the payloads of the rollup windows which have closed to the MQTT broker. Each data point
+   * is released from the span (set to null) once added to the rollups. String data points are not
+   * rolled up, and are sent as they are.
+   *
+   * <p>Spans which are read again (backfill, or data older than the most recently closed window)
+   * are rolled up apart from the current data, so that they do not disturb its windows. Consecutive
+   * spans which are read again share the {@link #readAgainRollupEngine}, and each window is sent
+   * once it has been read to its end. Only the windows which lie entirely within the time range
+   * read again are sent. The windows at the edges of the range only hold part of their data, so
+   * they are dropped, instead of being sent as rollups which conflict with the rollups already
+   * sent for them.
+   *
+   * <p>The data of the windows which are still open is only held in memory, so the checkpoint of
+   * the span is limited to the start of the oldest open window. If the connector restarts, the data
+   * of the open windows is read again from the historical log.
+   *
+   * @param mqttMgr MQTT manager to send data points on
+   * @param span historical log span the data points were read from
+   * @throws Exception if unable to build or send a rollup payload
+   */
+  private static void processRollupsAndSend(CConnectorMqttMgr mqttMgr, CConnectorQueueSpan span)
+      throws Exception {
+    CConnectorRollupEngine spanRollupEngine = rollupEngine;
+    boolean isSpanReadAgain =
+        span.isBackfill() || span.getStartMillis() < spanRollupEngine.getClosedUntilMillis();
+    if (isSpanReadAgain) {
+      // Continue the rollups of the previous span read again, if this span follows on from it
+      if (readAgainRollupEngine == null || span.getStartMillis() != readAgainRollupEndMillis) {
+        readAgainRollupEngine = spanRollupEngine.createEmpty(span.getStartMillis());
       }
+      readAgainRollupEndMillis = span.getEndMillis();
+      spanRollupEngine = readAgainRollupEngine;
+    }
 
-      // Send String data points to MQTT broker (standard/non-aggregated)
-      processDataPointsAndSend(mqttMgr, stringDataPointsList, currentReadTimestampMillis);
+    // Add each data point to the open window of each rollup period
+    List datapoints = span.getDatapoints(); // List<DataPoint>
+    List stringDataPointsList = new ArrayList(); // List<DataPoint>
+    for (int i = 0; i < datapoints.size(); i++) {
+      DataPoint datapoint = (DataPoint) datapoints.get(i);
+      datapoints.set(i, null);
+      if (datapoint instanceof DataPointString) {
+        stringDataPointsList.add(datapoint);
+      } else {
+        spanRollupEngine.add(
+            TAG_TABLE.getIndex(datapoint.getTagName(), datapoint.getTagUnit()),
+            datapoint.getValueObject(),
+            datapoint.getTimeStampAsDate().getTime());
+      }
+      lastUpdateTimestampMillis = span.getReadTimestampMillis();
+    }
+
+    // Send the payloads of the closed rollup windows
+    List payloads = spanRollupEngine.closeWindows(span.getEndMillis()); // List<Payload>
+    if (!isSpanReadAgain) {
+      span.setCheckpointLimitMillis(spanRollupEngine.getOpenWindowsStartMillis());
     }
+    for (int i = 0; i < payloads.size(); i++) {
+      CConnectorJsonDataPayload payload = (CConnectorJsonDataPayload) payloads.get(i);
+      mqttMgr.queueMessage(
+          payload.getJsonString(),
+          payload.getChildDevice(),
+          CConnectorMessageType.JSON_DATA,
+          getSpanLane(span),
+          span);
+    }
+
+    // Send String data points to MQTT broker (standard/non-rolled up)
+    processDataPointsAndSend(mqttMgr, stringDataPointsList, span.getReadTimestampMillis(), span);
   }
 
   /**
    * Processes the list of non-aggregated data points read from the queue and sends them to the MQTT
-   * broker.
+   * broker. The list is processed and sent in chunks of the configured queue data process chunk
+   * size, and each data point is released from the list (set to null) once processed, so that the
+   * data points and payloads of a large span are not all held in memory at the same time.
    *
    * @param mqttMgr MQTT manager to send data points on
    * @param datapointsReadFromQueue list of non-aggregated data points read from the historical data
@@ -347,67 +1147,355 @@ public class CConnectorDataMgr {
   public static void processDataPointsAndSend(
       CConnectorMqttMgr mqttMgr, List datapointsReadFromQueue, long currentReadTimestampMillis)
       throws Exception {
+    processDataPointsAndSend(mqttMgr, datapointsReadFromQueue, currentReadTimestampMillis, null);
+  }
+
+  /**
+   * Processes the list of non-aggregated data points of the specified historical log span and sends
+   * them to the MQTT broker, in chunks of the configured queue data process chunk size. Each
+   * message is counted as pending by the span until it is published.
+   *
+   * @param mqttMgr MQTT manager to send data points on
+   * @param datapointsReadFromQueue list of non-aggregated data points read from the historical data
+   *     queue
+   * @param currentReadTimestampMillis timestamp of the current historical data queue read (in
+   *     millis)
+   * @param span historical log span the data points were read from (may be null)
+   * @throws Exception if unable to get the ISO 8601 formatted time stamp for a data point
+   */
+  private static void processDataPointsAndSend(
+      CConnectorMqttMgr mqttMgr,
+      List datapointsReadFromQueue,
+      long currentReadTimestampMillis,
+      CConnectorQueueSpan span)
+      throws Exception {
+    processDataPointChunksAndSend(
+        mqttMgr, datapointsReadFromQueue, 0, currentReadTimestampMillis, span, false);
+  }
+
+  /**
+   * Processes the list of non-aggregated data points of the specified historical log span, from
+   * the specified index, and sends them to the MQTT broker in chunks of the configured queue data
+   * process chunk size. The payloads of each chunk are queued before the next chunk is processed.
+   *
+   * @param mqttMgr MQTT manager to send data points on
+   * @param datapointsReadFromQueue list of non-aggregated data points read from the historical data
+   *     queue
+   * @param startIndex index of the first data point to process
+   * @param currentReadTimestampMillis timestamp of the current historical data queue read (in
+   *     millis)
+   * @param span historical log span the data points were read from (may be null)
+   * @param stopWhenLaneFull true to stop between two chunks if the outbound lane of the span is
+   *     full
+   * @return index of the first data point which was not processed, or the size of the list if all
+   *     data points were processed
+   * @throws Exception if unable to get the ISO 8601 formatted time stamp for a data point
+   */
+  private static int processDataPointChunksAndSend(
+      CConnectorMqttMgr mqttMgr,
+      List datapointsReadFromQueue,
+      int startIndex,
+      long currentReadTimestampMillis,
+      CConnectorQueueSpan span,
+      boolean stopWhenLaneFull)
+      throws Exception {
+    int datapointCount = datapointsReadFromQueue.size();
+
     // Send data via MQTT
-    if (datapointsReadFromQueue.size() > 0) {
-      Map childDeviceMessageMap = new HashMap();
-      for (int i = 0; i < datapointsReadFromQueue.size(); i++) {
-        DataPoint datapoint = (DataPoint) datapointsReadFromQueue.get(i);
-
-        // Get and split tag name of data point
-        CConnectorTagName datapointTagName = new CConnectorTagName(datapoint.getTagName());
-
-        // Get data point information
-        String value = datapoint.getValueString();
-        String unit = datapoint.getTagUnit();
-        String time = datapoint.getIso8601Timestamp();
-
-        // Build payload string contents
-        String payloadString;
-        if (datapoint.getType() == DataType.STRING) {
-          // Handle strings as a basic event (use filler value if tag value is blank)
-          String guardedValue = value.trim().length() > 2 ? value : BLANK_STRING_FILLER_VALUE;
-          payloadString =
-              CConnectorApiMessageBuilder.createBasicEvent_400(
-                  datapointTagName.getFragmentQuoted(), guardedValue, time);
-        } else {
-          // Handle non-strings as a measurement
-          payloadString =
-              CConnectorApiMessageBuilder.createCustomMeasurement_200(
-                  datapointTagName.getFragmentQuoted(),
-                  datapointTagName.getSeries(),
-                  value,
-                  unit,
-                  time);
-        }
+    if (startIndex < datapointCount) {
+      // Check if custom templates are enabled
+      CConnectorCustomTemplateMgr customTemplateMgr =
+          CConnectorMain.getConnectorConfig().getCumulocityCustomTemplatesEnabled()
+              ? mqttMgr.getCustomTemplateMgr()
+              : null;
 
-        // Add to child device message map
-        if (childDeviceMessageMap.containsKey(datapointTagName.getChildDevice())) {
-          String existingMessage =
-              (String) childDeviceMessageMap.get(datapointTagName.getChildDevice());
-          childDeviceMessageMap.put(
-              datapointTagName.getChildDevice(), existingMessage + "\n" + payloadString);
-        } else {
-          childDeviceMessageMap.put(datapointTagName.getChildDevice(), payloadString);
+      // Get the chunk size (whole list if disabled)
+      long chunkSize = CConnectorMain.getConnectorConfig().getQueueDataProcessChunkSize();
+      if (chunkSize <= CConnectorConfigFile.QUEUE_DATA_PROCESS_CHUNK_SIZE_DISABLED
+          || chunkSize > datapointCount) {
+        chunkSize = datapointCount;
+      }
+
+      // Process and send each chunk before building the payloads of the next, and stop if the
+      // queued chunks have filled the outbound lane (at least one chunk is processed)
+      int chunkStart = startIndex;
+      while (chunkStart < datapointCount) {
+        if (stopWhenLaneFull
+            && chunkStart > startIndex
+            && mqttMgr.isOutboundLaneFull(getSpanLane(span))) {
+          return chunkStart;
         }
+        int chunkEnd = (int) Math.min(datapointCount, chunkStart + chunkSize);
+        processDataPointChunkAndSend(
+            mqttMgr,
+            datapointsReadFromQueue,
+            chunkStart,
+            chunkEnd,
+            customTemplateMgr,
+            currentReadTimestampMillis,
+            span);
+        chunkStart = chunkEnd;
+      }
+    }
+    return datapointCount;
+  }
 
-        // Update last update time stamp
+  /**
+   * Processes the specified chunk of the list of non-aggregated data points read from the queue and
+   * sends them to the MQTT broker. Each data point of the chunk is released from the list (set to
+   * null) once processed.
+   *
+   * @param mqttMgr MQTT manager to send data points on
+   * @param datapointsReadFromQueue list of non-aggregated data points read from the historical data
+   *     queue
+   * @param chunkStart index of the first data point of the chunk
+   * @param chunkEnd index after the last data point of the chunk
+   * @param customTemplateMgr custom template manager, or null if custom templates are disabled
+   * @param currentReadTimestampMillis timestamp of the current historical data queue read (in
+   *     millis)
+   * @param span historical log span the data points were read from (may be null)
+   * @throws Exception if unable to get the ISO 8601 formatted time stamp for a data point
+   */
+  private static void processDataPointChunkAndSend(
+      CConnectorMqttMgr mqttMgr,
+      List datapointsReadFromQueue,
+      int chunkStart,
+      int chunkEnd,
+      CConnectorCustomTemplateMgr customTemplateMgr,
+      long currentReadTimestampMillis,
+      CConnectorQueueSpan span)
+      throws Exception {
+    Map childDeviceMessageMap = new HashMap(); // Map<String, String>
+    Map childDeviceCustomTemplateMessageMap = new HashMap(); // Map<String, String>
+    for (int i = chunkStart; i < chunkEnd; i++) {
+      DataPoint datapoint = (DataPoint) datapointsReadFromQueue.get(i);
+      datapointsReadFromQueue.set(i, null);
+
+      // Skip data points which were already sent by the realtime lane
+      String value = datapoint.getValueString();
+      if (CConnectorRealtimeMgr.isRealtimeCopySent(
+          datapoint.getTagName(), value, datapoint.getTimeStampAsDate().getTime())) {
         lastUpdateTimestampMillis = currentReadTimestampMillis;
+        continue;
       }
 
-      Object[] childDeviceMessageMapKeysArray = childDeviceMessageMap.keySet().toArray();
-      for (int x = 0; x < childDeviceMessageMapKeysArray.length; x++) {
-        // Send payload with child device name if present
-        String childDevice = (String) childDeviceMessageMapKeysArray[x];
-        String payloadString = (String) childDeviceMessageMap.get(childDevice);
-        try {
-          mqttMgr.sendMessageWithChildDeviceRouting(
-              payloadString, childDevice, CConnectorMessageType.DATA);
-        } catch (Exception e) {
-          Logger.LOG_CRITICAL("Unable to send data point to MQTT broker.");
-          Logger.LOG_EXCEPTION(e);
-          mqttMgr.addMessageToRetryPending(payloadString, childDevice, CConnectorMessageType.DATA);
+      // Get and split tag name of data point
+      CConnectorTagName datapointTagName = new CConnectorTagName(datapoint.getTagName());
+
+      // Get data point information
+      String unit = datapoint.getTagUnit();
+      String time = datapoint.getIso8601Timestamp();
+
+      // Build payload string contents
+      String payloadString;
+      if (datapoint.getType() == DataType.STRING) {
+        // Handle strings as a basic event (use filler value if tag value is blank)
+        String guardedValue = value.trim().length() > 2 ? value : BLANK_STRING_FILLER_VALUE;
+        payloadString =
+            CConnectorApiMessageBuilder.createBasicEvent_400(
+                datapointTagName.getFragmentQuoted(), guardedValue, time);
+      } else {
+        // Handle non-strings as a custom template measurement (if template registered)
+        String customTemplatePayloadString = null;
+        if (customTemplateMgr != null) {
+          customTemplatePayloadString =
+              customTemplateMgr.getMeasurementLine(
+                  datapointTagName.getFragment(), datapointTagName.getSeries(), value, unit, time);
         }
+        if (customTemplatePayloadString != null) {
+          appendChildDeviceMessage(
+              childDeviceCustomTemplateMessageMap,
+              datapointTagName.getChildDevice(),
+              customTemplatePayloadString);
+          lastUpdateTimestampMillis = currentReadTimestampMillis;
+          continue;
+        }
+
+        // Handle non-strings as a measurement
+        payloadString =
+            CConnectorApiMessageBuilder.createCustomMeasurement_200(
+                datapointTagName.getFragmentQuoted(),
+                datapointTagName.getSeries(),
+                value,
+                unit,
+                time);
       }
+
+      // Add to child device message map
+      appendChildDeviceMessage(
+          childDeviceMessageMap, datapointTagName.getChildDevice(), payloadString);
+
+      // Update last update time stamp
+      lastUpdateTimestampMillis = currentReadTimestampMillis;
+    }
+
+    // Register any custom templates created for this data, for use with subsequent data
+    if (customTemplateMgr != null && customTemplateMgr.hasUnregisteredTemplates()) {
+      mqttMgr.registerCustomTemplates();
+    }
+
+    sendChildDeviceMessages(
+        mqttMgr, childDeviceMessageMap, CConnectorMessageType.DATA, getSpanLane(span), span);
+    sendChildDeviceMessages(
+        mqttMgr,
+        childDeviceCustomTemplateMessageMap,
+        CConnectorMessageType.CUSTOM_TEMPLATE_DATA,
+        getSpanLane(span),
+        span);
+  }
+
+  /**
+   * Gets the outbound lane the data points of the specified span are sent in.
+   *
+   * @param span historical log span the data points were read from (may be null)
+   * @return outbound lane of the span, or {@link CConnectorOutboundLane#MEASUREMENT} if no span
+   */
+  private static CConnectorOutboundLane getSpanLane(CConnectorQueueSpan span) {
+    return span != null ? span.getLane() : CConnectorOutboundLane.MEASUREMENT;
+  }
+
+  /**
+   * Reads the current value of each eligible tag (tags with historical logging enabled), or of the
+   * requested eligible tags, and sends them to Cumulocity as one message per child device. The
+   * historical data queue and its poll schedule are not affected.
+   *
+   * <p>Snapshots are queued in the {@link CConnectorOutboundLane#MEASUREMENT} lane, which never
+   * discards queued messages. The {@link CConnectorOutboundLane#OPERATION} lane is kept for
+   * operation status updates, as it discards its oldest messages when full.
+   *
+   * @param mqttMgr MQTT manager to send the snapshot on
+   * @param requestedTagNames set of names of the tags to include (Set&lt;String&gt;), or null to
+   *     include all eligible tags
+   * @return number of tag values sent
+   * @throws Exception if unable to get the ISO 8601 formatted time stamp for the snapshot
+   */
+  public static int sendLiveSnapshot(CConnectorMqttMgr mqttMgr, Set requestedTagNames)
+      throws Exception {
+    String time = SCTimeUtils.getIso8601FormattedTimestampForDate(new Date());
+    Map childDeviceMessageMap = new HashMap(); // Map<String, String>
+    int snapshotTagCount = 0;
+    int highestTagId = TagInfoManager.getHighestTagIdSeen();
+    for (int tagId = TagInfoManager.getLowestTagIdSeen(); tagId <= highestTagId; tagId++) {
+      TagInfo tagInfo = TagInfoManager.getTagInfoFromTagId(tagId);
+      if (tagInfo == null
+          || !tagInfo.isHistoricalLogEnabled()
+          || (requestedTagNames != null && !requestedTagNames.contains(tagInfo.getName()))) {
+        continue;
+      }
+
+      CConnectorTagName tagName = new CConnectorTagName(tagInfo.getName());
+      String payloadString;
+      try {
+        payloadString = getLiveSnapshotLine(tagInfo, tagName, time);
+      } catch (Exception e) {
+        Logger.LOG_WARN("Unable to read the current value of tag " + tagInfo.getName() + ".");
+        Logger.LOG_EXCEPTION(e);
+        continue;
+      }
+
+      appendChildDeviceMessage(childDeviceMessageMap, tagName.getChildDevice(), payloadString);
+      snapshotTagCount++;
+    }
+
+    sendChildDeviceMessages(
+        mqttMgr,
+        childDeviceMessageMap,
+        CConnectorMessageType.DATA,
+        CConnectorOutboundLane.MEASUREMENT,
+        null);
+    return snapshotTagCount;
+  }
+
+  /**
+   * Reads the current value of the specified tag and builds its payload line: a measurement for
+   * numeric tags, or a basic event for string tags.
+   *
+   * @param tagInfo information of the tag to read
+   * @param tagName split name of the tag to read
+   * @param time ISO 8601 formatted time stamp of the snapshot
+   * @return payload line for the current value of the tag
+   * @throws Exception if unable to read the tag value
+   */
+  private static String getLiveSnapshotLine(
+      TagInfo tagInfo, CConnectorTagName tagName, String time) throws Exception {
+    TagControl tagControl = new TagControl(tagInfo.getName());
+    TagType tagType = tagInfo.getType();
+    String value;
+    if (tagType == TagType.STRING) {
+      value = tagControl.getTagValueAsString();
+    } else if (tagType == TagType.FLOAT) {
+      value = String.valueOf(tagControl.getTagValueAsDouble());
+    } else if (tagType == TagType.DWORD) {
+      value = String.valueOf(tagControl.getTagValueAsLong());
+    } else {
+      value = String.valueOf(tagControl.getTagValueAsInt());
+    }
+    return getCurrentValueLine(tagType, tagName, value, tagInfo.getUnit(), time);
+  }
+
+  /**
+   * Builds the payload line for the specified current value of a tag: a measurement for numeric
+   * tags, or a basic event for string tags.
+   *
+   * @param tagType type of the tag
+   * @param tagName split name of the tag
+   * @param value current value of the tag
+   * @param unit unit of the tag
+   * @param time ISO 8601 formatted time stamp of the value
+   * @return payload line for the current value of the tag
+   */
+  static String getCurrentValueLine(
+      TagType tagType, CConnectorTagName tagName, String value, String unit, String time) {
+    if (tagType == TagType.STRING) {
+      // Handle strings as a basic event (use filler value if tag value is blank)
+      String guardedValue = value.trim().length() > 2 ? value : BLANK_STRING_FILLER_VALUE;
+      return CConnectorApiMessageBuilder.createBasicEvent_400(
+          tagName.getFragmentQuoted(), guardedValue, time);
+    }
+    return CConnectorApiMessageBuilder.createCustomMeasurement_200(
+        tagName.getFragmentQuoted(), tagName.getSeries(), value, unit, time);
+  }
+
+  /**
+   * Appends the specified payload line to the message for the specified child device in the
+   * specified map of child device messages.
+   *
+   * @param childDeviceMessageMap map of child device name to message (Map&lt;String, String&gt;)
+   * @param childDevice child device name (may be null)
+   * @param payloadString payload line to append
+   */
+  private static void appendChildDeviceMessage(
+      Map childDeviceMessageMap, String childDevice, String payloadString) {
+    if (childDeviceMessageMap.containsKey(childDevice)) {
+      String existingMessage = (String) childDeviceMessageMap.get(childDevice);
+      childDeviceMessageMap.put(childDevice, existingMessage + "\n" + payloadString);
+    } else {
+      childDeviceMessageMap.put(childDevice, payloadString);
+    }
+  }
+
+  /**
+   * Queues the messages in the specified map of child device messages in the specified lane to be
+   * sent to the MQTT broker.
+   *
+   * @param mqttMgr MQTT manager to send messages on
+   * @param childDeviceMessageMap map of child device name to message (Map&lt;String, String&gt;)
+   * @param messageType type of the messages
+   * @param lane outbound lane to queue the messages in
+   * @param span historical log span the messages were built from (may be null)
+   */
+  private static void sendChildDeviceMessages(
+      CConnectorMqttMgr mqttMgr,
+      Map childDeviceMessageMap,
+      CConnectorMessageType messageType,
+      CConnectorOutboundLane lane,
+      CConnectorQueueSpan span) {
+    Object[] childDeviceMessageMapKeysArray = childDeviceMessageMap.keySet().toArray();
+    for (int x = 0; x < childDeviceMessageMapKeysArray.length; x++) {
+      // Send payload with child device name if present
+      String childDevice = (String) childDeviceMessageMapKeysArray[x];
+      String payloadString = (String) childDeviceMessageMap.get(childDevice);
+      mqttMgr.queueMessage(payloadString, childDevice, messageType, lane, span);
     }
   }
 }
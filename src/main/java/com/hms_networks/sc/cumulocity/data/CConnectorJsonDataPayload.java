@@ -3,18 +3,18 @@ package com.hms_networks.sc.cumulocity.data;
 import com.hms_networks.americas.sc.extensions.json.JSONException;
 import com.hms_networks.americas.sc.extensions.json.JSONObject;
 import com.hms_networks.americas.sc.extensions.system.time.SCTimeUtils;
-import com.hms_networks.americas.sc.extensions.util.RawNumberValueUtils;
 import com.hms_networks.sc.cumulocity.CConnectorMain;
 import com.hms_networks.sc.cumulocity.config.CConnectorConfigFile;
 import java.util.*;
 
 /**
  * Class for building a JSON data payload for sending data to Cumulocity. This class is used to
- * aggregate data from the historical data queue and build a JSON payload using the configured
- * aggregation method.
+ * build a JSON payload from data of the historical data queue which has already been aggregated by
+ * a {@link CConnectorAggregationTable}, so each series holds a single value. If a series is added
+ * more than once, the value with the latest original time stamp is sent.
  *
  * @since 1.4.0
- * @version 1.0.1
+ * @version 1.0.2
  * @author HMS Networks, MU Americas Solution Center
  */
 public class CConnectorJsonDataPayload {
@@ -302,6 +302,17 @@ public class CConnectorJsonDataPayload {
     return type;
   }
 
+  /**
+   * Gets the name of the child device the data payload is associated with.
+   *
+   * @return the name of the child device, or {@code null} if the data payload is not associated
+   *     with a child device
+   * @since 1.5.0
+   */
+  public synchronized String getChildDevice() {
+    return externalSource != null ? type : null;
+  }
+
   /**
    * Adds the specified fragment to the data payload with the specified name.
    *
@@ -387,10 +398,6 @@ public class CConnectorJsonDataPayload {
       jsonObject.put(KEY_EXTERNAL_SOURCE, externalSource);
     }
 
-    // Get aggregation method from config
-    CConnectorAggregationMethod queueDataAggregationMethod =
-        CConnectorMain.getConnectorConfig().getQueueDataAggregationMethod();
-
     // Add fragments
     Iterator fragmentsIterator =
         fragments.entrySet().iterator(); // Iterator<Map.Entry<String,Fragment>>
@@ -413,93 +420,13 @@ public class CConnectorJsonDataPayload {
         String seriesName = (String) seriesEntry.getKey();
         List seriesList = (List) seriesEntry.getValue(); // List<Series>
 
-        // Create series list iterator
-        Iterator seriesListIterator = seriesList.iterator(); // Iterator<Series>
-
-        // Create series min/max/first/last/avg objects
+        // Select the series with the latest original time
         Fragment.Series selectedSeries = (Fragment.Series) seriesList.get(0);
-        Object[] seriesValues = new Object[seriesList.size()];
-        int seriesValuesIndex = 0;
-
-        // Check for boolean value
-        boolean booleanValueDetected = selectedSeries.getValue() instanceof Boolean;
-
-        // Loop through seriesList and find min/max/first/last/avg
-        while (seriesListIterator.hasNext()) {
-          Fragment.Series seriesListItem = (Fragment.Series) seriesListIterator.next();
-          Object currentSeriesValue = seriesListItem.getValue();
-          booleanValueDetected = booleanValueDetected || currentSeriesValue instanceof Boolean;
-
-          // Check min (boolean)
-          if (queueDataAggregationMethod == CConnectorAggregationMethod.MIN_RECORDED_DATA
-              && booleanValueDetected
-              && selectedSeries.getValue().equals(Boolean.TRUE)
-              && currentSeriesValue.equals(Boolean.FALSE)) {
-            selectedSeries = seriesListItem;
-            break; // Break because min boolean value found. No need to check other values.
-          }
-          // Check max (boolean)
-          else if (queueDataAggregationMethod == CConnectorAggregationMethod.MAX_RECORDED_DATA
-              && booleanValueDetected
-              && selectedSeries.getValue().equals(Boolean.FALSE)
-              && currentSeriesValue.equals(Boolean.TRUE)) {
-            selectedSeries = seriesListItem;
-            break; // Break because max boolean value found. No need to check other values.
-          }
-          // Check min (non-boolean)
-          if (queueDataAggregationMethod == CConnectorAggregationMethod.MIN_RECORDED_DATA
-              && !booleanValueDetected
-              && RawNumberValueUtils.getValueMin(selectedSeries.getValue(), currentSeriesValue)
-                  .equals(currentSeriesValue)) {
-            selectedSeries = seriesListItem;
-          }
-          // Check max (non-boolean)
-          else if (queueDataAggregationMethod == CConnectorAggregationMethod.MAX_RECORDED_DATA
-              && !booleanValueDetected
-              && RawNumberValueUtils.getValueMax(selectedSeries.getValue(), currentSeriesValue)
-                  .equals(currentSeriesValue)) {
-            selectedSeries = seriesListItem;
-          }
-          // Check first
-          else if (queueDataAggregationMethod == CConnectorAggregationMethod.FIRST_RECORDED_DATA
-              && seriesListItem.getOriginalTime().before(selectedSeries.getOriginalTime())) {
-            selectedSeries = seriesListItem;
-          }
-          // Check last
-          else if (queueDataAggregationMethod == CConnectorAggregationMethod.LAST_RECORDED_DATA
-              && seriesListItem.getOriginalTime().after(selectedSeries.getOriginalTime())) {
+        for (int i = 1; i < seriesList.size(); i++) {
+          Fragment.Series seriesListItem = (Fragment.Series) seriesList.get(i);
+          if (seriesListItem.getOriginalTime().after(selectedSeries.getOriginalTime())) {
             selectedSeries = seriesListItem;
           }
-          // Check average (boolean)
-          else if (queueDataAggregationMethod == CConnectorAggregationMethod.AVERAGE_RECORDED_DATA
-              && booleanValueDetected) {
-            // Add value to array
-            seriesValues[seriesValuesIndex++] = seriesListItem.getValue();
-
-            // Check if last item in list
-            if (!seriesListIterator.hasNext()) {
-              // Calculate average
-              Object valueAvg = getBooleanValueAvg(seriesValues);
-              selectedSeries =
-                  new Fragment.Series(
-                      valueAvg, selectedSeries.getUnit(), selectedSeries.getOriginalTime());
-            }
-          }
-          // Check average (non-boolean)
-          else if (queueDataAggregationMethod
-              == CConnectorAggregationMethod.AVERAGE_RECORDED_DATA) {
-            // Add value to array
-            seriesValues[seriesValuesIndex++] = seriesListItem.getValue();
-
-            // Check if last item in list
-            if (!seriesListIterator.hasNext()) {
-              // Calculate average
-              Object valueAvg = RawNumberValueUtils.getValueAvg(seriesValues);
-              selectedSeries =
-                  new Fragment.Series(
-                      valueAvg, selectedSeries.getUnit(), selectedSeries.getOriginalTime());
-            }
-          }
         }
 
         // Create new series JSONObject
@@ -521,32 +448,6 @@ public class CConnectorJsonDataPayload {
     return jsonObject;
   }
 
-  /**
-   * Gets the boolean value average from the specified array of values.
-   *
-   * <p>If the number of true values is greater than or equal to the number of false values, {@link
-   * Boolean#TRUE} is returned. Otherwise, {@link Boolean#FALSE} is returned.
-   *
-   * @param seriesValues the array of values to get the average from
-   * @return the boolean value average (most common value)
-   * @since 1.0.1
-   */
-  private static synchronized Object getBooleanValueAvg(Object[] seriesValues) {
-    // Count true and false values
-    int trueCount = 0;
-    int falseCount = 0;
-    for (int i = 0; i < seriesValues.length; i++) {
-      if (Boolean.TRUE.equals(seriesValues[i])) {
-        trueCount++;
-      } else if (Boolean.FALSE.equals(seriesValues[i])) {
-        falseCount++;
-      }
-    }
-
-    // Return average (true if true count is greater than or equal to false count, false otherwise)
-    return trueCount >= falseCount ? Boolean.TRUE : Boolean.FALSE;
-  }
-
   /**
    * Gets the {@link String} representing the data payload. This is the JSON string representation
    * of the payload that can be sent to Cumulocity.
@@ -35,6 +35,14 @@ public class CConnectorMessageType {
    */
   private static final int ENUM_VAL_OTHER = 2;
 
+  /**
+   * Integer value representing the "custom template data" message type.
+   *
+   * @see #CUSTOM_TEMPLATE_DATA
+   * @since 1.5.0
+   */
+  private static final int ENUM_VAL_CUSTOM_TEMPLATE_DATA = 3;
+
   /**
    * Constant representing the "data" message type. This is used for messages containing data in the
    * standard Cumulocity MQTT static template format.
@@ -61,6 +69,16 @@ public class CConnectorMessageType {
    */
   public static final CConnectorMessageType OTHER = new CConnectorMessageType(ENUM_VAL_OTHER);
 
+  /**
+   * Constant representing the "custom template data" message type. This is used for messages
+   * containing data in the format of the connector's Cumulocity MQTT custom (SmartREST 2.0)
+   * templates.
+   *
+   * @since 1.5.0
+   */
+  public static final CConnectorMessageType CUSTOM_TEMPLATE_DATA =
+      new CConnectorMessageType(ENUM_VAL_CUSTOM_TEMPLATE_DATA);
+
   /**
    * The integer value of the message type. This is used to store the message type internally, and
    * to represent the message type in the configuration file.
@@ -110,6 +128,9 @@ public class CConnectorMessageType {
       case ENUM_VAL_OTHER:
         messageType = OTHER;
         break;
+      case ENUM_VAL_CUSTOM_TEMPLATE_DATA:
+        messageType = CUSTOM_TEMPLATE_DATA;
+        break;
       default:
         throw new IllegalArgumentException("Invalid message type value.");
     }
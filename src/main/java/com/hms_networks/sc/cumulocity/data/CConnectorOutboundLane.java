@@ -0,0 +1,237 @@
+package com.hms_networks.sc.cumulocity.data;
+
+/**
+ * An enum-like class for Java 1.4 compatibility that provides constants for the priority lanes of
+ * outbound messages sent by the Flexy Cumulocity connector. Each lane has its own queue, a byte
+ * budget (quantum) which it may send in each draining round, and a maximum number of queued bytes.
+ * Lanes are drained in order of their integer value, so operation responses and alarms are sent
+ * ahead of measurements, and measurements are sent ahead of backfilled historical data.
+ *
+ * @since 1.5.0
+ * @version 1.0.0
+ * @author HMS Networks, MU Americas Solution Center
+ */
+public class CConnectorOutboundLane {
+
+  /**
+   * Integer value representing the "operation" lane.
+   *
+   * @see #OPERATION
+   * @since 1.5.0
+   */
+  private static final int ENUM_VAL_OPERATION = 0;
+
+  /**
+   * Integer value representing the "alarm" lane.
+   *
+   * @see #ALARM
+   * @since 1.5.0
+   */
+  private static final int ENUM_VAL_ALARM = 1;
+
+  /**
+   * Integer value representing the "measurement" lane.
+   *
+   * @see #MEASUREMENT
+   * @since 1.5.0
+   */
+  private static final int ENUM_VAL_MEASUREMENT = 2;
+
+  /**
+   * Integer value representing the "backfill" lane.
+   *
+   * @see #BACKFILL
+   * @since 1.5.0
+   */
+  private static final int ENUM_VAL_BACKFILL = 3;
+
+  /**
+   * The number of outbound lanes.
+   *
+   * @since 1.5.0
+   */
+  public static final int LANE_COUNT = 4;
+
+  /**
+   * Constant representing the "operation" lane. This is used for operation status updates and
+   * responses, which are sent ahead of all other messages. When full, the oldest queued message is
+   * discarded.
+   *
+   * @since 1.5.0
+   */
+  public static final CConnectorOutboundLane OPERATION =
+      new CConnectorOutboundLane(ENUM_VAL_OPERATION, "operation", 8192, 65536, true);
+
+  /**
+   * Constant representing the "alarm" lane. This is used for alarm raise and clear messages, and
+   * for value changes of realtime tags, which are sent ahead of measurements. When full, the oldest
+   * queued message is discarded.
+   *
+   * @since 1.5.0
+   */
+  public static final CConnectorOutboundLane ALARM =
+      new CConnectorOutboundLane(ENUM_VAL_ALARM, "alarm", 8192, 262144, true);
+
+  /**
+   * Constant representing the "measurement" lane. This is used for measurement data. Measurement
+   * data has already been removed from the historical data queue when it is queued, so queued
+   * measurements are never discarded when the lane is full. Instead, the historical data queue is
+   * not polled while the lane is full.
+   *
+   * @since 1.5.0
+   */
+  public static final CConnectorOutboundLane MEASUREMENT =
+      new CConnectorOutboundLane(ENUM_VAL_MEASUREMENT, "measurement", 4096, 524288, false);
+
+  /**
+   * Constant representing the "backfill" lane. This is used for historical data which is read
+   * again on request from Cumulocity, which is sent after measurements, with a smaller budget in
+   * each draining round. Like measurements, queued backfill data is never discarded when the lane
+   * is full. Instead, backfill data is not read while the lane is full.
+   *
+   * @since 1.5.0
+   */
+  public static final CConnectorOutboundLane BACKFILL =
+      new CConnectorOutboundLane(ENUM_VAL_BACKFILL, "backfill", 2048, 262144, false);
+
+  /**
+   * The integer value of the lane. This is used to store the lane internally, and to determine the
+   * draining order of the lanes.
+   *
+   * @since 1.5.0
+   */
+  private final int laneEnumVal;
+
+  /**
+   * The name of the lane, used for logging.
+   *
+   * @since 1.5.0
+   */
+  private final String name;
+
+  /**
+   * The number of bytes the lane may send in each draining round.
+   *
+   * @since 1.5.0
+   */
+  private final int quantumBytes;
+
+  /**
+   * The maximum number of bytes queued in the lane before the lane is considered full.
+   *
+   * @since 1.5.0
+   */
+  private final int maxQueuedBytes;
+
+  /**
+   * Boolean indicating if the oldest queued message is discarded when a message is added to the
+   * lane while it is full.
+   *
+   * @since 1.5.0
+   */
+  private final boolean discardOldestWhenFull;
+
+  /**
+   * Private/internal constructor to create a lane enum-like constant with the specified integer
+   * value and parameters.
+   *
+   * @param laneEnumVal integer value of the lane
+   * @param name name of the lane, used for logging
+   * @param quantumBytes number of bytes the lane may send in each draining round
+   * @param maxQueuedBytes maximum number of bytes queued in the lane before it is full
+   * @param discardOldestWhenFull true to discard the oldest message when the lane is full
+   * @since 1.5.0
+   */
+  private CConnectorOutboundLane(
+      int laneEnumVal,
+      String name,
+      int quantumBytes,
+      int maxQueuedBytes,
+      boolean discardOldestWhenFull) {
+    this.laneEnumVal = laneEnumVal;
+    this.name = name;
+    this.quantumBytes = quantumBytes;
+    this.maxQueuedBytes = maxQueuedBytes;
+    this.discardOldestWhenFull = discardOldestWhenFull;
+  }
+
+  /**
+   * Get the integer value of the lane.
+   *
+   * @return integer value of the lane
+   * @since 1.5.0
+   */
+  public int getValue() {
+    return laneEnumVal;
+  }
+
+  /**
+   * Get the name of the lane.
+   *
+   * @return name of the lane
+   * @since 1.5.0
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Get the number of bytes the lane may send in each draining round.
+   *
+   * @return number of bytes the lane may send in each draining round
+   * @since 1.5.0
+   */
+  public int getQuantumBytes() {
+    return quantumBytes;
+  }
+
+  /**
+   * Get the maximum number of bytes queued in the lane before it is full.
+   *
+   * @return maximum number of queued bytes
+   * @since 1.5.0
+   */
+  public int getMaxQueuedBytes() {
+    return maxQueuedBytes;
+  }
+
+  /**
+   * Get a boolean indicating if the oldest queued message is discarded when a message is added to
+   * the lane while it is full.
+   *
+   * @return true if the oldest message is discarded when full, otherwise false
+   * @since 1.5.0
+   */
+  public boolean isDiscardOldestWhenFull() {
+    return discardOldestWhenFull;
+  }
+
+  /**
+   * Get the lane from the specified integer value.
+   *
+   * @param value integer value of the lane
+   * @return lane
+   * @throws IllegalArgumentException if the specified integer value is not a valid lane
+   * @since 1.5.0
+   */
+  public static CConnectorOutboundLane fromValue(int value) {
+    CConnectorOutboundLane lane;
+    switch (value) {
+      case ENUM_VAL_OPERATION:
+        lane = OPERATION;
+        break;
+      case ENUM_VAL_ALARM:
+        lane = ALARM;
+        break;
+      case ENUM_VAL_MEASUREMENT:
+        lane = MEASUREMENT;
+        break;
+      case ENUM_VAL_BACKFILL:
+        lane = BACKFILL;
+        break;
+      default:
+        throw new IllegalArgumentException("Invalid outbound lane value.");
+    }
+    return lane;
+  }
+}
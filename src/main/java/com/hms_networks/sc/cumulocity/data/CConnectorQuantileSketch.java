@@ -0,0 +1,365 @@
+package com.hms_networks.sc.cumulocity.data;
+
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+import com.hms_networks.americas.sc.extensions.string.StringUtils;
+import com.hms_networks.sc.cumulocity.CConnectorMain;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class for estimating the quantiles (for example, the median and the 95th percentile) of the
+ * values of a series, without keeping the values. Each value is counted in a bin of
+ * logarithmically increasing width, so that any quantile can be estimated within a relative error
+ * of {@link #RELATIVE_ACCURACY} of a value which was added, regardless of the number of values.
+ *
+ * <p>The memory used by a sketch is bounded by {@link #MAX_BIN_COUNT} bins for positive values,
+ * and the same for negative values. The bins are allocated as the range of the values grows. If
+ * the values span a wider range than the bins can hold, the bins of the smallest magnitudes are
+ * merged, and the error bound no longer holds for quantiles which fall in the merged bin. This
+ * only happens if the largest magnitude is more than about 28000 times the smallest non-zero
+ * magnitude, and is reported by {@link #getErrorBoundPercent()} as {@link
+ * #COLLAPSED_ERROR_BOUND_PERCENT}.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 1.5.0
+ */
+public class CConnectorQuantileSketch {
+
+  /** The relative error bound of the estimated quantiles (0.01 is 1%). */
+  public static final double RELATIVE_ACCURACY = 0.01;
+
+  /** The maximum number of bins of each sign. */
+  public static final int MAX_BIN_COUNT = 512;
+
+  /**
+   * The relative error bound (in percent) which is reported once bins have been merged. The
+   * estimates of quantiles which fall in the merged bin may be off by as much as the estimate
+   * itself, so the full 100% is reported to mark the estimates as unreliable.
+   */
+  public static final double COLLAPSED_ERROR_BOUND_PERCENT = 100;
+
+  /** The series name suffix of the relative error bound (in percent) of the quantiles. */
+  public static final String ERROR_BOUND_SERIES_SUFFIX = "_qerr";
+
+  /** The unit of the relative error bound of the quantiles. */
+  public static final String ERROR_BOUND_UNIT = "%";
+
+  /** The quantiles which are used if the configured quantiles cannot be parsed. */
+  public static final String QUANTILES_DEFAULT = "0.5 0.95 0.99";
+
+  /** The separator between the quantiles in the configuration. */
+  private static final String QUANTILE_SEPARATOR = " ";
+
+  /** The number of bins allocated for the first value of each sign. */
+  private static final int INITIAL_BIN_COUNT = 16;
+
+  /** Values with a smaller magnitude are counted as zero. */
+  private static final double MIN_INDEXABLE_VALUE = 1.0E-9;
+
+  /** The ratio between the upper bounds of consecutive bins. */
+  private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+
+  /** The natural logarithm of {@link #GAMMA}. */
+  private static final double LOG_GAMMA = Math.log(GAMMA);
+
+  /** The number of percent in a fraction of 1. */
+  private static final double PERCENT = 100;
+
+  /** The bins of the positive values. */
+  private final BinStore positiveBins = new BinStore();
+
+  /** The bins of the magnitudes of the negative values. */
+  private final BinStore negativeBins = new BinStore();
+
+  /** The number of values which are counted as zero. */
+  private long zeroCount = 0;
+
+  /**
+   * Class for counting the values of one sign in a contiguous range of bins. The range is grown (up
+   * to {@link #MAX_BIN_COUNT} bins) and moved as new bin indexes are added.
+   */
+  private static class BinStore {
+
+    /** The number of values in each bin, or null if no value has been added. */
+    private int[] counts = null;
+
+    /** The bin index of the first element of {@link #counts}. */
+    private int minIndex = 0;
+
+    /** The lowest bin index which holds values. */
+    private int lowestUsedIndex = 0;
+
+    /** The highest bin index which holds values. */
+    private int highestUsedIndex = 0;
+
+    /** The number of values in all bins. */
+    private long total = 0;
+
+    /** Boolean flag indicating if bins of the smallest magnitudes have been merged. */
+    private boolean collapsed = false;
+
+    /**
+     * Counts a value in the bin with the specified index.
+     *
+     * @param index bin index of the value
+     */
+    private void add(int index) {
+      if (counts == null) {
+        counts = new int[INITIAL_BIN_COUNT];
+        minIndex = index - (INITIAL_BIN_COUNT / 2);
+        lowestUsedIndex = index;
+        highestUsedIndex = index;
+      } else {
+        int low = Math.min(lowestUsedIndex, index);
+        int high = Math.max(highestUsedIndex, index);
+        if (high - low + 1 > MAX_BIN_COUNT) {
+          // Merge the bins of the smallest magnitudes, so that the range fits
+          collapsed = true;
+          low = high - MAX_BIN_COUNT + 1;
+          index = Math.max(index, low);
+        }
+        if (low < minIndex || high >= minIndex + counts.length) {
+          moveBins(low, high);
+        }
+        lowestUsedIndex = low;
+        highestUsedIndex = high;
+      }
+      counts[index - minIndex]++;
+      total++;
+    }
+
+    /**
+     * Grows and moves the range of the bins so that it holds the specified bin indexes. Bins below
+     * the specified low index are merged into the bin of the low index.
+     *
+     * @param low lowest bin index to hold
+     * @param high highest bin index to hold
+     */
+    private void moveBins(int low, int high) {
+      int neededLength = high - low + 1;
+      int newLength = counts.length;
+      while (newLength < neededLength) {
+        newLength *= 2;
+      }
+      newLength = Math.min(newLength, MAX_BIN_COUNT);
+
+      // Center the held range, so that the range does not need to move for each new index
+      int newMinIndex = low - ((newLength - neededLength) / 2);
+      int shift = minIndex - newMinIndex;
+      if (newLength != counts.length) {
+        int[] newCounts = new int[newLength];
+        for (int i = 0; i < counts.length; i++) {
+          int newPosition = Math.max(0, Math.min(newLength - 1, i + shift));
+          newCounts[newPosition] += counts[i];
+        }
+        counts = newCounts;
+      } else if (shift < 0) {
+        int mergedCount = 0;
+        int mergedLength = Math.min(-shift, counts.length);
+        for (int i = 0; i < mergedLength; i++) {
+          mergedCount += counts[i];
+        }
+        System.arraycopy(counts, mergedLength, counts, 0, counts.length - mergedLength);
+        Arrays.fill(counts, counts.length - mergedLength, counts.length, 0);
+        counts[0] += mergedCount;
+      } else if (shift > 0) {
+        System.arraycopy(counts, 0, counts, shift, counts.length - shift);
+        Arrays.fill(counts, 0, shift, 0);
+      }
+      minIndex = newMinIndex;
+    }
+
+    /**
+     * Gets the index of the bin which holds the value of the specified rank.
+     *
+     * @param rank rank of the value (0 to the number of values - 1)
+     * @param descending true to rank the bins from the highest index, otherwise from the lowest
+     * @return bin index of the value
+     */
+    private int getIndexAtRank(long rank, boolean descending) {
+      long cumulativeCount = 0;
+      for (int i = 0; i < counts.length; i++) {
+        int position = descending ? counts.length - 1 - i : i;
+        cumulativeCount += counts[position];
+        if (cumulativeCount > rank) {
+          return minIndex + position;
+        }
+      }
+      return descending ? lowestUsedIndex : highestUsedIndex;
+    }
+  }
+
+  /**
+   * Adds the specified value to the sketch.
+   *
+   * @param value value to add
+   */
+  public void add(double value) {
+    if (value > MIN_INDEXABLE_VALUE) {
+      positiveBins.add(getIndex(value));
+    } else if (value < -MIN_INDEXABLE_VALUE) {
+      negativeBins.add(getIndex(-value));
+    } else {
+      zeroCount++;
+    }
+  }
+
+  /**
+   * Gets the number of values added to the sketch.
+   *
+   * @return number of values
+   */
+  public long getCount() {
+    return negativeBins.total + zeroCount + positiveBins.total;
+  }
+
+  /**
+   * Gets a boolean indicating if bins have been merged, because the values span a wider range than
+   * the bins can hold.
+   *
+   * @return true if bins have been merged, otherwise false
+   */
+  public boolean isCollapsed() {
+    return negativeBins.collapsed || positiveBins.collapsed;
+  }
+
+  /**
+   * Gets the estimated value of the specified quantile. The estimate is within {@link
+   * #RELATIVE_ACCURACY} of a value which was added, with a rank within one of the rank of the
+   * quantile.
+   *
+   * @param quantile quantile to estimate (0 to 1, for example 0.95 for the 95th percentile)
+   * @return estimated value of the quantile, or {@link Double#NaN} if no value was added
+   */
+  public double getQuantile(double quantile) {
+    long count = getCount();
+    if (count == 0) {
+      return Double.NaN;
+    }
+
+    long rank = (long) (Math.max(0, Math.min(1, quantile)) * (count - 1));
+    double value;
+    if (rank < negativeBins.total) {
+      value = -getValue(negativeBins.getIndexAtRank(rank, true));
+    } else if (rank < negativeBins.total + zeroCount) {
+      value = 0;
+    } else {
+      value = getValue(positiveBins.getIndexAtRank(rank - negativeBins.total - zeroCount, false));
+    }
+    return value;
+  }
+
+  /**
+   * Gets the bin index of the specified positive value.
+   *
+   * @param value positive value
+   * @return bin index of the value
+   */
+  private static int getIndex(double value) {
+    return (int) Math.ceil(Math.log(value) / LOG_GAMMA);
+  }
+
+  /**
+   * Gets the representative value of the bin with the specified index. This is the value with the
+   * same relative error to the lower and upper bound of the bin.
+   *
+   * @param index bin index
+   * @return representative value of the bin
+   */
+  private static double getValue(int index) {
+    return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+  }
+
+  /**
+   * Gets the relative error bound of the estimated quantiles, in percent. This is {@link
+   * #RELATIVE_ACCURACY} in percent, or {@link #COLLAPSED_ERROR_BOUND_PERCENT} if bins have been
+   * merged.
+   *
+   * @return relative error bound (in percent)
+   */
+  public double getErrorBoundPercent() {
+    return isCollapsed() ? COLLAPSED_ERROR_BOUND_PERCENT : RELATIVE_ACCURACY * PERCENT;
+  }
+
+  /**
+   * Parses the specified quantiles, separated by spaces.
+   *
+   * @param quantiles quantiles (0 to 1), separated by spaces
+   * @return parsed quantiles
+   * @throws IllegalArgumentException if no quantile is specified, or a quantile is not a number
+   *     from 0 to 1
+   */
+  public static double[] parseQuantiles(String quantiles) throws IllegalArgumentException {
+    List quantileList = StringUtils.split(quantiles.trim(), QUANTILE_SEPARATOR); // List<String>
+    double[] parsedQuantiles = new double[quantileList.size()];
+    int parsedQuantileCount = 0;
+    for (int i = 0; i < quantileList.size(); i++) {
+      String quantile = ((String) quantileList.get(i)).trim();
+      if (quantile.length() == 0) {
+        continue;
+      }
+      double parsedQuantile;
+      try {
+        parsedQuantile = Double.parseDouble(quantile);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid quantile: " + quantile);
+      }
+      if (!(parsedQuantile >= 0 && parsedQuantile <= 1)) {
+        throw new IllegalArgumentException("Quantiles must be from 0 to 1: " + quantile);
+      }
+      parsedQuantiles[parsedQuantileCount++] = parsedQuantile;
+    }
+    if (parsedQuantileCount == 0) {
+      throw new IllegalArgumentException("At least one quantile must be specified.");
+    }
+
+    double[] trimmedQuantiles = new double[parsedQuantileCount];
+    System.arraycopy(parsedQuantiles, 0, trimmedQuantiles, 0, parsedQuantileCount);
+    return trimmedQuantiles;
+  }
+
+  /**
+   * Gets the configured quantiles. If the configured quantiles cannot be parsed, a warning is
+   * logged and the {@link #QUANTILES_DEFAULT} are used.
+   *
+   * @return configured quantiles
+   */
+  public static double[] getConfiguredQuantiles() {
+    String configuredQuantiles =
+        CConnectorMain.getConnectorConfig().getQueueDataAggregationQuantiles();
+    try {
+      return parseQuantiles(configuredQuantiles);
+    } catch (IllegalArgumentException e) {
+      Logger.LOG_WARN(
+          "The configured quantiles could not be parsed ("
+              + e.getMessage()
+              + "). Using default quantiles of "
+              + QUANTILES_DEFAULT
+              + ".");
+      return parseQuantiles(QUANTILES_DEFAULT);
+    }
+  }
+
+  /**
+   * Gets the series name suffix of the specified quantile, as a percentile. For example, the suffix
+   * of 0.95 is "_p95", and the suffix of 0.999 is "_p99_9".
+   *
+   * @param quantile quantile (0 to 1)
+   * @return series name suffix of the quantile
+   */
+  public static String getQuantileSeriesSuffix(double quantile) {
+    final long thousandthsPerPercent = 1000;
+    long percentileThousandths = Math.round(quantile * PERCENT * thousandthsPerPercent);
+    String percentile = String.valueOf(percentileThousandths / thousandthsPerPercent);
+    long fraction = percentileThousandths % thousandthsPerPercent;
+    if (fraction != 0) {
+      // Append the fraction without trailing zeros (for example, "_9" for 99.9)
+      String fractionDigits = String.valueOf(thousandthsPerPercent + fraction).substring(1);
+      while (fractionDigits.endsWith("0")) {
+        fractionDigits = fractionDigits.substring(0, fractionDigits.length() - 1);
+      }
+      percentile += "_" + fractionDigits;
+    }
+    return "_p" + percentile;
+  }
+}
@@ -0,0 +1,791 @@
+package com.hms_networks.sc.cumulocity.data;
+
+import com.hms_networks.americas.sc.extensions.fileutils.FileAccessManager;
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+import com.hms_networks.americas.sc.extensions.string.StringUtils;
+import com.hms_networks.americas.sc.extensions.system.time.SCTimeUtils;
+import java.io.File;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Class for tracking the durable checkpoint of the historical log, which is the time up to which
+ * every span read from the historical log has been published to Cumulocity. The checkpoint only
+ * moves past a span once all of its messages have been published, so that a restart resumes where
+ * delivery stopped, instead of where reading stopped.
+ *
+ * <p>Each tag group read on its own schedule has its own checkpoint stream, and all tag groups read
+ * at once share the {@link #STREAM_ALL_TAG_GROUPS} stream. The checkpoint of each stream is stored
+ * in a file. Spans which fail to be sent, and time ranges which were read by the historical data
+ * queue but not delivered before a restart, are added as resume ranges. Resume ranges are read
+ * again from the historical log before the checkpoint of their stream moves past them.
+ *
+ * <p>Time ranges which will not be delivered (skipped because the historical log was too far
+ * behind, or not readable) are recorded as gaps, which are reported to Cumulocity. Gaps can be
+ * repaired with backfill ranges, which are requested from Cumulocity and read again from the
+ * historical log at a lower priority than other data. Backfill ranges do not block the checkpoint,
+ * which has already moved past them. The recorded gaps and the backfill ranges which have not been
+ * delivered yet are stored in files next to the checkpoint files, so that they are kept when the
+ * connector restarts.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 1.5.0
+ */
+public class CConnectorQueueCheckpoint {
+
+  /** The checkpoint stream of the historical data queue, which reads all tag groups at once. */
+  public static final int STREAM_ALL_TAG_GROUPS = CConnectorTagGroupPoller.TAG_GROUP_COUNT;
+
+  /** The number of checkpoint streams (one per tag group, and one for all tag groups). */
+  private static final int STREAM_COUNT = STREAM_ALL_TAG_GROUPS + 1;
+
+  /** Value of a checkpoint which has not been stored yet. */
+  public static final long NO_CHECKPOINT = -1;
+
+  /** Value of a checkpoint which has not been loaded from its file yet. */
+  private static final long CHECKPOINT_NOT_LOADED = -2;
+
+  /** Path of the checkpoint file of the {@link #STREAM_ALL_TAG_GROUPS} stream. */
+  private static final String ALL_TAG_GROUPS_CHECKPOINT_FILE_PATH =
+      "/usr/CumulocityQueueCheckpoint.txt";
+
+  /** Path of the file which stores the recorded gaps, one gap per line. */
+  private static final String GAPS_FILE_PATH = "/usr/CumulocityQueueGaps.txt";
+
+  /**
+   * Path of the file which stores the backfill ranges which have not been delivered yet, in the
+   * same format as the gaps file.
+   */
+  private static final String BACKFILL_FILE_PATH = "/usr/CumulocityQueueBackfill.txt";
+
+  /** The separator between the lines of the gaps and backfill files. */
+  private static final String RANGES_FILE_LINE_SEPARATOR = "\n";
+
+  /** The separator between the stream, start time and end time of a range in a ranges file. */
+  private static final String RANGES_FILE_FIELD_SEPARATOR = ",";
+
+  /** The number of fields of each range in a ranges file (stream, start time and end time). */
+  private static final int RANGES_FILE_FIELD_COUNT = 3;
+
+  /** Checkpoint (in milliseconds since epoch) of each stream. */
+  private final long[] checkpointMillis = new long[STREAM_COUNT];
+
+  /** Spans which have been read and are not yet checkpointed, ordered by start time. */
+  private final LinkedList pendingSpans = new LinkedList(); // List<CConnectorQueueSpan>
+
+  /** Time ranges which must be read again, ordered by start time. */
+  private final LinkedList resumeRanges = new LinkedList(); // List<Range>
+
+  /**
+   * The maximum number of times the data of a span is sent, before it is recorded as a gap instead
+   * of being read again.
+   */
+  private static final int MAX_SEND_ATTEMPT_COUNT = 3;
+
+  /** The maximum number of gaps which are recorded. The oldest gaps are forgotten first. */
+  private static final int MAX_GAP_COUNT = 16;
+
+  /** Time ranges which were requested to be read again by Cumulocity, in order of request. */
+  private final LinkedList backfillRanges = new LinkedList(); // List<Range>
+
+  /** Spans which have been read from backfill ranges and are still being sent. */
+  private final LinkedList backfillSpans = new LinkedList(); // List<CConnectorQueueSpan>
+
+  /** Time ranges which have not been delivered, ordered by start time. */
+  private final LinkedList gaps = new LinkedList(); // List<Range>
+
+  /** The number of times the recorded gaps have changed, used to detect a changed gap report. */
+  private int gapChangeCount = 0;
+
+  /** The gap change count of the gaps which were last stored in the gaps file. */
+  private int storedGapChangeCount = 0;
+
+  /** The number of times the backfill ranges which have not been delivered have changed. */
+  private int backfillChangeCount = 0;
+
+  /** The backfill change count of the backfill ranges which were last stored. */
+  private int storedBackfillChangeCount = 0;
+
+  /** Lock held while storing the backfill file, so that the file is written in order. */
+  private final Object backfillFileLock = new Object();
+
+  /** Constructor for a new {@link CConnectorQueueCheckpoint} with no checkpoints loaded. */
+  public CConnectorQueueCheckpoint() {
+    for (int i = 0; i < STREAM_COUNT; i++) {
+      checkpointMillis[i] = CHECKPOINT_NOT_LOADED;
+    }
+  }
+
+  /**
+   * Gets the checkpoint of the specified stream, loading it from its file if it has not been loaded
+   * yet.
+   *
+   * @param stream tag group index, or {@link #STREAM_ALL_TAG_GROUPS}
+   * @return checkpoint (in milliseconds since epoch), or {@link #NO_CHECKPOINT}
+   */
+  public synchronized long getCheckpointMillis(int stream) {
+    if (checkpointMillis[stream] == CHECKPOINT_NOT_LOADED) {
+      checkpointMillis[stream] = NO_CHECKPOINT;
+      String checkpointFilePath = getCheckpointFilePath(stream);
+      if (new File(checkpointFilePath).exists()) {
+        try {
+          checkpointMillis[stream] =
+              Long.parseLong(FileAccessManager.readFileToString(checkpointFilePath).trim());
+        } catch (Exception e) {
+          Logger.LOG_WARN("Unable to read the historical log checkpoint " + checkpointFilePath);
+          Logger.LOG_EXCEPTION(e);
+        }
+      }
+    }
+    return checkpointMillis[stream];
+  }
+
+  /**
+   * Tracks the specified span, which has been read from the historical log, until all of its
+   * messages have been published.
+   *
+   * @param span span read from the historical log
+   */
+  public synchronized void track(CConnectorQueueSpan span) {
+    int insertIndex = pendingSpans.size();
+    while (insertIndex > 0
+        && ((CConnectorQueueSpan) pendingSpans.get(insertIndex - 1)).getStartMillis()
+            > span.getStartMillis()) {
+      insertIndex--;
+    }
+    pendingSpans.add(insertIndex, span);
+  }
+
+  /**
+   * Adds the specified time range of the specified stream as a resume range, to be read again from
+   * the historical log.
+   *
+   * @param stream tag group index, or {@link #STREAM_ALL_TAG_GROUPS}
+   * @param startMillis start time (in milliseconds since epoch) of the range
+   * @param endMillis end time (in milliseconds since epoch) of the range
+   */
+  public synchronized void addResumeRange(int stream, long startMillis, long endMillis) {
+    addResumeRange(stream, startMillis, endMillis, 0);
+  }
+
+  /**
+   * Adds the specified time range of the specified stream as a resume range, to be read again from
+   * the historical log, after its data failed to send the specified number of times.
+   *
+   * @param stream tag group index, or {@link #STREAM_ALL_TAG_GROUPS}
+   * @param startMillis start time (in milliseconds since epoch) of the range
+   * @param endMillis end time (in milliseconds since epoch) of the range
+   * @param failedAttemptCount number of times the data of the range failed to send
+   */
+  private void addResumeRange(
+      int stream, long startMillis, long endMillis, int failedAttemptCount) {
+    if (endMillis <= startMillis) {
+      return;
+    }
+    Range range = new Range(stream, startMillis, endMillis, failedAttemptCount);
+    int insertIndex = resumeRanges.size();
+    while (insertIndex > 0
+        && ((Range) resumeRanges.get(insertIndex - 1)).startMillis > range.startMillis) {
+      insertIndex--;
+    }
+    resumeRanges.add(insertIndex, range);
+    Logger.LOG_INFO(
+        "The historical log from "
+            + startMillis
+            + " to "
+            + endMillis
+            + " (ms since epoch) will be read again.");
+  }
+
+  /**
+   * Gets the oldest resume range, without removing it. The range is removed or shortened once it
+   * has been read with {@link #onResumeRangeRead(Range, CConnectorQueueSpan)}, or removed with
+   * {@link #dropResumeRange(Range, Exception)} if it cannot be read.
+   *
+   * @return oldest resume range, or null if none
+   */
+  synchronized Range peekResumeRange() {
+    return resumeRanges.isEmpty() ? null : (Range) resumeRanges.getFirst();
+  }
+
+  /**
+   * Removes the specified resume range, or the part of it which was read, and tracks the specified
+   * span which was read from it. The span keeps the number of failed send attempts of the range.
+   *
+   * @param range resume range which was read
+   * @param span span which was read from the start of the resume range
+   */
+  synchronized void onResumeRangeRead(Range range, CConnectorQueueSpan span) {
+    int rangeIndex = resumeRanges.indexOf(range);
+    if (rangeIndex >= 0) {
+      resumeRanges.remove(rangeIndex);
+      if (span.getEndMillis() < range.endMillis) {
+        resumeRanges.add(
+            rangeIndex,
+            new Range(
+                range.stream, span.getEndMillis(), range.endMillis, range.failedAttemptCount));
+      }
+    }
+    span.setFailedAttemptCount(range.failedAttemptCount);
+    track(span);
+  }
+
+  /**
+   * Removes the specified resume range, which could not be read from the historical log.
+   *
+   * @param range resume range which could not be read
+   * @param e exception which occurred reading the resume range
+   */
+  synchronized void dropResumeRange(Range range, Exception e) {
+    resumeRanges.remove(range);
+    Logger.LOG_SERIOUS(
+        "Unable to read the historical log from "
+            + range.startMillis
+            + " to "
+            + range.endMillis
+            + " (ms since epoch) again. The data of this range will not be sent.");
+    Logger.LOG_EXCEPTION(e);
+    addGap(range.stream, range.startMillis, range.endMillis);
+  }
+
+  /**
+   * Adds the specified time range of the specified stream as a backfill range, to be read again
+   * from the historical log once the other data has been read.
+   *
+   * @param stream tag group index, or {@link #STREAM_ALL_TAG_GROUPS}
+   * @param startMillis start time (in milliseconds since epoch) of the range
+   * @param endMillis end time (in milliseconds since epoch) of the range
+   */
+  public synchronized void addBackfillRange(int stream, long startMillis, long endMillis) {
+    if (endMillis <= startMillis) {
+      return;
+    }
+    backfillRanges.addLast(new Range(stream, startMillis, endMillis));
+    backfillChangeCount++;
+    Logger.LOG_INFO(
+        "The historical log from "
+            + startMillis
+            + " to "
+            + endMillis
+            + " (ms since epoch) will be backfilled.");
+  }
+
+  /**
+   * Gets the oldest requested backfill range, without removing it. The range is removed or
+   * shortened once it has been read with {@link #onBackfillRangeRead(Range, CConnectorQueueSpan)},
+   * or removed with {@link #dropBackfillRange(Range, Exception)} if it cannot be read.
+   *
+   * @return oldest backfill range, or null if none
+   */
+  synchronized Range peekBackfillRange() {
+    return backfillRanges.isEmpty() ? null : (Range) backfillRanges.getFirst();
+  }
+
+  /**
+   * Removes the specified backfill range, or the part of it which was read, and tracks the
+   * specified span which was read from it until it has been sent. The span is marked as backfill
+   * data.
+   *
+   * @param range backfill range which was read
+   * @param span span which was read from the start of the backfill range
+   */
+  synchronized void onBackfillRangeRead(Range range, CConnectorQueueSpan span) {
+    int rangeIndex = backfillRanges.indexOf(range);
+    if (rangeIndex >= 0) {
+      backfillRanges.remove(rangeIndex);
+      if (span.getEndMillis() < range.endMillis) {
+        backfillRanges.add(
+            rangeIndex, new Range(range.stream, span.getEndMillis(), range.endMillis));
+      }
+    }
+    span.markBackfill();
+    backfillSpans.addLast(span);
+  }
+
+  /**
+   * Removes the specified backfill range, which could not be read from the historical log.
+   *
+   * @param range backfill range which could not be read
+   * @param e exception which occurred reading the backfill range
+   */
+  synchronized void dropBackfillRange(Range range, Exception e) {
+    backfillRanges.remove(range);
+    backfillChangeCount++;
+    Logger.LOG_SERIOUS(
+        "Unable to backfill the historical log from "
+            + range.startMillis
+            + " to "
+            + range.endMillis
+            + " (ms since epoch).");
+    Logger.LOG_EXCEPTION(e);
+  }
+
+  /**
+   * Gets the number of requested backfill ranges which have not been read yet.
+   *
+   * @return number of backfill ranges
+   */
+  public synchronized int getBackfillRangeCount() {
+    return backfillRanges.size();
+  }
+
+  /**
+   * Loads the backfill ranges which were not delivered before the connector restarted from the
+   * backfill file, if it exists. Lines of the file which cannot be parsed are skipped.
+   */
+  public synchronized void loadBackfillRanges() {
+    List loadedRanges = readRangesFile(BACKFILL_FILE_PATH); // List<Range>
+    backfillRanges.addAll(loadedRanges);
+    if (!loadedRanges.isEmpty()) {
+      Logger.LOG_INFO(
+          "Loaded "
+              + loadedRanges.size()
+              + " historical log backfill range(s) requested before restart.");
+    }
+  }
+
+  /**
+   * Stores the backfill ranges which have not been delivered yet (not read, or still being sent)
+   * in the backfill file, if they have changed since they were last stored.
+   *
+   * @return true if the backfill ranges are stored, otherwise false
+   */
+  public boolean storeBackfillRanges() {
+    synchronized (backfillFileLock) {
+      String backfillFileContent;
+      int changeCount;
+      synchronized (this) {
+        if (backfillChangeCount == storedBackfillChangeCount) {
+          return true;
+        }
+        List undeliveredRanges = new LinkedList(); // List<Range>
+        for (int i = 0; i < backfillSpans.size(); i++) {
+          CConnectorQueueSpan span = (CConnectorQueueSpan) backfillSpans.get(i);
+          undeliveredRanges.add(
+              new Range(span.getStream(), span.getStartMillis(), span.getEndMillis()));
+        }
+        undeliveredRanges.addAll(backfillRanges);
+        backfillFileContent = getRangesFileContent(undeliveredRanges);
+        changeCount = backfillChangeCount;
+      }
+
+      try {
+        FileAccessManager.writeStringToFile(BACKFILL_FILE_PATH, backfillFileContent);
+      } catch (Exception e) {
+        Logger.LOG_SERIOUS("Unable to store the historical log backfill ranges.");
+        Logger.LOG_EXCEPTION(e);
+        return false;
+      }
+
+      synchronized (this) {
+        storedBackfillChangeCount = changeCount;
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Records the specified time range of the specified stream as a gap, which has not been
+   * delivered. Overlapping and adjacent gaps of the stream are merged, and the oldest gap is
+   * forgotten when more than {@link #MAX_GAP_COUNT} gaps are recorded.
+   *
+   * @param stream tag group index, or {@link #STREAM_ALL_TAG_GROUPS}
+   * @param startMillis start time (in milliseconds since epoch) of the gap
+   * @param endMillis end time (in milliseconds since epoch) of the gap
+   */
+  public synchronized void addGap(int stream, long startMillis, long endMillis) {
+    if (endMillis <= startMillis) {
+      return;
+    }
+    Logger.LOG_WARN(
+        "The historical log of "
+            + getStreamName(stream)
+            + " from "
+            + startMillis
+            + " to "
+            + endMillis
+            + " (ms since epoch) was not delivered and is reported as a gap.");
+
+    // Merge with the overlapping or adjacent gaps of the stream
+    Iterator gapIterator = gaps.iterator(); // Iterator<Range>
+    while (gapIterator.hasNext()) {
+      Range gap = (Range) gapIterator.next();
+      if (gap.stream == stream && gap.startMillis <= endMillis && gap.endMillis >= startMillis) {
+        startMillis = Math.min(startMillis, gap.startMillis);
+        endMillis = Math.max(endMillis, gap.endMillis);
+        gapIterator.remove();
+      }
+    }
+
+    insertGap(new Range(stream, startMillis, endMillis));
+    gapChangeCount++;
+  }
+
+  /**
+   * Loads the gaps which were recorded before the connector restarted from the gaps file, if it
+   * exists. Lines of the file which cannot be parsed are skipped.
+   */
+  public synchronized void loadGaps() {
+    List loadedGaps = readRangesFile(GAPS_FILE_PATH); // List<Range>
+    for (int i = 0; i < loadedGaps.size(); i++) {
+      insertGap((Range) loadedGaps.get(i));
+    }
+    if (!gaps.isEmpty()) {
+      Logger.LOG_INFO("Loaded " + gaps.size() + " historical log gap(s) recorded before restart.");
+    }
+  }
+
+  /**
+   * Inserts the specified gap into the recorded gaps, ordered by start time, and forgets the oldest
+   * gap when more than {@link #MAX_GAP_COUNT} gaps are recorded.
+   *
+   * @param gap gap to insert
+   */
+  private void insertGap(Range gap) {
+    int insertIndex = gaps.size();
+    while (insertIndex > 0 && ((Range) gaps.get(insertIndex - 1)).startMillis > gap.startMillis) {
+      insertIndex--;
+    }
+    gaps.add(insertIndex, gap);
+    if (gaps.size() > MAX_GAP_COUNT) {
+      gaps.removeFirst();
+    }
+  }
+
+  /**
+   * Reads the time ranges stored in the specified ranges file, if it exists. Lines of the file
+   * which cannot be parsed are skipped.
+   *
+   * @param filePath path of the ranges file
+   * @return time ranges of the file, in file order
+   */
+  private static List readRangesFile(String filePath) {
+    List ranges = new LinkedList(); // List<Range>
+    if (!new File(filePath).exists()) {
+      return ranges;
+    }
+
+    String rangesFileContent;
+    try {
+      rangesFileContent = FileAccessManager.readFileToString(filePath);
+    } catch (Exception e) {
+      Logger.LOG_WARN("Unable to read the historical log time ranges " + filePath);
+      Logger.LOG_EXCEPTION(e);
+      return ranges;
+    }
+
+    List rangeLines =
+        StringUtils.split(rangesFileContent, RANGES_FILE_LINE_SEPARATOR); // List<String>
+    for (int i = 0; i < rangeLines.size(); i++) {
+      List rangeFields =
+          StringUtils.split(
+              ((String) rangeLines.get(i)).trim(), RANGES_FILE_FIELD_SEPARATOR); // List<String>
+      if (rangeFields.size() != RANGES_FILE_FIELD_COUNT) {
+        continue;
+      }
+      try {
+        int stream = Integer.parseInt((String) rangeFields.get(0));
+        long startMillis = Long.parseLong((String) rangeFields.get(1));
+        long endMillis = Long.parseLong((String) rangeFields.get(2));
+        if (stream >= 0 && stream < STREAM_COUNT && endMillis > startMillis) {
+          ranges.add(new Range(stream, startMillis, endMillis));
+        }
+      } catch (NumberFormatException e) {
+        Logger.LOG_WARN(
+            "Skipping a historical log time range which could not be read: " + rangeFields);
+      }
+    }
+    return ranges;
+  }
+
+  /**
+   * Gets the content of a ranges file for the specified time ranges, with one line per range of
+   * its stream, start time and end time.
+   *
+   * @param ranges time ranges to store
+   * @return content of the ranges file
+   */
+  private static String getRangesFileContent(List ranges) {
+    StringBuffer rangesFileContent = new StringBuffer();
+    for (int i = 0; i < ranges.size(); i++) {
+      Range range = (Range) ranges.get(i);
+      rangesFileContent.append(range.stream).append(RANGES_FILE_FIELD_SEPARATOR);
+      rangesFileContent.append(range.startMillis).append(RANGES_FILE_FIELD_SEPARATOR);
+      rangesFileContent.append(range.endMillis).append(RANGES_FILE_LINE_SEPARATOR);
+    }
+    return rangesFileContent.toString();
+  }
+
+  /**
+   * Removes the specified time range of the specified stream from the recorded gaps, once it has
+   * been delivered. Gaps which are partly delivered are shortened or split.
+   *
+   * @param stream tag group index, or {@link #STREAM_ALL_TAG_GROUPS}
+   * @param startMillis start time (in milliseconds since epoch) of the delivered range
+   * @param endMillis end time (in milliseconds since epoch) of the delivered range
+   */
+  private void removeGap(int stream, long startMillis, long endMillis) {
+    for (int i = 0; i < gaps.size(); i++) {
+      Range gap = (Range) gaps.get(i);
+      if (gap.stream != stream || gap.startMillis >= endMillis || gap.endMillis <= startMillis) {
+        continue;
+      }
+      gaps.remove(i);
+      if (gap.endMillis > endMillis) {
+        gaps.add(i, new Range(stream, endMillis, gap.endMillis));
+      }
+      if (gap.startMillis < startMillis) {
+        gaps.add(i, new Range(stream, gap.startMillis, startMillis));
+        i++;
+      }
+      i--;
+      gapChangeCount++;
+    }
+  }
+
+  /**
+   * Gets the number of recorded gaps, which have not been delivered.
+   *
+   * @return number of gaps
+   */
+  public synchronized int getGapCount() {
+    return gaps.size();
+  }
+
+  /**
+   * Gets the number of times the recorded gaps have changed. The gap report only needs to be sent
+   * again when this changes.
+   *
+   * @return number of gap changes
+   */
+  public synchronized int getGapChangeCount() {
+    return gapChangeCount;
+  }
+
+  /**
+   * Gets a compact report of the recorded gaps as a JSON object string. Each gap is reported as an
+   * array of its stream name ('A' to 'D', or 'all' for all tag groups), and its ISO 8601 start and
+   * end time. For example: <code>{"count":1,"gaps":[["A","2026-10-17T08:00:00Z",
+   * "2026-10-17T09:30:00Z"]]}</code>.
+   *
+   * @return gap report JSON object string
+   * @throws Exception if unable to format the time of a gap
+   */
+  public synchronized String getGapReportJson() throws Exception {
+    StringBuffer reportJson = new StringBuffer("{\"count\":");
+    reportJson.append(gaps.size());
+    reportJson.append(",\"gaps\":[");
+    for (int i = 0; i < gaps.size(); i++) {
+      Range gap = (Range) gaps.get(i);
+      if (i > 0) {
+        reportJson.append(',');
+      }
+      reportJson.append("[\"").append(getStreamName(gap.stream)).append("\",\"");
+      reportJson.append(SCTimeUtils.getIso8601FormattedTimestampForDate(new Date(gap.startMillis)));
+      reportJson.append("\",\"");
+      reportJson.append(SCTimeUtils.getIso8601FormattedTimestampForDate(new Date(gap.endMillis)));
+      reportJson.append("\"]");
+    }
+    reportJson.append("]}");
+    return reportJson.toString();
+  }
+
+  /**
+   * Gets the number of spans which have been read and are not yet checkpointed.
+   *
+   * @return number of pending spans
+   */
+  public synchronized int getPendingSpanCount() {
+    return pendingSpans.size();
+  }
+
+  /**
+   * Moves the checkpoint of each stream past the oldest spans whose messages have all been
+   * published, and stores the checkpoints which moved. A span which failed is added as a resume
+   * range, or recorded as a gap once it has failed to send {@link #MAX_SEND_ATTEMPT_COUNT} times,
+   * so that data which can never be sent does not stop the checkpoint. The checkpoint of a stream
+   * stops at the oldest span which is still being sent, or at the oldest resume range, so that it
+   * never moves past data which has not been published. The checkpoint also stops at the
+   * checkpoint limit of the span (see {@link CConnectorQueueSpan#getCheckpointLimitMillis()}), if
+   * its data is still held in open rollup windows.
+   *
+   * <p>Backfill spans which have been sent are removed from the recorded gaps, and backfill spans
+   * which failed are recorded as gaps. The recorded gaps and the backfill ranges are stored in
+   * their files if they have changed.
+   */
+  public void advance() {
+    boolean[] checkpointMoved = new boolean[STREAM_COUNT];
+    long[] movedCheckpointMillis = new long[STREAM_COUNT];
+    String changedGapsFileContent = null;
+    synchronized (this) {
+      Iterator backfillSpanIterator = backfillSpans.iterator(); // Iterator<CConnectorQueueSpan>
+      while (backfillSpanIterator.hasNext()) {
+        CConnectorQueueSpan span = (CConnectorQueueSpan) backfillSpanIterator.next();
+        if (span.isComplete()) {
+          backfillSpanIterator.remove();
+          backfillChangeCount++;
+          if (span.isFailed()) {
+            addGap(span.getStream(), span.getStartMillis(), span.getEndMillis());
+          } else {
+            removeGap(span.getStream(), span.getStartMillis(), span.getEndMillis());
+          }
+        }
+      }
+
+      boolean[] streamBlocked = new boolean[STREAM_COUNT];
+      Iterator pendingSpanIterator = pendingSpans.iterator(); // Iterator<CConnectorQueueSpan>
+      while (pendingSpanIterator.hasNext()) {
+        CConnectorQueueSpan span = (CConnectorQueueSpan) pendingSpanIterator.next();
+        int stream = span.getStream();
+        if (streamBlocked[stream]) {
+          continue;
+        } else if (!span.isComplete() || hasResumeRangeBefore(stream, span.getStartMillis())) {
+          streamBlocked[stream] = true;
+          continue;
+        }
+
+        pendingSpanIterator.remove();
+        if (span.isFailed()) {
+          int failedAttemptCount = span.getFailedAttemptCount() + 1;
+          if (failedAttemptCount < MAX_SEND_ATTEMPT_COUNT) {
+            addResumeRange(stream, span.getStartMillis(), span.getEndMillis(), failedAttemptCount);
+            streamBlocked[stream] = true;
+            continue;
+          }
+
+          Logger.LOG_SERIOUS(
+              "Unable to send the historical log from "
+                  + span.getStartMillis()
+                  + " to "
+                  + span.getEndMillis()
+                  + " (ms since epoch) after "
+                  + failedAttemptCount
+                  + " attempts. The data of this range will not be sent.");
+          addGap(stream, span.getStartMillis(), span.getEndMillis());
+        }
+
+        long spanCheckpointMillis = Math.min(span.getEndMillis(), span.getCheckpointLimitMillis());
+        if (spanCheckpointMillis > getCheckpointMillis(stream)) {
+          checkpointMillis[stream] = spanCheckpointMillis;
+          movedCheckpointMillis[stream] = spanCheckpointMillis;
+          checkpointMoved[stream] = true;
+        }
+      }
+
+      if (gapChangeCount != storedGapChangeCount) {
+        changedGapsFileContent = getRangesFileContent(gaps);
+        storedGapChangeCount = gapChangeCount;
+      }
+    }
+
+    if (changedGapsFileContent != null) {
+      try {
+        FileAccessManager.writeStringToFile(GAPS_FILE_PATH, changedGapsFileContent);
+      } catch (Exception e) {
+        Logger.LOG_SERIOUS("Unable to store the historical log gaps.");
+        Logger.LOG_EXCEPTION(e);
+      }
+    }
+    storeBackfillRanges();
+
+    for (int i = 0; i < STREAM_COUNT; i++) {
+      if (checkpointMoved[i]) {
+        try {
+          FileAccessManager.writeStringToFile(
+              getCheckpointFilePath(i), String.valueOf(movedCheckpointMillis[i]));
+        } catch (Exception e) {
+          Logger.LOG_SERIOUS("Unable to store the historical log checkpoint.");
+          Logger.LOG_EXCEPTION(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets a boolean indicating if the specified stream has a resume range which starts before the
+   * specified time.
+   *
+   * @param stream tag group index, or {@link #STREAM_ALL_TAG_GROUPS}
+   * @param timeMillis time (in milliseconds since epoch)
+   * @return true if an earlier resume range exists, otherwise false
+   */
+  private boolean hasResumeRangeBefore(int stream, long timeMillis) {
+    for (int i = 0; i < resumeRanges.size(); i++) {
+      Range range = (Range) resumeRanges.get(i);
+      if (range.stream == stream && range.startMillis < timeMillis) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Gets the name of the specified stream, as reported in the gap report.
+   *
+   * @param stream tag group index, or {@link #STREAM_ALL_TAG_GROUPS}
+   * @return tag group name ('A' to 'D'), or 'all' for all tag groups
+   */
+  private static String getStreamName(int stream) {
+    return stream == STREAM_ALL_TAG_GROUPS
+        ? "all"
+        : CConnectorTagGroupPoller.getTagGroupName(stream);
+  }
+
+  /**
+   * Gets the path of the checkpoint file of the specified stream. The checkpoint of a tag group is
+   * stored in the time tracker file of the tag group.
+   *
+   * @param stream tag group index, or {@link #STREAM_ALL_TAG_GROUPS}
+   * @return path of the checkpoint file
+   */
+  private static String getCheckpointFilePath(int stream) {
+    return stream == STREAM_ALL_TAG_GROUPS
+        ? ALL_TAG_GROUPS_CHECKPOINT_FILE_PATH
+        : CConnectorTagGroupPoller.getTimeTrackerFilePath(stream);
+  }
+
+  /** Time range of a checkpoint stream which must be read again from the historical log. */
+  static class Range {
+
+    /** Checkpoint stream of the range. */
+    final int stream;
+
+    /** Start time (in milliseconds since epoch) of the range. */
+    final long startMillis;
+
+    /** End time (in milliseconds since epoch) of the range. */
+    final long endMillis;
+
+    /** Number of times the data of the range failed to send. */
+    final int failedAttemptCount;
+
+    /**
+     * Constructor for a new {@link Range} of the specified stream, start and end time.
+     *
+     * @param stream checkpoint stream of the range
+     * @param startMillis start time (in milliseconds since epoch) of the range
+     * @param endMillis end time (in milliseconds since epoch) of the range
+     */
+    private Range(int stream, long startMillis, long endMillis) {
+      this(stream, startMillis, endMillis, 0);
+    }
+
+    /**
+     * Constructor for a new {@link Range} of the specified stream, start and end time, whose data
+     * failed to send the specified number of times.
+     *
+     * @param stream checkpoint stream of the range
+     * @param startMillis start time (in milliseconds since epoch) of the range
+     * @param endMillis end time (in milliseconds since epoch) of the range
+     * @param failedAttemptCount number of times the data of the range failed to send
+     */
+    private Range(int stream, long startMillis, long endMillis, int failedAttemptCount) {
+      this.stream = stream;
+      this.startMillis = startMillis;
+      this.endMillis = endMillis;
+      this.failedAttemptCount = failedAttemptCount;
+    }
+  }
+}
@@ -0,0 +1,195 @@
+package com.hms_networks.sc.cumulocity.data;
+
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+import com.hms_networks.sc.cumulocity.CConnectorMain;
+import java.util.LinkedList;
+
+/**
+ * Class for reading spans from the historical log on a reader thread, while the main thread sends
+ * the previously read spans to Cumulocity. This allows the historical log export of the next span
+ * to overlap with the encoding and publishing of the current span.
+ *
+ * <p>Spans which have been read are handed off to the main thread through a bounded queue. The
+ * depth of the queue is sized to the heap, based on the size of the last span read, so that
+ * prefetched spans do not use more than 1/{@link #HEAP_BUDGET_DIVISOR} of the maximum heap. The
+ * reader thread waits while the queue is full.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 1.5.0
+ */
+public class CConnectorQueuePrefetcher {
+
+  /** Name of the reader thread. */
+  private static final String READER_THREAD_NAME = "CumulocityQueuePrefetcher";
+
+  /** The maximum number of spans which may be read ahead. */
+  private static final int MAX_HANDOFF_DEPTH = 4;
+
+  /** The portion (1/n) of the maximum heap which prefetched spans may use. */
+  private static final long HEAP_BUDGET_DIVISOR = 4;
+
+  /** The time (in milliseconds) the reader thread waits before checking if a poll is due. */
+  private static final long READER_IDLE_MILLIS = 500;
+
+  /** The time (in milliseconds) to wait for the reader thread to stop when shutting down. */
+  private static final long SHUTDOWN_WAIT_MILLIS = 5000;
+
+  /** Spans which have been read and are waiting to be sent, oldest first. */
+  private final LinkedList readySpans = new LinkedList(); // List<CConnectorQueueSpan>
+
+  /** The reader thread, or null if not started. */
+  private Thread readerThread = null;
+
+  /** Boolean flag indicating if the reader thread should keep running. */
+  private boolean running = false;
+
+  /** Boolean flag indicating if prefetching is enabled. */
+  private boolean enabled = false;
+
+  /** The estimated heap usage (in bytes) of the last span read, used to size the handoff queue. */
+  private long lastSpanEstimatedBytes = 0;
+
+  /** The time (in milliseconds since epoch) the reader thread last polled the historical log. */
+  private long lastPollTimestampMillis = 0;
+
+  /**
+   * Sets a boolean indicating if prefetching is enabled. This must be set before the reader thread
+   * is started.
+   *
+   * @param enabled true to enable prefetching, otherwise false
+   */
+  public synchronized void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Gets a boolean indicating if prefetching is enabled.
+   *
+   * @return true if prefetching is enabled, otherwise false
+   */
+  public synchronized boolean isEnabled() {
+    return enabled;
+  }
+
+  /** Starts the reader thread, if prefetching is enabled and the thread is not already running. */
+  public synchronized void start() {
+    if (!enabled || (readerThread != null && readerThread.isAlive())) {
+      return;
+    }
+    running = true;
+    readerThread =
+        new Thread(
+            new Runnable() {
+              public void run() {
+                runReader();
+              }
+            },
+            READER_THREAD_NAME);
+    readerThread.start();
+  }
+
+  /**
+   * Stops the reader thread, if running. A span which is being read is given up to {@link
+   * #SHUTDOWN_WAIT_MILLIS} to finish. Spans which have already been read are kept, and can still
+   * be taken with {@link #takeReadySpan()}.
+   */
+  public void shutdown() {
+    Thread stoppingThread;
+    synchronized (this) {
+      running = false;
+      enabled = false;
+      notifyAll();
+      stoppingThread = readerThread;
+      readerThread = null;
+    }
+
+    if (stoppingThread != null && stoppingThread.isAlive()) {
+      try {
+        stoppingThread.join(SHUTDOWN_WAIT_MILLIS);
+      } catch (InterruptedException e) {
+        Logger.LOG_CRITICAL(
+            "Exception waiting for the queue prefetcher thread to stop: " + e.getMessage());
+        Logger.LOG_EXCEPTION(e);
+      }
+    }
+  }
+
+  /**
+   * Takes the oldest span which has been read, without waiting.
+   *
+   * @return oldest span which has been read, or null if none
+   */
+  public synchronized CConnectorQueueSpan takeReadySpan() {
+    if (readySpans.isEmpty()) {
+      return null;
+    }
+    CConnectorQueueSpan span = (CConnectorQueueSpan) readySpans.removeFirst();
+    notifyAll();
+    return span;
+  }
+
+  /**
+   * Gets the number of spans which have been read and are waiting to be sent.
+   *
+   * @return number of spans waiting to be sent
+   */
+  public synchronized int getReadySpanCount() {
+    return readySpans.size();
+  }
+
+  /**
+   * Gets the number of spans which may be read ahead, based on the maximum heap and the size of the
+   * last span read.
+   *
+   * @return handoff queue depth (1 to {@link #MAX_HANDOFF_DEPTH})
+   */
+  private synchronized int getHandoffDepth() {
+    long heapBudgetBytes = Runtime.getRuntime().maxMemory() / HEAP_BUDGET_DIVISOR;
+    long handoffDepth = heapBudgetBytes / Math.max(1, lastSpanEstimatedBytes);
+    return (int) Math.max(1, Math.min(MAX_HANDOFF_DEPTH, handoffDepth));
+  }
+
+  /**
+   * Main loop of the reader thread. Waits for room in the handoff queue, then reads the next span
+   * if a poll is due. Exceptions are counted as queue poll failures, and do not stop the thread.
+   */
+  private void runReader() {
+    try {
+      while (true) {
+        synchronized (this) {
+          while (running && readySpans.size() >= getHandoffDepth()) {
+            wait();
+          }
+          if (!running) {
+            break;
+          }
+        }
+
+        long currentReadTimestampMillis = System.currentTimeMillis();
+        CConnectorQueueSpan span = null;
+        try {
+          long pollTimestampMillis =
+              CConnectorDataMgr.isQueueCatchingUp() ? 0 : lastPollTimestampMillis;
+          span =
+              CConnectorDataMgr.readNextSpanIfDue(
+                  CConnectorMain.getMqttMgr(), currentReadTimestampMillis, pollTimestampMillis);
+        } catch (Exception e) {
+          CConnectorDataMgr.onQueuePollFailed(e);
+          lastPollTimestampMillis = currentReadTimestampMillis;
+        }
+
+        synchronized (this) {
+          if (span != null) {
+            lastPollTimestampMillis = currentReadTimestampMillis;
+            lastSpanEstimatedBytes = span.getEstimatedBytes();
+            readySpans.addLast(span);
+          } else if (running) {
+            wait(READER_IDLE_MILLIS);
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Logger.LOG_DEBUG("Queue prefetcher thread was interrupted and will stop.");
+    }
+  }
+}
@@ -0,0 +1,343 @@
+package com.hms_networks.sc.cumulocity.data;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class for holding the data points of a span read from the historical log, until they are sent to
+ * Cumulocity. A span holds either a list of data points, or a map of aggregation period time stamp
+ * to the list of aggregated data points of the period.
+ *
+ * <p>A span also tracks the delivery of the messages built from its data points, so that the {@link
+ * CConnectorQueueCheckpoint} only moves past the span once every message has been published. Each
+ * message is counted when it is queued, and uncounted when it is published or discarded. The span
+ * is complete once it has been sealed (all messages queued) and no message is pending.
+ *
+ * <p>Spans which are read again on request from Cumulocity (backfill) are sent in the {@link
+ * CConnectorOutboundLane#BACKFILL} lane, and all other spans in the {@link
+ * CConnectorOutboundLane#MEASUREMENT} lane.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 1.5.0
+ */
+public class CConnectorQueueSpan {
+
+  /** The estimated heap usage (in bytes) of each data point held in a span. */
+  public static final long ESTIMATED_DATA_POINT_BYTES = 256;
+
+  /** The data points of the span (List&lt;DataPoint&gt;), or null if the span is aggregated. */
+  private final List datapoints;
+
+  /**
+   * The aggregated data points of the span (Map&lt;Date, List&lt;DataPoint&gt;&gt;), or null if the
+   * span is not aggregated.
+   */
+  private final Map aggregatedDatapoints;
+
+  /** The time (in milliseconds since epoch) the span was read. */
+  private final long readTimestampMillis;
+
+  /** The number of data points in the span. */
+  private final int datapointCount;
+
+  /** The checkpoint stream of the span (tag group index, or all tag groups). */
+  private final int stream;
+
+  /** The start time (in milliseconds since epoch) of the span in the historical log. */
+  private final long startMillis;
+
+  /** The end time (in milliseconds since epoch) of the span in the historical log. */
+  private final long endMillis;
+
+  /** The number of messages of the span which have been queued, but not yet published. */
+  private int pendingMessageCount = 0;
+
+  /** Boolean flag indicating if all messages of the span have been queued. */
+  private boolean sealed = false;
+
+  /** Boolean flag indicating if a message of the span was discarded, or could not be built. */
+  private boolean failed = false;
+
+  /** Number of times the data of the span failed to send before it was read again. */
+  private int failedAttemptCount = 0;
+
+  /** Boolean flag indicating if the span was read again on request from Cumulocity. */
+  private boolean backfill = false;
+
+  /** The index of the next data point of the span to send, if the span is partly sent. */
+  private int nextDatapointIndex = 0;
+
+  /**
+   * The time (in milliseconds since epoch) the checkpoint may not move past once the span is
+   * complete, because the data from this time on is still held in open rollup windows.
+   */
+  private long checkpointLimitMillis = Long.MAX_VALUE;
+
+  /**
+   * Constructor for a new {@link CConnectorQueueSpan} with the specified data points.
+   *
+   * @param datapoints data points of the span (List&lt;DataPoint&gt;)
+   * @param readTimestampMillis time (in milliseconds since epoch) the span was read
+   * @param stream checkpoint stream of the span (see {@link CConnectorQueueCheckpoint})
+   * @param startMillis start time (in milliseconds since epoch) of the span
+   * @param endMillis end time (in milliseconds since epoch) of the span
+   */
+  public CConnectorQueueSpan(
+      List datapoints, long readTimestampMillis, int stream, long startMillis, long endMillis) {
+    this.datapoints = datapoints;
+    this.aggregatedDatapoints = null;
+    this.readTimestampMillis = readTimestampMillis;
+    this.datapointCount = datapoints.size();
+    this.stream = stream;
+    this.startMillis = startMillis;
+    this.endMillis = endMillis;
+  }
+
+  /**
+   * Constructor for a new {@link CConnectorQueueSpan} with the specified aggregated data points.
+   *
+   * @param aggregatedDatapoints aggregated data points of the span (Map&lt;Date,
+   *     List&lt;DataPoint&gt;&gt;)
+   * @param readTimestampMillis time (in milliseconds since epoch) the span was read
+   * @param stream checkpoint stream of the span (see {@link CConnectorQueueCheckpoint})
+   * @param startMillis start time (in milliseconds since epoch) of the span
+   * @param endMillis end time (in milliseconds since epoch) of the span
+   */
+  public CConnectorQueueSpan(
+      Map aggregatedDatapoints,
+      long readTimestampMillis,
+      int stream,
+      long startMillis,
+      long endMillis) {
+    this.datapoints = null;
+    this.aggregatedDatapoints = aggregatedDatapoints;
+    this.readTimestampMillis = readTimestampMillis;
+    this.stream = stream;
+    this.startMillis = startMillis;
+    this.endMillis = endMillis;
+
+    int aggregatedDatapointCount = 0;
+    Iterator periodIterator = aggregatedDatapoints.values().iterator(); // Iterator<List<DataPoint>>
+    while (periodIterator.hasNext()) {
+      aggregatedDatapointCount += ((List) periodIterator.next()).size();
+    }
+    this.datapointCount = aggregatedDatapointCount;
+  }
+
+  /**
+   * Gets a boolean indicating if the span holds aggregated data points.
+   *
+   * @return true if the span is aggregated, otherwise false
+   */
+  public boolean isAggregated() {
+    return aggregatedDatapoints != null;
+  }
+
+  /**
+   * Gets the data points of the span.
+   *
+   * @return data points (List&lt;DataPoint&gt;), or null if the span is aggregated
+   */
+  public List getDatapoints() {
+    return datapoints;
+  }
+
+  /**
+   * Gets the aggregated data points of the span.
+   *
+   * @return aggregated data points (Map&lt;Date, List&lt;DataPoint&gt;&gt;), or null if the span
+   *     is not aggregated
+   */
+  public Map getAggregatedDatapoints() {
+    return aggregatedDatapoints;
+  }
+
+  /**
+   * Gets the time (in milliseconds since epoch) the span was read.
+   *
+   * @return time the span was read
+   */
+  public long getReadTimestampMillis() {
+    return readTimestampMillis;
+  }
+
+  /**
+   * Gets the number of data points in the span.
+   *
+   * @return number of data points
+   */
+  public int getDatapointCount() {
+    return datapointCount;
+  }
+
+  /**
+   * Gets the estimated heap usage (in bytes) of the data points in the span.
+   *
+   * @return estimated heap usage of the span (in bytes)
+   */
+  public long getEstimatedBytes() {
+    return datapointCount * ESTIMATED_DATA_POINT_BYTES;
+  }
+
+  /**
+   * Gets the checkpoint stream of the span.
+   *
+   * @return tag group index, or {@link CConnectorQueueCheckpoint#STREAM_ALL_TAG_GROUPS}
+   */
+  public int getStream() {
+    return stream;
+  }
+
+  /**
+   * Gets the start time (in milliseconds since epoch) of the span in the historical log.
+   *
+   * @return start time of the span
+   */
+  public long getStartMillis() {
+    return startMillis;
+  }
+
+  /**
+   * Gets the end time (in milliseconds since epoch) of the span in the historical log.
+   *
+   * @return end time of the span
+   */
+  public long getEndMillis() {
+    return endMillis;
+  }
+
+  /**
+   * Gets the index of the next data point of the span to send. Data points before this index have
+   * already been sent and released.
+   *
+   * @return index of the next data point to send
+   */
+  public int getNextDatapointIndex() {
+    return nextDatapointIndex;
+  }
+
+  /**
+   * Sets the index of the next data point of the span to send, when the span is partly sent.
+   *
+   * @param nextDatapointIndex index of the next data point to send
+   */
+  public void setNextDatapointIndex(int nextDatapointIndex) {
+    this.nextDatapointIndex = nextDatapointIndex;
+  }
+
+  /**
+   * Gets the time (in milliseconds since epoch) the checkpoint may not move past once the span is
+   * complete.
+   *
+   * @return checkpoint limit of the span, or {@link Long#MAX_VALUE} if the checkpoint may move to
+   *     the end of the span
+   */
+  public long getCheckpointLimitMillis() {
+    return checkpointLimitMillis;
+  }
+
+  /**
+   * Sets the time (in milliseconds since epoch) the checkpoint may not move past once the span is
+   * complete. This is used when the data of the span is partly held in open rollup windows, which
+   * would be lost if the connector restarted.
+   *
+   * @param checkpointLimitMillis checkpoint limit of the span
+   */
+  public void setCheckpointLimitMillis(long checkpointLimitMillis) {
+    this.checkpointLimitMillis = checkpointLimitMillis;
+  }
+
+  /**
+   * Gets the number of times the data of the span failed to send before it was read again.
+   *
+   * @return number of failed send attempts
+   */
+  public int getFailedAttemptCount() {
+    return failedAttemptCount;
+  }
+
+  /**
+   * Sets the number of times the data of the span failed to send before it was read again.
+   *
+   * @param failedAttemptCount number of failed send attempts
+   */
+  public void setFailedAttemptCount(int failedAttemptCount) {
+    this.failedAttemptCount = failedAttemptCount;
+  }
+
+  /**
+   * Marks the span as read again on request from Cumulocity, so that it is sent in the {@link
+   * CConnectorOutboundLane#BACKFILL} lane.
+   */
+  public void markBackfill() {
+    backfill = true;
+  }
+
+  /**
+   * Gets a boolean indicating if the span was read again on request from Cumulocity.
+   *
+   * @return true if the span is backfill data, otherwise false
+   */
+  public boolean isBackfill() {
+    return backfill;
+  }
+
+  /**
+   * Gets the outbound lane the messages of the span are sent in.
+   *
+   * @return {@link CConnectorOutboundLane#BACKFILL} for backfill data, otherwise {@link
+   *     CConnectorOutboundLane#MEASUREMENT}
+   */
+  public CConnectorOutboundLane getLane() {
+    return backfill ? CConnectorOutboundLane.BACKFILL : CConnectorOutboundLane.MEASUREMENT;
+  }
+
+  /** Counts a message of the span which has been queued to be published. */
+  public synchronized void onMessageQueued() {
+    pendingMessageCount++;
+  }
+
+  /** Uncounts a message of the span which has been published. */
+  public synchronized void onMessagePublished() {
+    pendingMessageCount--;
+  }
+
+  /** Uncounts a message of the span which was discarded, and marks the span as failed. */
+  public synchronized void onMessageDiscarded() {
+    pendingMessageCount--;
+    failed = true;
+  }
+
+  /**
+   * Marks the span as sealed, once all of its messages have been queued.
+   *
+   * @param success false if the span could not be fully processed and must be read again
+   */
+  public synchronized void seal(boolean success) {
+    sealed = true;
+    if (!success) {
+      failed = true;
+    }
+  }
+
+  /**
+   * Gets a boolean indicating if the span has been sealed, and all of its messages have been
+   * published.
+   *
+   * @return true if the span is complete, otherwise false
+   */
+  public synchronized boolean isComplete() {
+    return sealed && pendingMessageCount <= 0;
+  }
+
+  /**
+   * Gets a boolean indicating if a message of the span was discarded, or the span could not be
+   * fully processed.
+   *
+   * @return true if the span failed and must be read again, otherwise false
+   */
+  public synchronized boolean isFailed() {
+    return failed;
+  }
+}
@@ -0,0 +1,402 @@
+package com.hms_networks.sc.cumulocity.data;
+
+import com.ewon.ewonitf.DefaultEventHandler;
+import com.ewon.ewonitf.EvtTagValueListener;
+import com.ewon.ewonitf.TagControl;
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+import com.hms_networks.americas.sc.extensions.string.StringUtils;
+import com.hms_networks.americas.sc.extensions.system.time.SCTimeUtils;
+import com.hms_networks.americas.sc.extensions.taginfo.TagInfo;
+import com.hms_networks.americas.sc.extensions.taginfo.TagInfoManager;
+import com.hms_networks.americas.sc.extensions.taginfo.TagType;
+import com.hms_networks.sc.cumulocity.CConnectorLogger;
+import com.hms_networks.sc.cumulocity.CConnectorMain;
+import com.hms_networks.sc.cumulocity.api.CConnectorMqttMgr;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class for managing the realtime lane, which sends value changes of selected tags to Cumulocity
+ * as soon as they occur, instead of waiting for the next poll of the historical data queue. A tag
+ * value listener is registered for each configured realtime tag, and each value change is queued
+ * in the {@link CConnectorOutboundLane#ALARM} lane, so it is sent ahead of queued measurements.
+ *
+ * <p>Realtime tags are also read from the historical data queue. Each value published by the
+ * realtime lane is remembered for up to {@link #SENT_VALUE_MAX_AGE_MILLIS}, and the historical copy
+ * of the value (same tag and value, with a time stamp within {@link
+ * #DUPLICATE_TIME_TOLERANCE_MILLIS}) is not sent again. A value is only remembered once it has been
+ * published, so that a value discarded by the outbound lane is still sent from the historical log.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 1.5.0
+ */
+public class CConnectorRealtimeMgr {
+
+  /** The separator between the tag names of the realtime tag names setting. */
+  private static final String REALTIME_TAG_NAME_SEPARATOR = " ";
+
+  /**
+   * The maximum difference (in milliseconds) between the time a value was sent by the realtime
+   * lane and the time stamp of its historical copy.
+   */
+  private static final long DUPLICATE_TIME_TOLERANCE_MILLIS = 2000;
+
+  /**
+   * The maximum time (in milliseconds) a value sent by the realtime lane is remembered while
+   * waiting for its historical copy.
+   */
+  private static final long SENT_VALUE_MAX_AGE_MILLIS = 900000;
+
+  /** The maximum number of values remembered for each realtime tag. */
+  private static final int MAX_SENT_VALUES_PER_TAG = 32;
+
+  /** Key for rate limiting log messages about realtime values which could not be read. */
+  private static final String LOG_KEY_REALTIME_READ_FAILED = "realtimeReadFailed";
+
+  /** The registered tag value listeners, one per realtime tag. */
+  private static final List LISTENERS = new ArrayList(); // List<RealtimeTagListener>
+
+  /**
+   * Map of realtime tag name to the values sent by the realtime lane, oldest first. All access must
+   * be synchronized on the map.
+   */
+  private static final Map SENT_VALUES = new HashMap(); // Map<String, LinkedList<SentValue>>
+
+  /** The total number of values sent by the realtime lane. */
+  private static long sentValueCount = 0;
+
+  /** The total number of historical values which were not sent because of the realtime lane. */
+  private static long duplicateValueCount = 0;
+
+  /**
+   * Registers a tag value listener for each of the specified realtime tags. Tags which do not exist
+   * are logged and skipped. Listeners from a previous call are removed first.
+   *
+   * @param realtimeTagNames names of the realtime tags, separated by spaces (may be blank)
+   */
+  public static synchronized void setup(String realtimeTagNames) {
+    shutdown();
+
+    List realtimeTagNameList =
+        StringUtils.split(realtimeTagNames.trim(), REALTIME_TAG_NAME_SEPARATOR); // List<String>
+    for (int i = 0; i < realtimeTagNameList.size(); i++) {
+      String tagName = ((String) realtimeTagNameList.get(i)).trim();
+      if (tagName.length() == 0) {
+        continue;
+      }
+
+      TagInfo tagInfo;
+      try {
+        tagInfo = TagInfoManager.getTagInfoFromTagId(new TagControl(tagName).getTagId());
+      } catch (Exception e) {
+        Logger.LOG_SERIOUS(
+            "Unable to add realtime tag " + tagName + ". Check that the tag exists.");
+        Logger.LOG_EXCEPTION(e);
+        continue;
+      }
+
+      RealtimeTagListener listener = new RealtimeTagListener(tagInfo);
+      DefaultEventHandler.addTagValueListener(listener);
+      LISTENERS.add(listener);
+      synchronized (SENT_VALUES) {
+        SENT_VALUES.put(tagInfo.getName(), new LinkedList());
+      }
+    }
+
+    if (!LISTENERS.isEmpty()) {
+      Logger.LOG_CRITICAL("Sending value changes of " + LISTENERS.size() + " realtime tag(s).");
+    }
+  }
+
+  /** Removes the tag value listeners of all realtime tags and forgets the values they sent. */
+  public static synchronized void shutdown() {
+    for (int i = 0; i < LISTENERS.size(); i++) {
+      DefaultEventHandler.delTagValueListener((RealtimeTagListener) LISTENERS.get(i));
+    }
+    LISTENERS.clear();
+    synchronized (SENT_VALUES) {
+      SENT_VALUES.clear();
+    }
+  }
+
+  /**
+   * Gets the total number of values sent by the realtime lane since the connector started.
+   *
+   * @return number of values sent by the realtime lane
+   */
+  public static long getSentValueCount() {
+    synchronized (SENT_VALUES) {
+      return sentValueCount;
+    }
+  }
+
+  /**
+   * Gets the total number of values read from the historical data queue which were not sent because
+   * they were already sent by the realtime lane.
+   *
+   * @return number of duplicate historical values
+   */
+  public static long getDuplicateValueCount() {
+    synchronized (SENT_VALUES) {
+      return duplicateValueCount;
+    }
+  }
+
+  /**
+   * Gets a boolean indicating if the specified value, read from the historical data queue, was
+   * already sent by the realtime lane. A matching sent value is forgotten, so each sent value
+   * matches at most one historical value.
+   *
+   * @param tagName name of the tag
+   * @param value value read from the historical data queue
+   * @param timeMillis time stamp (in milliseconds since epoch) of the historical value
+   * @return true if the value was already sent, otherwise false
+   */
+  static boolean isRealtimeCopySent(String tagName, String value, long timeMillis) {
+    synchronized (SENT_VALUES) {
+      LinkedList sentValues = (LinkedList) SENT_VALUES.get(tagName); // LinkedList<SentValue>
+      if (sentValues == null || sentValues.isEmpty()) {
+        return false;
+      }
+
+      Iterator sentValuesIterator = sentValues.iterator(); // Iterator<SentValue>
+      while (sentValuesIterator.hasNext()) {
+        SentValue sentValue = (SentValue) sentValuesIterator.next();
+        if (Math.abs(sentValue.sentTimeMillis - timeMillis) <= DUPLICATE_TIME_TOLERANCE_MILLIS
+            && valuesEqual(sentValue.value, value)) {
+          sentValuesIterator.remove();
+          duplicateValueCount++;
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Sends the specified value change of a realtime tag to Cumulocity. The value is remembered once
+   * it is published, so that its historical copy is not sent again.
+   *
+   * @param listener listener of the realtime tag which changed
+   * @param value new value of the tag
+   */
+  private static void sendValueChange(RealtimeTagListener listener, String value) {
+    CConnectorMqttMgr mqttMgr = CConnectorMain.getMqttMgr();
+    if (mqttMgr == null || !CConnectorMain.getConnectorMeasurementsEnabled()) {
+      // The historical copy of the value is sent instead
+      return;
+    }
+
+    long sentTimeMillis = System.currentTimeMillis();
+    String time;
+    try {
+      time = SCTimeUtils.getIso8601FormattedTimestampForDate(new Date(sentTimeMillis));
+    } catch (Exception e) {
+      logReadFailed(listener, e);
+      return;
+    }
+
+    synchronized (SENT_VALUES) {
+      if (!SENT_VALUES.containsKey(listener.tagName)) {
+        // The listener was removed while the value changed
+        return;
+      }
+    }
+
+    String payloadString =
+        CConnectorDataMgr.getCurrentValueLine(
+            listener.tagType, listener.connectorTagName, value, listener.unit, time);
+    mqttMgr.queueMessage(
+        new RealtimeValueMessage(
+            payloadString,
+            listener.connectorTagName.getChildDevice(),
+            listener.tagName,
+            value,
+            sentTimeMillis),
+        CConnectorOutboundLane.ALARM);
+  }
+
+  /**
+   * Remembers the specified value, published by the realtime lane, so that its historical copy is
+   * not sent again. The oldest remembered values of the tag are forgotten if the tag has too many
+   * remembered values, or if they are too old.
+   *
+   * @param tagName name of the tag
+   * @param value value which was published
+   * @param sentTimeMillis time (in milliseconds since epoch) the value changed
+   */
+  private static void rememberPublishedValue(String tagName, String value, long sentTimeMillis) {
+    synchronized (SENT_VALUES) {
+      sentValueCount++;
+      LinkedList sentValues = (LinkedList) SENT_VALUES.get(tagName); // LinkedList<SentValue>
+      if (sentValues == null) {
+        // The listener was removed before the value was published
+        return;
+      }
+      while (!sentValues.isEmpty()
+          && (sentValues.size() >= MAX_SENT_VALUES_PER_TAG
+              || sentTimeMillis - ((SentValue) sentValues.getFirst()).sentTimeMillis
+                  > SENT_VALUE_MAX_AGE_MILLIS)) {
+        sentValues.removeFirst();
+      }
+      sentValues.addLast(new SentValue(value, sentTimeMillis));
+    }
+  }
+
+  /**
+   * Gets a boolean indicating if the specified tag values are equal. Numeric values are compared
+   * by value, so that differences in formatting (such as <code>1</code> and <code>1.0</code>) are
+   * ignored.
+   *
+   * @param sentValue value sent by the realtime lane
+   * @param historicalValue value read from the historical data queue
+   * @return true if the values are equal, otherwise false
+   */
+  private static boolean valuesEqual(String sentValue, String historicalValue) {
+    if (sentValue.equals(historicalValue)) {
+      return true;
+    }
+    try {
+      return Double.parseDouble(sentValue.trim()) == Double.parseDouble(historicalValue.trim());
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Logs (rate limited) that the value of the specified realtime tag could not be sent.
+   *
+   * @param listener listener of the realtime tag
+   * @param e exception which occurred
+   */
+  private static void logReadFailed(RealtimeTagListener listener, Exception e) {
+    int suppressedCount = CConnectorLogger.acquireRateLimitedLog(LOG_KEY_REALTIME_READ_FAILED);
+    if (suppressedCount != CConnectorLogger.RATE_LIMITED) {
+      Logger.LOG_SERIOUS(
+          "Unable to send the value change of realtime tag "
+              + listener.tagName
+              + ". The value will be sent from the historical log."
+              + CConnectorLogger.getSuppressedSuffix(suppressedCount));
+      Logger.LOG_EXCEPTION(e);
+    }
+  }
+
+  /** Tag value listener for a single realtime tag. */
+  private static class RealtimeTagListener extends EvtTagValueListener {
+
+    /** Name of the tag. */
+    private final String tagName;
+
+    /** Type of the tag. */
+    private final TagType tagType;
+
+    /** Unit of the tag. */
+    private final String unit;
+
+    /** Split name of the tag, used to build its payload. */
+    private final CConnectorTagName connectorTagName;
+
+    /**
+     * Constructor for a new {@link RealtimeTagListener} for the specified tag. The listener must be
+     * registered with the default event handler by the caller.
+     *
+     * @param tagInfo information of the realtime tag
+     */
+    private RealtimeTagListener(TagInfo tagInfo) {
+      this.tagName = tagInfo.getName();
+      this.tagType = tagInfo.getType();
+      this.unit = tagInfo.getUnit();
+      this.connectorTagName = new CConnectorTagName(tagInfo.getName());
+      this.setTagName(tagName);
+    }
+
+    /** Method to handle a value change of the realtime tag by sending the new value. */
+    public void callTagChanged() {
+      String value;
+      try {
+        if (tagType == TagType.STRING) {
+          value = getTagValueAsString();
+        } else if (tagType == TagType.FLOAT) {
+          value = String.valueOf(getTagValueAsDouble());
+        } else if (tagType == TagType.DWORD) {
+          value = String.valueOf(getTagValueAsLong());
+        } else {
+          value = String.valueOf(getTagValueAsInt());
+        }
+      } catch (Exception e) {
+        logReadFailed(this, e);
+        return;
+      }
+      sendValueChange(this, value);
+    }
+  }
+
+  /**
+   * Outbound message holding a value change of a realtime tag, which remembers the value once the
+   * message is published.
+   */
+  private static class RealtimeValueMessage extends CConnectorRetryMessage {
+
+    /** Name of the tag. */
+    private final String tagName;
+
+    /** Value of the tag. */
+    private final String value;
+
+    /** Time (in milliseconds since epoch) the value changed. */
+    private final long sentTimeMillis;
+
+    /**
+     * Constructor for a new {@link RealtimeValueMessage} with the specified payload and value.
+     *
+     * @param messagePayload message payload content
+     * @param childDevice child device to route the message to (if not null)
+     * @param tagName name of the tag
+     * @param value value of the tag
+     * @param sentTimeMillis time (in milliseconds since epoch) the value changed
+     */
+    private RealtimeValueMessage(
+        String messagePayload,
+        String childDevice,
+        String tagName,
+        String value,
+        long sentTimeMillis) {
+      super(messagePayload, childDevice, CConnectorMessageType.DATA);
+      this.tagName = tagName;
+      this.value = value;
+      this.sentTimeMillis = sentTimeMillis;
+    }
+
+    /** Records that the message has been published, and remembers its value. */
+    public void onPublished() {
+      super.onPublished();
+      rememberPublishedValue(tagName, value, sentTimeMillis);
+    }
+  }
+
+  /** Value sent by the realtime lane, and the time it was sent. */
+  private static class SentValue {
+
+    /** Value which was sent. */
+    private final String value;
+
+    /** Time (in milliseconds since epoch) the value was sent. */
+    private final long sentTimeMillis;
+
+    /**
+     * Constructor for a new {@link SentValue} with the specified value and time.
+     *
+     * @param value value which was sent
+     * @param sentTimeMillis time (in milliseconds since epoch) the value was sent
+     */
+    private SentValue(String value, long sentTimeMillis) {
+      this.value = value;
+      this.sentTimeMillis = sentTimeMillis;
+    }
+  }
+}
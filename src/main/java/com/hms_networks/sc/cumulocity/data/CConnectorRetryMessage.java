@@ -2,8 +2,8 @@ package com.hms_networks.sc.cumulocity.data;
 
 /**
  * Utility class for storing the content and retry count for an MQTT message to Cumulocity. This
- * class is used when the initial attempt to send the message to Cumulocity fails, and it needs to
- * be retried.
+ * class is used to hold messages in the outbound lanes until they are sent, and to track the number
+ * of times sending the message to Cumulocity has failed.
  *
  * @author HMS Networks, MU Americas Solution Center
  * @since 1.3.2
@@ -13,12 +13,21 @@ public class CConnectorRetryMessage {
   /** The {@link String} message payload content. */
   private final String messagePayload;
 
+  /**
+   * The topic to send the message to, or null if the topic is determined from the child device and
+   * message type.
+   */
+  private final String messageTopic;
+
   /** The child device name for the message, if applicable. */
   private final String childDevice;
 
   /** The value indicating the type of the message. */
   private final CConnectorMessageType messageType;
 
+  /** The historical log span the message was built from, or null if not applicable. */
+  private final CConnectorQueueSpan span;
+
   /**
    * The number of times the message has been retried. This value is incremented each time the
    * message is retried.
@@ -35,10 +44,71 @@ public class CConnectorRetryMessage {
    */
   public CConnectorRetryMessage(
       String messagePayload, String childDevice, CConnectorMessageType messageType) {
+    this(messagePayload, null, childDevice, messageType, null);
+  }
+
+  /**
+   * Constructor for a new {@link CConnectorRetryMessage} object with the specified message payload
+   * content, child device name (null if not applicable) and historical log span (null if not
+   * applicable). The message is counted as pending by the span until it is published or discarded.
+   *
+   * @param messagePayload the {@link String} message payload content
+   * @param childDevice the child device to route the message to (if not null)
+   * @param messageType the value indicating the type of the message
+   * @param span the historical log span the message was built from (if not null)
+   * @since 1.5.0
+   */
+  public CConnectorRetryMessage(
+      String messagePayload,
+      String childDevice,
+      CConnectorMessageType messageType,
+      CConnectorQueueSpan span) {
+    this(messagePayload, null, childDevice, messageType, span);
+  }
+
+  /**
+   * Constructor for a new {@link CConnectorRetryMessage} object with the specified message payload
+   * content, topic (null if determined from the child device and message type) and child device
+   * name (null if not applicable). The retry count is initialized to 0.
+   *
+   * @param messagePayload the {@link String} message payload content
+   * @param messageTopic the topic to send the message to (if not null)
+   * @param childDevice the child device to route the message to (if not null)
+   * @param messageType the value indicating the type of the message
+   */
+  public CConnectorRetryMessage(
+      String messagePayload,
+      String messageTopic,
+      String childDevice,
+      CConnectorMessageType messageType) {
+    this(messagePayload, messageTopic, childDevice, messageType, null);
+  }
+
+  /**
+   * Constructor for a new {@link CConnectorRetryMessage} object with the specified message payload
+   * content, topic, child device name and historical log span (each null if not applicable).
+   *
+   * @param messagePayload the {@link String} message payload content
+   * @param messageTopic the topic to send the message to (if not null)
+   * @param childDevice the child device to route the message to (if not null)
+   * @param messageType the value indicating the type of the message
+   * @param span the historical log span the message was built from (if not null)
+   */
+  private CConnectorRetryMessage(
+      String messagePayload,
+      String messageTopic,
+      String childDevice,
+      CConnectorMessageType messageType,
+      CConnectorQueueSpan span) {
     this.messagePayload = messagePayload;
+    this.messageTopic = messageTopic;
     this.childDevice = childDevice;
     this.messageType = messageType;
+    this.span = span;
     this.retryCount = 0;
+    if (span != null) {
+      span.onMessageQueued();
+    }
   }
 
   /**
@@ -50,6 +120,26 @@ public class CConnectorRetryMessage {
     return messagePayload;
   }
 
+  /**
+   * Gets the topic to send the message to, or null if the topic is determined from the child device
+   * and message type.
+   *
+   * @return the topic to send the message to, or null
+   */
+  public String getMessageTopic() {
+    return messageTopic;
+  }
+
+  /**
+   * Gets the size of the message payload, used to account for the message in outbound lane byte
+   * budgets. The size is estimated as the number of characters in the payload.
+   *
+   * @return the size of the message payload
+   */
+  public int getMessageSize() {
+    return messagePayload.length();
+  }
+
   /**
    * Gets the name of the child device to route the message to (if not null).
    *
@@ -81,4 +171,28 @@ public class CConnectorRetryMessage {
   public void incrementRetryCount() {
     retryCount++;
   }
+
+  /**
+   * Records that the message has been published, so that its historical log span (if any) may be
+   * checkpointed.
+   *
+   * @since 1.5.0
+   */
+  public void onPublished() {
+    if (span != null) {
+      span.onMessagePublished();
+    }
+  }
+
+  /**
+   * Records that the message has been discarded without being published, so that its historical
+   * log span (if any) is read again.
+   *
+   * @since 1.5.0
+   */
+  public void onDiscarded() {
+    if (span != null) {
+      span.onMessageDiscarded();
+    }
+  }
 }
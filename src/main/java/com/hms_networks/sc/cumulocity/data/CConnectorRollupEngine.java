@@ -0,0 +1,392 @@
+package com.hms_networks.sc.cumulocity.data;
+
+import com.hms_networks.americas.sc.extensions.json.JSONException;
+import com.hms_networks.americas.sc.extensions.string.StringUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class for computing rollups of several window sizes (for example, 1 minute and 1 hour) in a
+ * single pass over the data points read from the historical log. Each data point is added to the
+ * open window of every rollup period. Each window is a {@link CConnectorAggregationTable}, with a
+ * row for each tag of a shared {@link CConnectorTagTable}, and is emitted as {@link
+ * CConnectorJsonDataPayload}s (one per child device) once it has closed.
+ *
+ * <p>Windows are aligned the same way as queue data aggregation periods: a window is time stamped
+ * with the nearest multiple of its period, and holds the data points within half a period of that
+ * time stamp. A window is closed once the historical log has been read past its end. Data points
+ * of a window which has already been closed are counted as late, and are not added.
+ *
+ * <p>The series of each rollup period are named after the tag series, followed by an underscore
+ * and the period (for example, {@code 0_1m} and {@code 0_1h}), so that the rollups of all periods
+ * can be stored in the same fragment. With the {@link CConnectorAggregationMethod#STATISTICS}
+ * aggregation method, each rollup series is sent as sibling series holding its statistics (for
+ * example, {@code 0_1m_min} and {@code 0_1m_max}), and likewise for the quantiles of the {@link
+ * CConnectorAggregationMethod#QUANTILES} aggregation method (for example, {@code 0_1m_p95}).
+ *
+ * <p>With the {@link CConnectorAggregationMethod#TIME_WEIGHTED_AVERAGE} aggregation method, the
+ * newest value of each series is carried over to its next window when a window is closed, so that
+ * the value held at the start of the next window is weighted as well. Windows are closed oldest
+ * first, so the value is always carried over from the latest earlier window of the series.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 1.5.0
+ */
+public class CConnectorRollupEngine {
+
+  /** The separator between the rollup periods in the configuration. */
+  private static final String PERIOD_SEPARATOR = " ";
+
+  /** The separator between the series name and the rollup period label. */
+  private static final String SERIES_PERIOD_SEPARATOR = "_";
+
+  /** The number of milliseconds in a second. */
+  private static final long MILLIS_PER_SECOND = 1000;
+
+  /** The number of seconds in a minute. */
+  private static final long SECS_PER_MINUTE = 60;
+
+  /** The number of seconds in an hour. */
+  private static final long SECS_PER_HOUR = 3600;
+
+  /** The length (in seconds) of each rollup period, shortest first. */
+  private final long[] periodsSecs;
+
+  /** The length (in milliseconds) of each rollup period, shortest first. */
+  private final long[] periodsMillis;
+
+  /** The aggregation method applied to each window. */
+  private final CConnectorAggregationMethod aggregationMethod;
+
+  /** The quantiles (0 to 1) sent for the {@link CConnectorAggregationMethod#QUANTILES} method. */
+  private final double[] quantiles;
+
+  /** The series name suffix of each rollup period (for example, "_1m"). */
+  private final String[] periodSuffixes;
+
+  /** The tag table the rows of the windows are indexed by. */
+  private final CConnectorTagTable tagTable;
+
+  /**
+   * The open windows of each rollup period, by window time stamp (Map&lt;Long,
+   * CConnectorAggregationTable&gt;).
+   */
+  private final TreeMap[] openWindows;
+
+  /**
+   * The window of each rollup period which a value was most recently added to, or null if it has
+   * been closed. Consecutive values of the historical log usually fall in the same window, which is
+   * then found without a lookup.
+   */
+  private final CConnectorAggregationTable[] lastAddedWindows;
+
+  /** The time stamp (in milliseconds since epoch) of each window of {@link #lastAddedWindows}. */
+  private final long[] lastAddedWindowMillis;
+
+  /**
+   * The values carried over to the next window of each series, for each rollup period. This is only
+   * used by the {@link CConnectorAggregationMethod#TIME_WEIGHTED_AVERAGE} aggregation method.
+   */
+  private final CConnectorAggregationTable[] carriedValues;
+
+  /** The end time (in milliseconds since epoch) of the last window closed for each period. */
+  private final long[] closedUntilMillis;
+
+  /** The number of data points which were not added, because their window was already closed. */
+  private long lateDatapointCount = 0;
+
+  /**
+   * The time (in milliseconds since epoch) the data added to the engine starts at. Windows which
+   * start before this time only hold part of their data, so they are closed without being sent.
+   */
+  private long coveredFromMillis = 0;
+
+  /**
+   * Constructor for a new {@link CConnectorRollupEngine} with the specified rollup periods and
+   * aggregation method.
+   *
+   * @param periodsSecs length (in seconds) of each rollup period
+   * @param aggregationMethod aggregation method applied to each window
+   * @param quantiles quantiles (0 to 1) sent for the {@link CConnectorAggregationMethod#QUANTILES}
+   *     aggregation method
+   * @param tagTable tag table the tags of the added values are indexed by
+   * @throws IllegalArgumentException if no period is specified, or a period is not positive
+   */
+  public CConnectorRollupEngine(
+      long[] periodsSecs,
+      CConnectorAggregationMethod aggregationMethod,
+      double[] quantiles,
+      CConnectorTagTable tagTable)
+      throws IllegalArgumentException {
+    if (periodsSecs.length == 0) {
+      throw new IllegalArgumentException("At least one rollup period must be specified.");
+    }
+    this.aggregationMethod = aggregationMethod;
+    this.quantiles = quantiles;
+    this.tagTable = tagTable;
+
+    // Sort periods (shortest first), so that the rollups of each window are emitted in order
+    long[] sortedPeriodsSecs = new long[periodsSecs.length];
+    System.arraycopy(periodsSecs, 0, sortedPeriodsSecs, 0, periodsSecs.length);
+    Arrays.sort(sortedPeriodsSecs);
+
+    this.periodsSecs = sortedPeriodsSecs;
+    periodsMillis = new long[sortedPeriodsSecs.length];
+    periodSuffixes = new String[sortedPeriodsSecs.length];
+    openWindows = new TreeMap[sortedPeriodsSecs.length];
+    lastAddedWindows = new CConnectorAggregationTable[sortedPeriodsSecs.length];
+    lastAddedWindowMillis = new long[sortedPeriodsSecs.length];
+    carriedValues = new CConnectorAggregationTable[sortedPeriodsSecs.length];
+    closedUntilMillis = new long[sortedPeriodsSecs.length];
+    for (int i = 0; i < sortedPeriodsSecs.length; i++) {
+      if (sortedPeriodsSecs[i] <= 0) {
+        throw new IllegalArgumentException(
+            "Rollup periods must be positive: " + sortedPeriodsSecs[i]);
+      }
+      periodsMillis[i] = sortedPeriodsSecs[i] * MILLIS_PER_SECOND;
+      periodSuffixes[i] = SERIES_PERIOD_SEPARATOR + getPeriodLabel(sortedPeriodsSecs[i]);
+      openWindows[i] = new TreeMap();
+      carriedValues[i] = new CConnectorAggregationTable(aggregationMethod, quantiles);
+    }
+  }
+
+  /**
+   * Creates a new {@link CConnectorRollupEngine} with the same rollup periods, aggregation method
+   * and tag table, and no open windows, for data which starts at the specified time. Windows which
+   * start before that time only hold part of their data, so they are closed without being sent.
+   *
+   * @param coveredFromMillis time (in milliseconds since epoch) the data of the new engine starts
+   * @return new rollup engine with the same settings
+   */
+  public CConnectorRollupEngine createEmpty(long coveredFromMillis) {
+    CConnectorRollupEngine emptyRollupEngine =
+        new CConnectorRollupEngine(periodsSecs, aggregationMethod, quantiles, tagTable);
+    emptyRollupEngine.coveredFromMillis = coveredFromMillis;
+    return emptyRollupEngine;
+  }
+
+  /**
+   * Parses the specified rollup periods (in seconds), separated by spaces.
+   *
+   * @param periodsSecs rollup periods (in seconds), separated by spaces (may be blank)
+   * @return length (in seconds) of each rollup period, or an empty array if none
+   * @throws IllegalArgumentException if a period is not a positive number
+   */
+  public static long[] parsePeriodsSecs(String periodsSecs) throws IllegalArgumentException {
+    List periodList = StringUtils.split(periodsSecs.trim(), PERIOD_SEPARATOR); // List<String>
+    List parsedPeriodList = new ArrayList(); // List<Long>
+    for (int i = 0; i < periodList.size(); i++) {
+      String period = ((String) periodList.get(i)).trim();
+      if (period.length() == 0) {
+        continue;
+      }
+      long periodSecs;
+      try {
+        periodSecs = Long.parseLong(period);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid rollup period: " + period);
+      }
+      if (periodSecs <= 0) {
+        throw new IllegalArgumentException("Rollup periods must be positive: " + period);
+      }
+      parsedPeriodList.add(new Long(periodSecs));
+    }
+
+    long[] parsedPeriods = new long[parsedPeriodList.size()];
+    for (int i = 0; i < parsedPeriods.length; i++) {
+      parsedPeriods[i] = ((Long) parsedPeriodList.get(i)).longValue();
+    }
+    return parsedPeriods;
+  }
+
+  /**
+   * Gets the label of the specified rollup period, in hours, minutes or seconds (for example, "1h",
+   * "15m" or "30s").
+   *
+   * @param periodSecs length (in seconds) of the rollup period
+   * @return label of the rollup period
+   */
+  private static String getPeriodLabel(long periodSecs) {
+    String label;
+    if (periodSecs % SECS_PER_HOUR == 0) {
+      label = (periodSecs / SECS_PER_HOUR) + "h";
+    } else if (periodSecs % SECS_PER_MINUTE == 0) {
+      label = (periodSecs / SECS_PER_MINUTE) + "m";
+    } else {
+      label = periodSecs + "s";
+    }
+    return label;
+  }
+
+  /**
+   * Gets the time stamp (in milliseconds since epoch) of the window of the specified period which
+   * holds the specified time. This is the nearest multiple of the period.
+   *
+   * @param periodMillis length (in milliseconds) of the rollup period
+   * @param timeMillis time (in milliseconds since epoch)
+   * @return time stamp of the window
+   */
+  private static long getWindowMillis(long periodMillis, long timeMillis) {
+    return ((timeMillis + (periodMillis / 2)) / periodMillis) * periodMillis;
+  }
+
+  /**
+   * Gets the start time (in milliseconds since epoch) of the window with the specified time stamp.
+   *
+   * @param periodMillis length (in milliseconds) of the rollup period
+   * @param windowMillis time stamp of the window
+   * @return start time of the window (inclusive)
+   */
+  private static long getWindowStartMillis(long periodMillis, long windowMillis) {
+    return windowMillis - (periodMillis / 2);
+  }
+
+  /**
+   * Gets the end time (in milliseconds since epoch) of the window with the specified time stamp.
+   *
+   * @param periodMillis length (in milliseconds) of the rollup period
+   * @param windowMillis time stamp of the window
+   * @return end time of the window (exclusive)
+   */
+  private static long getWindowEndMillis(long periodMillis, long windowMillis) {
+    return windowMillis - (periodMillis / 2) + periodMillis;
+  }
+
+  /**
+   * Adds the specified value to the open window of each rollup period.
+   *
+   * @param tagIndex index of the tag the value was logged for, in the tag table of the engine
+   * @param value value to add (a {@link Number} or {@link Boolean})
+   * @param timeMillis time (in milliseconds since epoch) the value was logged
+   * @throws IllegalArgumentException if the value is not a number or boolean
+   */
+  public void add(int tagIndex, Object value, long timeMillis) throws IllegalArgumentException {
+    for (int i = 0; i < periodsMillis.length; i++) {
+      long windowMillis = getWindowMillis(periodsMillis[i], timeMillis);
+      CConnectorAggregationTable window = lastAddedWindows[i];
+      if (window == null || lastAddedWindowMillis[i] != windowMillis) {
+        if (getWindowEndMillis(periodsMillis[i], windowMillis) <= closedUntilMillis[i]) {
+          lateDatapointCount++;
+          continue;
+        }
+
+        // Get the window, opening it if required
+        Long windowKey = new Long(windowMillis);
+        window = (CConnectorAggregationTable) openWindows[i].get(windowKey);
+        if (window == null) {
+          window = new CConnectorAggregationTable(aggregationMethod, quantiles);
+          openWindows[i].put(windowKey, window);
+        }
+        lastAddedWindows[i] = window;
+        lastAddedWindowMillis[i] = windowMillis;
+      }
+      window.add(tagIndex, value, timeMillis);
+    }
+  }
+
+  /**
+   * Closes the windows which end at or before the specified time, and gets their payloads. The
+   * windows of the shortest period are returned first, oldest first. Windows which start before the
+   * data of the engine (see {@link #createEmpty(long)}) are closed without being sent.
+   *
+   * @param endMillis time (in milliseconds since epoch) the historical log has been read until
+   * @return payloads of the closed windows (List&lt;CConnectorJsonDataPayload&gt;)
+   * @throws JSONException if unable to build a payload
+   */
+  public List closeWindows(long endMillis) throws JSONException {
+    List payloads = new ArrayList(); // List<CConnectorJsonDataPayload>
+    for (int i = 0; i < periodsMillis.length; i++) {
+      Iterator windowIterator = openWindows[i].entrySet().iterator(); // Iterator<Map.Entry>
+      while (windowIterator.hasNext()) {
+        Map.Entry windowEntry = (Map.Entry) windowIterator.next();
+        long windowMillis = ((Long) windowEntry.getKey()).longValue();
+        long windowEndMillis = getWindowEndMillis(periodsMillis[i], windowMillis);
+        if (windowEndMillis > endMillis) {
+          // Windows are sorted by time stamp, so the following windows are also still open
+          break;
+        }
+        CConnectorAggregationTable window = (CConnectorAggregationTable) windowEntry.getValue();
+        if (aggregationMethod == CConnectorAggregationMethod.TIME_WEIGHTED_AVERAGE) {
+          window.carryOver(carriedValues[i]);
+        }
+        long windowStartMillis = getWindowStartMillis(periodsMillis[i], windowMillis);
+        if (windowStartMillis >= coveredFromMillis) {
+          window.addPayloads(
+              payloads,
+              new Date(windowMillis),
+              tagTable,
+              periodSuffixes[i],
+              windowStartMillis,
+              windowEndMillis);
+        }
+        windowIterator.remove();
+        if (lastAddedWindows[i] == window) {
+          lastAddedWindows[i] = null;
+        }
+        closedUntilMillis[i] = Math.max(closedUntilMillis[i], windowEndMillis);
+      }
+    }
+    return payloads;
+  }
+
+  /**
+   * Gets the end time (in milliseconds since epoch) of the most recently closed window. Data
+   * before this time is late for at least one rollup period.
+   *
+   * @return end time of the most recently closed window, or 0 if no window has been closed
+   */
+  public long getClosedUntilMillis() {
+    long latestClosedUntilMillis = 0;
+    for (int i = 0; i < closedUntilMillis.length; i++) {
+      latestClosedUntilMillis = Math.max(latestClosedUntilMillis, closedUntilMillis[i]);
+    }
+    return latestClosedUntilMillis;
+  }
+
+  /**
+   * Gets the start time (in milliseconds since epoch) of the oldest open window, across all rollup
+   * periods. The data points from this time on are only held in open windows, and have not been
+   * sent yet.
+   *
+   * @return start time of the oldest open window, or {@link Long#MAX_VALUE} if no window is open
+   */
+  public long getOpenWindowsStartMillis() {
+    long openWindowsStartMillis = Long.MAX_VALUE;
+    for (int i = 0; i < openWindows.length; i++) {
+      if (!openWindows[i].isEmpty()) {
+        long oldestWindowMillis = ((Long) openWindows[i].firstKey()).longValue();
+        openWindowsStartMillis =
+            Math.min(
+                openWindowsStartMillis, getWindowStartMillis(periodsMillis[i], oldestWindowMillis));
+      }
+    }
+    return openWindowsStartMillis;
+  }
+
+  /**
+   * Gets the number of windows which are open (not yet emitted) across all rollup periods.
+   *
+   * @return number of open windows
+   */
+  public int getOpenWindowCount() {
+    int openWindowCount = 0;
+    for (int i = 0; i < openWindows.length; i++) {
+      openWindowCount += openWindows[i].size();
+    }
+    return openWindowCount;
+  }
+
+  /**
+   * Gets the number of data points which were not added, because their window was already closed.
+   *
+   * @return number of late data points
+   */
+  public long getLateDatapointCount() {
+    return lateDatapointCount;
+  }
+}
@@ -0,0 +1,469 @@
+package com.hms_networks.sc.cumulocity.data;
+
+import com.hms_networks.americas.sc.extensions.historicaldata.HistoricalDataManager;
+import com.hms_networks.americas.sc.extensions.historicaldata.HistoricalDataQueueManager;
+import com.hms_networks.americas.sc.extensions.logging.Logger;
+import com.hms_networks.sc.cumulocity.config.CConnectorConfigFile;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * Class for reading the historical log of each tag group (A, B, C and D) on its own poll schedule.
+ * Each tag group has its own poll interval, span size and time tracker, so slow changing tag groups
+ * can be read less often than fast changing tag groups. A tag group without its own schedule uses
+ * the shared queue data poll interval and size.
+ *
+ * <p>The time tracker of each tag group is the start time of its next span. It starts at the
+ * {@link CConnectorQueueCheckpoint} of the tag group, which is stored in a file once the data read
+ * from the tag group has been published, so that reading continues where delivery stopped after a
+ * restart. A tag group which is behind by more than one span is read again on the next poll,
+ * without waiting for its poll interval, until it has caught up.
+ *
+ * <p>If the export of a span is estimated to exceed the configured queue data read memory budget,
+ * or the device runs out of memory while parsing it, the span is split in half and only the first
+ * half is read. Splitting is repeated until the span fits the budget, or is as short as {@link
+ * #MIN_SPLIT_SPAN_MILLIS}. The rest of the span is read on the following polls, as the tag group
+ * is then behind by more than one span.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 1.5.0
+ */
+public class CConnectorTagGroupPoller {
+
+  /** The number of tag groups. */
+  public static final int TAG_GROUP_COUNT = 4;
+
+  /** The names of the tag groups, indexed by tag group index. */
+  private static final String[] TAG_GROUP_NAMES = {"A", "B", "C", "D"};
+
+  /** Value returned by {@link #getNextDueTagGroup(long)} when no tag group is due to be read. */
+  public static final int NO_TAG_GROUP_DUE = -1;
+
+  /** Prefix of the path of the time tracker file of each tag group. */
+  private static final String TIME_TRACKER_FILE_PATH_PREFIX = "/usr/CumulocityTagGroup";
+
+  /** Suffix of the path of the time tracker file of each tag group. */
+  private static final String TIME_TRACKER_FILE_PATH_SUFFIX = "TimeTracker.txt";
+
+  /** Path of the temporary file used to export the historical log of a tag group. */
+  private static final String EXPORT_FILE_PATH = "/usr/CumulocityTagGroupExport.txt";
+
+  /** Value of a time tracker which has not been loaded or started. */
+  private static final long TIME_TRACKER_NOT_STARTED = -1;
+
+  /** The number of milliseconds in a minute. */
+  private static final long MILLIS_PER_MINUTE = 60000;
+
+  /**
+   * The shortest span (in milliseconds) which is split when it exceeds the read memory budget. The
+   * historical log is exported with a resolution of one second.
+   */
+  private static final long MIN_SPLIT_SPAN_MILLIS = 2000;
+
+  /**
+   * The estimated ratio of the heap usage of the parsed data points of an export to the size of the
+   * export file.
+   */
+  private static final long EXPORT_FILE_HEAP_FACTOR = 4;
+
+  /** Value passed to {@link #exportSpan(int, long, long, long)} to read without a budget. */
+  private static final long NO_READ_BUDGET = -1;
+
+  /** Poll interval (in milliseconds) of each tag group. */
+  private final long[] pollIntervalMillis = new long[TAG_GROUP_COUNT];
+
+  /** Span size (in milliseconds) of each tag group. */
+  private final long[] spanMillis = new long[TAG_GROUP_COUNT];
+
+  /** Start time (in milliseconds since epoch) of the next span of each tag group. */
+  private final long[] timeTrackerMillis = new long[TAG_GROUP_COUNT];
+
+  /** Time (in milliseconds since epoch) each tag group was last read. */
+  private final long[] lastPollMillis = new long[TAG_GROUP_COUNT];
+
+  /**
+   * The maximum time (in milliseconds) a tag group may be behind, or a negative value if disabled.
+   */
+  private long maxBehindMillis = -1;
+
+  /** Boolean flag indicating if string history is read from the historical log. */
+  private boolean stringHistoryEnabled = false;
+
+  /** Boolean flag indicating if at least one tag group has its own poll schedule. */
+  private boolean enabled = false;
+
+  /** The memory budget (in bytes) of a single span read. */
+  private long readMaxBytes = 0;
+
+  /** The total number of spans which were split because they exceeded the read memory budget. */
+  private long splitCount = 0;
+
+  /** The checkpoint of the historical log, which stores the time tracker of each tag group. */
+  private final CConnectorQueueCheckpoint checkpoint;
+
+  /**
+   * Constructor for a new {@link CConnectorTagGroupPoller} which starts reading each tag group at
+   * its checkpoint in the specified historical log checkpoint.
+   *
+   * @param checkpoint checkpoint of the historical log
+   */
+  public CConnectorTagGroupPoller(CConnectorQueueCheckpoint checkpoint) {
+    this.checkpoint = checkpoint;
+  }
+
+  /**
+   * Configures the poll schedule of each tag group from the specified configuration. Tag group
+   * schedules are only enabled if at least one tag group has its own poll interval or size.
+   *
+   * @param connectorConfig connector configuration
+   * @throws Exception if unable to read the shared queue data poll settings
+   */
+  public synchronized void configure(CConnectorConfigFile connectorConfig) throws Exception {
+    long sharedPollIntervalMillis = connectorConfig.getQueueDataPollIntervalMillis();
+    long sharedPollSizeMins = connectorConfig.getQueueDataPollSizeMinutes();
+    long maxBehindMins = connectorConfig.getQueueDataPollMaxBehindTimeMinutes();
+    maxBehindMillis =
+        maxBehindMins == HistoricalDataQueueManager.DISABLED_MAX_HIST_FIFO_GET_BEHIND_MINS
+            ? -1
+            : maxBehindMins * MILLIS_PER_MINUTE;
+    stringHistoryEnabled = connectorConfig.getQueueDataStringEnabled();
+    readMaxBytes = connectorConfig.getQueueDataReadMaxBytes();
+
+    enabled = false;
+    for (int i = 0; i < TAG_GROUP_COUNT; i++) {
+      long groupPollIntervalMillis =
+          connectorConfig.getQueueGroupPollIntervalMillis(TAG_GROUP_NAMES[i]);
+      long groupPollSizeMins = connectorConfig.getQueueGroupPollSizeMins(TAG_GROUP_NAMES[i]);
+      if (groupPollIntervalMillis != CConnectorConfigFile.QUEUE_GROUP_POLL_SETTING_SHARED
+          || groupPollSizeMins != CConnectorConfigFile.QUEUE_GROUP_POLL_SETTING_SHARED) {
+        enabled = true;
+      }
+      pollIntervalMillis[i] =
+          groupPollIntervalMillis == CConnectorConfigFile.QUEUE_GROUP_POLL_SETTING_SHARED
+              ? sharedPollIntervalMillis
+              : groupPollIntervalMillis;
+      spanMillis[i] =
+          (groupPollSizeMins == CConnectorConfigFile.QUEUE_GROUP_POLL_SETTING_SHARED
+                  ? sharedPollSizeMins
+                  : groupPollSizeMins)
+              * MILLIS_PER_MINUTE;
+      timeTrackerMillis[i] = TIME_TRACKER_NOT_STARTED;
+      lastPollMillis[i] = 0;
+    }
+
+    if (enabled) {
+      for (int i = 0; i < TAG_GROUP_COUNT; i++) {
+        Logger.LOG_INFO(
+            "Tag group "
+                + TAG_GROUP_NAMES[i]
+                + " is read every "
+                + pollIntervalMillis[i]
+                + " ms, "
+                + (spanMillis[i] / MILLIS_PER_MINUTE)
+                + " minute(s) at a time.");
+      }
+    }
+  }
+
+  /**
+   * Gets a boolean indicating if at least one tag group has its own poll schedule. If not, the
+   * historical log is read for all tag groups at once by the historical data queue.
+   *
+   * @return true if tag group poll schedules are enabled, otherwise false
+   */
+  public synchronized boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Gets the name of the specified tag group.
+   *
+   * @param tagGroupIndex index of the tag group
+   * @return name of the tag group ('A', 'B', 'C' or 'D')
+   */
+  public static String getTagGroupName(int tagGroupIndex) {
+    return TAG_GROUP_NAMES[tagGroupIndex];
+  }
+
+  /**
+   * Gets the index of the tag group which has been waiting the longest to be read, of the tag
+   * groups which are due to be read. A tag group is due when its poll interval has elapsed, or when
+   * it is behind by more than one span.
+   *
+   * @param currentTimeMillis current time (in milliseconds since epoch)
+   * @return index of the next tag group to read, or {@link #NO_TAG_GROUP_DUE}
+   */
+  public synchronized int getNextDueTagGroup(long currentTimeMillis) {
+    int nextDueTagGroup = NO_TAG_GROUP_DUE;
+    for (int i = 0; i < TAG_GROUP_COUNT; i++) {
+      boolean pollIntervalElapsed = currentTimeMillis - lastPollMillis[i] >= pollIntervalMillis[i];
+      boolean catchingUp =
+          timeTrackerMillis[i] != TIME_TRACKER_NOT_STARTED
+              && currentTimeMillis - timeTrackerMillis[i] > spanMillis[i];
+      if ((pollIntervalElapsed || catchingUp)
+          && (nextDueTagGroup == NO_TAG_GROUP_DUE
+              || lastPollMillis[i] < lastPollMillis[nextDueTagGroup])) {
+        nextDueTagGroup = i;
+      }
+    }
+    return nextDueTagGroup;
+  }
+
+  /**
+   * Gets the total number of spans which were split because they exceeded the read memory budget.
+   *
+   * @return number of split spans
+   */
+  public synchronized long getSplitCount() {
+    return splitCount;
+  }
+
+  /**
+   * Reads the next span of the historical log of the specified tag group, and advances its time
+   * tracker to the end of the span. The span ends at the current time if it would otherwise end in
+   * the future, and is split in half (repeatedly) if it exceeds the read memory budget.
+   *
+   * @param tagGroupIndex index of the tag group to read
+   * @param currentTimeMillis current time (in milliseconds since epoch)
+   * @param startNewTimeTracker true to discard the time tracker and start reading at the current
+   *     time minus one span. The skipped time range is added as a resume range of the checkpoint.
+   *     A time range skipped because the tag group is behind by more than the maximum behind time
+   *     is recorded as a gap of the checkpoint.
+   * @return span read from the historical log
+   * @throws Exception if unable to read the historical log
+   */
+  public synchronized CConnectorQueueSpan readNextSpan(
+      int tagGroupIndex, long currentTimeMillis, boolean startNewTimeTracker) throws Exception {
+    lastPollMillis[tagGroupIndex] = currentTimeMillis;
+
+    long spanStartMillis = getTimeTrackerMillis(tagGroupIndex, currentTimeMillis);
+    if (startNewTimeTracker || spanStartMillis == TIME_TRACKER_NOT_STARTED) {
+      long newTimeTrackerMillis = currentTimeMillis - spanMillis[tagGroupIndex];
+      if (spanStartMillis != TIME_TRACKER_NOT_STARTED) {
+        checkpoint.addResumeRange(tagGroupIndex, spanStartMillis, newTimeTrackerMillis);
+      }
+      spanStartMillis = newTimeTrackerMillis;
+    }
+    if (maxBehindMillis >= 0 && currentTimeMillis - spanStartMillis > maxBehindMillis) {
+      Logger.LOG_WARN(
+          "Tag group "
+              + TAG_GROUP_NAMES[tagGroupIndex]
+              + " is behind by more than the maximum behind time. Skipping ahead.");
+      checkpoint.addGap(tagGroupIndex, spanStartMillis, currentTimeMillis - maxBehindMillis);
+      spanStartMillis = currentTimeMillis - maxBehindMillis;
+    }
+    long spanEndMillis = Math.min(spanStartMillis + spanMillis[tagGroupIndex], currentTimeMillis);
+
+    CConnectorQueueSpan span =
+        readRange(tagGroupIndex, spanStartMillis, spanEndMillis, currentTimeMillis);
+    timeTrackerMillis[tagGroupIndex] = span.getEndMillis();
+    return span;
+  }
+
+  /**
+   * Reads the specified time range of the historical log of the specified tag group, or of all tag
+   * groups. The range is split in half (repeatedly) if it exceeds the read memory budget, and the
+   * returned span then ends before the end of the range. The time tracker is not changed.
+   *
+   * @param stream tag group index, or {@link CConnectorQueueCheckpoint#STREAM_ALL_TAG_GROUPS}
+   * @param rangeStartMillis start time (in milliseconds since epoch) of the range
+   * @param rangeEndMillis end time (in milliseconds since epoch) of the range
+   * @param currentTimeMillis current time (in milliseconds since epoch)
+   * @return span read from the start of the range
+   * @throws Exception if unable to read the historical log
+   */
+  public synchronized CConnectorQueueSpan readRange(
+      int stream, long rangeStartMillis, long rangeEndMillis, long currentTimeMillis)
+      throws Exception {
+    long spanEndMillis = rangeEndMillis;
+    ArrayList datapoints = new ArrayList(); // ArrayList<DataPoint>
+    while (spanEndMillis > rangeStartMillis) {
+      boolean splittable = spanEndMillis - rangeStartMillis >= MIN_SPLIT_SPAN_MILLIS;
+      datapoints =
+          exportSpan(
+              stream, rangeStartMillis, spanEndMillis, splittable ? readMaxBytes : NO_READ_BUDGET);
+      if (datapoints != null) {
+        break;
+      }
+
+      // Too large to read at once, read the first half now and the rest on the following polls
+      spanEndMillis = rangeStartMillis + ((spanEndMillis - rangeStartMillis) / 2);
+      splitCount++;
+      Logger.LOG_WARN(
+          "The span of "
+              + getStreamName(stream)
+              + " exceeds the read memory budget of "
+              + readMaxBytes
+              + " bytes. Splitting it to "
+              + ((spanEndMillis - rangeStartMillis) / 1000)
+              + " second(s).");
+    }
+    return new CConnectorQueueSpan(
+        datapoints, currentTimeMillis, stream, rangeStartMillis, spanEndMillis);
+  }
+
+  /**
+   * Gets the time (in milliseconds) which the specified tag group is behind the current time.
+   *
+   * @param tagGroupIndex index of the tag group
+   * @param currentTimeMillis current time (in milliseconds since epoch)
+   * @return time (in milliseconds) the tag group is behind, or 0 if it has not been read yet
+   */
+  public synchronized long getTimeBehindMillis(int tagGroupIndex, long currentTimeMillis) {
+    if (timeTrackerMillis[tagGroupIndex] == TIME_TRACKER_NOT_STARTED) {
+      return 0;
+    }
+    return Math.max(0, currentTimeMillis - timeTrackerMillis[tagGroupIndex]);
+  }
+
+  /**
+   * Exports the specified span of the historical log of the specified tag group (or all tag groups)
+   * and parses the exported data points. If a read memory budget is specified, and the parsed data
+   * points are estimated to exceed it (based on the size of the export file), or the device runs
+   * out of memory while parsing them, the span is not read.
+   *
+   * @param stream tag group index, or {@link CConnectorQueueCheckpoint#STREAM_ALL_TAG_GROUPS}
+   * @param spanStartMillis start time (in milliseconds since epoch) of the span
+   * @param spanEndMillis end time (in milliseconds since epoch) of the span
+   * @param budgetBytes read memory budget (in bytes), or {@link #NO_READ_BUDGET}
+   * @return list of data points in the span (ArrayList&lt;DataPoint&gt;), or null if the span
+   *     exceeds the read memory budget
+   * @throws Exception if unable to export or parse the historical log
+   */
+  private ArrayList exportSpan(
+      int stream, long spanStartMillis, long spanEndMillis, long budgetBytes) throws Exception {
+    final boolean allTagGroups = stream == CConnectorQueueCheckpoint.STREAM_ALL_TAG_GROUPS;
+    String startTime = getEbdTimestamp(spanStartMillis);
+    String endTime = getEbdTimestamp(spanEndMillis);
+
+    // Export numeric history, then string history (if enabled)
+    ArrayList datapoints = null; // ArrayList<DataPoint>
+    long estimatedBytes = 0;
+    try {
+      final boolean stringHistorical = false;
+      HistoricalDataManager.exportDataHistoricalLog(
+          allTagGroups || stream == 0,
+          allTagGroups || stream == 1,
+          allTagGroups || stream == 2,
+          allTagGroups || stream == 3,
+          stringHistorical,
+          startTime,
+          endTime,
+          EXPORT_FILE_PATH);
+      estimatedBytes += new File(EXPORT_FILE_PATH).length() * EXPORT_FILE_HEAP_FACTOR;
+      if (budgetBytes != NO_READ_BUDGET && estimatedBytes > budgetBytes) {
+        return null;
+      }
+      datapoints = HistoricalDataManager.parseHistoricalFile(EXPORT_FILE_PATH);
+
+      if (stringHistoryEnabled) {
+        final boolean stringHistoricalEnabled = true;
+        HistoricalDataManager.exportDataHistoricalLog(
+            allTagGroups || stream == 0,
+            allTagGroups || stream == 1,
+            allTagGroups || stream == 2,
+            allTagGroups || stream == 3,
+            stringHistoricalEnabled,
+            startTime,
+            endTime,
+            EXPORT_FILE_PATH);
+        estimatedBytes += new File(EXPORT_FILE_PATH).length() * EXPORT_FILE_HEAP_FACTOR;
+        if (budgetBytes != NO_READ_BUDGET && estimatedBytes > budgetBytes) {
+          return null;
+        }
+        datapoints.addAll(HistoricalDataManager.parseHistoricalFile(EXPORT_FILE_PATH));
+      }
+    } catch (OutOfMemoryError e) {
+      // Release the partially read span before splitting it or reporting the failure
+      datapoints = null;
+      System.gc();
+      if (budgetBytes != NO_READ_BUDGET) {
+        return null;
+      }
+      throw new Exception("Out of memory reading the historical log of " + getStreamName(stream));
+    } finally {
+      new File(EXPORT_FILE_PATH).delete();
+    }
+    return datapoints;
+  }
+
+  /**
+   * Gets the time tracker of the specified tag group, starting it at the checkpoint of the tag
+   * group if it has not been started yet.
+   *
+   * @param tagGroupIndex index of the tag group
+   * @param currentTimeMillis current time (in milliseconds since epoch)
+   * @return time tracker (in milliseconds since epoch), or {@link #TIME_TRACKER_NOT_STARTED}
+   */
+  private long getTimeTrackerMillis(int tagGroupIndex, long currentTimeMillis) {
+    if (timeTrackerMillis[tagGroupIndex] == TIME_TRACKER_NOT_STARTED) {
+      long checkpointMillis = checkpoint.getCheckpointMillis(tagGroupIndex);
+      if (checkpointMillis != CConnectorQueueCheckpoint.NO_CHECKPOINT
+          && checkpointMillis <= currentTimeMillis) {
+        timeTrackerMillis[tagGroupIndex] = checkpointMillis;
+      }
+    }
+    return timeTrackerMillis[tagGroupIndex];
+  }
+
+  /**
+   * Gets the name of the specified checkpoint stream, for log messages.
+   *
+   * @param stream tag group index, or {@link CConnectorQueueCheckpoint#STREAM_ALL_TAG_GROUPS}
+   * @return name of the stream
+   */
+  private static String getStreamName(int stream) {
+    return stream == CConnectorQueueCheckpoint.STREAM_ALL_TAG_GROUPS
+        ? "all tag groups"
+        : "tag group " + TAG_GROUP_NAMES[stream];
+  }
+
+  /**
+   * Gets the path of the time tracker file of the specified tag group, which stores the checkpoint
+   * of the tag group.
+   *
+   * @param tagGroupIndex index of the tag group
+   * @return path of the time tracker file
+   */
+  static String getTimeTrackerFilePath(int tagGroupIndex) {
+    return TIME_TRACKER_FILE_PATH_PREFIX
+        + TAG_GROUP_NAMES[tagGroupIndex]
+        + TIME_TRACKER_FILE_PATH_SUFFIX;
+  }
+
+  /**
+   * Gets the specified time as an EBD time stamp (ddMMyyyy_HHmmss, local time).
+   *
+   * @param timeMillis time (in milliseconds since epoch)
+   * @return EBD time stamp
+   */
+  private static String getEbdTimestamp(long timeMillis) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTime(new Date(timeMillis));
+    StringBuffer ebdTimestamp = new StringBuffer();
+    appendTwoDigits(ebdTimestamp, calendar.get(Calendar.DAY_OF_MONTH));
+    appendTwoDigits(ebdTimestamp, calendar.get(Calendar.MONTH) + 1);
+    ebdTimestamp.append(calendar.get(Calendar.YEAR));
+    ebdTimestamp.append('_');
+    appendTwoDigits(ebdTimestamp, calendar.get(Calendar.HOUR_OF_DAY));
+    appendTwoDigits(ebdTimestamp, calendar.get(Calendar.MINUTE));
+    appendTwoDigits(ebdTimestamp, calendar.get(Calendar.SECOND));
+    return ebdTimestamp.toString();
+  }
+
+  /**
+   * Appends the specified value to the specified buffer as two digits, with a leading zero if
+   * needed.
+   *
+   * @param buffer buffer to append to
+   * @param value value to append (0 to 99)
+   */
+  private static void appendTwoDigits(StringBuffer buffer, int value) {
+    if (value < 10) {
+      buffer.append('0');
+    }
+    buffer.append(value);
+  }
+}
@@ -0,0 +1,198 @@
+package com.hms_networks.sc.cumulocity.data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Table of the tags which have been aggregated, which assigns each tag name a dense index (0, 1, 2
+ * and so on), so that the aggregation state of the tags can be stored in parallel primitive arrays
+ * (see {@link CConnectorAggregationTable}) instead of a map of objects per tag.
+ *
+ * <p>The tag name of each index is split into its child device, fragment and series names once,
+ * when the index is assigned. The names are shared through a string table, so that a fragment or
+ * child device name used by many tags is only held once. The unit of each tag is also held, and is
+ * only unquoted again when it changes. Indexes are never released, so the size of the table is
+ * bounded by the number of distinct tag names.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 1.5.0
+ */
+public class CConnectorTagTable {
+
+  /** The number of tags the table is allocated for when it is created. */
+  private static final int INITIAL_TAG_COUNT = 64;
+
+  /** The quote character which may wrap a tag unit. */
+  private static final char UNIT_QUOTE_CHAR = '"';
+
+  /** Map of tag name to the index of the tag. */
+  private final Map tagIndexes = new HashMap(); // Map<String, Integer>
+
+  /** Map of each name held by the table to its shared instance. */
+  private final Map sharedNames = new HashMap(); // Map<String, String>
+
+  /** The child device name of each tag, or null if the tag belongs to the parent device. */
+  private String[] childDevices = new String[INITIAL_TAG_COUNT];
+
+  /** The fragment name of each tag. */
+  private String[] fragments = new String[INITIAL_TAG_COUNT];
+
+  /** The series name of each tag. */
+  private String[] series = new String[INITIAL_TAG_COUNT];
+
+  /** The unit of each tag, as read from the historical log. */
+  private String[] rawUnits = new String[INITIAL_TAG_COUNT];
+
+  /** The unit of each tag, without wrapping quotes. */
+  private String[] units = new String[INITIAL_TAG_COUNT];
+
+  /** The number of tags in the table. */
+  private int tagCount = 0;
+
+  /**
+   * Gets the index of the specified tag, assigning the next index if the tag is not in the table
+   * yet, and updates the unit of the tag if it has changed.
+   *
+   * @param tagName name of the tag
+   * @param rawUnit unit of the tag, as read from the historical log (may be wrapped in quotes)
+   * @return index of the tag
+   */
+  public synchronized int getIndex(String tagName, String rawUnit) {
+    int tagIndex;
+    Integer tagIndexObject = (Integer) tagIndexes.get(tagName);
+    if (tagIndexObject != null) {
+      tagIndex = tagIndexObject.intValue();
+    } else {
+      tagIndex = addTag(tagName);
+    }
+
+    if (!rawUnit.equals(rawUnits[tagIndex])) {
+      rawUnits[tagIndex] = rawUnit;
+      units[tagIndex] = getSharedName(getUnquotedUnit(rawUnit));
+    }
+    return tagIndex;
+  }
+
+  /**
+   * Adds the specified tag to the table with the next index, and splits its name.
+   *
+   * @param tagName name of the tag
+   * @return index of the tag
+   */
+  private int addTag(String tagName) {
+    if (tagCount == fragments.length) {
+      int grownTagCount = tagCount * 2;
+      childDevices = grow(childDevices, grownTagCount);
+      fragments = grow(fragments, grownTagCount);
+      series = grow(series, grownTagCount);
+      rawUnits = grow(rawUnits, grownTagCount);
+      units = grow(units, grownTagCount);
+    }
+
+    int tagIndex = tagCount++;
+    CConnectorTagName splitTagName = new CConnectorTagName(tagName);
+    childDevices[tagIndex] = getSharedName(splitTagName.getChildDevice());
+    fragments[tagIndex] = getSharedName(splitTagName.getFragment());
+    series[tagIndex] = getSharedName(splitTagName.getSeries());
+    tagIndexes.put(tagName, new Integer(tagIndex));
+    return tagIndex;
+  }
+
+  /**
+   * Gets the shared instance of the specified name, adding it to the string table if required.
+   *
+   * @param name name to get the shared instance of (may be null)
+   * @return shared instance of the name, or null if the name is null
+   */
+  private String getSharedName(String name) {
+    if (name == null) {
+      return null;
+    }
+    String sharedName = (String) sharedNames.get(name);
+    if (sharedName == null) {
+      sharedName = name;
+      sharedNames.put(name, sharedName);
+    }
+    return sharedName;
+  }
+
+  /**
+   * Gets a copy of the specified array, with the specified length.
+   *
+   * @param array array to copy
+   * @param length length of the copy
+   * @return copy of the array
+   */
+  private static String[] grow(String[] array, int length) {
+    String[] grownArray = new String[length];
+    System.arraycopy(array, 0, grownArray, 0, array.length);
+    return grownArray;
+  }
+
+  /**
+   * Gets the specified tag unit, without the wrapping quotes (if present).
+   *
+   * @param unit tag unit to unquote
+   * @return tag unit, without wrapping quotes
+   */
+  public static String getUnquotedUnit(String unit) {
+    final int firstCharIndex = 0;
+    final int secondCharIndex = 1;
+    final int lastCharIndex = unit.length() - 1;
+    if (lastCharIndex > firstCharIndex
+        && unit.charAt(firstCharIndex) == UNIT_QUOTE_CHAR
+        && unit.charAt(lastCharIndex) == UNIT_QUOTE_CHAR) {
+      unit = unit.substring(secondCharIndex, lastCharIndex);
+    }
+    return unit;
+  }
+
+  /**
+   * Gets the number of tags in the table. The indexes of the tags are 0 to one less than this.
+   *
+   * @return number of tags
+   */
+  public synchronized int getTagCount() {
+    return tagCount;
+  }
+
+  /**
+   * Gets the child device name of the specified tag.
+   *
+   * @param tagIndex index of the tag
+   * @return child device name, or null if the tag belongs to the parent device
+   */
+  public synchronized String getChildDevice(int tagIndex) {
+    return childDevices[tagIndex];
+  }
+
+  /**
+   * Gets the fragment name of the specified tag.
+   *
+   * @param tagIndex index of the tag
+   * @return fragment name
+   */
+  public synchronized String getFragment(int tagIndex) {
+    return fragments[tagIndex];
+  }
+
+  /**
+   * Gets the series name of the specified tag.
+   *
+   * @param tagIndex index of the tag
+   * @return series name
+   */
+  public synchronized String getSeries(int tagIndex) {
+    return series[tagIndex];
+  }
+
+  /**
+   * Gets the unit of the specified tag, without wrapping quotes.
+   *
+   * @param tagIndex index of the tag
+   * @return unit
+   */
+  public synchronized String getUnit(int tagIndex) {
+    return units[tagIndex];
+  }
+}
@@ -9,10 +9,12 @@ import com.hms_networks.sc.cumulocity.CConnectorMain;
 import com.hms_networks.sc.cumulocity.api.CConnectorMqttMgr;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * This class is responsible for reading child object update files and publishing the file contents
- * when triggered.
+ * when triggered. Updates are published by a single long-lived worker thread, and triggers which
+ * arrive while an update is pending or running are coalesced into one pass.
  *
  * @since 1.5.0
  * @version 1.0.0
@@ -28,9 +30,39 @@ public class InventoryUpdateManager {
   /** Unique file name for parent device inventory object updates. */
   private static final String UNIQUE_PARENT_INVENTORY_FILE_NAME = "parent";
 
-  /** Single thread for checking and publishing payloads. */
+  /** Name of the inventory update worker thread. */
+  private static final String INVENTORY_UPDATE_THREAD_NAME = "InventoryUpdateWorker";
+
+  /** Deadline value indicating that a pass is not limited by a time budget. */
+  private static final long NO_DEADLINE = -1;
+
+  /** Lock object guarding the worker thread state and used to signal the worker thread. */
+  private static final Object WORKER_LOCK = new Object();
+
+  /** Single long-lived worker thread for checking and publishing payloads. */
   private static Thread inventoryUpdateThread;
 
+  /** Boolean flag indicating if the worker thread should keep running. */
+  private static boolean workerRunning = false;
+
+  /** Boolean flag indicating if a full pass has been triggered and not yet started. */
+  private static boolean fullPassRequested = false;
+
+  /** Boolean flag indicating if a pass ran out of time and has remaining files to process. */
+  private static boolean continuationPending = false;
+
+  /** Name of the last file processed by a pass which ran out of time, or {@code null}. */
+  private static String resumeAfterFileName = null;
+
+  /** Start time (in milliseconds since epoch) of the most recent pass. */
+  private static long lastPassStartMillis = 0;
+
+  /**
+   * Update counts accumulated across a full pass and its continuations: number of updates
+   * performed without error, number of errors and/or non updates.
+   */
+  private static int[] passChainUpdateCount = {0, 0};
+
   /**
    * Helper to get the child name from the file name. Files must have the exact child name and the
    * .json extension. This method does not verify that the child was registered in the inventory.
@@ -58,6 +90,25 @@ public class InventoryUpdateManager {
    */
   public static void updateDeviceInventoryObjectFromFile(File targetFile)
       throws IOException, EWException, IllegalStateException {
+    final boolean skipUnchangedParent = false;
+    updateDeviceInventoryObjectFromFile(targetFile, skipUnchangedParent);
+  }
+
+  /**
+   * Method to update the device inventory object with the contents of the file. See {@link
+   * #updateDeviceInventoryObjectFromFile(File)}.
+   *
+   * @param targetFile FILE object that was read from the directory
+   * @param skipUnchangedParent boolean to indicate if a parent inventory object update should be
+   *     skipped when the same contents were already published successfully
+   * @throws IOException for failures reading the file
+   * @throws EWException for MQTT failures
+   * @throws IllegalStateException if the MQTT client is not connected
+   * @since 1.5.0
+   */
+  private static void updateDeviceInventoryObjectFromFile(
+      File targetFile, boolean skipUnchangedParent)
+      throws IOException, EWException, IllegalStateException {
 
     CConnectorMqttMgr mqttMgr = CConnectorMain.getMqttMgr();
     // check the MQTT connection status, return if not connected
@@ -71,8 +122,12 @@ public class InventoryUpdateManager {
 
     // Check for parent inventory object update
     if (childName.equals(UNIQUE_PARENT_INVENTORY_FILE_NAME)) {
-      mqttMgr.updateParentDeviceInventoryObject(fileContents);
-      Logger.LOG_INFO("Publishing parent inventory object update.");
+      if (skipUnchangedParent) {
+        mqttMgr.updateParentDeviceInventoryObjectIfChanged(fileContents);
+      } else {
+        mqttMgr.updateParentDeviceInventoryObject(fileContents);
+        Logger.LOG_INFO("Publishing parent inventory object update.");
+      }
     } else {
 
       // not parent, but child - verify before updating
@@ -88,26 +143,68 @@ public class InventoryUpdateManager {
    * extension. Exceptions are caught and logged.
    *
    * @param onlyParentFile boolean to indicate if only the parent file should be updated. If {@code
-   *     true}, files that do not match the parent file name will be skipped.
+   *     true}, files that do not match the parent file name will be skipped, and the parent file is
+   *     only published if it changed since it was last published successfully.
    * @return integer array of length 2: number of updates performed without error, number of errors
    *     and/or non updates
    * @since 1.0.0
    */
   public static int[] loadInventoryUpdatePayloads(boolean onlyParentFile) {
+    // count the number of successful updates
+    int updateCount[] = {0, 0};
+    final String startAfterFileName = null;
+    loadInventoryUpdatePayloads(onlyParentFile, startAfterFileName, NO_DEADLINE, updateCount);
+    return updateCount;
+  }
+
+  /**
+   * Method to load inventory update payload files from the designated directory, in file name
+   * order, starting after the specified file name. Processing stops once the specified deadline has
+   * passed, and the name of the last processed file is returned so that a later pass can resume
+   * from that point.
+   *
+   * @param onlyParentFile boolean to indicate if only the parent file should be updated. If {@code
+   *     true}, files that do not match the parent file name will be skipped.
+   * @param startAfterFileName name of the last file processed by a previous pass, or {@code null}
+   *     to start from the first file
+   * @param deadlineMillis time (in milliseconds since epoch) after which no further files are
+   *     processed, or {@link #NO_DEADLINE}
+   * @param updateCount integer array of length 2 which is incremented with the number of updates
+   *     performed without error, and the number of errors and/or non updates
+   * @return name of the last processed file if the deadline was reached before all files were
+   *     processed, otherwise {@code null}
+   * @since 1.5.0
+   */
+  private static String loadInventoryUpdatePayloads(
+      boolean onlyParentFile, String startAfterFileName, long deadlineMillis, int[] updateCount) {
     // Load all configuration files from the triggered payloads folder
     File folder = new File(INVENTORY_UPDATE_PAYLOAD_FOLDER);
     File[] files = folder.listFiles();
 
-    // count the number of successful updates
-    int updateCount[] = {0, 0};
-
     // check for special case of no files found
     if (files == null || files.length == 0) {
       Logger.LOG_INFO("No inventory update files found.");
-      return updateCount;
+      return null;
     }
 
+    // Sort files by name so that a deferred pass can resume where the previous pass stopped
+    Arrays.sort(files);
+
+    int processedCount = 0;
     for (int i = 0; i < files.length; i++) {
+      // Skip files handled by a previous pass
+      if (startAfterFileName != null && files[i].getName().compareTo(startAfterFileName) <= 0) {
+        continue;
+      }
+
+      // Defer remaining files if the pass has used its time budget (always make some progress)
+      if (deadlineMillis != NO_DEADLINE
+          && processedCount > 0
+          && System.currentTimeMillis() > deadlineMillis) {
+        return files[i - 1].getName();
+      }
+      processedCount++;
+
       // Skip directories and non-json files
       if (files[i].isDirectory()
           || !files[i].getName().endsWith(INVENTORY_UPDATE_PAYLOAD_FILE_EXT)) {
@@ -122,7 +219,9 @@ public class InventoryUpdateManager {
           if (files[i]
               .getName()
               .equals(UNIQUE_PARENT_INVENTORY_FILE_NAME + INVENTORY_UPDATE_PAYLOAD_FILE_EXT)) {
-            updateDeviceInventoryObjectFromFile(files[i]);
+            // Parent only updates are sent on connect, skip if unchanged since last sent
+            final boolean skipUnchangedParent = true;
+            updateDeviceInventoryObjectFromFile(files[i], skipUnchangedParent);
             updateCount[0]++;
           } else {
             // was not the parent, skip
@@ -147,7 +246,7 @@ public class InventoryUpdateManager {
         Logger.LOG_EXCEPTION(e);
       }
     }
-    return updateCount;
+    return null;
   }
 
   /*
@@ -166,72 +265,165 @@ public class InventoryUpdateManager {
   }
 
   /**
-   * Shutdown the inventory update thread, if running.
+   * Shutdown the inventory update worker thread, if running. Pending triggers are discarded.
    *
    * @since 1.0.0
    */
   public static void shutdown() {
-    if (inventoryUpdateThread != null) {
-      if (inventoryUpdateThread.isAlive()) {
-        inventoryUpdateThread.interrupt();
-        try {
-          final int waitMillis = 1000;
-          inventoryUpdateThread.join(waitMillis);
-        } catch (InterruptedException e) {
-          Logger.LOG_CRITICAL(
-              "Exception waiting for inventory update thread to stop: " + e.getMessage());
-          Logger.LOG_EXCEPTION(e);
-        }
+    Thread workerThread;
+    synchronized (WORKER_LOCK) {
+      workerRunning = false;
+      fullPassRequested = false;
+      continuationPending = false;
+      WORKER_LOCK.notifyAll();
+      workerThread = inventoryUpdateThread;
+      inventoryUpdateThread = null;
+    }
+
+    if (workerThread != null && workerThread.isAlive()) {
+      workerThread.interrupt();
+      try {
+        final int waitMillis = 1000;
+        workerThread.join(waitMillis);
+      } catch (InterruptedException e) {
+        Logger.LOG_CRITICAL(
+            "Exception waiting for inventory update thread to stop: " + e.getMessage());
+        Logger.LOG_EXCEPTION(e);
       }
     }
   }
 
   /**
-   * Run updates in a new thread. This ensures that the caller is not blocked.
+   * Request an inventory update pass. The caller is never blocked. Updates are performed by a
+   * single long-lived worker thread, which is started on the first request. Requests received while
+   * a pass is pending or running are coalesced into a single follow-up pass, so a trigger tag that
+   * toggles repeatedly does not cause repeated or overlapping uploads.
    *
    * @since 1.0.0
    */
   public static void runUpdate() {
+    synchronized (WORKER_LOCK) {
+      fullPassRequested = true;
+      if (inventoryUpdateThread == null || !inventoryUpdateThread.isAlive()) {
+        workerRunning = true;
+        inventoryUpdateThread =
+            new Thread(
+                new Runnable() {
+                  public void run() {
+                    runWorker();
+                  }
+                },
+                INVENTORY_UPDATE_THREAD_NAME);
+        inventoryUpdateThread.start();
+      }
+      WORKER_LOCK.notifyAll();
+    }
+  }
+
+  /**
+   * Main loop of the inventory update worker thread. Waits for a full pass request or a deferred
+   * continuation, enforces the configured minimum spacing between passes, then runs a single pass
+   * bounded by the configured time budget.
+   */
+  private static void runWorker() {
+    try {
+      while (true) {
+        String startAfterFileName;
+        synchronized (WORKER_LOCK) {
+          // Wait for work
+          while (workerRunning && !fullPassRequested && !continuationPending) {
+            WORKER_LOCK.wait();
+          }
+
+          // Enforce minimum spacing between passes, coalescing any triggers received meanwhile
+          long waitMillis =
+              (lastPassStartMillis + getMinIntervalMillis()) - System.currentTimeMillis();
+          while (workerRunning && waitMillis > 0) {
+            WORKER_LOCK.wait(waitMillis);
+            waitMillis =
+                (lastPassStartMillis + getMinIntervalMillis()) - System.currentTimeMillis();
+          }
+          if (!workerRunning) {
+            break;
+          }
+
+          // A new trigger restarts from the first file, since file contents may have changed
+          if (fullPassRequested) {
+            fullPassRequested = false;
+            resumeAfterFileName = null;
+            passChainUpdateCount = new int[] {0, 0};
+          }
+          continuationPending = false;
+          startAfterFileName = resumeAfterFileName;
+          lastPassStartMillis = System.currentTimeMillis();
+        }
+
+        final boolean onlyParentFile = false;
+        long passBudgetMillis = getPassBudgetMillis();
+        long deadlineMillis =
+            passBudgetMillis > 0 ? lastPassStartMillis + passBudgetMillis : NO_DEADLINE;
+        String lastProcessedFileName =
+            loadInventoryUpdatePayloads(
+                onlyParentFile, startAfterFileName, deadlineMillis, passChainUpdateCount);
 
-    // check if thread is still running
-    if (inventoryUpdateThread != null) {
-      if (inventoryUpdateThread.isAlive()) {
-        inventoryUpdateThread.interrupt();
-        try {
-          final int waitMillis = 1000;
-          inventoryUpdateThread.join(waitMillis);
-        } catch (InterruptedException e) {
-          Logger.LOG_CRITICAL(
-              "Exception waiting for inventory update thread to stop: " + e.getMessage());
-          Logger.LOG_EXCEPTION(e);
+        synchronized (WORKER_LOCK) {
+          if (lastProcessedFileName != null && !fullPassRequested) {
+            // Pass ran out of time, continue with the remaining files in a follow-up pass
+            resumeAfterFileName = lastProcessedFileName;
+            continuationPending = true;
+            Logger.LOG_INFO(
+                "Inventory update pass time budget reached after "
+                    + lastProcessedFileName
+                    + ". Remaining files will be uploaded in a follow-up pass.");
+            continue;
+          }
+          resumeAfterFileName = null;
         }
+        logPassResults(passChainUpdateCount);
       }
+    } catch (InterruptedException e) {
+      Logger.LOG_DEBUG("Inventory update thread was interrupted and will stop.");
+    }
+  }
+
+  /**
+   * Logs the results of a completed inventory update pass, and resets the trigger tag if at least
+   * one update was sent without error.
+   *
+   * @param updatesCount integer array of length 2: number of updates performed without error,
+   *     number of errors and/or non updates
+   */
+  private static void logPassResults(int[] updatesCount) {
+    // check for no files at all, log message
+    if (updatesCount[0] == 0 && updatesCount[1] == 0) {
+      Logger.LOG_INFO("No inventory update files were found.");
+      return;
     }
+    // log the number of updates and errors
+    if (updatesCount[0] > 0) {
+      resetTriggerTag();
+      Logger.LOG_INFO(
+          Integer.toString(updatesCount[0]) + " inventory update file(s) uploaded without error.");
+    }
+    Logger.LOG_INFO(Integer.toString(updatesCount[1]) + " inventory update file(s) not uploaded.");
+  }
+
+  /**
+   * Gets the configured minimum interval (in milliseconds) between inventory update passes.
+   *
+   * @return minimum interval between passes (in milliseconds)
+   */
+  private static long getMinIntervalMillis() {
+    return CConnectorMain.getConnectorConfig().getInventoryUpdateMinIntervalMillis();
+  }
 
-    inventoryUpdateThread =
-        new Thread(
-            new Runnable() {
-              public void run() {
-                final boolean onlyParentFile = false;
-                int[] updatesCount = loadInventoryUpdatePayloads(onlyParentFile);
-                // check for no files at all, log message
-                if (updatesCount[0] == 0 && updatesCount[1] == 0) {
-                  Logger.LOG_INFO("No inventory update files were found.");
-                  return;
-                }
-                // log the number of updates and errors
-                if (updatesCount[0] > 0) {
-                  resetTriggerTag();
-                  Logger.LOG_INFO(
-                      Integer.toString(updatesCount[0])
-                          + " inventory update file(s) uploaded without error.");
-                }
-                Logger.LOG_INFO(
-                    Integer.toString(updatesCount[1]) + " inventory update file(s) not uploaded.");
-              }
-            });
-
-    inventoryUpdateThread.start();
+  /**
+   * Gets the configured time budget (in milliseconds) of a single inventory update pass.
+   *
+   * @return time budget of a single pass (in milliseconds)
+   */
+  private static long getPassBudgetMillis() {
+    return CConnectorMain.getConnectorConfig().getInventoryUpdatePassBudgetMillis();
   }
 
   /**